@@ -0,0 +1,69 @@
+package com.scmspain.benchmarks;
+
+import com.scmspain.MsFcTechTestApplication;
+import com.scmspain.entities.Tweet;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixtures shared by the benchmarks
+ */
+final class BenchmarkData {
+    private static final String INSERT_TWEET = "INSERT INTO tweet (id, publisher, tweet, pre2015migration_status, discarded, published_timestamp) VALUES (?, ?, ?, 0, false, ?)";
+    private static final int INSERT_BATCH_SIZE = 10000;
+    private static final long EPOCH = 1490000000000L;
+
+    private BenchmarkData() {
+    }
+
+    static String text(final int length) {
+        final StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append("Breaking the law ");
+        }
+        return text.substring(0, length);
+    }
+
+    static Tweet tweet(final long id) {
+        final Tweet tweet = new Tweet();
+        tweet.setId(id);
+        tweet.setPublisher("Prospect " + (id % 100));
+        tweet.setTweet(text(100));
+        tweet.setPublishedTimestamp(new Timestamp(EPOCH + id * 1000));
+        return tweet;
+    }
+
+    /**
+     * Start the application without web container on its embedded H2 database
+     */
+    static ConfigurableApplicationContext startApplication(final String... properties) {
+        return new SpringApplicationBuilder(MsFcTechTestApplication.class)
+                .web(false)
+                .properties(properties)
+                .run();
+    }
+
+    /**
+     * Insert published tweets straight through JDBC, ids 1 to rows
+     */
+    static void insertTweets(final DataSource dataSource, final int rows) {
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        final List<Object[]> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+
+        for (long id = 1; id <= rows; id++) {
+            final Tweet tweet = tweet(id);
+            batch.add(new Object[]{tweet.getId(), tweet.getPublisher(), tweet.getTweet(), tweet.getPublishedTimestamp()});
+
+            if (batch.size() == INSERT_BATCH_SIZE || id == rows) {
+                jdbcTemplate.batchUpdate(INSERT_TWEET, batch);
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.scmspain.benchmarks;
+
+import com.scmspain.dtos.TweetPage;
+import com.scmspain.services.TweetService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.sql.DataSource;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the connection pool: 16 threads listing the first page straight from H2, with the timeline cache
+ * disabled, against pools smaller and larger than the thread count. While the pool has a connection per thread the
+ * percentiles stay flat; below that the tail grows with the time spent waiting in the pool, which is also visible in
+ * the latency.pool.primary.acquire metric
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class ConnectionPoolBenchmark {
+    private static final int ROWS = 10000;
+
+    @Param({"2", "4", "8", "16", "32"})
+    private int poolSize;
+    private ConfigurableApplicationContext context;
+    private TweetService tweetService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkData.startApplication(
+                "tweet.timeline-cache.capacity=0",
+                "tweet.pool.max-size=" + poolSize,
+                "tweet.pool.connection-timeout-millis=30000");
+        BenchmarkData.insertTweets(context.getBean(DataSource.class), ROWS);
+        tweetService = context.getBean(TweetService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public TweetPage listPublishedTweets() {
+        return tweetService.listPublishedTweets(null, 50);
+    }
+}
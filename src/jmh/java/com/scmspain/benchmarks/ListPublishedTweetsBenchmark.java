@@ -0,0 +1,46 @@
+package com.scmspain.benchmarks;
+
+import com.scmspain.dtos.TweetDTO;
+import com.scmspain.services.TweetService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TweetService.listAllPublishedTweets against an H2 table of the given size, with the timeline cache disabled so
+ * every call goes to the repository
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ListPublishedTweetsBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    private int rows;
+    private ConfigurableApplicationContext context;
+    private TweetService tweetService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkData.startApplication(
+                "tweet.timeline-cache.capacity=0",
+                "tweet.list.max-results=" + rows);
+        BenchmarkData.insertTweets(context.getBean(DataSource.class), rows);
+        tweetService = context.getBean(TweetService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<TweetDTO> listAllPublishedTweets() {
+        return tweetService.listAllPublishedTweets();
+    }
+}
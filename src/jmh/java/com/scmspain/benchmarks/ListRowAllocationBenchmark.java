@@ -0,0 +1,75 @@
+package com.scmspain.benchmarks;
+
+import com.scmspain.converters.TweetConverter;
+import com.scmspain.dtos.TweetDTO;
+import com.scmspain.entities.Tweet;
+import com.scmspain.services.TweetService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Heap allocated to list published tweets by loading whole entities, as the list queries used to, compared with the
+ * projection queries of TweetService. Run with the gc profiler and divide gc.alloc.rate.norm by rows to get the
+ * bytes allocated per listed row
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ListRowAllocationBenchmark {
+    private static final String LIST_PUBLISHED_ENTITIES = "SELECT t FROM Tweet AS t WHERE discarded = false AND pre2015MigrationStatus <> 99 ORDER BY publishedTimestamp DESC, id DESC";
+
+    @Param({"1000", "100000"})
+    private int rows;
+    private ConfigurableApplicationContext context;
+    private EntityManagerFactory entityManagerFactory;
+    private TweetService tweetService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkData.startApplication(
+                "tweet.timeline-cache.capacity=0",
+                "tweet.list.max-results=" + rows);
+        BenchmarkData.insertTweets(context.getBean(DataSource.class), rows);
+        entityManagerFactory = context.getBean(EntityManagerFactory.class);
+        tweetService = context.getBean(TweetService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<TweetDTO> entities() {
+        final EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            final List<TweetDTO> tweets = entityManager.createQuery(LIST_PUBLISHED_ENTITIES, Tweet.class)
+                    .setMaxResults(rows + 1)
+                    .getResultList()
+                    .stream()
+                    .limit(rows)
+                    .map(TweetConverter::toDTO)
+                    .collect(Collectors.toList());
+            entityManager.getTransaction().commit();
+            return tweets;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @Benchmark
+    public List<TweetDTO> projections() {
+        return tweetService.listAllPublishedTweets();
+    }
+}
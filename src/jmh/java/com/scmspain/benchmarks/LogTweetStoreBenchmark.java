@@ -0,0 +1,71 @@
+package com.scmspain.benchmarks;
+
+import com.scmspain.entities.Tweet;
+import com.scmspain.store.LogTweetStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Appends and first-page reads of the memory-mapped log store, to compare with the database behind the JPA store
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogTweetStoreBenchmark {
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    @Param({"false", "true"})
+    private boolean forceWrites;
+    private Path directory;
+    private LogTweetStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("tweet-log");
+        store = new LogTweetStore(directory, SEGMENT_SIZE, forceWrites);
+
+        final List<Tweet> tweets = new ArrayList<>();
+        for (long id = 1; id <= 10000; id++) {
+            tweets.add(tweet());
+        }
+        store.save(tweets);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Tweet append() {
+        final Tweet tweet = tweet();
+        store.save(Collections.singletonList(tweet));
+        return tweet;
+    }
+
+    @Benchmark
+    public List<Object[]> listFirstPage() {
+        return store.listPublished(null, 50);
+    }
+
+    private static Tweet tweet() {
+        final Tweet tweet = BenchmarkData.tweet(0L);
+        tweet.setId(null);
+        return tweet;
+    }
+}
@@ -0,0 +1,35 @@
+package com.scmspain.benchmarks;
+
+import com.scmspain.converters.TweetConverter;
+import com.scmspain.dtos.TweetDTO;
+import com.scmspain.entities.Tweet;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TweetConverterBenchmark {
+    private Tweet tweet;
+    private TweetDTO tweetDTO;
+
+    @Setup
+    public void setUp() {
+        tweet = BenchmarkData.tweet(1L);
+        tweetDTO = TweetConverter.toDTO(tweet);
+    }
+
+    @Benchmark
+    public TweetDTO toDTO() {
+        return TweetConverter.toDTO(tweet);
+    }
+
+    @Benchmark
+    public Tweet toEntity() {
+        return TweetConverter.toEntity(tweetDTO);
+    }
+}
@@ -0,0 +1,61 @@
+package com.scmspain.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scmspain.cache.TimelineCache;
+import com.scmspain.converters.TweetConverter;
+import com.scmspain.dtos.TweetDTO;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * JSON serialization of the tweet list as done by the message converter of GET /tweet, compared with copying the
+ * page the timeline cache keeps already encoded
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TweetListSerializationBenchmark {
+    @Param({"1000", "100000"})
+    private int size;
+    private ObjectMapper objectMapper;
+    private List<TweetDTO> tweets;
+    private TimelineCache timelineCache;
+    private ByteArrayOutputStream output;
+
+    @Setup
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        tweets = LongStream.rangeClosed(1, size)
+                .mapToObj(BenchmarkData::tweet)
+                .map(TweetConverter::toDTO)
+                .collect(Collectors.toList());
+        timelineCache = new TimelineCache(size, objectMapper);
+        timelineCache.warmUp(() -> LongStream.rangeClosed(1, size)
+                .map(id -> size + 1 - id)
+                .mapToObj(BenchmarkData::tweet)
+                .collect(Collectors.toList()));
+        timelineCache.getEncoded(size);
+        output = new ByteArrayOutputStream();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return objectMapper.writeValueAsBytes(tweets);
+    }
+
+    @Benchmark
+    public int copyEncoded() throws Exception {
+        output.reset();
+        output.write(timelineCache.getEncoded(size).getJson());
+        return output.size();
+    }
+}
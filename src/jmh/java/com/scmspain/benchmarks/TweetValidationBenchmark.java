@@ -0,0 +1,46 @@
+package com.scmspain.benchmarks;
+
+import com.scmspain.services.TweetService;
+import com.scmspain.validators.TweetLengthValidator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Length validation done by TweetService.publishTweet, against the former regex based check
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TweetValidationBenchmark {
+    @Param({"plain", "links", "tooLong"})
+    private String kind;
+    private String tweet;
+
+    @Setup
+    public void setUp() {
+        switch (kind) {
+            case "plain":
+                tweet = "I am Guybrush Threepwood, mighty pirate.";
+                break;
+            case "links":
+                tweet = "We are Schibsted Spain (look at our home page http://www.schibsted.es/ ), we own Vibbo, InfoJobs, fotocasa, coches.net and milanuncios. Welcome! https://www.fotocasa.es/ ";
+                break;
+            default:
+                tweet = BenchmarkData.text(TweetService.TWEET_MAX_LENGTH_WITH_LINKS);
+        }
+    }
+
+    @Benchmark
+    public boolean validator() {
+        return TweetLengthValidator.exceedsMaxLength(tweet, TweetService.TWEET_MAX_LENGTH);
+    }
+
+    @Benchmark
+    public boolean regex() {
+        return tweet.replaceAll(TweetService.LINK_PATTERN, "").length() > TweetService.TWEET_MAX_LENGTH;
+    }
+}
@@ -1,5 +1,6 @@
 package com.scmspain;
 
+import com.scmspain.configuration.DataSourceConfiguration;
 import com.scmspain.configuration.InfrastructureConfiguration;
 import com.scmspain.configuration.TweetConfiguration;
 import org.springframework.boot.SpringApplication;
@@ -10,7 +11,7 @@ import org.springframework.context.annotation.Import;
 
 @Configuration
 @EnableAutoConfiguration
-@Import({TweetConfiguration.class, InfrastructureConfiguration.class})
+@Import({TweetConfiguration.class, InfrastructureConfiguration.class, DataSourceConfiguration.class})
 public class MsFcTechTestApplication {
     public static void main(String[] args) {
         SpringApplication.run(MsFcTechTestApplication.class, args);
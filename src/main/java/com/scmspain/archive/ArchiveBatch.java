@@ -0,0 +1,36 @@
+package com.scmspain.archive;
+
+import java.time.YearMonth;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Outcome of one archive step: either the ids moved to the archive, or the partitions that must be created before
+ * the step can move anything
+ */
+public class ArchiveBatch {
+    private final List<Long> movedIds;
+    private final Set<YearMonth> missingPartitions;
+
+    private ArchiveBatch(List<Long> movedIds, Set<YearMonth> missingPartitions) {
+        this.movedIds = movedIds;
+        this.missingPartitions = missingPartitions;
+    }
+
+    static ArchiveBatch moved(final List<Long> movedIds) {
+        return new ArchiveBatch(movedIds, Collections.emptySet());
+    }
+
+    static ArchiveBatch missing(final Set<YearMonth> missingPartitions) {
+        return new ArchiveBatch(Collections.emptyList(), missingPartitions);
+    }
+
+    public List<Long> getMovedIds() {
+        return movedIds;
+    }
+
+    public Set<YearMonth> getMissingPartitions() {
+        return missingPartitions;
+    }
+}
@@ -0,0 +1,229 @@
+package com.scmspain.archive;
+
+import com.scmspain.dtos.TweetCursor;
+import com.scmspain.entities.Tweet;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.Query;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Monthly archive tables for tweets moved out of the hot tweet table.
+ * <p>
+ * Discarded tweets go to the table of the month they were discarded in and old published tweets to the table of the
+ * month they were published in, so the discarded rows of two partitions never overlap in time and the discarded list
+ * can be read partition after partition. Tables are named tweet_archive_yyyyMM and are created when first needed.
+ * Every method must run inside a transaction.
+ */
+public class TweetArchive {
+    public static final String TABLE_PREFIX = "tweet_archive_";
+    public static final String LOCK_DISCARDED_TO_ARCHIVE = "SELECT t.id, t.discardedTimestamp FROM Tweet AS t WHERE t.discarded = true AND t.discardedTimestamp < :before ORDER BY t.discardedTimestamp, t.id";
+    public static final String LOCK_PUBLISHED_TO_ARCHIVE = "SELECT t.id, t.publishedTimestamp FROM Tweet AS t WHERE t.discarded = false AND t.publishedTimestamp < :before ORDER BY t.publishedTimestamp, t.id";
+
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final Pattern TABLE_NAME = Pattern.compile(TABLE_PREFIX + "(\\d{6})", Pattern.CASE_INSENSITIVE);
+    private static final String COLUMNS = "id, publisher, tweet, pre2015migration_status, discarded, published_timestamp, discarded_timestamp";
+    private static final String LIST_TABLES = "SELECT table_name FROM information_schema.tables WHERE UPPER(table_name) LIKE 'TWEET_ARCHIVE_%'";
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS %s (id BIGINT NOT NULL PRIMARY KEY, publisher VARCHAR(255) NOT NULL, tweet VARCHAR(500) NOT NULL, pre2015migration_status BIGINT, discarded BOOLEAN NOT NULL, published_timestamp TIMESTAMP, discarded_timestamp TIMESTAMP)";
+    private static final String CREATE_DISCARDED_INDEX = "CREATE INDEX IF NOT EXISTS %1$s_discarded ON %1$s (discarded_timestamp DESC, id DESC)";
+    private static final String LIST_DISCARDED = "SELECT id, publisher, tweet, pre2015migration_status, discarded_timestamp FROM %s WHERE discarded = true AND pre2015migration_status <> 99 ORDER BY discarded_timestamp DESC, id DESC";
+    private static final String LIST_DISCARDED_AFTER = "SELECT id, publisher, tweet, pre2015migration_status, discarded_timestamp FROM %s WHERE discarded = true AND pre2015migration_status <> 99 AND (discarded_timestamp < :timestamp OR (discarded_timestamp = :timestamp AND id < :id)) ORDER BY discarded_timestamp DESC, id DESC";
+    private static final String COPY_TWEETS = "INSERT INTO %s (" + COLUMNS + ") SELECT " + COLUMNS + " FROM tweet WHERE id IN (:ids)";
+    private static final String DELETE_TWEETS = "DELETE FROM tweet WHERE id IN (:ids)";
+    private static final String SCAN_TABLE = "SELECT " + COLUMNS + " FROM %s";
+
+    private final EntityManager entityManager;
+    private final int fetchSize;
+
+    /**
+     * @param fetchSize rows fetched per round trip when every tweet is scanned
+     */
+    public TweetArchive(EntityManager entityManager, int fetchSize) {
+        this.entityManager = entityManager;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * @return months that have an archive table, newest first
+     */
+    public List<YearMonth> partitions() {
+        final Set<YearMonth> months = new TreeSet<>(Collections.reverseOrder());
+
+        for (Object tableName : this.entityManager.createNativeQuery(LIST_TABLES).getResultList()) {
+            final Matcher matcher = TABLE_NAME.matcher(String.valueOf(tableName));
+            if (matcher.matches()) {
+                months.add(YearMonth.parse(matcher.group(1), MONTH_FORMAT));
+            }
+        }
+
+        return new ArrayList<>(months);
+    }
+
+    public void createPartition(final YearMonth month) {
+        final String table = tableName(month);
+        this.entityManager.createNativeQuery(String.format(CREATE_TABLE, table)).executeUpdate();
+        this.entityManager.createNativeQuery(String.format(CREATE_DISCARDED_INDEX, table)).executeUpdate();
+    }
+
+    /**
+     * Move discarded tweets to the archive, partitioned by the month they were discarded in
+     * @param before only tweets discarded before this time are moved
+     * @param batchSize maximum number of tweets moved
+     * @return the moved ids, or the partitions to create first
+     */
+    public ArchiveBatch archiveDiscarded(final Timestamp before, final int batchSize) {
+        return archive(LOCK_DISCARDED_TO_ARCHIVE, before, batchSize);
+    }
+
+    /**
+     * Move published tweets to the archive, partitioned by the month they were published in
+     * @param before only tweets published before this time are moved
+     * @param batchSize maximum number of tweets moved
+     * @return the moved ids, or the partitions to create first
+     */
+    public ArchiveBatch archivePublished(final Timestamp before, final int batchSize) {
+        return archive(LOCK_PUBLISHED_TO_ARCHIVE, before, batchSize);
+    }
+
+    /**
+     * List archived discarded tweets ordered by discarded timestamp, walking the partitions from the newest month
+     * @param after cursor of the last tweet already returned or null to start from the last discarded tweet
+     * @param limit maximum number of rows
+     * @return rows of id, publisher, tweet, pre2015MigrationStatus and discarded timestamp, as the list queries of TweetService
+     */
+    public List<Object[]> listDiscarded(final TweetCursor after, final int limit) {
+        final List<Object[]> rows = new ArrayList<>();
+        final YearMonth afterMonth = after == null ? null : YearMonth.from(after.getTimestamp().toLocalDateTime());
+
+        for (YearMonth month : partitions()) {
+            if (rows.size() >= limit) {
+                break;
+            }
+
+            if (afterMonth != null && month.isAfter(afterMonth)) {
+                continue;
+            }
+
+            final Query query;
+            if (after == null) {
+                query = this.entityManager.createNativeQuery(String.format(LIST_DISCARDED, tableName(month)));
+            } else {
+                query = this.entityManager.createNativeQuery(String.format(LIST_DISCARDED_AFTER, tableName(month)));
+                query.setParameter("timestamp", after.getTimestamp());
+                query.setParameter("id", after.getId());
+            }
+
+            query.setMaxResults(limit - rows.size());
+            for (Object result : query.getResultList()) {
+                rows.add(toListRow((Object[]) result));
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * Visit every tweet, of the tweet table and of every partition, in id order. A single query reads them all, so a
+     * tweet archived meanwhile is neither missed nor visited twice
+     */
+    public void scanAll(final Consumer<Tweet> consumer) {
+        final List<String> tables = new ArrayList<>();
+        tables.add("tweet");
+        partitions().forEach(month -> tables.add(tableName(month)));
+
+        final String sql = tables.stream()
+                .map(table -> String.format(SCAN_TABLE, table))
+                .collect(Collectors.joining(" UNION ALL ", "", " ORDER BY id"));
+
+        final ScrollableResults results = this.entityManager.unwrap(Session.class)
+                .createSQLQuery(sql)
+                .setReadOnly(true)
+                .setFetchSize(this.fetchSize)
+                .scroll(ScrollMode.FORWARD_ONLY);
+
+        try {
+            while (results.next()) {
+                consumer.accept(toTweet(results.get()));
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    private ArchiveBatch archive(final String lockQuery, final Timestamp before, final int batchSize) {
+        final List<Object[]> candidates = this.entityManager.createQuery(lockQuery, Object[].class)
+                .setParameter("before", before)
+                .setMaxResults(batchSize)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .getResultList();
+
+        final TreeMap<YearMonth, List<Long>> idsByMonth = new TreeMap<>();
+        final List<Long> ids = new ArrayList<>(candidates.size());
+        for (Object[] candidate : candidates) {
+            final Long id = (Long) candidate[0];
+            idsByMonth.computeIfAbsent(YearMonth.from(((Timestamp) candidate[1]).toLocalDateTime()), month -> new ArrayList<>())
+                    .add(id);
+            ids.add(id);
+        }
+
+        final Set<YearMonth> missing = new TreeSet<>(idsByMonth.keySet());
+        missing.removeAll(partitions());
+        if (!missing.isEmpty()) {
+            // DDL would commit the transaction and release the locks, so the caller creates them and tries again
+            return ArchiveBatch.missing(missing);
+        }
+
+        idsByMonth.forEach((month, monthIds) -> this.entityManager
+                .createNativeQuery(String.format(COPY_TWEETS, tableName(month)))
+                .setParameter("ids", monthIds)
+                .executeUpdate());
+
+        if (!ids.isEmpty()) {
+            this.entityManager.createNativeQuery(DELETE_TWEETS)
+                    .setParameter("ids", ids)
+                    .executeUpdate();
+        }
+
+        return ArchiveBatch.moved(ids);
+    }
+
+    /**
+     * Native queries may return other numeric types than the entity columns, depending on the driver
+     */
+    private static Object[] toListRow(final Object[] row) {
+        return new Object[]{((Number) row[0]).longValue(), row[1], row[2],
+                row[3] == null ? null : ((Number) row[3]).longValue(), row[4]};
+    }
+
+    private static Tweet toTweet(final Object[] row) {
+        final Tweet tweet = new Tweet();
+        tweet.setId(((Number) row[0]).longValue());
+        tweet.setPublisher((String) row[1]);
+        tweet.setTweet((String) row[2]);
+        tweet.setPre2015MigrationStatus(row[3] == null ? null : ((Number) row[3]).longValue());
+        tweet.setDiscarded((Boolean) row[4]);
+        tweet.setPublishedTimestamp((Timestamp) row[5]);
+        tweet.setDiscardedTimestamp((Timestamp) row[6]);
+        return tweet;
+    }
+
+    static String tableName(final YearMonth month) {
+        return TABLE_PREFIX + month.format(MONTH_FORMAT);
+    }
+}
@@ -0,0 +1,104 @@
+package com.scmspain.archive;
+
+import com.scmspain.events.TweetArchivedEvent;
+import com.scmspain.metrics.TweetMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Scheduled job that moves discarded tweets, and published tweets older than the horizon, out of the hot tweet table.
+ * <p>
+ * Tweets are moved in batches, each batch in its own transaction with its rows locked, so a long backlog never holds
+ * a long transaction. Archived published tweets leave the published list, which is announced with a TweetArchivedEvent.
+ */
+public class TweetArchiveJob {
+    public static final String METRIC_ARCHIVED_DISCARDED = "archive.discarded";
+    public static final String METRIC_ARCHIVED_PUBLISHED = "archive.published";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TweetArchiveJob.class);
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final int publishedHorizonDays;
+    private final TweetArchive archive;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TweetMetrics metrics;
+
+    public TweetArchiveJob(boolean enabled, int batchSize, int publishedHorizonDays, TweetArchive archive,
+                           TransactionTemplate transactionTemplate, ApplicationEventPublisher eventPublisher,
+                           TweetMetrics metrics) {
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.publishedHorizonDays = publishedHorizonDays;
+        this.archive = archive;
+        this.transactionTemplate = transactionTemplate;
+        this.eventPublisher = eventPublisher;
+        this.metrics = metrics;
+    }
+
+    @Scheduled(initialDelayString = "${tweet.archive.interval-millis:3600000}", fixedDelayString = "${tweet.archive.interval-millis:3600000}")
+    public void run() {
+        if (!enabled) {
+            return;
+        }
+
+        final LocalDateTime now = LocalDateTime.now();
+
+        final long discarded = archiveAll(() -> archive.archiveDiscarded(Timestamp.valueOf(now), batchSize), METRIC_ARCHIVED_DISCARDED, false);
+
+        long published = 0;
+        if (publishedHorizonDays > 0) {
+            final Timestamp horizon = Timestamp.valueOf(now.minusDays(publishedHorizonDays));
+            published = archiveAll(() -> archive.archivePublished(horizon, batchSize), METRIC_ARCHIVED_PUBLISHED, true);
+        }
+
+        LOGGER.info("Archived {} discarded and {} published tweets", discarded, published);
+    }
+
+    private long archiveAll(final Supplier<ArchiveBatch> step, final String metric, final boolean leavesPublishedList) {
+        final Set<YearMonth> created = new HashSet<>();
+        long moved = 0;
+
+        while (true) {
+            final ArchiveBatch batch = transactionTemplate.execute(status -> {
+                final ArchiveBatch result = step.get();
+                if (leavesPublishedList) {
+                    result.getMovedIds().forEach(id -> eventPublisher.publishEvent(new TweetArchivedEvent(id)));
+                }
+                return result;
+            });
+
+            if (!batch.getMissingPartitions().isEmpty()) {
+                for (YearMonth month : batch.getMissingPartitions()) {
+                    if (!created.add(month)) {
+                        throw new IllegalStateException("Archive partition " + TweetArchive.tableName(month) + " could not be created");
+                    }
+                    transactionTemplate.execute(status -> {
+                        archive.createPartition(month);
+                        return null;
+                    });
+                }
+                continue;
+            }
+
+            final int size = batch.getMovedIds().size();
+            moved += size;
+            metrics.increment(metric, size);
+
+            if (size < batchSize) {
+                return moved;
+            }
+        }
+    }
+}
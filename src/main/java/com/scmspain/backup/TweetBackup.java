@@ -0,0 +1,164 @@
+package com.scmspain.backup;
+
+import com.scmspain.entities.Tweet;
+import com.scmspain.services.TweetService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Export and import of every tweet in TweetBackupFormat.
+ * <p>
+ * An export scrolls the store in one read-only transaction into a file, through a direct buffer and a FileChannel,
+ * and the file is then handed to the client with transferTo, so a slow client never keeps the transaction open. An
+ * import decodes records as they arrive and stores them in batches, each batch in its own transaction: a failed import
+ * keeps the batches stored before the failure. The stored tweets are announced once, when the import ends.
+ */
+public class TweetBackup {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TweetBackup.class);
+
+    private final TweetService tweetService;
+    private final int bufferSize;
+    private final int importBatchSize;
+
+    /**
+     * @param bufferSize size of the buffer records are encoded into and decoded from, larger than any record
+     * @param importBatchSize number of tweets stored per transaction on import
+     */
+    public TweetBackup(TweetService tweetService, int bufferSize, int importBatchSize) {
+        this.tweetService = tweetService;
+        this.bufferSize = bufferSize;
+        this.importBatchSize = importBatchSize;
+    }
+
+    /**
+     * Write every tweet to a file, replacing its content
+     * @return number of tweets written
+     */
+    public long export(final Path file) throws IOException {
+        final long start = System.nanoTime();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(this.bufferSize);
+        final long[] count = {0};
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            TweetBackupFormat.writeHeader(buffer);
+            this.tweetService.exportTweets(tweet -> {
+                if (TweetBackupFormat.recordSize(tweet) > buffer.remaining()) {
+                    drain(buffer, channel);
+                }
+                TweetBackupFormat.write(tweet, buffer);
+                count[0]++;
+            });
+            drain(buffer, channel);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+
+        LOGGER.info("Exported {} tweets in {} ms", count[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return count[0];
+    }
+
+    /**
+     * Copy an export file to a channel, letting the file channel pick the cheapest way to move the bytes
+     */
+    public void transfer(final Path file, final WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+        }
+    }
+
+    /**
+     * Store every tweet of an export read from a channel
+     * @return number of tweets stored
+     * @throws IllegalArgumentException if the content is not a whole export
+     */
+    public long importFrom(final ReadableByteChannel source) throws IOException {
+        final long start = System.nanoTime();
+        final long[] count = {0};
+
+        try {
+            importBatches(source, count);
+        } finally {
+            // the batches stored before a failure are kept, so they are announced as well
+            if (count[0] > 0) {
+                this.tweetService.finishImport();
+            }
+        }
+
+        LOGGER.info("Imported {} tweets in {} ms", count[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return count[0];
+    }
+
+    /**
+     * @param count incremented by the size of every batch stored
+     */
+    private void importBatches(final ReadableByteChannel source, final long[] count) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(this.bufferSize);
+        List<Tweet> batch = new ArrayList<>(this.importBatchSize);
+        boolean header = false;
+        boolean end = false;
+
+        while (!end) {
+            end = source.read(buffer) < 0;
+            buffer.flip();
+
+            if (!header) {
+                if (buffer.remaining() < TweetBackupFormat.HEADER_BYTES && !end) {
+                    buffer.compact();
+                    continue;
+                }
+                TweetBackupFormat.readHeader(buffer);
+                header = true;
+            }
+
+            final int before = buffer.remaining();
+            Tweet tweet;
+            while ((tweet = TweetBackupFormat.read(buffer)) != null) {
+                batch.add(tweet);
+                if (batch.size() == this.importBatchSize) {
+                    this.tweetService.importTweets(batch);
+                    count[0] += batch.size();
+                    batch = new ArrayList<>(this.importBatchSize);
+                }
+            }
+
+            if (buffer.hasRemaining() && (end || (buffer.remaining() == before && before == buffer.capacity()))) {
+                throw new IllegalArgumentException(end ? "Tweet export is truncated" : "Tweet record larger than the import buffer");
+            }
+            buffer.compact();
+        }
+
+        if (!batch.isEmpty()) {
+            this.tweetService.importTweets(batch);
+            count[0] += batch.size();
+        }
+    }
+
+    private static void drain(final ByteBuffer buffer, final WritableByteChannel channel) {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,106 @@
+package com.scmspain.backup;
+
+import org.springframework.boot.actuate.endpoint.mvc.AbstractNamedMvcEndpoint;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+
+/**
+ * Actuator endpoint to back up and restore every tweet. It is sensitive, so only users with the management roles can
+ * call it, and it runs one export or import at a time: each export takes a temporary file as large as the whole
+ * store, and an import writes as fast as the database takes it, outside the limits of the public writes.
+ */
+public class TweetBackupEndpoint extends AbstractNamedMvcEndpoint {
+    private final TweetBackup tweetBackup;
+    private final Semaphore running = new Semaphore(1);
+
+    public TweetBackupEndpoint(TweetBackup tweetBackup) {
+        super("backup", "/backup", true);
+        this.tweetBackup = tweetBackup;
+    }
+
+    /**
+     * Every tweet, published and discarded, in the binary export format. The export is written to a temporary file
+     * first, so the read transaction does not wait for the client
+     * @throws RejectedExecutionException if another export or import is running
+     */
+    @RequestMapping(value = "/export", method = RequestMethod.GET, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public void exportTweets(HttpServletResponse response) throws IOException {
+        acquire();
+        try {
+            final Path file = Files.createTempFile("tweets-", ".export");
+            try {
+                this.tweetBackup.export(file);
+
+                response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+                response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"tweets.export\"");
+                response.setContentLengthLong(Files.size(file));
+                this.tweetBackup.transfer(file, Channels.newChannel(response.getOutputStream()));
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } finally {
+            this.running.release();
+        }
+    }
+
+    /**
+     * Store the tweets of an export, with new ids
+     * @return number of tweets imported
+     * @throws RejectedExecutionException if another export or import is running
+     */
+    @RequestMapping(value = "/import", method = RequestMethod.POST, consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @ResponseStatus(OK)
+    @ResponseBody
+    public long importTweets(HttpServletRequest request) throws IOException {
+        acquire();
+        try {
+            return this.tweetBackup.importFrom(Channels.newChannel(request.getInputStream()));
+        } finally {
+            this.running.release();
+        }
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(BAD_REQUEST)
+    @ResponseBody
+    public Object invalidArgumentException(IllegalArgumentException ex) {
+        return new Object() {
+            public String message = ex.getMessage();
+            public String exceptionClass = ex.getClass().getSimpleName();
+        };
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(SERVICE_UNAVAILABLE)
+    @ResponseBody
+    public Object rejectedExecutionException(RejectedExecutionException ex) {
+        return new Object() {
+            public String message = ex.getMessage();
+            public String exceptionClass = ex.getClass().getSimpleName();
+        };
+    }
+
+    private void acquire() {
+        if (!this.running.tryAcquire()) {
+            throw new RejectedExecutionException("A tweet export or import is already running, try again later");
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.scmspain.backup;
+
+import com.scmspain.entities.Tweet;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+
+/**
+ * Binary format of tweet exports: a header of magic number and version followed by one length-prefixed record per
+ * tweet. Each record holds id, publisher, text, pre2015MigrationStatus, discarded flag and both timestamps to the
+ * nanosecond, so a tweet reads back exactly as it was written except for the id, which the importing store assigns
+ */
+public final class TweetBackupFormat {
+    public static final int MAGIC = 0x54574554;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    private static final long NO_VALUE = Long.MIN_VALUE;
+    // id, published, status, discarded flag, discarded and the lengths of publisher and text
+    private static final int FIXED_BYTES = Long.BYTES + Long.BYTES + Integer.BYTES + Long.BYTES + 1 + Long.BYTES
+            + Integer.BYTES + 2 * Integer.BYTES;
+
+    private TweetBackupFormat() {
+    }
+
+    public static void writeHeader(final ByteBuffer buffer) {
+        buffer.putInt(MAGIC).putInt(VERSION);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the buffer does not start with the header of this format
+     */
+    public static void readHeader(final ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a tweet export");
+        }
+
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported tweet export version " + version);
+        }
+    }
+
+    /**
+     * @return size of the record of a tweet, length prefix included
+     */
+    public static int recordSize(final Tweet tweet) {
+        return Integer.BYTES + FIXED_BYTES + utf8Length(tweet.getPublisher()) + utf8Length(tweet.getTweet());
+    }
+
+    /**
+     * Write the record of a tweet, the buffer must have recordSize bytes remaining
+     */
+    public static void write(final Tweet tweet, final ByteBuffer buffer) {
+        final byte[] publisher = tweet.getPublisher().getBytes(StandardCharsets.UTF_8);
+        final byte[] text = tweet.getTweet().getBytes(StandardCharsets.UTF_8);
+        final Long status = tweet.getPre2015MigrationStatus();
+
+        buffer.putInt(FIXED_BYTES + publisher.length + text.length)
+                .putLong(tweet.getId());
+        putTimestamp(buffer, tweet.getPublishedTimestamp());
+        buffer.putLong(status == null ? NO_VALUE : status)
+                .put((byte) (Boolean.TRUE.equals(tweet.getDiscarded()) ? 1 : 0));
+        putTimestamp(buffer, tweet.getDiscardedTimestamp());
+        buffer.putInt(publisher.length).put(publisher)
+                .putInt(text.length).put(text);
+    }
+
+    /**
+     * Read the next record, leaving the buffer untouched when it does not hold the whole record yet
+     * @return the tweet or null if more bytes are needed
+     * @throws IllegalArgumentException if the record is malformed
+     */
+    public static Tweet read(final ByteBuffer buffer) {
+        if (buffer.remaining() < Integer.BYTES) {
+            return null;
+        }
+
+        final int length = buffer.getInt(buffer.position());
+        if (length < FIXED_BYTES) {
+            throw new IllegalArgumentException("Malformed tweet record of " + length + " bytes");
+        }
+        if (buffer.remaining() < Integer.BYTES + length) {
+            return null;
+        }
+
+        final int end = buffer.position() + Integer.BYTES + length;
+        try {
+            buffer.position(buffer.position() + Integer.BYTES);
+
+            final Tweet tweet = new Tweet();
+            tweet.setId(buffer.getLong());
+            tweet.setPublishedTimestamp(getTimestamp(buffer));
+            final long status = buffer.getLong();
+            tweet.setPre2015MigrationStatus(status == NO_VALUE ? null : status);
+            tweet.setDiscarded(buffer.get() != 0);
+            tweet.setDiscardedTimestamp(getTimestamp(buffer));
+            tweet.setPublisher(getString(buffer, end));
+            tweet.setTweet(getString(buffer, end));
+
+            if (buffer.position() != end) {
+                throw new IllegalArgumentException("Malformed tweet record " + tweet.getId());
+            }
+            return tweet;
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Malformed tweet record", ex);
+        }
+    }
+
+    /**
+     * The length is checked against the end of the record, a corrupt one must not read into the next record
+     */
+    private static String getString(final ByteBuffer buffer, final int end) {
+        final int length = buffer.getInt();
+        if (length < 0 || buffer.position() + length > end) {
+            throw new IllegalArgumentException("Malformed tweet record");
+        }
+
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putTimestamp(final ByteBuffer buffer, final Timestamp timestamp) {
+        if (timestamp == null) {
+            buffer.putLong(NO_VALUE).putInt(0);
+        } else {
+            buffer.putLong(timestamp.getTime()).putInt(timestamp.getNanos());
+        }
+    }
+
+    private static Timestamp getTimestamp(final ByteBuffer buffer) {
+        final long millis = buffer.getLong();
+        final int nanos = buffer.getInt();
+        if (millis == NO_VALUE) {
+            return null;
+        }
+
+        final Timestamp timestamp = new Timestamp(millis);
+        timestamp.setNanos(nanos);
+        return timestamp;
+    }
+
+    private static int utf8Length(final String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,63 @@
+package com.scmspain.cache;
+
+import com.scmspain.dtos.TweetCursor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Page of tweets already encoded as a UTF-8 JSON array.
+ * <p>
+ * The page is shared by every request that reads it, so the returned arrays must not be modified.
+ * The gzip variant is compressed on first use and kept with the page.
+ */
+public class EncodedPage {
+    private final byte[] json;
+    private final TweetCursor nextCursor;
+    private final int limit;
+    private volatile byte[] gzip;
+
+    EncodedPage(byte[] json, TweetCursor nextCursor, int limit) {
+        this.json = json;
+        this.nextCursor = nextCursor;
+        this.limit = limit;
+    }
+
+    public byte[] getJson() {
+        return json;
+    }
+
+    public byte[] getGzip() {
+        byte[] compressed = gzip;
+        if (compressed == null) {
+            // two readers may compress the same page, both results are equal
+            compressed = compress(json);
+            gzip = compressed;
+        }
+        return compressed;
+    }
+
+    public TweetCursor getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    private static byte[] compress(final byte[] content) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(content.length / 4 + 64);
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(buffer)) {
+            gzipStream.write(content);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return buffer.toByteArray();
+    }
+}
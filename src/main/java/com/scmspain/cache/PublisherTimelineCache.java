@@ -0,0 +1,443 @@
+package com.scmspain.cache;
+
+import com.scmspain.converters.TweetConverter;
+import com.scmspain.dtos.TweetCursor;
+import com.scmspain.dtos.TweetDTO;
+import com.scmspain.dtos.TweetPage;
+import com.scmspain.entities.Tweet;
+import com.scmspain.events.TweetArchivedEvent;
+import com.scmspain.events.TweetDiscardedEvent;
+import com.scmspain.events.TweetPublishedEvent;
+import com.scmspain.events.TweetsImportedEvent;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.annotation.Order;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Newest published tweets of the most recently read publishers.
+ * <p>
+ * Publishers are spread over a fixed number of shards, each one an access-ordered map guarded by its own lock, so
+ * readers and writers of different publishers rarely contend. Every shard holds up to its share of publishers and
+ * drops the least recently used one when full. A publisher's tweets are kept newest first in a bounded ring buffer,
+ * filled from the repository on the first read and then kept up to date as tweets are published and discarded.
+ * <p>
+ * A ring holds the newest tweets of its publisher without gaps, so any page that fits in it is answered without
+ * querying the repository. A ring that can no longer answer the first page, because discards left it short of it, is
+ * replaced by the load that follows the miss.
+ */
+public class PublisherTimelineCache implements PublicMetrics {
+    public static final String METRIC_HITS = "publisher-cache.hits";
+    public static final String METRIC_MISSES = "publisher-cache.misses";
+    public static final String METRIC_EVICTIONS = "publisher-cache.evictions";
+    public static final String METRIC_PUBLISHERS = "publisher-cache.publishers";
+
+    private static final int SHARDS = 16;
+    // uncached removals remembered for the loads running meanwhile, a load older than all of them is dropped
+    private static final int MAX_UNCACHED_REMOVALS = 1024;
+    private static final Comparator<TweetCursor> NEWEST_FIRST = Comparator
+            .comparing(TweetCursor::getTimestamp)
+            .thenComparing(TweetCursor::getId)
+            .reversed();
+
+    private final int maxPublishers;
+    private final int capacity;
+    private final Shard[] shards = new Shard[SHARDS];
+    // publisher of every cached tweet, to find the ring a discarded tweet is in
+    private final ConcurrentMap<Long, String> publishersById = new ConcurrentHashMap<>();
+    // numbers every change of the cache, versions are values of it
+    private final AtomicLong sequence = new AtomicLong();
+    // sequence of the discards of tweets not in any ring by tweet id, which a load running meanwhile may have read.
+    // Their publisher is unknown, so they are matched against the loaded tweets instead of a shard
+    private final UncachedRemovals uncachedRemovals = new UncachedRemovals();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxPublishers publishers kept at most, 0 disables the cache
+     * @param capacity newest tweets kept per publisher
+     */
+    public PublisherTimelineCache(int maxPublishers, int capacity) {
+        this.maxPublishers = maxPublishers;
+        this.capacity = capacity;
+        final int publishersPerShard = Math.max(1, (maxPublishers + SHARDS - 1) / SHARDS);
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(publishersPerShard);
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxPublishers > 0 && capacity > 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get a page of the published tweets of a publisher
+     * @param publisher publisher of the tweets
+     * @param after cursor of the last tweet already returned or null to start from the newest tweet
+     * @param limit maximum number of tweets in the page
+     * @return the page or null if the cache cannot answer it
+     */
+    public TweetPage get(final String publisher, final TweetCursor after, final int limit) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        final Shard shard = shard(publisher);
+        synchronized (shard) {
+            final Ring ring = shard.rings.get(publisher);
+            final TweetPage page = ring == null ? null : ring.page(after, limit);
+
+            if (page == null) {
+                misses.increment();
+            } else {
+                hits.increment();
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Version of the cached state of a publisher, to be read before loading its tweets from the repository
+     */
+    public long version(final String publisher) {
+        return sequence.get();
+    }
+
+    /**
+     * Cache the newest tweets of a publisher read from the repository, unless a tweet of its shard was published or
+     * discarded since the version was read, or one of the loaded tweets was discarded since, which the loaded tweets
+     * may have missed. The loaded tweets replace any ring of the publisher, which could not answer the read that
+     * loaded them
+     * @param version version read before loading the tweets
+     * @param keys sort keys of the tweets, newest first
+     * @param tweets up to capacity + 1 newest published tweets of the publisher, newest first
+     */
+    public void load(final String publisher, final long version, final List<TweetCursor> keys, final List<TweetDTO> tweets) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        final Shard shard = shard(publisher);
+        synchronized (shard) {
+            final int size = Math.min(capacity, tweets.size());
+            // the tweets are found by id before looking for removals, so a discard either finds them or is found
+            final List<Long> registered = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                if (publishersById.putIfAbsent(keys.get(i).getId(), publisher) == null) {
+                    registered.add(keys.get(i).getId());
+                }
+            }
+
+            if (shard.lastModification > version || uncachedRemovals.removedAfter(version, keys)) {
+                registered.forEach(publishersById::remove);
+                return;
+            }
+
+            final Ring previous = shard.rings.remove(publisher);
+            if (previous != null) {
+                previous.forEachId(publishersById::remove);
+            }
+
+            final Ring ring = new Ring(capacity);
+            for (int i = size - 1; i >= 0; i--) {
+                ring.add(keys.get(i), tweets.get(i));
+                publishersById.put(keys.get(i).getId(), publisher);
+            }
+            ring.complete = tweets.size() <= capacity;
+            shard.rings.put(publisher, ring);
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(TimelineVersion.LIST_SOURCE_ORDER)
+    public void onTweetPublished(final TweetPublishedEvent event) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        final Tweet tweet = event.getTweet();
+        final Shard shard = shard(tweet.getPublisher());
+        synchronized (shard) {
+            shard.lastModification = sequence.incrementAndGet();
+
+            final Ring ring = shard.rings.get(tweet.getPublisher());
+            if (ring == null) {
+                return;
+            }
+
+            final TweetCursor key = new TweetCursor(tweet.getPublishedTimestamp(), tweet.getId());
+            final TweetCursor dropped = ring.add(key, TweetConverter.toDTO(tweet));
+            if (dropped != key) {
+                publishersById.put(tweet.getId(), tweet.getPublisher());
+            }
+            if (dropped != null) {
+                publishersById.remove(dropped.getId());
+            }
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(TimelineVersion.LIST_SOURCE_ORDER)
+    public void onTweetDiscarded(final TweetDiscardedEvent event) {
+        remove(event.getTweetId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(TimelineVersion.LIST_SOURCE_ORDER)
+    public void onTweetArchived(final TweetArchivedEvent event) {
+        remove(event.getTweetId());
+    }
+
+    /**
+     * Imported tweets may belong to any publisher, every ring is dropped and filled again by the next read
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(TimelineVersion.LIST_SOURCE_ORDER)
+    public void onTweetsImported(final TweetsImportedEvent event) {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                // loads running meanwhile may have missed the imported tweets
+                shard.lastModification = sequence.incrementAndGet();
+                shard.rings.values().forEach(ring -> ring.forEachId(publishersById::remove));
+                shard.rings.clear();
+            }
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        int publishers = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                publishers += shard.rings.size();
+            }
+        }
+
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<Number>(METRIC_HITS, hits.sum()));
+        metrics.add(new Metric<Number>(METRIC_MISSES, misses.sum()));
+        metrics.add(new Metric<Number>(METRIC_EVICTIONS, evictions.sum()));
+        metrics.add(new Metric<Number>(METRIC_PUBLISHERS, publishers));
+        return metrics;
+    }
+
+    private void remove(final Long tweetId) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        String publisher = publishersById.get(tweetId);
+        if (publisher == null) {
+            uncachedRemovals.add(tweetId);
+            // a load may have found the tweet by id meanwhile, then it either saw the removal or its ring has the tweet
+            publisher = publishersById.get(tweetId);
+            if (publisher == null) {
+                return;
+            }
+        }
+
+        final Shard shard = shard(publisher);
+        synchronized (shard) {
+            shard.lastModification = sequence.incrementAndGet();
+
+            final Ring ring = shard.rings.get(publisher);
+            if (ring != null) {
+                ring.remove(tweetId);
+            }
+            publishersById.remove(tweetId);
+        }
+    }
+
+    private Shard shard(final String publisher) {
+        final int hash = publisher.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (SHARDS - 1)];
+    }
+
+    private class Shard {
+        final Map<String, Ring> rings;
+        // sequence of the last change of a publisher of the shard
+        long lastModification;
+
+        Shard(final int maxPublishers) {
+            this.rings = new LinkedHashMap<String, Ring>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Ring> eldest) {
+                    if (size() <= maxPublishers) {
+                        return false;
+                    }
+
+                    eldest.getValue().forEachId(publishersById::remove);
+                    evictions.increment();
+                    return true;
+                }
+            };
+        }
+    }
+
+    /**
+     * Latest discards of tweets that were not cached, with the sequence they were made at
+     */
+    private class UncachedRemovals {
+        final Map<Long, Long> sequences = new LinkedHashMap<Long, Long>() {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, Long> eldest) {
+                if (size() <= MAX_UNCACHED_REMOVALS) {
+                    return false;
+                }
+
+                forgotten = eldest.getValue();
+                return true;
+            }
+        };
+        // sequence of the latest removal no longer remembered
+        long forgotten;
+
+        synchronized void add(final Long tweetId) {
+            sequences.remove(tweetId);
+            sequences.put(tweetId, sequence.incrementAndGet());
+        }
+
+        /**
+         * @return true if any of the tweets was discarded after the version, or if it cannot be told
+         */
+        synchronized boolean removedAfter(final long version, final List<TweetCursor> keys) {
+            if (forgotten > version) {
+                return true;
+            }
+
+            for (TweetCursor key : keys) {
+                final Long removed = sequences.get(key.getId());
+                if (removed != null && removed > version) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Newest-first circular buffer of the tweets of one publisher. Slot start holds the newest tweet
+     */
+    private static class Ring {
+        final TweetCursor[] keys;
+        final TweetDTO[] tweets;
+        int start;
+        int size;
+        // true while the ring holds every published tweet of the publisher
+        boolean complete;
+
+        Ring(final int capacity) {
+            this.keys = new TweetCursor[capacity];
+            this.tweets = new TweetDTO[capacity];
+        }
+
+        /**
+         * @return the key of the tweet that no longer fits, which is the given one when it is older than a full ring
+         */
+        TweetCursor add(final TweetCursor key, final TweetDTO tweet) {
+            final int position = indexAfter(key);
+            TweetCursor dropped = null;
+
+            if (size == keys.length) {
+                complete = false;
+                if (position == size) {
+                    return key;
+                }
+                dropped = keys[slot(size - 1)];
+                size--;
+            }
+
+            if (position == 0) {
+                start = (start - 1 + keys.length) % keys.length;
+            } else {
+                for (int i = size; i > position; i--) {
+                    keys[slot(i)] = keys[slot(i - 1)];
+                    tweets[slot(i)] = tweets[slot(i - 1)];
+                }
+            }
+
+            keys[slot(position)] = key;
+            tweets[slot(position)] = tweet;
+            size++;
+            return dropped;
+        }
+
+        void remove(final Long tweetId) {
+            for (int i = 0; i < size; i++) {
+                if (keys[slot(i)].getId().equals(tweetId)) {
+                    for (int j = i; j < size - 1; j++) {
+                        keys[slot(j)] = keys[slot(j + 1)];
+                        tweets[slot(j)] = tweets[slot(j + 1)];
+                    }
+                    keys[slot(size - 1)] = null;
+                    tweets[slot(size - 1)] = null;
+                    size--;
+                    return;
+                }
+            }
+        }
+
+        TweetPage page(final TweetCursor after, final int limit) {
+            final int from = after == null ? 0 : indexAfter(after);
+            final int available = size - from;
+
+            if (available < limit && !complete) {
+                return null;
+            }
+
+            final int to = from + Math.min(limit, available);
+            final boolean hasNext = to < size || !complete;
+
+            final TweetDTO[] page = new TweetDTO[to - from];
+            for (int i = from; i < to; i++) {
+                page[i - from] = tweets[slot(i)];
+            }
+            return new TweetPage(Arrays.asList(page), hasNext && to > from ? keys[slot(to - 1)] : null);
+        }
+
+        void forEachId(final Consumer<Long> consumer) {
+            for (int i = 0; i < size; i++) {
+                consumer.accept(keys[slot(i)].getId());
+            }
+        }
+
+        /**
+         * Position of the first tweet older than the key
+         */
+        private int indexAfter(final TweetCursor key) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (NEWEST_FIRST.compare(keys[slot(middle)], key) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private int slot(final int index) {
+            return (start + index) % keys.length;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.scmspain.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.scmspain.converters.TweetConverter;
+import com.scmspain.dtos.TweetCursor;
+import com.scmspain.dtos.TweetDTO;
+import com.scmspain.dtos.TweetPage;
+import com.scmspain.entities.Tweet;
+import com.scmspain.events.TweetArchivedEvent;
+import com.scmspain.events.TweetDiscardedEvent;
+import com.scmspain.events.TweetPublishedEvent;
+import com.scmspain.events.TweetsImportedEvent;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.annotation.Order;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, newest-first copy of the head of the published timeline.
+ * <p>
+ * The cache always holds the newest published tweets without gaps, so any page that fits in it can be answered
+ * without querying the repository. Writes are serialized and publish an immutable snapshot; reads only touch
+ * that snapshot. Publications and discards are applied once their transaction commits.
+ * <p>
+ * The first page of each snapshot can also be read already encoded as JSON. It is encoded by the first request that
+ * reads it after a change and then shared, so steady-state reads only copy bytes.
+ * <p>
+ * Discarded and archived tweets leave a gap that only the repository can fill. Once a page is missed because the
+ * cache lost tweets that way, it asks for a refill, which loads the head again with the loader of the warm-up.
+ * <p>
+ * A load runs apart from the cache, which keeps answering pages and applying changes. Changes applied meanwhile are
+ * also kept, and replayed on the loaded tweets once they replace the current ones.
+ */
+public class TimelineCache implements PublicMetrics {
+    public static final String METRIC_HITS = "timeline-cache.hits";
+    public static final String METRIC_MISSES = "timeline-cache.misses";
+    public static final String METRIC_EVICTIONS = "timeline-cache.evictions";
+    public static final String METRIC_SIZE = "timeline-cache.size";
+
+    private static final Comparator<TweetCursor> NEWEST_FIRST = Comparator
+            .comparing(TweetCursor::getTimestamp)
+            .thenComparing(TweetCursor::getId)
+            .reversed();
+
+    private final int capacity;
+    private final ObjectWriter pageWriter;
+    private final TreeMap<TweetCursor, TweetDTO> timeline = new TreeMap<>(NEWEST_FIRST);
+    private final Map<Long, TweetCursor> keysById = new HashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private volatile Snapshot snapshot = Snapshot.COLD;
+    // true while the cache holds every published tweet, i.e. nothing has been evicted or left out on warm-up
+    private boolean complete;
+    private Supplier<List<Tweet>> loader;
+    private volatile boolean refillNeeded;
+    // serializes the loads, which run without the lock of the cache
+    private final Object loading = new Object();
+    // changes applied while a load runs, which the loaded tweets may have missed; null when not loading
+    private List<Runnable> pendingChanges;
+
+    public TimelineCache(int capacity, ObjectMapper objectMapper) {
+        this.capacity = capacity;
+        this.pageWriter = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, TweetDTO.class));
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Load the head of the timeline. The loader runs without the lock of the cache; the publications and discards
+     * committed meanwhile are replayed on the loaded tweets before they replace the current ones, so none is lost.
+     * Loads run one at a time
+     * @param loader supplies up to capacity + 1 newest published tweets, newest first. It is kept for the refills
+     */
+    public void warmUp(final Supplier<List<Tweet>> loader) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (loading) {
+            synchronized (this) {
+                pendingChanges = new ArrayList<>();
+            }
+
+            try {
+                final List<Tweet> tweets = loader.get();
+
+                synchronized (this) {
+                    timeline.clear();
+                    keysById.clear();
+                    tweets.stream().limit(capacity).forEach(this::put);
+                    complete = tweets.size() <= capacity;
+                    this.loader = loader;
+                    refillNeeded = false;
+                    // publishing and removing are idempotent, replaying a change the loader already saw leaves it as loaded
+                    pendingChanges.forEach(Runnable::run);
+                    publishSnapshot();
+                }
+            } finally {
+                synchronized (this) {
+                    pendingChanges = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true once a page was missed because discarded or archived tweets left the cache short of its capacity
+     */
+    public boolean isRefillNeeded() {
+        return refillNeeded;
+    }
+
+    /**
+     * Load the head of the timeline again with the loader of the last warm-up, if a refill is still needed
+     */
+    public void refill() {
+        synchronized (loading) {
+            if (refillNeeded && loader != null) {
+                warmUp(loader);
+            }
+        }
+    }
+
+    /**
+     * Get a page of the published timeline
+     * @param after cursor of the last tweet already returned or null to start from the newest tweet
+     * @param limit maximum number of tweets in the page
+     * @return the page or null if the cache cannot answer it
+     */
+    public TweetPage get(final TweetCursor after, final int limit) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        return page(this.snapshot, after, limit);
+    }
+
+    /**
+     * Get the first page of the published timeline encoded as a JSON array.
+     * Only the page of the last requested limit is kept, which is the configured maximum for most clients
+     * @param limit maximum number of tweets in the page
+     * @return the encoded page or null if the cache cannot answer it
+     */
+    public EncodedPage getEncoded(final int limit) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        final Snapshot current = this.snapshot;
+        final EncodedPage encoded = current.encodedHead;
+
+        if (encoded != null && encoded.getLimit() == limit) {
+            hits.increment();
+            return encoded;
+        }
+
+        final TweetPage page = page(current, null, limit);
+        if (page == null) {
+            return null;
+        }
+
+        final EncodedPage fresh = new EncodedPage(encode(page.getTweets()), page.getNextCursor(), limit);
+        current.encodedHead = fresh;
+        return fresh;
+    }
+
+    private TweetPage page(final Snapshot current, final TweetCursor after, final int limit) {
+        if (current == Snapshot.COLD) {
+            misses.increment();
+            return null;
+        }
+
+        final int from = after == null ? 0 : current.indexAfter(after);
+        final int available = current.size() - from;
+
+        if (available < limit && !current.complete) {
+            // publications keep an incomplete cache full, only discards and archiving leave it short
+            if (current.size() < capacity) {
+                refillNeeded = true;
+            }
+            misses.increment();
+            return null;
+        }
+
+        final int to = from + Math.min(limit, available);
+        final boolean hasNext = to < current.size() || !current.complete;
+
+        hits.increment();
+        return new TweetPage(Collections.unmodifiableList(Arrays.asList(current.tweets).subList(from, to)),
+                hasNext && to > from ? current.keys[to - 1] : null);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(TimelineVersion.LIST_SOURCE_ORDER)
+    public void onTweetPublished(final TweetPublishedEvent event) {
+        apply(() -> publish(event.getTweet()));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(TimelineVersion.LIST_SOURCE_ORDER)
+    public void onTweetDiscarded(final TweetDiscardedEvent event) {
+        apply(() -> remove(event.getTweetId()));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(TimelineVersion.LIST_SOURCE_ORDER)
+    public void onTweetArchived(final TweetArchivedEvent event) {
+        apply(() -> remove(event.getTweetId()));
+    }
+
+    /**
+     * Imported tweets may land anywhere in the timeline, the head is loaded again
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(TimelineVersion.LIST_SOURCE_ORDER)
+    public void onTweetsImported(final TweetsImportedEvent event) {
+        synchronized (loading) {
+            if (loader != null) {
+                warmUp(loader);
+            }
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<Number>(METRIC_HITS, hits.sum()));
+        metrics.add(new Metric<Number>(METRIC_MISSES, misses.sum()));
+        metrics.add(new Metric<Number>(METRIC_EVICTIONS, evictions.sum()));
+        metrics.add(new Metric<Number>(METRIC_SIZE, snapshot.size()));
+        return metrics;
+    }
+
+    /**
+     * Apply a change to the current content, unless still cold, and keep it for the content being loaded if any
+     */
+    private synchronized void apply(final Runnable change) {
+        if (snapshot != Snapshot.COLD) {
+            change.run();
+            publishSnapshot();
+        }
+        if (pendingChanges != null) {
+            pendingChanges.add(change);
+        }
+    }
+
+    /**
+     * Must be called holding the lock of the cache
+     */
+    private void publish(final Tweet tweet) {
+        put(tweet);
+
+        if (timeline.size() > capacity) {
+            keysById.remove(timeline.pollLastEntry().getKey().getId());
+            complete = false;
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Must be called holding the lock of the cache
+     */
+    private void remove(final Long tweetId) {
+        final TweetCursor key = keysById.remove(tweetId);
+
+        if (key != null) {
+            timeline.remove(key);
+        }
+    }
+
+    private void put(final Tweet tweet) {
+        final TweetCursor key = new TweetCursor(tweet.getPublishedTimestamp(), tweet.getId());
+        timeline.put(key, TweetConverter.toDTO(tweet));
+        keysById.put(tweet.getId(), key);
+    }
+
+    private byte[] encode(final List<TweetDTO> tweets) {
+        try {
+            return pageWriter.writeValueAsBytes(tweets);
+        } catch (JsonProcessingException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void publishSnapshot() {
+        snapshot = new Snapshot(timeline.keySet().toArray(new TweetCursor[0]),
+                timeline.values().toArray(new TweetDTO[0]), complete);
+    }
+
+    private static class Snapshot {
+        static final Snapshot COLD = new Snapshot(new TweetCursor[0], new TweetDTO[0], false);
+
+        final TweetCursor[] keys;
+        final TweetDTO[] tweets;
+        final boolean complete;
+        // first page encoded on demand, replaced when a different limit is requested
+        volatile EncodedPage encodedHead;
+
+        Snapshot(TweetCursor[] keys, TweetDTO[] tweets, boolean complete) {
+            this.keys = keys;
+            this.tweets = tweets;
+            this.complete = complete;
+        }
+
+        int size() {
+            return keys.length;
+        }
+
+        int indexAfter(final TweetCursor cursor) {
+            final int index = Arrays.binarySearch(keys, cursor, NEWEST_FIRST);
+            return index >= 0 ? index + 1 : -index - 1;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.scmspain.cache;
+
+import com.scmspain.events.TweetArchivedEvent;
+import com.scmspain.events.TweetDiscardedEvent;
+import com.scmspain.events.TweetPublishedEvent;
+import com.scmspain.events.TweetsImportedEvent;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonic stamp of the tweet lists, bumped once a publication or a discard is committed.
+ * <p>
+ * The stamp is only known to this instance and starts again on every start-up, so the entity tag built from it
+ * includes the start-up time to never match a tag handed out by a previous run.
+ * <p>
+ * The stamp is bumped after the caches and the search index have applied the same change, so a request that reads
+ * the new stamp also reads the new lists and never sends the new tag with an old body.
+ */
+public class TimelineVersion {
+    /**
+     * Order of the listeners that update what the lists are read from, which run before the version is bumped
+     */
+    public static final int LIST_SOURCE_ORDER = Ordered.LOWEST_PRECEDENCE - 1;
+
+    private final long startedAt = System.currentTimeMillis();
+    private final AtomicLong version = new AtomicLong();
+    private volatile long lastModified = startedAt;
+
+    /**
+     * The tag is weak because the same version of a list may be sent both plain and gzipped
+     * @return entity tag of the current version of the lists
+     */
+    public String getETag() {
+        return "W/\"" + Long.toString(startedAt, Character.MAX_RADIX) + "-" + Long.toString(version.get(), Character.MAX_RADIX) + "\"";
+    }
+
+    /**
+     * @return time in milliseconds of the last change to the lists, or of the start-up if nothing changed since
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void onTweetPublished(final TweetPublishedEvent event) {
+        bump();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void onTweetDiscarded(final TweetDiscardedEvent event) {
+        bump();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void onTweetArchived(final TweetArchivedEvent event) {
+        bump();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void onTweetsImported(final TweetsImportedEvent event) {
+        bump();
+    }
+
+    /**
+     * Change the version for a change to the lists that raises no event, once it is committed
+     */
+    public void bump() {
+        // last modified first, so whoever reads the new version also reads its time
+        lastModified = System.currentTimeMillis();
+        version.incrementAndGet();
+    }
+}
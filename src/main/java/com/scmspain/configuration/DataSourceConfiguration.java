@@ -0,0 +1,114 @@
+package com.scmspain.configuration;
+
+import com.scmspain.datasource.ReadWriteRoutingDataSource;
+import com.scmspain.metrics.PoolMetricsTrackerFactory;
+import com.scmspain.metrics.TweetMetrics;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceBuilder;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DatabaseDriver;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * HikariCP pools sized from the tweet.pool properties, plus the read/write split when a replica url is configured.
+ * Any spring.datasource.hikari property overrides the derived settings of the primary pool.
+ */
+@Configuration
+public class DataSourceConfiguration {
+    public static final String PRIMARY_POOL = "primary";
+    public static final String REPLICA_POOL = "replica";
+
+    @Bean
+    public PoolMetricsTrackerFactory getPoolMetricsTrackerFactory(TweetMetrics tweetMetrics) {
+        return new PoolMetricsTrackerFactory(tweetMetrics);
+    }
+
+    @Bean
+    @ConfigurationProperties(prefix = "spring.datasource.hikari")
+    public HikariDataSource getPrimaryDataSource(DataSourceProperties dataSourceProperties, TweetProperties tweetProperties,
+                                                 PoolMetricsTrackerFactory poolMetrics) {
+        final HikariDataSource pool = (HikariDataSource) dataSourceProperties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .build();
+        return configurePool(pool, PRIMARY_POOL, tweetProperties.getPool(), poolMetrics);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "tweet.replica", name = "url")
+    public HikariDataSource getReplicaDataSource(TweetProperties tweetProperties, PoolMetricsTrackerFactory poolMetrics) {
+        final TweetProperties.ReplicaProperties replica = tweetProperties.getReplica();
+        final HikariDataSource pool = (HikariDataSource) DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(replica.getUrl())
+                .username(replica.getUsername())
+                .password(replica.getPassword())
+                .build();
+        return configurePool(pool, REPLICA_POOL, tweetProperties.getPool(), poolMetrics);
+    }
+
+    /**
+     * The pools must be created before this data source: as soon as any DataSource bean is ready, Spring Boot looks up
+     * the primary one to initialize it, which would be this bean while it is still being created
+     */
+    @Bean @Primary
+    @ConditionalOnProperty(prefix = "tweet.replica", name = "url")
+    @DependsOn({"getPrimaryDataSource", "getReplicaDataSource"})
+    public DataSource getRoutingDataSource(@Qualifier("getPrimaryDataSource") DataSource primaryDataSource,
+                                           @Qualifier("getReplicaDataSource") DataSource replicaDataSource) {
+        return new LazyConnectionDataSourceProxy(new ReadWriteRoutingDataSource(primaryDataSource, replicaDataSource));
+    }
+
+    /**
+     * Every connection of the pool is kept open, there is no point in shrinking a pool sized from the cores
+     */
+    private static HikariDataSource configurePool(final HikariDataSource pool, final String name,
+                                                  final TweetProperties.PoolProperties properties,
+                                                  final PoolMetricsTrackerFactory poolMetrics) {
+        final int size = properties.getMaxSize() > 0
+                ? properties.getMaxSize()
+                : Runtime.getRuntime().availableProcessors() * 2 + 1;
+
+        pool.setPoolName(name);
+        pool.setMaximumPoolSize(size);
+        pool.setMinimumIdle(size);
+        pool.setConnectionTimeout(properties.getConnectionTimeoutMillis());
+        pool.setLeakDetectionThreshold(properties.getLeakDetectionThresholdMillis());
+        pool.setMetricsTrackerFactory(poolMetrics);
+        configureStatementCache(pool, properties.getStatementCacheSize());
+
+        return pool;
+    }
+
+    /**
+     * Statement caching is done by the JDBC driver, each one with its own properties. H2 already caches the parsed
+     * statements of each session
+     */
+    private static void configureStatementCache(final HikariDataSource pool, final int size) {
+        if (size <= 0) {
+            return;
+        }
+
+        switch (DatabaseDriver.fromJdbcUrl(pool.getJdbcUrl())) {
+            case MYSQL:
+                pool.addDataSourceProperty("cachePrepStmts", "true");
+                pool.addDataSourceProperty("prepStmtCacheSize", String.valueOf(size));
+                pool.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+                pool.addDataSourceProperty("useServerPrepStmts", "true");
+                break;
+            case POSTGRESQL:
+                pool.addDataSourceProperty("preparedStatementCacheQueries", String.valueOf(size));
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -1,16 +1,24 @@
 package com.scmspain.configuration;
 
+import com.scmspain.metrics.TweetMetrics;
 import org.springframework.boot.actuate.autoconfigure.ExportMetricWriter;
 import org.springframework.boot.actuate.metrics.jmx.JmxMetricWriter;
 import org.springframework.boot.actuate.metrics.writer.MetricWriter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jmx.export.MBeanExporter;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @Configuration
+@EnableScheduling
 public class InfrastructureConfiguration {
     @Bean @ExportMetricWriter
     public MetricWriter getMetricWriter(MBeanExporter exporter) {
         return new JmxMetricWriter(exporter);
     }
+
+    @Bean
+    public TweetMetrics getTweetMetrics(MetricWriter metricWriter) {
+        return new TweetMetrics(metricWriter);
+    }
 }
@@ -1,22 +1,241 @@
 package com.scmspain.configuration;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scmspain.archive.TweetArchive;
+import com.scmspain.archive.TweetArchiveJob;
+import com.scmspain.backup.TweetBackup;
+import com.scmspain.backup.TweetBackupEndpoint;
+import com.scmspain.cache.PublisherTimelineCache;
+import com.scmspain.cache.TimelineCache;
+import com.scmspain.cache.TimelineVersion;
 import com.scmspain.controller.TweetController;
+import com.scmspain.dedup.TweetDeduplicator;
+import com.scmspain.feed.TweetFeed;
+import com.scmspain.metrics.PoolMetricsTrackerFactory;
+import com.scmspain.metrics.TweetMetrics;
+import com.scmspain.migration.Pre2015Migration;
+import com.scmspain.migration.Pre2015MigrationJob;
+import com.scmspain.ratelimit.ConcurrencyLimiter;
+import com.scmspain.ratelimit.KeyedRateLimiter;
+import com.scmspain.ratelimit.RequestLimiter;
+import com.scmspain.search.TweetSearchIndex;
+import com.scmspain.search.TweetSearchIndexLoader;
+import com.scmspain.services.AsyncTweetPublisher;
 import com.scmspain.services.TweetService;
-import org.springframework.boot.actuate.metrics.writer.MetricWriter;
+import com.scmspain.store.JpaTweetSchema;
+import com.scmspain.store.JpaTweetStore;
+import com.scmspain.store.LogStoreTransactionManager;
+import com.scmspain.store.LogTweetStore;
+import com.scmspain.store.TweetStore;
+import com.scmspain.tracing.RequestTracingFilter;
+import com.scmspain.tracing.TracingResponseBodyAdvice;
+import com.scmspain.tracing.TracingTweetStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.persistence.EntityManager;
+import java.nio.file.Paths;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Configuration
+@EnableConfigurationProperties(TweetProperties.class)
 public class TweetConfiguration {
+    /**
+     * There is no archive with the log store
+     */
     @Bean
-    public TweetService getTweetService(EntityManager entityManager, MetricWriter metricWriter) {
-        return new TweetService(entityManager, metricWriter);
+    public TweetService getTweetService(TweetStore tweetStore, TweetMetrics tweetMetrics, TweetProperties tweetProperties,
+                                        ApplicationEventPublisher eventPublisher, TimelineCache timelineCache,
+                                        AsyncTweetPublisher asyncTweetPublisher, ObjectProvider<TweetArchive> tweetArchive,
+                                        TweetSearchIndex searchIndex, PublisherTimelineCache publisherCache,
+                                        TweetDeduplicator deduplicator, PlatformTransactionManager transactionManager) {
+        // the store is wrapped here rather than in its bean, which keeps the close method of the log store
+        final TweetStore store = tweetProperties.getTracing().isEnabled() ? new TracingTweetStore(tweetStore) : tweetStore;
+        final TransactionTemplate primaryReads = new TransactionTemplate(transactionManager);
+        primaryReads.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return new TweetService(store, tweetMetrics, tweetProperties, eventPublisher, timelineCache, asyncTweetPublisher,
+                tweetArchive.getIfAvailable(), searchIndex, publisherCache, deduplicator, primaryReads);
     }
 
     @Bean
-    public TweetController getTweetConfiguration(TweetService tweetService) {
-        return new TweetController(tweetService);
+    public TweetDeduplicator getTweetDeduplicator(TweetProperties tweetProperties, TweetMetrics tweetMetrics) {
+        final TweetProperties.DedupProperties dedup = tweetProperties.getDedup();
+        return new TweetDeduplicator(dedup.isEnabled(), dedup.getWindowMillis(), dedup.getExpectedTweets(),
+                dedup.getFalsePositiveRate(), dedup.getMaxIdempotencyKeys(), tweetMetrics);
+    }
+
+    /**
+     * The log store is closed with the context, the JPA store lives as long as the entity manager
+     */
+    @Bean
+    public TweetStore getTweetStore(EntityManager entityManager, TweetProperties tweetProperties) {
+        final TweetProperties.StoreProperties store = tweetProperties.getStore();
+        switch (store.getType()) {
+            case TweetProperties.StoreProperties.JPA:
+                return new JpaTweetStore(entityManager, tweetProperties);
+            case TweetProperties.StoreProperties.LOG:
+                return new LogTweetStore(Paths.get(store.getDirectory()), store.getSegmentSizeBytes(), store.isForceWrites());
+            default:
+                throw new IllegalArgumentException("Unknown tweet.store.type " + store.getType());
+        }
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "tweet.store", name = "type", havingValue = TweetProperties.StoreProperties.JPA, matchIfMissing = true)
+    public JpaTweetSchema getJpaTweetSchema(EntityManager entityManager, PlatformTransactionManager transactionManager) {
+        return new JpaTweetSchema(entityManager, new TransactionTemplate(transactionManager));
+    }
+
+    /**
+     * The log store does not need database transactions, this one replaces the JPA transaction manager of Spring Boot
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "tweet.store", name = "type", havingValue = TweetProperties.StoreProperties.LOG)
+    public PlatformTransactionManager getLogStoreTransactionManager() {
+        return new LogStoreTransactionManager();
+    }
+
+    @Bean
+    public TweetSearchIndex getTweetSearchIndex() {
+        return new TweetSearchIndex();
+    }
+
+    @Bean
+    public TweetSearchIndexLoader getTweetSearchIndexLoader(TweetSearchIndex searchIndex, TweetStore tweetStore,
+                                                            PlatformTransactionManager transactionManager,
+                                                            TweetProperties tweetProperties) {
+        return new TweetSearchIndexLoader(searchIndex, tweetStore, new TransactionTemplate(transactionManager),
+                tweetProperties.getSearch().getRebuildThreads());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "tweet.store", name = "type", havingValue = TweetProperties.StoreProperties.JPA, matchIfMissing = true)
+    public TweetArchive getTweetArchive(EntityManager entityManager, TweetProperties tweetProperties) {
+        return new TweetArchive(entityManager, tweetProperties.getStream().getFetchSize());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "tweet.store", name = "type", havingValue = TweetProperties.StoreProperties.JPA, matchIfMissing = true)
+    public TweetArchiveJob getTweetArchiveJob(TweetProperties tweetProperties, TweetArchive tweetArchive,
+                                              PlatformTransactionManager transactionManager,
+                                              ApplicationEventPublisher eventPublisher, TweetMetrics tweetMetrics) {
+        final TweetProperties.ArchiveProperties archive = tweetProperties.getArchive();
+        return new TweetArchiveJob(archive.isEnabled(), archive.getBatchSize(), archive.getPublishedHorizonDays(), tweetArchive,
+                new TransactionTemplate(transactionManager), eventPublisher, tweetMetrics);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "tweet.store", name = "type", havingValue = TweetProperties.StoreProperties.JPA, matchIfMissing = true)
+    public Pre2015Migration getPre2015Migration(EntityManager entityManager) {
+        return new Pre2015Migration(entityManager);
+    }
+
+    /**
+     * The migration writes through the primary pool, so it backs off while requests wait for one of its connections
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "tweet.store", name = "type", havingValue = TweetProperties.StoreProperties.JPA, matchIfMissing = true)
+    public Pre2015MigrationJob getPre2015MigrationJob(TweetProperties tweetProperties, Pre2015Migration migration,
+                                                      PoolMetricsTrackerFactory poolMetrics,
+                                                      PlatformTransactionManager transactionManager,
+                                                      ApplicationEventPublisher eventPublisher,
+                                                      TimelineVersion timelineVersion, TweetMetrics tweetMetrics) {
+        final TweetProperties.MigrationProperties properties = tweetProperties.getMigration();
+        return new Pre2015MigrationJob(properties.isEnabled(), properties.getThreads(), properties.getRangeSize(),
+                properties.getChunkSize(), properties.getMaxChunksPerSecond(),
+                () -> poolMetrics.getPendingThreads(DataSourceConfiguration.PRIMARY_POOL), migration,
+                new TransactionTemplate(transactionManager), eventPublisher, timelineVersion, tweetMetrics);
+    }
+
+    @Bean
+    public AsyncTweetPublisher getAsyncTweetPublisher(TweetProperties tweetProperties, PlatformTransactionManager transactionManager,
+                                                      TweetMetrics tweetMetrics) {
+        final TweetProperties.AsyncPublishProperties asyncPublish = tweetProperties.getAsyncPublish();
+        return new AsyncTweetPublisher(asyncPublish.isEnabled(), asyncPublish.getQueueCapacity(), asyncPublish.getMaxBatchSize(),
+                asyncPublish.getShutdownTimeoutMillis(), new TransactionTemplate(transactionManager), tweetMetrics);
+    }
+
+    @Bean
+    public TimelineCache getTimelineCache(TweetProperties tweetProperties, ObjectMapper objectMapper) {
+        return new TimelineCache(tweetProperties.getTimelineCache().getCapacity(), objectMapper);
+    }
+
+    @Bean
+    public PublisherTimelineCache getPublisherTimelineCache(TweetProperties tweetProperties) {
+        final TweetProperties.PublisherCacheProperties publisherCache = tweetProperties.getPublisherCache();
+        return new PublisherTimelineCache(publisherCache.getMaxPublishers(), publisherCache.getCapacity());
+    }
+
+    @Bean
+    public TimelineVersion getTimelineVersion() {
+        return new TimelineVersion();
+    }
+
+    @Bean
+    public TweetFeed getTweetFeed(TweetProperties tweetProperties, TweetMetrics tweetMetrics) {
+        final TweetProperties.FeedProperties feed = tweetProperties.getFeed();
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return new TweetFeed(feed.getMaxSubscribers(), feed.getBufferSize(), feed.getReplaySize(), feed.getWriteTimeoutMillis(),
+                feed.getMaxExtraThreads(), new ThreadPoolExecutor(feed.getDispatcherThreads(), feed.getDispatcherThreads(), 0L, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(), runnable -> {
+                    final Thread thread = new Thread(runnable, "tweet-feed-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }), tweetMetrics);
+    }
+
+    @Bean
+    public TweetBackup getTweetBackup(TweetService tweetService, TweetProperties tweetProperties) {
+        final TweetProperties.BackupProperties backup = tweetProperties.getBackup();
+        return new TweetBackup(tweetService, backup.getBufferSize(), backup.getImportBatchSize());
+    }
+
+    @Bean
+    public TweetBackupEndpoint getTweetBackupEndpoint(TweetBackup tweetBackup) {
+        return new TweetBackupEndpoint(tweetBackup);
+    }
+
+    @Bean
+    public RequestTracingFilter getRequestTracingFilter(TweetProperties tweetProperties, TweetMetrics tweetMetrics) {
+        final TweetProperties.TracingProperties tracing = tweetProperties.getTracing();
+        return new RequestTracingFilter(tracing.isEnabled(), tracing.getSlowThresholdMillis(), tracing.getSlowSampleRate(),
+                tweetMetrics);
+    }
+
+    @Bean
+    public TracingResponseBodyAdvice getTracingResponseBodyAdvice() {
+        return new TracingResponseBodyAdvice();
+    }
+
+    @Bean
+    public RequestLimiter getRequestLimiter(TweetProperties tweetProperties, TweetMetrics tweetMetrics) {
+        final TweetProperties.RateLimitProperties rateLimit = tweetProperties.getRateLimit();
+        final TweetProperties.LoadSheddingProperties loadShedding = tweetProperties.getLoadShedding();
+        return new RequestLimiter(rateLimit.isEnabled(), rateLimit.getClientAddressHeader(),
+                new KeyedRateLimiter("client", rateLimit.getClientPermitsPerSecond(), rateLimit.getClientBurst(),
+                        rateLimit.getMaxKeys(), tweetMetrics),
+                new KeyedRateLimiter("publisher", rateLimit.getPublisherPermitsPerSecond(), rateLimit.getPublisherBurst(),
+                        rateLimit.getMaxKeys(), tweetMetrics),
+                loadShedding.isEnabled()
+                        ? new ConcurrencyLimiter(loadShedding.getInitialLimit(), loadShedding.getMinLimit(), loadShedding.getMaxLimit(),
+                                loadShedding.getTargetLatencyMillis(), loadShedding.getBackoffRatio(), tweetMetrics)
+                        : null);
+    }
+
+    @Bean
+    public TweetController getTweetConfiguration(TweetService tweetService, ObjectMapper objectMapper, TimelineVersion timelineVersion,
+                                                 TweetFeed tweetFeed, TweetProperties tweetProperties, RequestLimiter requestLimiter) {
+        return new TweetController(tweetService, objectMapper, timelineVersion, tweetFeed, tweetProperties.getFeed().getTimeoutMillis(),
+                requestLimiter);
     }
 }
@@ -0,0 +1,901 @@
+package com.scmspain.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Tunable settings of the tweet service, bound from the "tweet.*" properties
+ */
+@ConfigurationProperties(prefix = "tweet")
+public class TweetProperties {
+
+    private final ListProperties list = new ListProperties();
+    private final TimelineCacheProperties timelineCache = new TimelineCacheProperties();
+    private final PublisherCacheProperties publisherCache = new PublisherCacheProperties();
+    private final StreamProperties stream = new StreamProperties();
+    private final BulkProperties bulk = new BulkProperties();
+    private final AsyncPublishProperties asyncPublish = new AsyncPublishProperties();
+    private final ReplicaProperties replica = new ReplicaProperties();
+    private final ArchiveProperties archive = new ArchiveProperties();
+    private final PoolProperties pool = new PoolProperties();
+    private final SearchProperties search = new SearchProperties();
+    private final FeedProperties feed = new FeedProperties();
+    private final StoreProperties store = new StoreProperties();
+    private final BackupProperties backup = new BackupProperties();
+    private final MigrationProperties migration = new MigrationProperties();
+    private final RateLimitProperties rateLimit = new RateLimitProperties();
+    private final LoadSheddingProperties loadShedding = new LoadSheddingProperties();
+    private final TracingProperties tracing = new TracingProperties();
+    private final DedupProperties dedup = new DedupProperties();
+
+    public ListProperties getList() {
+        return list;
+    }
+
+    public TimelineCacheProperties getTimelineCache() {
+        return timelineCache;
+    }
+
+    public PublisherCacheProperties getPublisherCache() {
+        return publisherCache;
+    }
+
+    public StreamProperties getStream() {
+        return stream;
+    }
+
+    public BulkProperties getBulk() {
+        return bulk;
+    }
+
+    public AsyncPublishProperties getAsyncPublish() {
+        return asyncPublish;
+    }
+
+    public ReplicaProperties getReplica() {
+        return replica;
+    }
+
+    public ArchiveProperties getArchive() {
+        return archive;
+    }
+
+    public PoolProperties getPool() {
+        return pool;
+    }
+
+    public SearchProperties getSearch() {
+        return search;
+    }
+
+    public FeedProperties getFeed() {
+        return feed;
+    }
+
+    public StoreProperties getStore() {
+        return store;
+    }
+
+    public BackupProperties getBackup() {
+        return backup;
+    }
+
+    public MigrationProperties getMigration() {
+        return migration;
+    }
+
+    public RateLimitProperties getRateLimit() {
+        return rateLimit;
+    }
+
+    public LoadSheddingProperties getLoadShedding() {
+        return loadShedding;
+    }
+
+    public TracingProperties getTracing() {
+        return tracing;
+    }
+
+    public DedupProperties getDedup() {
+        return dedup;
+    }
+
+    public static class ListProperties {
+        /**
+         * Maximum number of tweets returned by a single list call, with or without cursor
+         */
+        private int maxResults = 1000;
+
+        public int getMaxResults() {
+            return maxResults;
+        }
+
+        public void setMaxResults(int maxResults) {
+            this.maxResults = maxResults;
+        }
+    }
+
+    public static class TimelineCacheProperties {
+        /**
+         * Number of newest published tweets kept in memory. 0 disables the cache
+         */
+        private int capacity = 1000;
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+
+    public static class PublisherCacheProperties {
+        /**
+         * Publishers whose newest tweets are kept in memory, the least recently read leaves first. 0 disables the cache
+         */
+        private int maxPublishers = 10000;
+        /**
+         * Newest tweets kept per publisher. Pages beyond them are read from the repository
+         */
+        private int capacity = 50;
+
+        public int getMaxPublishers() {
+            return maxPublishers;
+        }
+
+        public void setMaxPublishers(int maxPublishers) {
+            this.maxPublishers = maxPublishers;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+
+    public static class StreamProperties {
+        /**
+         * Number of rows the JDBC driver fetches per round-trip while streaming a tweet list
+         */
+        private int fetchSize = 500;
+
+        public int getFetchSize() {
+            return fetchSize;
+        }
+
+        public void setFetchSize(int fetchSize) {
+            this.fetchSize = fetchSize;
+        }
+    }
+
+    public static class BulkProperties {
+        /**
+         * Maximum number of tweets accepted by a single bulk operation
+         */
+        private int maxItems = 10000;
+        /**
+         * Number of tweets flushed together, it should match hibernate.jdbc.batch_size
+         */
+        private int batchSize = 50;
+        /**
+         * Number of ids in the IN list of each bulk discard update
+         */
+        private int discardChunkSize = 500;
+
+        public int getMaxItems() {
+            return maxItems;
+        }
+
+        public void setMaxItems(int maxItems) {
+            this.maxItems = maxItems;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getDiscardChunkSize() {
+            return discardChunkSize;
+        }
+
+        public void setDiscardChunkSize(int discardChunkSize) {
+            this.discardChunkSize = discardChunkSize;
+        }
+    }
+
+    public static class AsyncPublishProperties {
+        /**
+         * Queue published tweets and write them from a background thread instead of inside the request
+         */
+        private boolean enabled = false;
+        /**
+         * Maximum number of queued tweets, publishing is rejected beyond it
+         */
+        private int queueCapacity = 10000;
+        /**
+         * Maximum number of queued tweets written in a single transaction
+         */
+        private int maxBatchSize = 500;
+        /**
+         * Time given to the writer to drain the queue on shutdown
+         */
+        private long shutdownTimeoutMillis = 30000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public void setMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        public long getShutdownTimeoutMillis() {
+            return shutdownTimeoutMillis;
+        }
+
+        public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+            this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        }
+    }
+
+    public static class ArchiveProperties {
+        /**
+         * Move discarded and old tweets to the monthly archive tables on a schedule
+         */
+        private boolean enabled = false;
+        /**
+         * Maximum number of tweets moved in a single transaction
+         */
+        private int batchSize = 500;
+        /**
+         * Age in days after which published tweets are archived and leave the published list. 0 keeps them
+         */
+        private int publishedHorizonDays = 0;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getPublishedHorizonDays() {
+            return publishedHorizonDays;
+        }
+
+        public void setPublishedHorizonDays(int publishedHorizonDays) {
+            this.publishedHorizonDays = publishedHorizonDays;
+        }
+    }
+
+    public static class PoolProperties {
+        /**
+         * Connections of each pool, kept open all the time. 0 derives it from the cores: 2 * cores + 1
+         */
+        private int maxSize = 0;
+        /**
+         * Time a request waits for a free connection before failing with 503
+         */
+        private long connectionTimeoutMillis = 5000;
+        /**
+         * Time a connection can be held before a possible leak is logged with the stack trace that took it. 0 disables it
+         */
+        private long leakDetectionThresholdMillis = 60000;
+        /**
+         * Prepared statements cached by the driver per connection, on drivers supporting it. 0 disables it
+         */
+        private int statementCacheSize = 250;
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public long getConnectionTimeoutMillis() {
+            return connectionTimeoutMillis;
+        }
+
+        public void setConnectionTimeoutMillis(long connectionTimeoutMillis) {
+            this.connectionTimeoutMillis = connectionTimeoutMillis;
+        }
+
+        public long getLeakDetectionThresholdMillis() {
+            return leakDetectionThresholdMillis;
+        }
+
+        public void setLeakDetectionThresholdMillis(long leakDetectionThresholdMillis) {
+            this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+        }
+
+        public int getStatementCacheSize() {
+            return statementCacheSize;
+        }
+
+        public void setStatementCacheSize(int statementCacheSize) {
+            this.statementCacheSize = statementCacheSize;
+        }
+    }
+
+    public static class SearchProperties {
+        /**
+         * Threads rebuilding the search index on start-up, each one loading a range of ids. 0 uses one per core
+         */
+        private int rebuildThreads = 0;
+
+        public int getRebuildThreads() {
+            return rebuildThreads;
+        }
+
+        public void setRebuildThreads(int rebuildThreads) {
+            this.rebuildThreads = rebuildThreads;
+        }
+    }
+
+    public static class FeedProperties {
+        /**
+         * Clients connected to the live feed at most, further ones get a 503
+         */
+        private int maxSubscribers = 10000;
+        /**
+         * Events waiting to be written to one client before it is disconnected as too slow
+         */
+        private int bufferSize = 256;
+        /**
+         * Latest events kept to resume a feed from the Last-Event-ID of a reconnecting client
+         */
+        private int replaySize = 1000;
+        /**
+         * Threads writing events to all the clients, plus one for each write blocked by a client that stopped reading, up
+         * to the maximum of extra threads
+         */
+        private int dispatcherThreads = 2;
+        /**
+         * Time a feed connection is kept open, the client reconnects after it
+         */
+        private long timeoutMillis = 1800000;
+        /**
+         * Time a write to one client may block its dispatcher thread before the client is disconnected. It is checked on
+         * every event and heartbeat
+         */
+        private long writeTimeoutMillis = 5000;
+        /**
+         * Threads added at most to the dispatcher threads while writes are blocked, past them blocked clients are only
+         * disconnected
+         */
+        private int maxExtraThreads = 8;
+
+        public int getMaxSubscribers() {
+            return maxSubscribers;
+        }
+
+        public void setMaxSubscribers(int maxSubscribers) {
+            this.maxSubscribers = maxSubscribers;
+        }
+
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        public void setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        public int getReplaySize() {
+            return replaySize;
+        }
+
+        public void setReplaySize(int replaySize) {
+            this.replaySize = replaySize;
+        }
+
+        public int getDispatcherThreads() {
+            return dispatcherThreads;
+        }
+
+        public void setDispatcherThreads(int dispatcherThreads) {
+            this.dispatcherThreads = dispatcherThreads;
+        }
+
+        public long getTimeoutMillis() {
+            return timeoutMillis;
+        }
+
+        public void setTimeoutMillis(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        public long getWriteTimeoutMillis() {
+            return writeTimeoutMillis;
+        }
+
+        public void setWriteTimeoutMillis(long writeTimeoutMillis) {
+            this.writeTimeoutMillis = writeTimeoutMillis;
+        }
+
+        public int getMaxExtraThreads() {
+            return maxExtraThreads;
+        }
+
+        public void setMaxExtraThreads(int maxExtraThreads) {
+            this.maxExtraThreads = maxExtraThreads;
+        }
+    }
+
+    public static class StoreProperties {
+        public static final String JPA = "jpa";
+        public static final String LOG = "log";
+
+        /**
+         * Where tweets are kept: "jpa" for the database, "log" for memory-mapped log files
+         */
+        private String type = JPA;
+        /**
+         * Directory of the log segments when the store is "log"
+         */
+        private String directory = "data/tweets";
+        /**
+         * Size of each log segment file
+         */
+        private int segmentSizeBytes = 64 * 1024 * 1024;
+        /**
+         * Force every log append to disk. Without it appends survive a crash of the process but not of the machine
+         */
+        private boolean forceWrites = false;
+
+        public String getType() {
+            return type;
+        }
+
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public int getSegmentSizeBytes() {
+            return segmentSizeBytes;
+        }
+
+        public void setSegmentSizeBytes(int segmentSizeBytes) {
+            this.segmentSizeBytes = segmentSizeBytes;
+        }
+
+        public boolean isForceWrites() {
+            return forceWrites;
+        }
+
+        public void setForceWrites(boolean forceWrites) {
+            this.forceWrites = forceWrites;
+        }
+    }
+
+    public static class BackupProperties {
+        /**
+         * Size of the buffer tweets are exported through and imported from, larger than any tweet record
+         */
+        private int bufferSize = 1024 * 1024;
+        /**
+         * Number of imported tweets stored per transaction
+         */
+        private int importBatchSize = 1000;
+
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        public void setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        public int getImportBatchSize() {
+            return importBatchSize;
+        }
+
+        public void setImportBatchSize(int importBatchSize) {
+            this.importBatchSize = importBatchSize;
+        }
+    }
+
+    public static class MigrationProperties {
+        /**
+         * Run the pre-2015 migration of the tweets without pre2015MigrationStatus
+         */
+        private boolean enabled = false;
+        /**
+         * Ranges migrated in parallel, it should stay well below tweet.pool.max-size
+         */
+        private int threads = 2;
+        /**
+         * Number of ids per range, and per checkpoint
+         */
+        private long rangeSize = 100000;
+        /**
+         * Number of tweets migrated per transaction
+         */
+        private int chunkSize = 500;
+        /**
+         * Chunks started per second across all threads. 0 disables the limit
+         */
+        private int maxChunksPerSecond = 20;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public long getRangeSize() {
+            return rangeSize;
+        }
+
+        public void setRangeSize(long rangeSize) {
+            this.rangeSize = rangeSize;
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public int getMaxChunksPerSecond() {
+            return maxChunksPerSecond;
+        }
+
+        public void setMaxChunksPerSecond(int maxChunksPerSecond) {
+            this.maxChunksPerSecond = maxChunksPerSecond;
+        }
+    }
+
+    public static class RateLimitProperties {
+        /**
+         * Refuse with 429 the writes of clients and publishers over their rate
+         */
+        private boolean enabled = false;
+        /**
+         * Header with the client address set by the proxy in front of the service, such as X-Forwarded-For. Only set
+         * it when every request goes through that proxy, clients can send the header themselves. Unset, clients are
+         * told apart by the remote address of their connection
+         */
+        private String clientAddressHeader;
+        /**
+         * Sustained writes per second of one client address
+         */
+        private double clientPermitsPerSecond = 100;
+        /**
+         * Writes one client address can make at once after being idle
+         */
+        private int clientBurst = 200;
+        /**
+         * Sustained tweets per second of one publisher
+         */
+        private double publisherPermitsPerSecond = 10;
+        /**
+         * Tweets one publisher can publish at once after being idle
+         */
+        private int publisherBurst = 50;
+        /**
+         * Client addresses, and publishers, tracked at most. New ones are refused while all of them are in use
+         */
+        private int maxKeys = 100000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getClientAddressHeader() {
+            return clientAddressHeader;
+        }
+
+        public void setClientAddressHeader(String clientAddressHeader) {
+            this.clientAddressHeader = clientAddressHeader;
+        }
+
+        public double getClientPermitsPerSecond() {
+            return clientPermitsPerSecond;
+        }
+
+        public void setClientPermitsPerSecond(double clientPermitsPerSecond) {
+            this.clientPermitsPerSecond = clientPermitsPerSecond;
+        }
+
+        public int getClientBurst() {
+            return clientBurst;
+        }
+
+        public void setClientBurst(int clientBurst) {
+            this.clientBurst = clientBurst;
+        }
+
+        public double getPublisherPermitsPerSecond() {
+            return publisherPermitsPerSecond;
+        }
+
+        public void setPublisherPermitsPerSecond(double publisherPermitsPerSecond) {
+            this.publisherPermitsPerSecond = publisherPermitsPerSecond;
+        }
+
+        public int getPublisherBurst() {
+            return publisherBurst;
+        }
+
+        public void setPublisherBurst(int publisherBurst) {
+            this.publisherBurst = publisherBurst;
+        }
+
+        public int getMaxKeys() {
+            return maxKeys;
+        }
+
+        public void setMaxKeys(int maxKeys) {
+            this.maxKeys = maxKeys;
+        }
+    }
+
+    public static class LoadSheddingProperties {
+        /**
+         * Refuse with 503 the writes over a concurrency limit that adapts to their latency
+         */
+        private boolean enabled = false;
+        /**
+         * Writes in flight allowed on start-up
+         */
+        private int initialLimit = 50;
+        /**
+         * Writes in flight always allowed, however slow they are
+         */
+        private int minLimit = 4;
+        /**
+         * Writes in flight allowed at most, however fast they are
+         */
+        private int maxLimit = 200;
+        /**
+         * Latency of a write above which the limit is cut
+         */
+        private long targetLatencyMillis = 250;
+        /**
+         * Factor applied to the limit when a write is slower than the target
+         */
+        private double backoffRatio = 0.9;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public long getTargetLatencyMillis() {
+            return targetLatencyMillis;
+        }
+
+        public void setTargetLatencyMillis(long targetLatencyMillis) {
+            this.targetLatencyMillis = targetLatencyMillis;
+        }
+
+        public double getBackoffRatio() {
+            return backoffRatio;
+        }
+
+        public void setBackoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+        }
+    }
+
+    public static class TracingProperties {
+        /**
+         * Time the phases of every request, count its SQL statements and rows, and log the slow ones
+         */
+        private boolean enabled = true;
+        /**
+         * Requests slower than this are counted as slow and can be logged
+         */
+        private long slowThresholdMillis = 500;
+        /**
+         * Fraction of the slow requests logged with their breakdown, from 0 to 1
+         */
+        private double slowSampleRate = 0.1;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getSlowThresholdMillis() {
+            return slowThresholdMillis;
+        }
+
+        public void setSlowThresholdMillis(long slowThresholdMillis) {
+            this.slowThresholdMillis = slowThresholdMillis;
+        }
+
+        public double getSlowSampleRate() {
+            return slowSampleRate;
+        }
+
+        public void setSlowSampleRate(double slowSampleRate) {
+            this.slowSampleRate = slowSampleRate;
+        }
+    }
+
+    public static class DedupProperties {
+        /**
+         * Refuse the publications that repeat the publisher and text of a tweet published within the window, or reuse its Idempotency-Key
+         */
+        private boolean enabled = false;
+        /**
+         * Time a publication is remembered for
+         */
+        private long windowMillis = 300000;
+        /**
+         * Tweets published per window the Bloom filter is sized for, it holds about 1.2 bytes per tweet at 1% false positives
+         */
+        private int expectedTweets = 1000000;
+        /**
+         * Share of new tweets wrongly found in the filter, and then looked up in the store, with expectedTweets tweets per window
+         */
+        private double falsePositiveRate = 0.01;
+        /**
+         * Idempotency keys remembered at most. Keys sent while it is full are not checked
+         */
+        private int maxIdempotencyKeys = 100000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getWindowMillis() {
+            return windowMillis;
+        }
+
+        public void setWindowMillis(long windowMillis) {
+            this.windowMillis = windowMillis;
+        }
+
+        public int getExpectedTweets() {
+            return expectedTweets;
+        }
+
+        public void setExpectedTweets(int expectedTweets) {
+            this.expectedTweets = expectedTweets;
+        }
+
+        public double getFalsePositiveRate() {
+            return falsePositiveRate;
+        }
+
+        public void setFalsePositiveRate(double falsePositiveRate) {
+            this.falsePositiveRate = falsePositiveRate;
+        }
+
+        public int getMaxIdempotencyKeys() {
+            return maxIdempotencyKeys;
+        }
+
+        public void setMaxIdempotencyKeys(int maxIdempotencyKeys) {
+            this.maxIdempotencyKeys = maxIdempotencyKeys;
+        }
+    }
+
+    public static class ReplicaProperties {
+        /**
+         * JDBC url of the read replica. When set, read-only transactions use the replica and the rest the primary
+         */
+        private String url;
+        private String username;
+        private String password;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+    }
+}
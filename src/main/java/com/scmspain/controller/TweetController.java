@@ -1,42 +1,246 @@
 package com.scmspain.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.scmspain.cache.EncodedPage;
+import com.scmspain.cache.TimelineVersion;
+import com.scmspain.dedup.DuplicateTweetException;
+import com.scmspain.dtos.TweetCursor;
 import com.scmspain.dtos.TweetDTO;
+import com.scmspain.dtos.TweetPage;
+import com.scmspain.dtos.TweetResultDTO;
+import com.scmspain.feed.TweetFeed;
+import com.scmspain.ratelimit.RateLimitExceededException;
+import com.scmspain.ratelimit.RequestLimiter;
 import com.scmspain.services.TweetService;
+import com.scmspain.tracing.RequestTrace;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.springframework.http.HttpStatus.*;
 
 @RestController
 public class TweetController {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
     private TweetService tweetService;
+    private ObjectMapper objectMapper;
+    private ObjectWriter tweetWriter;
+    private TimelineVersion timelineVersion;
+    private TweetFeed tweetFeed;
+    private long feedTimeoutMillis;
+    private RequestLimiter requestLimiter;
 
-    public TweetController(TweetService tweetService) {
+    public TweetController(TweetService tweetService, ObjectMapper objectMapper, TimelineVersion timelineVersion,
+                           TweetFeed tweetFeed, long feedTimeoutMillis, RequestLimiter requestLimiter) {
         this.tweetService = tweetService;
+        this.objectMapper = objectMapper;
+        this.timelineVersion = timelineVersion;
+        this.tweetFeed = tweetFeed;
+        this.feedTimeoutMillis = feedTimeoutMillis;
+        this.requestLimiter = requestLimiter;
+        // flushing after every tweet would send one chunk per tweet, let the output buffer decide instead
+        this.tweetWriter = objectMapper.writerFor(TweetDTO.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
     }
 
     @GetMapping("/tweet")
-    public List<TweetDTO> listAllPublishedTweets() {
-        return this.tweetService.listAllPublishedTweets();
+    public ResponseEntity<List<TweetDTO>> listAllPublishedTweets(@RequestParam(value = "cursor", required = false) String cursor,
+                                                                 @RequestParam(value = "limit", required = false) Integer limit,
+                                                                 WebRequest webRequest, HttpServletRequest request,
+                                                                 HttpServletResponse response) throws IOException {
+        if (notModified(webRequest)) {
+            return null;
+        }
+
+        if (cursor == null) {
+            final EncodedPage encoded = this.tweetService.getEncodedPublishedTweets(limit);
+            if (encoded != null) {
+                writeEncoded(encoded, request, response);
+                return null;
+            }
+        }
+
+        return toResponse(this.tweetService.listPublishedTweets(TweetCursor.parse(cursor), limit));
+    }
+
+    @GetMapping(value = "/tweet", params = "stream=true")
+    public void streamAllPublishedTweets(HttpServletResponse response, WebRequest webRequest) throws IOException {
+        if (notModified(webRequest)) {
+            return;
+        }
+
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+
+        try (JsonGenerator generator = this.objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            this.tweetService.streamPublishedTweets(tweet -> writeTweet(generator, tweet));
+            generator.writeEndArray();
+        }
+    }
+
+    @GetMapping(value = "/tweet", params = "publisher")
+    public ResponseEntity<List<TweetDTO>> listPublishedTweetsByPublisher(@RequestParam("publisher") String publisher,
+                                                                         @RequestParam(value = "cursor", required = false) String cursor,
+                                                                         @RequestParam(value = "limit", required = false) Integer limit,
+                                                                         WebRequest webRequest) {
+        if (notModified(webRequest)) {
+            return null;
+        }
+        return toResponse(this.tweetService.listPublishedTweetsByPublisher(publisher, TweetCursor.parse(cursor), limit));
     }
 
+    /**
+     * Live feed of published and discarded tweets as Server-Sent Events. Reconnecting clients send the id of the last
+     * event they got as the Last-Event-ID header, or the lastEventId parameter, to receive what they missed
+     */
+    @GetMapping(value = "/tweet/feed", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter feedTweets(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader,
+                                 @RequestParam(value = "lastEventId", required = false) String lastEventId) {
+        final SseEmitter emitter = new SseEmitter(this.feedTimeoutMillis);
+        this.tweetFeed.subscribe(emitter, lastEventIdHeader != null ? lastEventIdHeader : lastEventId);
+        return emitter;
+    }
+
+    @GetMapping("/tweet/search")
+    public List<TweetDTO> searchPublishedTweets(@RequestParam("q") String query,
+                                                @RequestParam(value = "limit", required = false) Integer limit,
+                                                WebRequest webRequest) {
+        if (notModified(webRequest)) {
+            return null;
+        }
+        return this.tweetService.searchTweets(query, limit);
+    }
+
+    /**
+     * 202 when publishing is asynchronous, the tweet is only queued and shows up in the lists once it is written
+     */
     @PostMapping("/tweet")
-    @ResponseStatus(CREATED)
-    public void publishTweet(@RequestBody TweetDTO tweetDTO) {
-        this.tweetService.publishTweet(tweetDTO);
+    public ResponseEntity<Void> publishTweet(@RequestBody TweetDTO tweetDTO,
+                                             @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                             HttpServletRequest request) {
+        this.requestLimiter.run(request, tweetDTO.getPublisher(),
+                () -> this.tweetService.publishTweet(tweetDTO, idempotencyKey));
+        return ResponseEntity.status(this.tweetService.isPublishingAsync() ? ACCEPTED : CREATED).build();
+    }
+
+    @PostMapping("/tweet/bulk")
+    @ResponseStatus(OK)
+    public List<TweetResultDTO> publishTweets(@RequestBody List<TweetDTO> tweetDTOs, HttpServletRequest request) {
+        return this.requestLimiter.call(request, null, () -> this.tweetService.publishTweets(tweetDTOs));
     }
 
     @PostMapping("/discarded")
     @ResponseStatus(OK)
-    public void discardTweet(@RequestBody TweetDTO tweetDTO) {
-        this.tweetService.discardTweet(Long.parseLong(tweetDTO.getTweet()));
+    public void discardTweet(@RequestBody TweetDTO tweetDTO, HttpServletRequest request) {
+        this.requestLimiter.run(request, null,
+                () -> this.tweetService.discardTweet(Long.parseLong(tweetDTO.getTweet())));
     }
 
-    @GetMapping("/discarded")
+    @PostMapping("/discarded/bulk")
     @ResponseStatus(OK)
-    public List<TweetDTO> listAllDiscardedTweets() {
-        return this.tweetService.listAllDiscardedTweets();
+    public List<Long> discardTweets(@RequestBody List<Long> tweetIds, HttpServletRequest request) {
+        return this.requestLimiter.call(request, null, () -> this.tweetService.discardTweets(tweetIds));
+    }
+
+    @GetMapping("/discarded")
+    public ResponseEntity<List<TweetDTO>> listAllDiscardedTweets(@RequestParam(value = "cursor", required = false) String cursor,
+                                                                 @RequestParam(value = "limit", required = false) Integer limit,
+                                                                 WebRequest webRequest) {
+        if (notModified(webRequest)) {
+            return null;
+        }
+        return toResponse(this.tweetService.listDiscardedTweets(TweetCursor.parse(cursor), limit));
+    }
+
+    /**
+     * Set the ETag and Last-Modified headers and answer 304 when the client already has the current version of the lists.
+     * The version is read before the lists, so a concurrent change can only make the response newer than its tag.
+     * Last-Modified only has a resolution of one second, too coarse to tell apart two changes of the same second, so a
+     * client that only sends If-Modified-Since gets the whole list with its ETag to revalidate with next time
+     */
+    private boolean notModified(final WebRequest webRequest) {
+        final String eTag = this.timelineVersion.getETag();
+
+        if (webRequest.getHeader(HttpHeaders.IF_NONE_MATCH) == null
+                && webRequest.getHeader(HttpHeaders.IF_MODIFIED_SINCE) != null) {
+            return webRequest.checkNotModified(eTag);
+        }
+
+        return webRequest.checkNotModified(eTag, this.timelineVersion.getLastModified());
+    }
+
+    /**
+     * Copy an already encoded page to the response, compressed when the client accepts gzip
+     */
+    private void writeEncoded(final EncodedPage page, final HttpServletRequest request,
+                              final HttpServletResponse response) throws IOException {
+        RequestTrace.markResponse();
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        if (page.hasNext()) {
+            response.setHeader(NEXT_CURSOR_HEADER, page.getNextCursor().toString());
+        }
+
+        final byte[] body;
+        if (acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            body = page.getGzip();
+        } else {
+            body = page.getJson();
+        }
+
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private static boolean acceptsGzip(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (String coding : acceptEncoding.split(",")) {
+            final String[] parameters = coding.trim().toLowerCase(Locale.ROOT).split(";");
+            if (parameters[0].trim().equals("gzip")) {
+                return parameters.length == 1 || !parameters[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+
+        return false;
+    }
+
+    private void writeTweet(final JsonGenerator generator, final TweetDTO tweet) {
+        try {
+            this.tweetWriter.writeValue(generator, tweet);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private ResponseEntity<List<TweetDTO>> toResponse(final TweetPage page) {
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+
+        if (page.hasNext()) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor().toString());
+        }
+
+        return response.body(page.getTweets());
     }
 
     @ExceptionHandler(IllegalArgumentException.class)
@@ -48,4 +252,48 @@ public class TweetController {
             public String exceptionClass = ex.getClass().getSimpleName();
         };
     }
+
+    @ExceptionHandler(DuplicateTweetException.class)
+    @ResponseStatus(CONFLICT)
+    @ResponseBody
+    public Object duplicateTweetException(DuplicateTweetException ex) {
+        return new Object() {
+            public String message = ex.getMessage();
+            public String exceptionClass = ex.getClass().getSimpleName();
+        };
+    }
+
+    @ExceptionHandler(RateLimitExceededException.class)
+    @ResponseStatus(TOO_MANY_REQUESTS)
+    @ResponseBody
+    public Object rateLimitExceededException(RateLimitExceededException ex, HttpServletResponse response) {
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(ex.getRetryAfterSeconds()));
+        return new Object() {
+            public String message = ex.getMessage();
+            public String exceptionClass = ex.getClass().getSimpleName();
+        };
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(SERVICE_UNAVAILABLE)
+    @ResponseBody
+    public Object rejectedExecutionException(RejectedExecutionException ex) {
+        return new Object() {
+            public String message = ex.getMessage();
+            public String exceptionClass = ex.getClass().getSimpleName();
+        };
+    }
+
+    /**
+     * No connection could be taken from the pool in time, the request can be retried later
+     */
+    @ExceptionHandler(CannotCreateTransactionException.class)
+    @ResponseStatus(SERVICE_UNAVAILABLE)
+    @ResponseBody
+    public Object cannotCreateTransactionException(CannotCreateTransactionException ex) {
+        return new Object() {
+            public String message = ex.getMessage();
+            public String exceptionClass = ex.getClass().getSimpleName();
+        };
+    }
 }
@@ -0,0 +1,10 @@
+package com.scmspain.dedup;
+
+/**
+ * The tweet repeats one already published within the deduplication window, or reuses its idempotency key
+ */
+public class DuplicateTweetException extends RuntimeException {
+    public DuplicateTweetException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,170 @@
+package com.scmspain.dedup;
+
+import com.scmspain.metrics.TweetMetrics;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.sql.Timestamp;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+/**
+ * Detection of republished tweets, for clients that retry a publication they could not confirm.
+ * <p>
+ * Without an idempotency key a tweet is a duplicate when its publisher already published the same text within the
+ * window. Every publication is added to a Bloom filter of publisher and text, which answers most of them, the new
+ * ones, without reading the store; only a filter hit is confirmed against the store, as it can be a false positive.
+ * <p>
+ * With an idempotency key the key decides instead: a publication is a duplicate when its publisher sent the same key
+ * within the window, whatever the text. Keys are kept in memory, at most maxKeys of them, so they are forgotten on
+ * restart and are not shared between instances.
+ */
+public class TweetDeduplicator {
+    public static final String METRIC_FILTER_HITS = "dedup.filter-hits";
+    public static final String METRIC_FALSE_POSITIVES = "dedup.false-positives";
+    public static final String METRIC_DUPLICATES = "dedup.duplicates";
+    public static final String METRIC_IDEMPOTENCY_KEYS = "dedup.idempotency-keys";
+
+    private final boolean enabled;
+    private final long windowMillis;
+    private final int maxKeys;
+    private final WindowedBloomFilter filter;
+    private final ConcurrentMap<String, Long> keyExpirations = new ConcurrentHashMap<>();
+    private final TweetMetrics metrics;
+
+    /**
+     * @param expectedTweets tweets published per window the filter is sized for
+     * @param falsePositiveRate share of new tweets confirmed against the store with expectedTweets tweets per window
+     */
+    public TweetDeduplicator(boolean enabled, long windowMillis, int expectedTweets, double falsePositiveRate, int maxKeys,
+                             TweetMetrics metrics) {
+        this(enabled, windowMillis, expectedTweets, falsePositiveRate, maxKeys, metrics, System.currentTimeMillis());
+    }
+
+    TweetDeduplicator(boolean enabled, long windowMillis, int expectedTweets, double falsePositiveRate, int maxKeys,
+                      TweetMetrics metrics, long nowMillis) {
+        this.enabled = enabled;
+        this.windowMillis = windowMillis;
+        this.maxKeys = maxKeys;
+        this.filter = enabled ? new WindowedBloomFilter(windowMillis, expectedTweets, falsePositiveRate, nowMillis) : null;
+        this.metrics = metrics;
+        metrics.gauge(METRIC_IDEMPOTENCY_KEYS, this.keyExpirations::size);
+    }
+
+    /**
+     * Record the publication, refusing it if it is a duplicate
+     * @param idempotencyKey key sent by the client or null
+     * @param publishedSince asked, on a filter hit only, whether the publisher published the same text since a time
+     * @throws DuplicateTweetException if the publication is a duplicate
+     */
+    public void check(final String publisher, final String tweet, final String idempotencyKey,
+                      final Predicate<Timestamp> publishedSince) {
+        if (this.enabled) {
+            check(publisher, tweet, idempotencyKey, publishedSince, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Forget the idempotency key of a publication that failed, so that its retry is not taken for a duplicate
+     */
+    public void release(final String publisher, final String idempotencyKey) {
+        if (this.enabled && hasKey(idempotencyKey)) {
+            this.keyExpirations.remove(key(publisher, idempotencyKey));
+        }
+    }
+
+    void check(final String publisher, final String tweet, final String idempotencyKey,
+               final Predicate<Timestamp> publishedSince, final long now) {
+        if (hasKey(idempotencyKey)) {
+            checkKey(key(publisher, idempotencyKey), now);
+            return;
+        }
+
+        final long hash1 = hash(publisher, tweet, 0x9E3779B97F4A7C15L);
+        final long hash2 = hash(publisher, tweet, 0xC2B2AE3D27D4EB4FL) | 1;
+        if (!this.filter.mightContainOrAdd(hash1, hash2, now)) {
+            return;
+        }
+
+        this.metrics.increment(METRIC_FILTER_HITS);
+        if (!publishedSince.test(new Timestamp(now - this.windowMillis))) {
+            this.metrics.increment(METRIC_FALSE_POSITIVES);
+            return;
+        }
+
+        this.metrics.increment(METRIC_DUPLICATES);
+        throw new DuplicateTweetException(String.format("%s already published this tweet in the last %d seconds",
+                publisher, this.windowMillis / 1000));
+    }
+
+    /**
+     * Forget the idempotency keys older than the window
+     */
+    @Scheduled(initialDelayString = "${tweet.dedup.window-millis:300000}", fixedDelayString = "${tweet.dedup.window-millis:300000}")
+    public void evictExpiredKeys() {
+        evictExpiredKeys(System.currentTimeMillis());
+    }
+
+    void evictExpiredKeys(final long nowMillis) {
+        this.keyExpirations.values().removeIf(expiration -> expiration <= nowMillis);
+    }
+
+    private static boolean hasKey(final String idempotencyKey) {
+        return idempotencyKey != null && !idempotencyKey.isEmpty();
+    }
+
+    private static String key(final String publisher, final String idempotencyKey) {
+        return publisher + '\u0000' + idempotencyKey;
+    }
+
+    private void checkKey(final String key, final long nowMillis) {
+        final long expiration = nowMillis + this.windowMillis;
+
+        if (this.keyExpirations.size() >= this.maxKeys && !this.keyExpirations.containsKey(key)) {
+            evictExpiredKeys(nowMillis);
+            if (this.keyExpirations.size() >= this.maxKeys) {
+                // too many keys to remember one more, the publication goes through unchecked
+                return;
+            }
+        }
+
+        while (true) {
+            final Long previous = this.keyExpirations.putIfAbsent(key, expiration);
+            if (previous == null) {
+                return;
+            }
+            if (previous > nowMillis) {
+                this.metrics.increment(METRIC_DUPLICATES);
+                throw new DuplicateTweetException("Idempotency key already used in the last " + this.windowMillis / 1000 + " seconds");
+            }
+            if (this.keyExpirations.replace(key, previous, expiration)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a hash of publisher and text, mixed with the finalizer of MurmurHash3
+     */
+    static long hash(final String publisher, final String tweet, final long seed) {
+        long hash = seed;
+        hash = mix(hash, publisher);
+        // separator, so that moving characters between publisher and text changes the hash
+        hash = (hash ^ 0xFFFF) * 0x100000001B3L;
+        hash = mix(hash, tweet);
+
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long mix(long hash, final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        return hash;
+    }
+}
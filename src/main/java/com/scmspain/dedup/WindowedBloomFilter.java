@@ -0,0 +1,110 @@
+package com.scmspain.dedup;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Bloom filter of the values added within a time window, without locks.
+ * <p>
+ * Values go to the current generation and are looked up in the current and the previous one. The current generation
+ * becomes the previous one once it is a window old, so a value is remembered for one to two windows; a positive answer
+ * can be wrong, with about the configured probability, but a value added within the last window is always found.
+ */
+class WindowedBloomFilter {
+    private final long windowMillis;
+    private final int bits;
+    private final int hashes;
+    private final AtomicReference<Generation> current;
+
+    /**
+     * @param expectedValues values added per window the filter is sized for
+     * @param falsePositiveRate probability of a wrong positive answer with expectedValues values
+     */
+    WindowedBloomFilter(long windowMillis, int expectedValues, double falsePositiveRate, long nowMillis) {
+        final double bitsPerValue = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        this.windowMillis = windowMillis;
+        this.bits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, Math.ceil(expectedValues * bitsPerValue)));
+        this.hashes = Math.max(1, (int) Math.round(bitsPerValue * Math.log(2)));
+        this.current = new AtomicReference<>(new Generation(nowMillis, this.bits, null));
+    }
+
+    /**
+     * Add a value given by two independent 64 bit hashes
+     * @return true if the value might have been added before, false if it certainly was not
+     */
+    boolean mightContainOrAdd(final long hash1, final long hash2, final long nowMillis) {
+        final Generation generation = generation(nowMillis);
+        final Generation previous = generation.previous;
+
+        boolean inCurrent = true;
+        boolean inPrevious = previous != null;
+        // double hashing, the k indexes are hash1 + i * hash2
+        long combined = hash1;
+        for (int i = 0; i < this.hashes; i++) {
+            final int index = (int) ((combined & Long.MAX_VALUE) % this.bits);
+            inCurrent &= generation.set(index);
+            inPrevious = inPrevious && previous.get(index);
+            combined += hash2;
+        }
+
+        return inCurrent || inPrevious;
+    }
+
+    int getHashes() {
+        return this.hashes;
+    }
+
+    private Generation generation(final long nowMillis) {
+        while (true) {
+            final Generation generation = this.current.get();
+            if (nowMillis - generation.startMillis < this.windowMillis) {
+                return generation;
+            }
+            // a generation older than two windows holds nothing worth keeping
+            final Generation previous = nowMillis - generation.startMillis < 2 * this.windowMillis ? generation.withoutPrevious() : null;
+            final Generation next = new Generation(nowMillis, this.bits, previous);
+            if (this.current.compareAndSet(generation, next)) {
+                return next;
+            }
+        }
+    }
+
+    private static final class Generation {
+        private final long startMillis;
+        private final AtomicLongArray words;
+        private final Generation previous;
+
+        private Generation(long startMillis, int bits, Generation previous) {
+            this(startMillis, new AtomicLongArray((bits + 63) >>> 6), previous);
+        }
+
+        private Generation(long startMillis, AtomicLongArray words, Generation previous) {
+            this.startMillis = startMillis;
+            this.words = words;
+            this.previous = previous;
+        }
+
+        /**
+         * The chain is cut at two generations, so older bit arrays can be collected
+         */
+        private Generation withoutPrevious() {
+            return new Generation(this.startMillis, this.words, null);
+        }
+
+        /**
+         * @return true if the bit was already set
+         */
+        private boolean set(final int index) {
+            final long mask = 1L << index;
+            // most bits of a repeated value are already set, reading first spares the write
+            if ((this.words.get(index >>> 6) & mask) != 0) {
+                return true;
+            }
+            return (this.words.getAndAccumulate(index >>> 6, mask, (word, bit) -> word | bit) & mask) != 0;
+        }
+
+        private boolean get(final int index) {
+            return (this.words.get(index >>> 6) & (1L << index)) != 0;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.scmspain.dtos;
+
+import java.sql.Timestamp;
+
+/**
+ * Keyset position in a tweet list: the timestamp the list is sorted by plus the tweet id as tie-breaker.
+ * Its text form is "millis_nanos_id" and it is exchanged with clients as an opaque token.
+ */
+public class TweetCursor {
+    private static final String SEPARATOR = "_";
+
+    private final Timestamp timestamp;
+    private final Long id;
+
+    public TweetCursor(Timestamp timestamp, Long id) {
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+
+    /**
+     * Parse a cursor previously returned to a client
+     * @param value text form of the cursor
+     * @return the cursor or null if value is null or empty
+     * @throws IllegalArgumentException if value is not a valid cursor
+     */
+    public static TweetCursor parse(final String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+
+        final String[] parts = value.split(SEPARATOR);
+        if (parts.length != 3) {
+            throw new IllegalArgumentException(String.format("Invalid cursor '%s'", value));
+        }
+
+        try {
+            final Timestamp timestamp = new Timestamp(Long.parseLong(parts[0]));
+            timestamp.setNanos(Integer.parseInt(parts[1]));
+            return new TweetCursor(timestamp, Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException(String.format("Invalid cursor '%s'", value));
+        }
+    }
+
+    public Timestamp getTimestamp() {
+        return timestamp;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return timestamp.getTime() + SEPARATOR + timestamp.getNanos() + SEPARATOR + id;
+    }
+}
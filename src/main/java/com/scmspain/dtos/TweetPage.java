@@ -0,0 +1,31 @@
+package com.scmspain.dtos;
+
+import java.util.List;
+
+/**
+ * Slice of a tweet list plus the cursor to request the following slice
+ */
+public class TweetPage {
+    private final List<TweetDTO> tweets;
+    private final TweetCursor nextCursor;
+
+    public TweetPage(List<TweetDTO> tweets, TweetCursor nextCursor) {
+        this.tweets = tweets;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<TweetDTO> getTweets() {
+        return tweets;
+    }
+
+    /**
+     * @return cursor of the last tweet in this page or null if there are no more tweets
+     */
+    public TweetCursor getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,44 @@
+package com.scmspain.dtos;
+
+/**
+ * Outcome of one tweet of a bulk operation: the id of the tweet or the reason why it was rejected
+ */
+public class TweetResultDTO {
+    private int index;
+    private Long id;
+    private String error;
+
+    public TweetResultDTO(){
+
+    }
+
+    public TweetResultDTO(int index, Long id, String error) {
+        this.index = index;
+        this.id = id;
+        this.error = error;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -6,9 +6,19 @@ import javax.persistence.*;
 import java.sql.Timestamp;
 
 @Entity
+@Table(indexes = @Index(name = Tweet.PUBLISHER_INDEX, columnList = "publisher, discarded, publishedTimestamp, id"))
 public class Tweet {
+    // created by JpaTweetSchema: the lists are read in descending order and Hibernate drops the DESC of @Index columns
+    public static final String PUBLISHED_INDEX = "idx_tweet_published";
+    public static final String DISCARDED_INDEX = "idx_tweet_discarded";
+    public static final String PUBLISHER_INDEX = "idx_tweet_publisher";
+    // ids are taken from the sequence in blocks, so batched inserts need no round-trip per tweet
+    public static final String ID_GENERATOR = "tweet_id";
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ID_GENERATOR)
+    @SequenceGenerator(name = ID_GENERATOR, sequenceName = "tweet_sequence", allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
     @Column(nullable = false)
     private String publisher;
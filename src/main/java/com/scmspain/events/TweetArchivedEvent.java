@@ -0,0 +1,16 @@
+package com.scmspain.events;
+
+/**
+ * Raised by the archive job when a published tweet older than the archive horizon leaves the published list
+ */
+public class TweetArchivedEvent {
+    private final Long tweetId;
+
+    public TweetArchivedEvent(Long tweetId) {
+        this.tweetId = tweetId;
+    }
+
+    public Long getTweetId() {
+        return tweetId;
+    }
+}
@@ -0,0 +1,16 @@
+package com.scmspain.events;
+
+/**
+ * Raised by TweetService when a published tweet is set as discarded
+ */
+public class TweetDiscardedEvent {
+    private final Long tweetId;
+
+    public TweetDiscardedEvent(Long tweetId) {
+        this.tweetId = tweetId;
+    }
+
+    public Long getTweetId() {
+        return tweetId;
+    }
+}
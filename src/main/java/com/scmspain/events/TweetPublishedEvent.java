@@ -0,0 +1,19 @@
+package com.scmspain.events;
+
+import com.scmspain.entities.Tweet;
+
+/**
+ * Raised by TweetService when a tweet is published. Transactional listeners receive it once the tweet is committed,
+ * so its id and published timestamp are already set.
+ */
+public class TweetPublishedEvent {
+    private final Tweet tweet;
+
+    public TweetPublishedEvent(Tweet tweet) {
+        this.tweet = tweet;
+    }
+
+    public Tweet getTweet() {
+        return tweet;
+    }
+}
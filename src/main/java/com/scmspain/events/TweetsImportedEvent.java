@@ -0,0 +1,8 @@
+package com.scmspain.events;
+
+/**
+ * Raised once an import, or a run of the pre-2015 migration, has stored its tweets, instead of one publication per
+ * tweet. Whatever keeps a copy of the lists loads it again from the repository
+ */
+public class TweetsImportedEvent {
+}
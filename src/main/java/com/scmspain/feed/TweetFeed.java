@@ -0,0 +1,358 @@
+package com.scmspain.feed;
+
+import com.scmspain.converters.TweetConverter;
+import com.scmspain.events.TweetDiscardedEvent;
+import com.scmspain.events.TweetPublishedEvent;
+import com.scmspain.metrics.TweetMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Live feed of published and discarded tweets for Server-Sent Events subscribers.
+ * <p>
+ * Every committed publication or discard becomes a numbered event that is appended to a bounded replay log and
+ * offered to the buffer of each subscriber. A small pool of dispatcher threads writes the buffers to the clients, so
+ * subscribers hold no thread while idle. A subscriber whose buffer fills up is too slow to follow the feed and is
+ * disconnected; it can reconnect with the id of the last event it received and get the missed events from the log.
+ * <p>
+ * A write to a client that stops reading blocks its dispatcher thread until the container times the write out, and
+ * completing the connection does not unblock it. Such a subscriber is disconnected as soon as the next event or
+ * heartbeat finds one of its writes running for longer than the write timeout, so it is never scheduled again, and
+ * the dispatcher gets an extra thread for as long as the write stays blocked, so that stalled clients do not leave the
+ * other subscribers without dispatcher threads. The extra threads are capped: past the cap, stalled subscribers are
+ * only disconnected, and clients that stop reading cannot grow the pool without limit.
+ */
+public class TweetFeed {
+    public static final String EVENT_PUBLISHED = "published";
+    public static final String EVENT_DISCARDED = "discarded";
+    // sent on resume when the missed events are no longer in the log, the client has to reload the list
+    public static final String EVENT_RESET = "reset";
+    public static final String METRIC_SUBSCRIBERS = "feed.subscribers";
+    public static final String METRIC_EVENTS = "feed.events";
+    public static final String METRIC_EVICTED = "feed.evicted";
+    public static final String METRIC_EXTRA_THREADS = "feed.extra-threads";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TweetFeed.class);
+
+    private final int maxSubscribers;
+    private final int bufferSize;
+    private final int replaySize;
+    private final long writeTimeoutNanos;
+    private final int maxExtraThreads;
+    private final ThreadPoolExecutor dispatcher;
+    private final TweetMetrics metrics;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final Deque<FeedEvent> replayLog = new ArrayDeque<>();
+    // threads added to the dispatcher for blocked writes, guarded by the dispatcher
+    private int extraThreads;
+    // event ids are "<start time>-<sequence>", so ids from before a restart are never mistaken for current ones
+    private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+    private long lastSequence;
+
+    /**
+     * @param maxSubscribers subscribers connected at most, further ones are rejected
+     * @param bufferSize events waiting to be written to one subscriber before it is disconnected
+     * @param replaySize latest events kept to resume a subscription
+     * @param writeTimeoutMillis time a write to one subscriber may block before it is disconnected
+     * @param maxExtraThreads threads the dispatcher gets at most for writes blocked for longer than the write timeout
+     * @param dispatcher threads writing events to subscribers, shut down with the feed. Its pool grows by one thread
+     *                   per write blocked for longer than the write timeout, until the write returns
+     */
+    public TweetFeed(int maxSubscribers, int bufferSize, int replaySize, long writeTimeoutMillis, int maxExtraThreads,
+                     ThreadPoolExecutor dispatcher, TweetMetrics metrics) {
+        this.maxSubscribers = maxSubscribers;
+        this.bufferSize = bufferSize;
+        this.replaySize = replaySize;
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        this.maxExtraThreads = maxExtraThreads;
+        this.dispatcher = dispatcher;
+        this.metrics = metrics;
+        this.metrics.gauge(METRIC_SUBSCRIBERS, subscribers::size);
+        this.metrics.gauge(METRIC_EXTRA_THREADS, this::getExtraThreads);
+    }
+
+    /**
+     * Start sending the feed to a client
+     * @param emitter connection to the client
+     * @param lastEventId id of the last event the client received or null to receive only new events. When the
+     *                    events after it cannot be replayed the client gets a reset event instead
+     * @throws RejectedExecutionException if the maximum number of subscribers is connected
+     */
+    public void subscribe(final SseEmitter emitter, final String lastEventId) {
+        if (subscribers.size() >= maxSubscribers) {
+            throw new RejectedExecutionException("Too many feed subscribers, try again later");
+        }
+
+        final Subscriber subscriber = new Subscriber(emitter);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+
+        synchronized (this) {
+            if (lastEventId != null && !lastEventId.isEmpty()) {
+                final long sequence = sequenceOf(lastEventId);
+                final FeedEvent oldest = replayLog.peekFirst();
+
+                if (sequence < 0 || sequence > lastSequence || lastSequence - sequence > bufferSize
+                        || (sequence < lastSequence && (oldest == null || oldest.sequence > sequence + 1))) {
+                    subscriber.offer(new FeedEvent(lastSequence, EVENT_RESET, lastSequence));
+                } else {
+                    replayLog.stream()
+                            .filter(event -> event.sequence > sequence)
+                            .forEach(subscriber::offer);
+                }
+            }
+            subscribers.add(subscriber);
+        }
+
+        subscriber.schedule();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onTweetPublished(final TweetPublishedEvent event) {
+        broadcast(EVENT_PUBLISHED, TweetConverter.toDTO(event.getTweet()));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onTweetDiscarded(final TweetDiscardedEvent event) {
+        broadcast(EVENT_DISCARDED, event.getTweetId());
+    }
+
+    /**
+     * Write a comment to idle subscribers, so connections closed by the client are noticed and released, and
+     * disconnect the subscribers whose writes block
+     */
+    @Scheduled(fixedDelayString = "${tweet.feed.heartbeat-millis:15000}")
+    public void heartbeat() {
+        subscribers.forEach(subscriber -> {
+            subscriber.offer(FeedEvent.HEARTBEAT);
+            subscriber.schedule();
+        });
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public int getExtraThreads() {
+        synchronized (dispatcher) {
+            return extraThreads;
+        }
+    }
+
+    /**
+     * Disconnect every subscriber and stop the dispatcher threads
+     */
+    public void shutdown() {
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        subscribers.clear();
+        dispatcher.shutdownNow();
+    }
+
+    private void broadcast(final String name, final Object data) {
+        synchronized (this) {
+            final FeedEvent event = new FeedEvent(++lastSequence, name, data);
+            replayLog.addLast(event);
+            if (replayLog.size() > replaySize) {
+                replayLog.removeFirst();
+            }
+            subscribers.forEach(subscriber -> subscriber.offer(event));
+        }
+
+        metrics.increment(METRIC_EVENTS);
+        subscribers.forEach(Subscriber::schedule);
+    }
+
+    /**
+     * @return the sequence of an event id of this feed or -1 if it is from another run or not an event id
+     */
+    private long sequenceOf(final String eventId) {
+        final int separator = eventId.lastIndexOf('-');
+        if (separator < 0 || !eventId.substring(0, separator).equals(epoch)) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(eventId.substring(separator + 1));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Add a thread to the dispatcher, keeping its core and maximum sizes equal
+     * @return false if the dispatcher already has the maximum of extra threads
+     */
+    private boolean addDispatcherThread() {
+        synchronized (dispatcher) {
+            if (extraThreads >= maxExtraThreads) {
+                return false;
+            }
+
+            extraThreads++;
+            dispatcher.setMaximumPoolSize(dispatcher.getMaximumPoolSize() + 1);
+            dispatcher.setCorePoolSize(dispatcher.getCorePoolSize() + 1);
+            return true;
+        }
+    }
+
+    private void removeDispatcherThread() {
+        synchronized (dispatcher) {
+            extraThreads--;
+            dispatcher.setCorePoolSize(dispatcher.getCorePoolSize() - 1);
+            dispatcher.setMaximumPoolSize(dispatcher.getMaximumPoolSize() - 1);
+        }
+    }
+
+    private void evict(final Subscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            metrics.increment(METRIC_EVICTED);
+            subscriber.emitter.complete();
+        }
+    }
+
+    private class Subscriber {
+        final SseEmitter emitter;
+        final Queue<FeedEvent> buffer = new ArrayBlockingQueue<>(Math.max(bufferSize, 1));
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile boolean overflowed;
+        // System.nanoTime() when the write in progress started, 0 while not writing
+        volatile long writingSince;
+        // whether the write in progress blocked for longer than the write timeout
+        private boolean stalled;
+        // whether the stalled write got the dispatcher a thread, which it gives back once it returns
+        private boolean replaced;
+
+        Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        /**
+         * @return false if the buffer is full, then the subscriber is evicted on its next dispatch
+         */
+        boolean offer(final FeedEvent event) {
+            if (buffer.offer(event)) {
+                return true;
+            }
+            overflowed = true;
+            return false;
+        }
+
+        void schedule() {
+            if (stall()) {
+                evict(this);
+                return;
+            }
+
+            if ((!buffer.isEmpty() || overflowed) && scheduled.compareAndSet(false, true)) {
+                try {
+                    dispatcher.execute(this::drain);
+                } catch (RejectedExecutionException ex) {
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        void drain() {
+            try {
+                if (overflowed) {
+                    evict(this);
+                    return;
+                }
+
+                FeedEvent event;
+                // a subscriber evicted while a write blocked gets no further writes
+                while (subscribers.contains(this) && (event = buffer.poll()) != null) {
+                    writingSince = System.nanoTime();
+                    emitter.send(event.toSse(epoch));
+                    written();
+                }
+            } catch (IOException | IllegalStateException ex) {
+                LOGGER.debug("Dropping feed subscriber: {}", ex.getMessage());
+                subscribers.remove(this);
+                emitter.completeWithError(ex);
+            } finally {
+                written();
+                scheduled.set(false);
+            }
+
+            // an event offered after the last poll but before the flag was cleared would wait for the next one
+            if (subscribers.contains(this)) {
+                schedule();
+            }
+        }
+
+        /**
+         * Mark the write in progress as stalled when it blocked for longer than the write timeout, and replace its
+         * dispatcher thread until it returns unless the dispatcher has the maximum of extra threads
+         * @return true if the write in progress is stalled
+         */
+        synchronized boolean stall() {
+            if (stalled) {
+                return true;
+            }
+
+            final long since = writingSince;
+            if (since == 0 || System.nanoTime() - since <= writeTimeoutNanos) {
+                return false;
+            }
+
+            LOGGER.debug("Dropping feed subscriber: write blocked for more than {} ms",
+                    TimeUnit.NANOSECONDS.toMillis(writeTimeoutNanos));
+            stalled = true;
+            replaced = addDispatcherThread();
+            return true;
+        }
+
+        /**
+         * End the write in progress, giving back the thread it got if it stalled
+         */
+        synchronized void written() {
+            writingSince = 0;
+            stalled = false;
+            if (replaced) {
+                replaced = false;
+                removeDispatcherThread();
+            }
+        }
+    }
+
+    private static class FeedEvent {
+        static final FeedEvent HEARTBEAT = new FeedEvent(0, null, null);
+
+        final long sequence;
+        final String name;
+        final Object data;
+
+        FeedEvent(long sequence, String name, Object data) {
+            this.sequence = sequence;
+            this.name = name;
+            this.data = data;
+        }
+
+        SseEmitter.SseEventBuilder toSse(final String epoch) {
+            if (this == HEARTBEAT) {
+                return SseEmitter.event().comment("heartbeat");
+            }
+            return SseEmitter.event()
+                    .id(epoch + "-" + sequence)
+                    .name(name)
+                    .data(data, MediaType.APPLICATION_JSON);
+        }
+    }
+}
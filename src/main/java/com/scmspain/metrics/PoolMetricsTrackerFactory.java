@@ -0,0 +1,61 @@
+package com.scmspain.metrics;
+
+import com.zaxxer.hikari.metrics.MetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the state of each connection pool to TweetMetrics: connection counts and threads waiting as gauges,
+ * time to acquire and time a connection is held as latencies, and acquisition timeouts as a counter. One factory is
+ * shared by all the pools, so it can also tell how busy each of them is
+ */
+public class PoolMetricsTrackerFactory implements MetricsTrackerFactory {
+    public static final String PREFIX = "pool.";
+
+    private final TweetMetrics metrics;
+    private final ConcurrentMap<String, PoolStats> pools = new ConcurrentHashMap<>();
+
+    public PoolMetricsTrackerFactory(TweetMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public MetricsTracker create(final String poolName, final PoolStats poolStats) {
+        final String prefix = PREFIX + poolName;
+        pools.put(poolName, poolStats);
+
+        metrics.gauge(prefix + ".active", poolStats::getActiveConnections);
+        metrics.gauge(prefix + ".idle", poolStats::getIdleConnections);
+        metrics.gauge(prefix + ".total", poolStats::getTotalConnections);
+        metrics.gauge(prefix + ".pending", poolStats::getPendingThreads);
+
+        return new MetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(final long elapsedAcquiredNanos) {
+                metrics.recordLatency(prefix + ".acquire", elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(final long elapsedBorrowedMillis) {
+                metrics.recordLatency(prefix + ".usage", TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                metrics.increment(prefix + ".timeouts");
+            }
+        };
+    }
+
+    /**
+     * @return threads waiting for a connection of the pool, 0 while the pool has not started
+     */
+    public int getPendingThreads(final String poolName) {
+        final PoolStats poolStats = pools.get(poolName);
+        return poolStats == null ? 0 : poolStats.getPendingThreads();
+    }
+}
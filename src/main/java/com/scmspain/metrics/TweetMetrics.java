@@ -0,0 +1,131 @@
+package com.scmspain.metrics;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.actuate.metrics.writer.Delta;
+import org.springframework.boot.actuate.metrics.writer.MetricWriter;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * In-process metrics of the tweet service.
+ * <p>
+ * Requests only touch striped counters, gauges and lock-free latency histograms. A scheduled flush exports the
+ * counter deltas, gauges and the latency percentiles of the last interval to the exported MetricWriter, and the same
+ * values are published to the actuator metrics endpoint.
+ */
+public class TweetMetrics implements PublicMetrics {
+    public static final String LATENCY_PREFIX = "latency.";
+
+    private final MetricWriter metricWriter;
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> sampledGauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private volatile Map<String, LatencyHistogram.Snapshot> lastInterval = Collections.emptyMap();
+
+    public TweetMetrics(MetricWriter metricWriter) {
+        this.metricWriter = metricWriter;
+    }
+
+    public void increment(final String name) {
+        increment(name, 1);
+    }
+
+    public void increment(final String name, final long delta) {
+        counters.computeIfAbsent(name, key -> new Counter()).total.add(delta);
+    }
+
+    public void set(final String name, final long value) {
+        gauges.computeIfAbsent(name, key -> new AtomicLong()).set(value);
+    }
+
+    /**
+     * Register a gauge read when metrics are flushed or listed, for values owned by someone else
+     * @param name gauge name
+     * @param supplier current value of the gauge
+     */
+    public void gauge(final String name, final LongSupplier supplier) {
+        sampledGauges.put(name, supplier);
+    }
+
+    /**
+     * @param name operation the latency belongs to
+     * @param nanos elapsed time of one execution of the operation
+     */
+    public void recordLatency(final String name, final long nanos) {
+        histograms.computeIfAbsent(name, key -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * Export what was recorded since the previous flush
+     */
+    @Scheduled(fixedDelayString = "${tweet.metrics.flush-interval-millis:10000}")
+    public synchronized void flush() {
+        counters.forEach((name, counter) -> {
+            final long total = counter.total.sum();
+            final long delta = total - counter.exported;
+            if (delta != 0) {
+                metricWriter.increment(new Delta<Number>(name, delta));
+                counter.exported = total;
+            }
+        });
+
+        gauges.forEach((name, gauge) -> metricWriter.set(new Metric<Number>(name, gauge.get())));
+        sampledGauges.forEach((name, gauge) -> metricWriter.set(new Metric<Number>(name, gauge.getAsLong())));
+
+        final Map<String, LatencyHistogram.Snapshot> interval = new HashMap<>();
+        histograms.forEach((name, histogram) -> {
+            final LatencyHistogram.Snapshot snapshot = histogram.drain();
+            interval.put(name, snapshot);
+            latencyMetrics(name, snapshot).forEach(metricWriter::set);
+        });
+        lastInterval = interval;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        counters.forEach((name, counter) -> metrics.add(new Metric<Number>(name, counter.total.sum())));
+        gauges.forEach((name, gauge) -> metrics.add(new Metric<Number>(name, gauge.get())));
+        sampledGauges.forEach((name, gauge) -> metrics.add(new Metric<Number>(name, gauge.getAsLong())));
+        lastInterval.forEach((name, snapshot) -> metrics.addAll(latencyMetrics(name, snapshot)));
+        return metrics;
+    }
+
+    /**
+     * Percentiles are reported in microseconds
+     */
+    private List<Metric<Number>> latencyMetrics(final String name, final LatencyHistogram.Snapshot snapshot) {
+        final String prefix = LATENCY_PREFIX + name;
+        final List<Metric<Number>> metrics = new ArrayList<>();
+        metrics.add(new Metric<Number>(prefix + ".count", snapshot.getCount()));
+        metrics.add(new Metric<Number>(prefix + ".p50", micros(snapshot.getValueAtQuantile(0.5))));
+        metrics.add(new Metric<Number>(prefix + ".p99", micros(snapshot.getValueAtQuantile(0.99))));
+        metrics.add(new Metric<Number>(prefix + ".p999", micros(snapshot.getValueAtQuantile(0.999))));
+        metrics.add(new Metric<Number>(prefix + ".max", micros(snapshot.getMax())));
+        return metrics;
+    }
+
+    private static double micros(final long nanos) {
+        return nanos / 1000.0;
+    }
+
+    private static class Counter {
+        final LongAdder total = new LongAdder();
+        // only read and written by flush
+        long exported;
+    }
+}
@@ -0,0 +1,47 @@
+package com.scmspain.migration;
+
+import com.scmspain.entities.Tweet;
+
+import java.util.List;
+
+/**
+ * Result of migrating one chunk of a range
+ */
+public class MigrationChunk {
+    private final int processed;
+    private final List<Tweet> published;
+    private final int discarded;
+    private final long nextId;
+
+    public MigrationChunk(int processed, List<Tweet> published, int discarded, long nextId) {
+        this.processed = processed;
+        this.published = published;
+        this.discarded = discarded;
+        this.nextId = nextId;
+    }
+
+    /**
+     * @return number of legacy tweets given a status
+     */
+    public int getProcessed() {
+        return processed;
+    }
+
+    /**
+     * @return tweets that joined the published list
+     */
+    public List<Tweet> getPublished() {
+        return published;
+    }
+
+    /**
+     * @return number of tweets that joined the discarded list
+     */
+    public int getDiscarded() {
+        return discarded;
+    }
+
+    public long getNextId() {
+        return nextId;
+    }
+}
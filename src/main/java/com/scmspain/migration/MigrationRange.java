@@ -0,0 +1,36 @@
+package com.scmspain.migration;
+
+/**
+ * Range of tweet ids of the pre-2015 migration with its checkpoint: the ids below nextId are already migrated
+ */
+public class MigrationRange {
+    private final long start;
+    private final long end;
+    private long nextId;
+
+    public MigrationRange(long start, long end, long nextId) {
+        this.start = start;
+        this.end = end;
+        this.nextId = nextId;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getNextId() {
+        return nextId;
+    }
+
+    public void setNextId(long nextId) {
+        this.nextId = nextId;
+    }
+
+    public boolean isDone() {
+        return nextId > end;
+    }
+}
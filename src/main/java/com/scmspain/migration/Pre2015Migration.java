@@ -0,0 +1,126 @@
+package com.scmspain.migration;
+
+import com.scmspain.entities.Tweet;
+import com.scmspain.services.TweetService;
+import com.scmspain.validators.TweetLengthValidator;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Migration of the tweets brought from the pre-2015 system, which have no pre2015MigrationStatus and are left out of
+ * every list until they get one.
+ * <p>
+ * A legacy tweet that passes the rules of new tweets gets the status of new tweets and joins the lists, any other one
+ * is hidden with status 99. The id range of the legacy tweets is split in ranges with a checkpoint row each, and every
+ * chunk moves its checkpoint in the same transaction as its tweets, so a stopped migration resumes where it was.
+ * Every method must run inside a transaction.
+ */
+public class Pre2015Migration {
+    public static final long STATUS_MIGRATED = 0L;
+    public static final long STATUS_HIDDEN = 99L;
+    public static final String CHECKPOINT_TABLE = "pre2015_migration_checkpoint";
+    public static final String LEGACY_ID_RANGE = "SELECT MIN(t.id), MAX(t.id) FROM Tweet AS t WHERE t.pre2015MigrationStatus IS NULL";
+    public static final String LOCK_LEGACY_TWEETS = "SELECT t FROM Tweet AS t WHERE t.id BETWEEN :from AND :to AND t.pre2015MigrationStatus IS NULL ORDER BY t.id";
+
+    private static final String CREATE_CHECKPOINT_TABLE = "CREATE TABLE IF NOT EXISTS " + CHECKPOINT_TABLE + " (range_start BIGINT NOT NULL PRIMARY KEY, range_end BIGINT NOT NULL, next_id BIGINT NOT NULL, updated_timestamp TIMESTAMP NOT NULL)";
+    private static final String LIST_PENDING_RANGES = "SELECT range_start, range_end, next_id FROM " + CHECKPOINT_TABLE + " WHERE next_id <= range_end ORDER BY range_start";
+    private static final String DELETE_RANGES = "DELETE FROM " + CHECKPOINT_TABLE;
+    private static final String INSERT_RANGE = "INSERT INTO " + CHECKPOINT_TABLE + " (range_start, range_end, next_id, updated_timestamp) VALUES (:start, :end, :start, CURRENT_TIMESTAMP())";
+    private static final String UPDATE_CHECKPOINT = "UPDATE " + CHECKPOINT_TABLE + " SET next_id = :next, updated_timestamp = CURRENT_TIMESTAMP() WHERE range_start = :start";
+
+    private final EntityManager entityManager;
+
+    public Pre2015Migration(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * Ranges left to migrate. When every range of the last plan is done and legacy tweets remain, the plan is made
+     * again over their id range
+     * @param rangeSize number of ids per range
+     */
+    public List<MigrationRange> plan(final long rangeSize) {
+        this.entityManager.createNativeQuery(CREATE_CHECKPOINT_TABLE).executeUpdate();
+
+        final List<MigrationRange> pending = pendingRanges();
+        if (!pending.isEmpty()) {
+            return pending;
+        }
+
+        final Object[] legacy = this.entityManager.createQuery(LEGACY_ID_RANGE, Object[].class).getSingleResult();
+        if (legacy == null || legacy[0] == null) {
+            return pending;
+        }
+
+        this.entityManager.createNativeQuery(DELETE_RANGES).executeUpdate();
+        final long max = (Long) legacy[1];
+        for (long start = (Long) legacy[0]; start <= max; start += rangeSize) {
+            this.entityManager.createNativeQuery(INSERT_RANGE)
+                    .setParameter("start", start)
+                    .setParameter("end", Math.min(max, start + rangeSize - 1))
+                    .executeUpdate();
+        }
+
+        return pendingRanges();
+    }
+
+    /**
+     * Migrate the next chunk of legacy tweets of a range, locking them, and move its checkpoint past them
+     * @return the tweets migrated, the ones that joined each list and the next id of the range
+     */
+    public MigrationChunk migrateChunk(final MigrationRange range, final int chunkSize) {
+        final List<Tweet> tweets = this.entityManager.createQuery(LOCK_LEGACY_TWEETS, Tweet.class)
+                .setParameter("from", range.getNextId())
+                .setParameter("to", range.getEnd())
+                .setMaxResults(chunkSize)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .getResultList();
+
+        final List<Tweet> published = new ArrayList<>(tweets.size());
+        int discarded = 0;
+        for (Tweet tweet : tweets) {
+            if (isValid(tweet)) {
+                tweet.setPre2015MigrationStatus(STATUS_MIGRATED);
+                if (Boolean.TRUE.equals(tweet.getDiscarded())) {
+                    discarded++;
+                } else {
+                    published.add(tweet);
+                }
+            } else {
+                tweet.setPre2015MigrationStatus(STATUS_HIDDEN);
+            }
+        }
+
+        final long nextId = tweets.size() < chunkSize ? range.getEnd() + 1 : tweets.get(tweets.size() - 1).getId() + 1;
+        this.entityManager.createNativeQuery(UPDATE_CHECKPOINT)
+                .setParameter("next", nextId)
+                .setParameter("start", range.getStart())
+                .executeUpdate();
+
+        return new MigrationChunk(tweets.size(), published, discarded, nextId);
+    }
+
+    private List<MigrationRange> pendingRanges() {
+        final List<MigrationRange> ranges = new ArrayList<>();
+        for (Object result : this.entityManager.createNativeQuery(LIST_PENDING_RANGES).getResultList()) {
+            final Object[] row = (Object[]) result;
+            ranges.add(new MigrationRange(((Number) row[0]).longValue(), ((Number) row[1]).longValue(),
+                    ((Number) row[2]).longValue()));
+        }
+        return ranges;
+    }
+
+    /**
+     * The rules of TweetService for new tweets
+     */
+    private static boolean isValid(final Tweet tweet) {
+        final String text = tweet.getTweet();
+        return tweet.getPublisher() != null && !tweet.getPublisher().isEmpty()
+                && text != null && !text.isEmpty()
+                && !TweetLengthValidator.exceedsMaxLength(text, TweetService.TWEET_MAX_LENGTH)
+                && text.length() <= TweetService.TWEET_MAX_LENGTH_WITH_LINKS;
+    }
+}
@@ -0,0 +1,173 @@
+package com.scmspain.migration;
+
+import com.scmspain.cache.TimelineVersion;
+import com.scmspain.events.TweetsImportedEvent;
+import com.scmspain.metrics.TweetMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Scheduled job that runs the pre-2015 migration until no legacy tweet is left.
+ * <p>
+ * The ranges of the plan are split between the threads of a fork-join pool, and each range is migrated chunk after
+ * chunk, each chunk in its own transaction. The job throttles itself so that it can run next to live traffic: chunks
+ * start at most maxChunksPerSecond times a second across all threads, and no chunk starts while requests are waiting
+ * for a database connection. Migrated tweets are not announced one by one: they are years old, and whatever keeps the
+ * newest tweets expects announced publications to be new. Every chunk only changes the version of the lists, and once
+ * a run has added tweets to the published list it raises a TweetsImportedEvent, so the copies of the lists are loaded
+ * again like after an import.
+ */
+public class Pre2015MigrationJob {
+    public static final String METRIC_MIGRATED = "pre2015-migration.migrated";
+    public static final String METRIC_HIDDEN = "pre2015-migration.hidden";
+    public static final String METRIC_THROTTLED = "pre2015-migration.throttled";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Pre2015MigrationJob.class);
+    private static final long BACKOFF_MILLIS = 100;
+
+    private final boolean enabled;
+    private final int threads;
+    private final long rangeSize;
+    private final int chunkSize;
+    private final int maxChunksPerSecond;
+    private final IntSupplier connectionWaiters;
+    private final Pre2015Migration migration;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TimelineVersion timelineVersion;
+    private final TweetMetrics metrics;
+    // start time reserved by the last chunk, shared by all threads
+    private final AtomicLong lastChunkNanos = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param maxChunksPerSecond chunks started per second across all threads, 0 for no limit
+     * @param connectionWaiters number of threads waiting for a connection of the pool the migration shares
+     */
+    public Pre2015MigrationJob(boolean enabled, int threads, long rangeSize, int chunkSize, int maxChunksPerSecond,
+                               IntSupplier connectionWaiters, Pre2015Migration migration,
+                               TransactionTemplate transactionTemplate, ApplicationEventPublisher eventPublisher,
+                               TimelineVersion timelineVersion, TweetMetrics metrics) {
+        this.enabled = enabled;
+        this.threads = threads;
+        this.rangeSize = rangeSize;
+        this.chunkSize = chunkSize;
+        this.maxChunksPerSecond = maxChunksPerSecond;
+        this.connectionWaiters = connectionWaiters;
+        this.migration = migration;
+        this.transactionTemplate = transactionTemplate;
+        this.eventPublisher = eventPublisher;
+        this.timelineVersion = timelineVersion;
+        this.metrics = metrics;
+    }
+
+    @Scheduled(initialDelayString = "${tweet.migration.interval-millis:60000}", fixedDelayString = "${tweet.migration.interval-millis:60000}")
+    public void run() {
+        if (!enabled) {
+            return;
+        }
+
+        final List<MigrationRange> ranges = transactionTemplate.execute(status -> migration.plan(rangeSize));
+        if (ranges.isEmpty()) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        final AtomicLong published = new AtomicLong();
+        try {
+            final long processed = pool.invoke(new MigrateRanges(ranges, published));
+            LOGGER.info("Migrated {} pre-2015 tweets in {} ranges in {} ms", processed, ranges.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } finally {
+            pool.shutdown();
+            // the chunks stored before a failure are kept, so they are announced as well
+            if (published.get() > 0) {
+                eventPublisher.publishEvent(new TweetsImportedEvent());
+            }
+        }
+    }
+
+    /**
+     * @param published incremented by the number of tweets that join the published list
+     */
+    private long migrateRange(final MigrationRange range, final AtomicLong published) {
+        long processed = 0;
+
+        while (!range.isDone() && throttle()) {
+            final MigrationChunk chunk = transactionTemplate.execute(status -> migration.migrateChunk(range, chunkSize));
+
+            if (!chunk.getPublished().isEmpty() || chunk.getDiscarded() > 0) {
+                published.addAndGet(chunk.getPublished().size());
+                timelineVersion.bump();
+            }
+
+            final int migrated = chunk.getPublished().size() + chunk.getDiscarded();
+            range.setNextId(chunk.getNextId());
+            processed += chunk.getProcessed();
+            metrics.increment(METRIC_MIGRATED, migrated);
+            metrics.increment(METRIC_HIDDEN, chunk.getProcessed() - migrated);
+        }
+
+        return processed;
+    }
+
+    /**
+     * Wait for the turn of the next chunk
+     * @return false if the thread was interrupted and the range must be left for the next run
+     */
+    private boolean throttle() {
+        try {
+            while (connectionWaiters.getAsInt() > 0) {
+                metrics.increment(METRIC_THROTTLED);
+                TimeUnit.MILLISECONDS.sleep(BACKOFF_MILLIS);
+            }
+
+            if (maxChunksPerSecond > 0) {
+                final long interval = TimeUnit.SECONDS.toNanos(1) / maxChunksPerSecond;
+                final long slot = lastChunkNanos.accumulateAndGet(System.nanoTime(),
+                        (last, now) -> Math.max(last + interval, now));
+                TimeUnit.NANOSECONDS.sleep(slot - System.nanoTime());
+            }
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Halves the list of ranges until a single range is left, which is migrated by the thread that got it
+     */
+    private class MigrateRanges extends RecursiveTask<Long> {
+        private final List<MigrationRange> ranges;
+        private final AtomicLong published;
+
+        MigrateRanges(List<MigrationRange> ranges, AtomicLong published) {
+            this.ranges = ranges;
+            this.published = published;
+        }
+
+        @Override
+        protected Long compute() {
+            if (ranges.size() == 1) {
+                return migrateRange(ranges.get(0), published);
+            }
+
+            final int middle = ranges.size() / 2;
+            final MigrateRanges first = new MigrateRanges(ranges.subList(0, middle), published);
+            first.fork();
+            final long second = new MigrateRanges(ranges.subList(middle, ranges.size()), published).compute();
+            return first.join() + second;
+        }
+    }
+}
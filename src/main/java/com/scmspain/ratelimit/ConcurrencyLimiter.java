@@ -0,0 +1,93 @@
+package com.scmspain.ratelimit;
+
+import com.scmspain.metrics.TweetMetrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Limit of calls in flight that adapts to their latency.
+ * <p>
+ * Every call faster than the target latency raises the limit by 1 / limit, so by about one per limit calls, and a
+ * call slower than the target cuts it by the backoff ratio. Only one cut is made per round of calls, the slow calls
+ * that had started before the last cut do not count again. While latency climbs the limit falls towards minLimit and
+ * calls over it are refused instead of queueing for database connections.
+ */
+public class ConcurrencyLimiter {
+    public static final String METRIC_LIMIT = "concurrency-limit.limit";
+    public static final String METRIC_IN_FLIGHT = "concurrency-limit.in-flight";
+    public static final String METRIC_REJECTED = "concurrency-limit.rejected";
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final double backoffRatio;
+    private final TweetMetrics metrics;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // the limit is a double kept as its bits, so small increases add up
+    private final AtomicLong limit;
+    private final AtomicLong lastCutNanos = new AtomicLong(Long.MIN_VALUE);
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long targetLatencyMillis, double backoffRatio,
+                              TweetMetrics metrics) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.backoffRatio = backoffRatio;
+        this.metrics = metrics;
+        this.limit = new AtomicLong(Double.doubleToLongBits(Math.max(minLimit, Math.min(maxLimit, initialLimit))));
+        metrics.gauge(METRIC_LIMIT, this::getLimit);
+        metrics.gauge(METRIC_IN_FLIGHT, this.inFlight::get);
+    }
+
+    /**
+     * @return true if the call can start, then release must be called when it ends
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            final int current = this.inFlight.get();
+            if (current >= getLimit()) {
+                this.metrics.increment(METRIC_REJECTED);
+                return false;
+            }
+            if (this.inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param startNanos System.nanoTime() when the call started
+     */
+    public void release(final long startNanos) {
+        release(startNanos, System.nanoTime());
+    }
+
+    void release(final long startNanos, final long nowNanos) {
+        this.inFlight.decrementAndGet();
+
+        if (nowNanos - startNanos <= this.targetLatencyNanos) {
+            update(current -> Math.min(this.maxLimit, current + 1 / current));
+            return;
+        }
+
+        final long lastCut = this.lastCutNanos.get();
+        if (startNanos > lastCut && this.lastCutNanos.compareAndSet(lastCut, nowNanos)) {
+            update(current -> Math.max(this.minLimit, current * this.backoffRatio));
+        }
+    }
+
+    public int getLimit() {
+        return (int) Double.longBitsToDouble(this.limit.get());
+    }
+
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    private void update(final DoubleUnaryOperator function) {
+        this.limit.updateAndGet(bits -> Double.doubleToLongBits(function.applyAsDouble(Double.longBitsToDouble(bits))));
+    }
+}
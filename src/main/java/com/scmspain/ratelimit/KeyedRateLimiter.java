@@ -0,0 +1,100 @@
+package com.scmspain.ratelimit;
+
+import com.scmspain.metrics.TweetMetrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One token bucket per key, in a map of at most maxKeys buckets.
+ * <p>
+ * Full buckets are evicted, as a new bucket is full too. When the map is still full of buckets in use, requests of new
+ * keys are refused until some of them refill: under a flood of keys, known clients keep their service.
+ */
+public class KeyedRateLimiter {
+    public static final String METRIC_PREFIX = "rate-limit.";
+
+    // a full map is swept at most this often by the requests that find it full
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweepNanos;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final int maxKeys;
+    private final String rejectedMetric;
+    private final TweetMetrics metrics;
+
+    /**
+     * @param name name of the limiter in the metrics
+     * @param permitsPerSecond sustained rate of each key
+     * @param burst permits a key can take at once after being idle
+     */
+    public KeyedRateLimiter(String name, double permitsPerSecond, int burst, int maxKeys, TweetMetrics metrics) {
+        this(name, permitsPerSecond, burst, maxKeys, metrics, System.nanoTime());
+    }
+
+    KeyedRateLimiter(String name, double permitsPerSecond, int burst, int maxKeys, TweetMetrics metrics, long nowNanos) {
+        this.lastSweepNanos = new AtomicLong(nowNanos - SWEEP_INTERVAL_NANOS);
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.burstNanos = this.intervalNanos * burst;
+        this.maxKeys = maxKeys;
+        this.rejectedMetric = METRIC_PREFIX + name + ".rejected";
+        this.metrics = metrics;
+        metrics.gauge(METRIC_PREFIX + name + ".buckets", this.buckets::size);
+    }
+
+    /**
+     * @return 0 if the key got a permit, otherwise the nanoseconds to wait for one
+     */
+    public long tryAcquire(final String key) {
+        return tryAcquire(key, System.nanoTime());
+    }
+
+    long tryAcquire(final String key, final long nowNanos) {
+        TokenBucket bucket = this.buckets.get(key);
+
+        if (bucket == null) {
+            if (this.buckets.size() >= this.maxKeys && !sweepIfFull(nowNanos)) {
+                return reject(this.intervalNanos);
+            }
+            bucket = this.buckets.computeIfAbsent(key, newKey -> new TokenBucket(nowNanos));
+        }
+
+        final long wait = bucket.tryAcquire(nowNanos, this.intervalNanos, this.burstNanos);
+        return wait == 0 ? 0 : reject(wait);
+    }
+
+    /**
+     * Drop the buckets that are full again
+     */
+    public void evictIdle() {
+        evictIdle(System.nanoTime());
+    }
+
+    void evictIdle(final long nowNanos) {
+        this.buckets.values().removeIf(bucket -> bucket.isFull(nowNanos));
+    }
+
+    int size() {
+        return this.buckets.size();
+    }
+
+    /**
+     * @return true if there is room for a new bucket
+     */
+    private boolean sweepIfFull(final long nowNanos) {
+        final long last = this.lastSweepNanos.get();
+        if (nowNanos - last >= SWEEP_INTERVAL_NANOS && this.lastSweepNanos.compareAndSet(last, nowNanos)) {
+            evictIdle(nowNanos);
+        }
+        return this.buckets.size() < this.maxKeys;
+    }
+
+    private long reject(final long waitNanos) {
+        this.metrics.increment(this.rejectedMetric);
+        return waitNanos;
+    }
+}
@@ -0,0 +1,105 @@
+package com.scmspain.ratelimit;
+
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Admission of write requests, checked before they reach the service: the rate of the client address, the rate of the
+ * publisher and the adaptive limit of writes in flight.
+ * <p>
+ * Behind a proxy every request comes from the address of the proxy. The client address is then read from the header
+ * the proxy sets, which is only trusted when configured: its last address is the one the proxy added, the ones before
+ * it come from the client and may be forged.
+ */
+public class RequestLimiter {
+    private final boolean enabled;
+    private final String clientAddressHeader;
+    private final KeyedRateLimiter clientLimiter;
+    private final KeyedRateLimiter publisherLimiter;
+    private final ConcurrencyLimiter concurrencyLimiter;
+
+    /**
+     * @param clientAddressHeader header with the client address set by a trusted proxy, null or empty to use the
+     *                            remote address of the connection
+     * @param concurrencyLimiter null to not limit writes in flight
+     */
+    public RequestLimiter(boolean enabled, String clientAddressHeader, KeyedRateLimiter clientLimiter,
+                          KeyedRateLimiter publisherLimiter, ConcurrencyLimiter concurrencyLimiter) {
+        this.enabled = enabled;
+        this.clientAddressHeader = clientAddressHeader;
+        this.clientLimiter = clientLimiter;
+        this.publisherLimiter = publisherLimiter;
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * @param publisher null when the request has none, invalid publishers are left to the validation of the service
+     * @throws RateLimitExceededException if the client or the publisher went over their rate
+     * @throws RejectedExecutionException if too many writes are in flight
+     */
+    public <T> T call(final HttpServletRequest request, final String publisher, final Supplier<T> call) {
+        if (this.enabled) {
+            final String clientAddress = clientAddressOf(request);
+            checkRate(this.clientLimiter, clientAddress, "Too many requests from " + clientAddress);
+            if (publisher != null && !publisher.isEmpty()) {
+                checkRate(this.publisherLimiter, publisher, "Too many tweets from " + publisher);
+            }
+        }
+
+        if (this.concurrencyLimiter == null) {
+            return call.get();
+        }
+
+        if (!this.concurrencyLimiter.tryAcquire()) {
+            throw new RejectedExecutionException("Too many writes in flight, the limit is " + this.concurrencyLimiter.getLimit());
+        }
+
+        final long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            this.concurrencyLimiter.release(start);
+        }
+    }
+
+    public void run(final HttpServletRequest request, final String publisher, final Runnable call) {
+        call(request, publisher, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    @Scheduled(initialDelayString = "${tweet.rate-limit.eviction-interval-millis:10000}",
+            fixedDelayString = "${tweet.rate-limit.eviction-interval-millis:10000}")
+    public void evictIdleBuckets() {
+        this.clientLimiter.evictIdle();
+        this.publisherLimiter.evictIdle();
+    }
+
+    /**
+     * @return the last address of the client address header, or the remote address when not configured or missing
+     */
+    private String clientAddressOf(final HttpServletRequest request) {
+        if (this.clientAddressHeader == null || this.clientAddressHeader.isEmpty()) {
+            return request.getRemoteAddr();
+        }
+
+        final String addresses = request.getHeader(this.clientAddressHeader);
+        if (addresses == null || addresses.trim().isEmpty()) {
+            return request.getRemoteAddr();
+        }
+
+        return addresses.substring(addresses.lastIndexOf(',') + 1).trim();
+    }
+
+    private static void checkRate(final KeyedRateLimiter limiter, final String key, final String message) {
+        final long waitNanos = limiter.tryAcquire(key);
+        if (waitNanos > 0) {
+            throw new RateLimitExceededException(message, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1)));
+        }
+    }
+}
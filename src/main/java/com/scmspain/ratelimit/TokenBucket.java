@@ -0,0 +1,41 @@
+package com.scmspain.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as a single number, the time at which it will be full again, updated with compare-and-set.
+ * <p>
+ * Every permit moves that time one emission interval further, and a permit is refused when it would end up more than
+ * the burst ahead of now. Once that time has passed the bucket is full, and dropping it loses nothing.
+ */
+final class TokenBucket {
+    private final AtomicLong fullAt;
+
+    TokenBucket(long nowNanos) {
+        this.fullAt = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * @param intervalNanos time to earn one permit
+     * @param burstNanos time to earn the whole burst
+     * @return 0 if a permit was taken, otherwise the time to wait for one
+     */
+    long tryAcquire(final long nowNanos, final long intervalNanos, final long burstNanos) {
+        while (true) {
+            final long current = this.fullAt.get();
+            final long next = Math.max(current, nowNanos) + intervalNanos;
+            final long ahead = next - nowNanos;
+
+            if (ahead > burstNanos) {
+                return ahead - burstNanos;
+            }
+            if (this.fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    boolean isFull(final long nowNanos) {
+        return this.fullAt.get() - nowNanos <= 0;
+    }
+}
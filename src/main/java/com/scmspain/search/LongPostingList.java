@@ -0,0 +1,85 @@
+package com.scmspain.search;
+
+import java.util.Arrays;
+
+/**
+ * Tweet ids containing one term, kept as a sorted array of primitive longs. Ids come from a sequence, so new tweets
+ * are appended and only out-of-order ids pay for a shift
+ */
+class LongPostingList {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    long get(final int index) {
+        return ids[index];
+    }
+
+    boolean contains(final long id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    void add(final long id) {
+        if (size == 0 || ids[size - 1] < id) {
+            grow(size + 1);
+            ids[size++] = id;
+            return;
+        }
+
+        final int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index >= 0) {
+            return;
+        }
+
+        final int insertAt = -index - 1;
+        grow(size + 1);
+        System.arraycopy(ids, insertAt, ids, insertAt + 1, size - insertAt);
+        ids[insertAt] = id;
+        size++;
+    }
+
+    /**
+     * Append a list whose ids are all greater than the ones already here, as built from consecutive id ranges
+     */
+    void append(final LongPostingList other) {
+        if (other.size == 0) {
+            return;
+        }
+        if (size > 0 && ids[size - 1] >= other.ids[0]) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.ids[i]);
+            }
+            return;
+        }
+
+        grow(size + other.size);
+        System.arraycopy(other.ids, 0, ids, size, other.size);
+        size += other.size;
+    }
+
+    boolean remove(final long id) {
+        final int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index < 0) {
+            return false;
+        }
+
+        System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    private void grow(final int minCapacity) {
+        if (minCapacity > ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(minCapacity, ids.length + (ids.length >> 1)));
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.scmspain.search;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Splits text into the lower-cased words the search index is keyed by. Anything that is not a letter or a digit
+ * separates words, so "#Spain" and "spain!" are the same term
+ */
+final class Tokenizer {
+    private static final Pattern SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private Tokenizer() {
+    }
+
+    static Set<String> terms(final String... texts) {
+        final Set<String> terms = new LinkedHashSet<>();
+
+        for (String text : texts) {
+            if (text == null) {
+                continue;
+            }
+            for (String term : SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+                if (!term.isEmpty()) {
+                    terms.add(term);
+                }
+            }
+        }
+
+        return terms;
+    }
+}
@@ -0,0 +1,280 @@
+package com.scmspain.search;
+
+import com.scmspain.cache.TimelineVersion;
+import com.scmspain.converters.TweetConverter;
+import com.scmspain.dtos.TweetCursor;
+import com.scmspain.dtos.TweetDTO;
+import com.scmspain.entities.Tweet;
+import com.scmspain.events.TweetArchivedEvent;
+import com.scmspain.events.TweetDiscardedEvent;
+import com.scmspain.events.TweetPublishedEvent;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.annotation.Order;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * In-memory inverted index over the text and publisher of the published tweets.
+ * <p>
+ * Each term maps to the sorted ids of the tweets containing it, as primitive long arrays, and a search intersects
+ * the lists of every term of the query starting from the shortest one. Publications, discards and archivals are
+ * applied once their transaction commits; the whole index is rebuilt from the repository on start-up.
+ * <p>
+ * A rebuild loads the new index apart from the current one, which keeps answering searches and applying changes.
+ * Changes applied meanwhile are also kept, and replayed on the new index once it replaces the current one.
+ */
+public class TweetSearchIndex implements PublicMetrics {
+    public static final String METRIC_TERMS = "search-index.terms";
+    public static final String METRIC_DOCUMENTS = "search-index.documents";
+
+    private static final Comparator<Document> NEWEST_FIRST = Comparator
+            .comparing((Document document) -> document.key.getTimestamp())
+            .thenComparing(document -> document.key.getId())
+            .reversed();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<String, LongPostingList> postings = new HashMap<>();
+    private Map<Long, Document> documents = new HashMap<>();
+    // changes applied while a rebuild loads, which the loaded tweets may have missed; null when not rebuilding
+    private List<Runnable> pendingChanges;
+
+    /**
+     * Tell whether a query has any term the index could match
+     */
+    public static boolean hasTerms(final String query) {
+        return !Tokenizer.terms(query).isEmpty();
+    }
+
+    /**
+     * Replace the content of the index. The loader runs without the write lock; the publications and discards
+     * committed meanwhile are replayed on the loaded content before it replaces the current one, so none is lost.
+     * Rebuilds run one at a time
+     * @param loader supplies the published tweets as segments of consecutive id ranges, in ascending order
+     */
+    public synchronized void rebuild(final Supplier<List<Segment>> loader) {
+        lock.writeLock().lock();
+        try {
+            pendingChanges = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            final Map<String, LongPostingList> mergedPostings = new HashMap<>();
+            final Map<Long, Document> mergedDocuments = new HashMap<>();
+
+            for (Segment segment : loader.get()) {
+                segment.postings.forEach((term, ids) ->
+                        mergedPostings.computeIfAbsent(term, key -> new LongPostingList()).append(ids));
+                mergedDocuments.putAll(segment.documents);
+            }
+
+            lock.writeLock().lock();
+            try {
+                this.postings = mergedPostings;
+                this.documents = mergedDocuments;
+                // adding and removing are idempotent, replaying a change the loader already saw leaves it as loaded
+                pendingChanges.forEach(Runnable::run);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            lock.writeLock().lock();
+            try {
+                pendingChanges = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Find the tweets containing every term of the query, in their text or publisher
+     * @param query words to look for, case and punctuation are ignored
+     * @param limit maximum number of tweets returned
+     * @return matching tweets newest first
+     */
+    public List<TweetDTO> search(final String query, final int limit) {
+        final Set<String> terms = Tokenizer.terms(query);
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            final LongPostingList[] lists = new LongPostingList[terms.size()];
+            int index = 0;
+            for (String term : terms) {
+                final LongPostingList ids = postings.get(term);
+                if (ids == null) {
+                    return Collections.emptyList();
+                }
+                lists[index++] = ids;
+            }
+            Arrays.sort(lists, Comparator.comparingInt(LongPostingList::size));
+
+            // oldest of the best matches at the head, so it is the one dropped when a newer match comes
+            final PriorityQueue<Document> newest = new PriorityQueue<>(limit + 1, NEWEST_FIRST.reversed());
+            for (int i = 0; i < lists[0].size(); i++) {
+                final long id = lists[0].get(i);
+                if (containedInAll(lists, id)) {
+                    newest.add(documents.get(id));
+                    if (newest.size() > limit) {
+                        newest.poll();
+                    }
+                }
+            }
+
+            final List<TweetDTO> tweets = new ArrayList<>(newest.size());
+            while (!newest.isEmpty()) {
+                tweets.add(newest.poll().tweet);
+            }
+            Collections.reverse(tweets);
+            return tweets;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(TimelineVersion.LIST_SOURCE_ORDER)
+    public void onTweetPublished(final TweetPublishedEvent event) {
+        final Tweet tweet = event.getTweet();
+        final Document document = new Document(TweetConverter.toDTO(tweet), new TweetCursor(tweet.getPublishedTimestamp(), tweet.getId()));
+
+        apply(() -> add(document));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(TimelineVersion.LIST_SOURCE_ORDER)
+    public void onTweetDiscarded(final TweetDiscardedEvent event) {
+        apply(() -> remove(event.getTweetId()));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(TimelineVersion.LIST_SOURCE_ORDER)
+    public void onTweetArchived(final TweetArchivedEvent event) {
+        apply(() -> remove(event.getTweetId()));
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        lock.readLock().lock();
+        try {
+            final List<Metric<?>> metrics = new ArrayList<>();
+            metrics.add(new Metric<Number>(METRIC_TERMS, postings.size()));
+            metrics.add(new Metric<Number>(METRIC_DOCUMENTS, documents.size()));
+            return metrics;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Apply a change to the current content, and keep it for the content being rebuilt if any
+     */
+    private void apply(final Runnable change) {
+        lock.writeLock().lock();
+        try {
+            change.run();
+            if (pendingChanges != null) {
+                pendingChanges.add(change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Must be called holding the write lock
+     */
+    private void add(final Document document) {
+        final Long id = document.tweet.getId();
+        documents.put(id, document);
+        document.terms().forEach(term -> postings.computeIfAbsent(term, key -> new LongPostingList()).add(id));
+    }
+
+    /**
+     * Must be called holding the write lock
+     */
+    private void remove(final Long tweetId) {
+        final Document document = documents.remove(tweetId);
+        if (document == null) {
+            return;
+        }
+
+        for (String term : document.terms()) {
+            final LongPostingList ids = postings.get(term);
+            if (ids != null && ids.remove(tweetId) && ids.isEmpty()) {
+                postings.remove(term);
+            }
+        }
+    }
+
+    private static boolean containedInAll(final LongPostingList[] lists, final long id) {
+        for (int i = 1; i < lists.length; i++) {
+            if (!lists[i].contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Part of the index built apart from it, from one range of ids, and merged on rebuild. Not thread-safe
+     */
+    public static class Segment {
+        private final Map<String, LongPostingList> postings = new HashMap<>();
+        private final Map<Long, Document> documents = new HashMap<>();
+
+        /**
+         * Tweets must be added in ascending id order
+         */
+        public void add(final Long id, final String publisher, final String text, final Long pre2015MigrationStatus,
+                        final Timestamp publishedTimestamp) {
+            final TweetDTO tweet = new TweetDTO(publisher, text);
+            tweet.setId(id);
+            tweet.setPre2015MigrationStatus(pre2015MigrationStatus);
+
+            final Document document = new Document(tweet, new TweetCursor(publishedTimestamp, id));
+            documents.put(id, document);
+            document.terms().forEach(term -> postings.computeIfAbsent(term, key -> new LongPostingList()).add(id));
+        }
+
+        public int size() {
+            return documents.size();
+        }
+    }
+
+    /**
+     * Indexed tweet. Its terms are derived again on removal instead of being kept
+     */
+    private static class Document {
+        final TweetDTO tweet;
+        final TweetCursor key;
+
+        Document(TweetDTO tweet, TweetCursor key) {
+            this.tweet = tweet;
+            this.key = key;
+        }
+
+        Set<String> terms() {
+            return Tokenizer.terms(tweet.getTweet(), tweet.getPublisher());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.scmspain.search;
+
+import com.scmspain.cache.TimelineVersion;
+import com.scmspain.events.TweetsImportedEvent;
+import com.scmspain.store.TweetStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Rebuilds the search index from the repository once the application context is ready, and again after an import.
+ * <p>
+ * The id range of the published tweets is split in as many ranges as threads, and each thread scans its range of the
+ * store in its own transaction into a segment of the index. Ranges are consecutive, so the posting lists of the
+ * segments are merged by appending them.
+ */
+public class TweetSearchIndexLoader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TweetSearchIndexLoader.class);
+
+    private final TweetSearchIndex index;
+    private final TweetStore store;
+    private final TransactionTemplate transactionTemplate;
+    private final int threads;
+
+    /**
+     * @param transactionTemplate template every range is loaded with. It must not be read-only, so that the index is
+     *                            loaded from the primary and not from a replica that may lag behind it
+     * @param threads number of ranges loaded in parallel, 0 for one per core
+     */
+    public TweetSearchIndexLoader(TweetSearchIndex index, TweetStore store, TransactionTemplate transactionTemplate,
+                                  int threads) {
+        this.index = index;
+        this.store = store;
+        this.transactionTemplate = transactionTemplate;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void load() {
+        final long start = System.nanoTime();
+        index.rebuild(this::loadSegments);
+        LOGGER.info("Search index rebuilt with {} threads in {} ms", threads, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(TimelineVersion.LIST_SOURCE_ORDER)
+    public void onTweetsImported(final TweetsImportedEvent event) {
+        load();
+    }
+
+    private List<TweetSearchIndex.Segment> loadSegments() {
+        final long[] range = transactionTemplate.execute(status -> store.publishedIdRange());
+
+        if (range == null) {
+            return new ArrayList<>();
+        }
+
+        final long min = range[0];
+        final long max = range[1];
+        final long step = Math.max(1, (max - min) / threads + 1);
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "search-index-loader-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            final List<CompletableFuture<TweetSearchIndex.Segment>> segments = new ArrayList<>();
+            for (long from = min; from <= max; from += step) {
+                final long to = Math.min(max, from + step - 1);
+                final long rangeStart = from;
+                segments.add(CompletableFuture.supplyAsync(() -> loadSegment(rangeStart, to), executor));
+            }
+
+            return segments.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private TweetSearchIndex.Segment loadSegment(final long from, final long to) {
+        return transactionTemplate.execute(status -> {
+            final TweetSearchIndex.Segment segment = new TweetSearchIndex.Segment();
+            store.scanPublished(from, to, row ->
+                    segment.add((Long) row[0], (String) row[1], (String) row[2], (Long) row[3], (Timestamp) row[4]));
+            return segment;
+        });
+    }
+}
@@ -0,0 +1,194 @@
+package com.scmspain.services;
+
+import com.scmspain.entities.Tweet;
+import com.scmspain.metrics.TweetMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind pipeline for published tweets.
+ * <p>
+ * Validated tweets are put in a bounded queue and a single writer thread persists them in batches, each batch in its
+ * own transaction. When the queue is full new tweets are rejected instead of blocking the caller. On shutdown the
+ * queue stops accepting tweets and the writer drains what is left before the application context closes. If that takes
+ * longer than the shutdown timeout the writer finishes its current batch and leaves the rest in the queue.
+ */
+public class AsyncTweetPublisher implements SmartLifecycle {
+    public static final String METRIC_QUEUE_DEPTH = "publish-queue.depth";
+    public static final String LATENCY_FLUSH = "publish-queue.flush";
+    public static final String METRIC_REJECTED_TWEETS = "publish-queue.rejected";
+    public static final String METRIC_FAILED_TWEETS = "publish-queue.failed";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncTweetPublisher.class);
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final long shutdownTimeoutMillis;
+    private final BlockingQueue<Tweet> queue;
+    private final TransactionTemplate transactionTemplate;
+    private final TweetMetrics metrics;
+
+    // enqueues share it and stop takes it alone, so no tweet is accepted after the writer may have seen the queue empty
+    private final ReadWriteLock stopping = new ReentrantReadWriteLock();
+
+    private Consumer<List<Tweet>> writer;
+    private Thread writerThread;
+    private volatile boolean running;
+    private volatile boolean abandoned;
+
+    public AsyncTweetPublisher(boolean enabled, int queueCapacity, int batchSize, long shutdownTimeoutMillis,
+                               TransactionTemplate transactionTemplate, TweetMetrics metrics) {
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        this.queue = new ArrayBlockingQueue<>(Math.max(queueCapacity, 1));
+        this.transactionTemplate = transactionTemplate;
+        this.metrics = metrics;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param writer persists a batch of tweets, it is called inside a transaction
+     */
+    public void setWriter(final Consumer<List<Tweet>> writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Queue a validated tweet to be persisted by the writer thread
+     * @param tweet the new tweet
+     * @throws RejectedExecutionException if the queue is full or the publisher is not running
+     */
+    public void enqueue(final Tweet tweet) {
+        stopping.readLock().lock();
+        try {
+            if (!running) {
+                metrics.increment(METRIC_REJECTED_TWEETS);
+                throw new RejectedExecutionException("Publish queue is not running");
+            }
+
+            if (!queue.offer(tweet)) {
+                metrics.increment(METRIC_REJECTED_TWEETS);
+                throw new RejectedExecutionException("Publish queue is full, try again later");
+            }
+        } finally {
+            stopping.readLock().unlock();
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (!enabled || running) {
+            return;
+        }
+
+        running = true;
+        abandoned = false;
+        writerThread = new Thread(this::drain, "tweet-writer");
+        writerThread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+
+        stopping.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            stopping.writeLock().unlock();
+        }
+
+        try {
+            writerThread.join(shutdownTimeoutMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        // not interrupted, an interrupt in the middle of a batch could make the driver fail tweets already taken
+        abandoned = true;
+
+        if (!queue.isEmpty()) {
+            LOGGER.warn("{} queued tweets were not persisted before shutdown", queue.size());
+        }
+    }
+
+    @Override
+    public void stop(final Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    /**
+     * Start after and stop before every other lifecycle bean, so the queue is drained while the repository is still up
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    private void drain() {
+        final List<Tweet> batch = new ArrayList<>(batchSize);
+
+        while (running || !abandoned && !queue.isEmpty()) {
+            try {
+                final Tweet first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    flush(batch);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(final List<Tweet> batch) {
+        final long start = System.nanoTime();
+
+        try {
+            transactionTemplate.execute(status -> {
+                writer.accept(batch);
+                return null;
+            });
+        } catch (RuntimeException ex) {
+            LOGGER.error("Could not persist a batch of {} queued tweets", batch.size(), ex);
+            metrics.increment(METRIC_FAILED_TWEETS, batch.size());
+        }
+
+        metrics.recordLatency(LATENCY_FLUSH, System.nanoTime() - start);
+        metrics.set(METRIC_QUEUE_DEPTH, queue.size());
+    }
+}
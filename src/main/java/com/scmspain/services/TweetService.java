@@ -1,15 +1,43 @@
 package com.scmspain.services;
 
+import com.scmspain.archive.TweetArchive;
+import com.scmspain.cache.EncodedPage;
+import com.scmspain.cache.PublisherTimelineCache;
+import com.scmspain.cache.TimelineCache;
+import com.scmspain.configuration.TweetProperties;
 import com.scmspain.converters.TweetConverter;
+import com.scmspain.dedup.TweetDeduplicator;
+import com.scmspain.dtos.TweetCursor;
 import com.scmspain.dtos.TweetDTO;
+import com.scmspain.dtos.TweetPage;
+import com.scmspain.dtos.TweetResultDTO;
 import com.scmspain.entities.Tweet;
-import org.springframework.boot.actuate.metrics.writer.Delta;
-import org.springframework.boot.actuate.metrics.writer.MetricWriter;
+import com.scmspain.events.TweetDiscardedEvent;
+import com.scmspain.events.TweetPublishedEvent;
+import com.scmspain.events.TweetsImportedEvent;
+import com.scmspain.metrics.TweetMetrics;
+import com.scmspain.search.TweetSearchIndex;
+import com.scmspain.store.TweetStore;
+import com.scmspain.tracing.RequestTrace;
+import com.scmspain.validators.TweetLengthValidator;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import javax.persistence.EntityManager;
-import javax.transaction.Transactional;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static org.springframework.util.StringUtils.isEmpty;
@@ -17,47 +45,207 @@ import static org.springframework.util.StringUtils.isEmpty;
 @Service
 @Transactional
 public class TweetService {
-    public static final String LIST_PUBLISHED_TWEETS = "SELECT t FROM Tweet AS t WHERE discarded = false AND pre2015MigrationStatus <> 99 ORDER BY publishedTimestamp DESC";
-    public static final String LIST_DISCARDED_TWEETS = "SELECT t FROM Tweet AS t WHERE discarded = true AND pre2015MigrationStatus <> 99 ORDER BY discardedTimestamp DESC";
-    public static final String UPDATE_TWEET_AS_DISCARDED = "UPDATE Tweet SET discarded = true, discardedTimestamp = CURRENT_TIMESTAMP() WHERE id = :id AND discarded = false";
     public static final String LINK_PATTERN = "\\bhttps?://\\S+ ";
     public static final int TWEET_MAX_LENGTH = 140;
     public static final int TWEET_MAX_LENGTH_WITH_LINKS = 500;
+    // length of the publisher column, checked up front so that a long publisher does not fail a whole bulk insert
+    public static final int PUBLISHER_MAX_LENGTH = 255;
     public static final String METRIC_DISCARDED_TWEETS = "discarded-tweets";
     public static final String METRIC_PUBLISHED_TWEETS = "published-tweets";
     public static final String METRIC_TIMES_QUERIED_PUBLISHED_TWEETS = "times-queried-published-tweets";
     public static final String METRIC_TIMES_QUERIED_DISCARDED_TWEETS = "times-queried-discarded-tweets";
+    public static final String METRIC_TIMES_SEARCHED_TWEETS = "times-searched-tweets";
+    public static final String METRIC_TIMES_QUERIED_PUBLISHER_TWEETS = "times-queried-publisher-tweets";
+    public static final String METRIC_IMPORTED_TWEETS = "imported-tweets";
+    public static final long TIMELINE_CACHE_REFILL_DELAY_MILLIS = 1000;
+    public static final String LATENCY_PUBLISH_TWEET = "publish-tweet";
+    public static final String LATENCY_DISCARD_TWEET = "discard-tweet";
+    public static final String LATENCY_LIST_PUBLISHED_TWEETS = "list-published-tweets";
+    public static final String LATENCY_LIST_DISCARDED_TWEETS = "list-discarded-tweets";
+    public static final String LATENCY_SEARCH_TWEETS = "search-tweets";
+    public static final String LATENCY_LIST_PUBLISHER_TWEETS = "list-publisher-tweets";
 
-    private EntityManager entityManager;
-    private MetricWriter metricWriter;
+    private static final Comparator<Object[]> NEWEST_FIRST = Comparator
+            .comparing((Object[] row) -> (Timestamp) row[4])
+            .thenComparing(row -> (Long) row[0])
+            .reversed();
 
-    public TweetService(EntityManager entityManager, MetricWriter metricWriter) {
-        this.entityManager = entityManager;
-        this.metricWriter = metricWriter;
+    private TweetStore store;
+    private TweetMetrics metrics;
+    private TweetProperties properties;
+    private ApplicationEventPublisher eventPublisher;
+    private TimelineCache timelineCache;
+    private AsyncTweetPublisher asyncTweetPublisher;
+    // null with the log store, which is never archived
+    private TweetArchive tweetArchive;
+    private TweetSearchIndex searchIndex;
+    private PublisherTimelineCache publisherCache;
+    private TweetDeduplicator deduplicator;
+    // new transaction that is not read-only, to read from the primary within a read-only transaction
+    private TransactionTemplate primaryReads;
+
+    public TweetService(TweetStore store, TweetMetrics metrics, TweetProperties properties,
+                        ApplicationEventPublisher eventPublisher, TimelineCache timelineCache,
+                        AsyncTweetPublisher asyncTweetPublisher, TweetArchive tweetArchive, TweetSearchIndex searchIndex,
+                        PublisherTimelineCache publisherCache, TweetDeduplicator deduplicator,
+                        TransactionTemplate primaryReads) {
+        this.store = store;
+        this.metrics = metrics;
+        this.properties = properties;
+        this.eventPublisher = eventPublisher;
+        this.timelineCache = timelineCache;
+        this.asyncTweetPublisher = asyncTweetPublisher;
+        this.tweetArchive = tweetArchive;
+        this.searchIndex = searchIndex;
+        this.publisherCache = publisherCache;
+        this.deduplicator = deduplicator;
+        this.primaryReads = primaryReads;
+        this.asyncTweetPublisher.setWriter(this::persistTweets);
     }
 
     /**
-     * Push tweet to repository
+     * Push tweet to repository. When asynchronous publishing is enabled the tweet is only queued and written later
      * @param tweetDTO published and text of the new tweet
      * @throws IllegalArgumentException if published is null or empty
      * @throws IllegalArgumentException if tweet is null, empty, length is greater than 140 characters without links or greater than 500 with links. A link is a string with the pattern '\bhttps?://\S+ '
+     * @throws java.util.concurrent.RejectedExecutionException if asynchronous publishing is enabled and its queue is full
      */
     public void publishTweet(final TweetDTO tweetDTO) {
+        publishTweet(tweetDTO, null);
+    }
+
+    /**
+     * Push tweet to repository, refusing it when deduplication is enabled and it repeats a recent publication. Tweets
+     * queued by asynchronous publishing are not in the store yet, so their repetitions are only caught by idempotency key
+     * @param tweetDTO published and text of the new tweet
+     * @param idempotencyKey key sent by the client to recognise its retries or null to compare publisher and text
+     * @throws com.scmspain.dedup.DuplicateTweetException if deduplication is enabled and the tweet is a duplicate
+     * @see #publishTweet(TweetDTO)
+     */
+    public void publishTweet(final TweetDTO tweetDTO, final String idempotencyKey) {
+
+        final long start = System.nanoTime();
+        try {
+            validate(tweetDTO);
+            this.deduplicator.check(tweetDTO.getPublisher(), tweetDTO.getTweet(), idempotencyKey,
+                    since -> this.store.existsPublished(tweetDTO.getPublisher(), tweetDTO.getTweet(), since));
+
+            final Tweet tweet = TweetConverter.toEntity(tweetDTO);
+            try {
+                if (this.asyncTweetPublisher.isEnabled()) {
+                    this.asyncTweetPublisher.enqueue(tweet);
+                } else {
+                    this.store.save(Collections.singletonList(tweet));
+                    this.eventPublisher.publishEvent(new TweetPublishedEvent(tweet));
+                }
+            } catch (RuntimeException ex) {
+                this.deduplicator.release(tweetDTO.getPublisher(), idempotencyKey);
+                throw ex;
+            }
+            metricIncrement(METRIC_PUBLISHED_TWEETS);
+        } finally {
+            recordLatency(LATENCY_PUBLISH_TWEET, start);
+        }
+    }
+
+    /**
+     * @return true when published tweets are queued and written later instead of within {@link #publishTweet}
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public boolean isPublishingAsync() {
+        return this.asyncTweetPublisher.isEnabled();
+    }
+
+    /**
+     * Push several tweets to repository in a single transaction. Every tweet is validated before anything is persisted,
+     * invalid tweets are reported and skipped while the valid ones are inserted in JDBC batches. Only validation errors
+     * are reported per tweet, a repository error rolls back every tweet of the call
+     * @param tweetDTOs publishers and texts of the new tweets
+     * @return one result per tweet, in the same order, with either the id of the new tweet or the validation error
+     * @throws IllegalArgumentException if tweetDTOs is null, empty or has more tweets than the configured maximum
+     */
+    public List<TweetResultDTO> publishTweets(final List<TweetDTO> tweetDTOs) {
+
+        final int maxItems = this.properties.getBulk().getMaxItems();
+        if (tweetDTOs == null || tweetDTOs.isEmpty() || tweetDTOs.size() > maxItems) {
+            throw new IllegalArgumentException(String.format("Tweets must not be null, empty or more than %d", maxItems));
+        }
+
+        final Tweet[] accepted = new Tweet[tweetDTOs.size()];
+        final String[] errors = new String[tweetDTOs.size()];
+        final List<Tweet> tweets = new ArrayList<>(tweetDTOs.size());
+
+        for (int index = 0; index < tweetDTOs.size(); index++) {
+            try {
+                validate(tweetDTOs.get(index));
+                accepted[index] = TweetConverter.toEntity(tweetDTOs.get(index));
+                tweets.add(accepted[index]);
+            } catch (IllegalArgumentException ex) {
+                errors[index] = ex.getMessage();
+            }
+        }
+
+        persistTweets(tweets);
+        metricIncrement(METRIC_PUBLISHED_TWEETS, tweets.size());
+
+        final List<TweetResultDTO> results = new ArrayList<>(tweetDTOs.size());
+        for (int index = 0; index < tweetDTOs.size(); index++) {
+            results.add(new TweetResultDTO(index, accepted[index] == null ? null : accepted[index].getId(), errors[index]));
+        }
+        return results;
+    }
+
+    /**
+     * Store tweets read from an export, keeping their timestamps, discarded state and migration status. They get new
+     * ids. They are not announced one by one, finishImport must be called once the import ends
+     * @param tweets tweets of an export, in export order
+     * @throws IllegalArgumentException if the store cannot keep the timestamps of the tweets
+     */
+    public void importTweets(final List<Tweet> tweets) {
+        this.store.restore(tweets);
+
+        metricIncrement(METRIC_IMPORTED_TWEETS, tweets.size());
+    }
+
+    /**
+     * Announce the tweets stored by an import, so that the caches and the search index are loaded again and the lists
+     * get a new version. Outside a transaction they are loaded from the primary like on start-up
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void finishImport() {
+        this.eventPublisher.publishEvent(new TweetsImportedEvent());
+    }
+
+    /**
+     * Store new tweets, it must be called inside a transaction
+     */
+    private void persistTweets(final List<Tweet> tweets) {
+        this.store.save(tweets);
+
+        tweets.forEach(tweet -> this.eventPublisher.publishEvent(new TweetPublishedEvent(tweet)));
+    }
+
+    private void validate(final TweetDTO tweetDTO) {
+
+        if (tweetDTO == null) {
+            throw new IllegalArgumentException("Tweet must not be null");
+        }
 
         if (isEmpty(tweetDTO.getPublisher())){
             throw new IllegalArgumentException("Published must not be null or empty");
         }
 
-        if(isEmpty(tweetDTO.getTweet()) || tweetDTO.getTweet().replaceAll(LINK_PATTERN,"").length() > TWEET_MAX_LENGTH) {
+        if (tweetDTO.getPublisher().length() > PUBLISHER_MAX_LENGTH) {
+            throw new IllegalArgumentException(String.format("Publisher must not be greater than %d characters", PUBLISHER_MAX_LENGTH));
+        }
+
+        if(isEmpty(tweetDTO.getTweet()) || TweetLengthValidator.exceedsMaxLength(tweetDTO.getTweet(), TWEET_MAX_LENGTH)) {
             throw new IllegalArgumentException(String.format("Tweet must not be null, empty or greater than %d characters without URLs", TWEET_MAX_LENGTH));
         }
 
         if(tweetDTO.getTweet().length() > TWEET_MAX_LENGTH_WITH_LINKS) {
             throw new IllegalArgumentException(String.format("Tweet must not be greater than %d characters with URLs", TWEET_MAX_LENGTH_WITH_LINKS));
         }
-
-        metricIncrement(METRIC_PUBLISHED_TWEETS);
-        this.entityManager.persist(TweetConverter.toEntity(tweetDTO));
     }
 
     /**
@@ -68,15 +256,47 @@ public class TweetService {
      */
     public Boolean discardTweet(final Long tweetId) {
 
-        metricIncrement(METRIC_DISCARDED_TWEETS);
+        if(tweetId == null) {
+            throw new IllegalArgumentException("Tweet ID must not be null");
+        }
 
-        if(tweetId != null) {
-            return this.entityManager.createQuery(UPDATE_TWEET_AS_DISCARDED)
-                    .setParameter("id", tweetId)
-                    .executeUpdate() != 0;
-        } else {
+        final long start = System.nanoTime();
+        try {
+            metricIncrement(METRIC_DISCARDED_TWEETS);
+
+            final boolean discarded = this.store.discard(tweetId);
+
+            if (discarded) {
+                this.eventPublisher.publishEvent(new TweetDiscardedEvent(tweetId));
+            }
+            return discarded;
+        } finally {
+            recordLatency(LATENCY_DISCARD_TWEET, start);
+        }
+    }
+
+    /**
+     * Set several published tweets as discarded in a single transaction
+     * @param tweetIds the tweet ids to discard, duplicates are ignored
+     * @return ids of the tweets that were discarded by this call, in request order. Unknown or already discarded tweets are left out
+     * @throws IllegalArgumentException if tweetIds is null, empty, has more ids than the configured maximum or contains a null id
+     */
+    public List<Long> discardTweets(final Collection<Long> tweetIds) {
+
+        final int maxItems = this.properties.getBulk().getMaxItems();
+        if (tweetIds == null || tweetIds.isEmpty() || tweetIds.size() > maxItems) {
+            throw new IllegalArgumentException(String.format("Tweet IDs must not be null, empty or more than %d", maxItems));
+        }
+        if (tweetIds.stream().anyMatch(Objects::isNull)) {
             throw new IllegalArgumentException("Tweet ID must not be null");
         }
+
+        final List<Long> discarded = this.store.discard(new ArrayList<>(new LinkedHashSet<>(tweetIds)));
+
+        metricIncrement(METRIC_DISCARDED_TWEETS, discarded.size());
+        discarded.forEach(id -> this.eventPublisher.publishEvent(new TweetDiscardedEvent(id)));
+
+        return discarded;
     }
 
     /**
@@ -84,42 +304,330 @@ public class TweetService {
       Parameter - id - id of the Tweet to retrieve
       Result - retrieved Tweet
     */
+    @Transactional(readOnly = true)
     public Tweet getTweet(Long id) {
-      return this.entityManager.find(Tweet.class, id);
+      return this.store.find(id);
     }
 
     /**
-     * List all published tweets but not the discarded ones and ordered by published timestamp
+     * List all published tweets but not the discarded ones and ordered by published timestamp.
+     * The result is capped to the configured maximum number of results
      * @return list of published tweets
      */
+    @Transactional(readOnly = true)
     public List<TweetDTO> listAllPublishedTweets() {
+        return listPublishedTweets(null, null).getTweets();
+    }
+
+    /**
+     * List a page of published tweets ordered by published timestamp
+     * @param cursor position of the last tweet of the previous page or null to start from the newest tweet
+     * @param limit maximum number of tweets in the page or null for the configured maximum
+     * @return page of published tweets
+     * @throws IllegalArgumentException if limit is lower than 1
+     */
+    @Transactional(readOnly = true)
+    public TweetPage listPublishedTweets(final TweetCursor cursor, final Integer limit) {
 
         metricIncrement(METRIC_TIMES_QUERIED_PUBLISHED_TWEETS);
 
-        return this.entityManager.createQuery(LIST_PUBLISHED_TWEETS, Tweet.class)
-                .getResultList()
-                .stream()
-                .map(t -> TweetConverter.toDTO(t))
-                .collect(Collectors.toList());
+        final long start = System.nanoTime();
+        try {
+            final int pageSize = pageSize(limit);
+            final TweetPage cached = this.timelineCache.get(cursor, pageSize);
+            if (cached != null) {
+                return cached;
+            }
+
+            // one extra row tells whether there is a next page without a count query
+            return toPage(this.store.listPublished(cursor, pageSize + 1), pageSize);
+        } finally {
+            recordLatency(LATENCY_LIST_PUBLISHED_TWEETS, start);
+        }
+    }
+
+    /**
+     * List the published tweets of one publisher ordered by published timestamp.
+     * The result is capped to the configured maximum number of results
+     * @param publisher publisher of the tweets
+     * @return list of published tweets of the publisher
+     * @throws IllegalArgumentException if publisher is null or empty
+     */
+    @Transactional(readOnly = true)
+    public List<TweetDTO> listPublishedTweetsByPublisher(final String publisher) {
+        return listPublishedTweetsByPublisher(publisher, null, this.properties.getList().getMaxResults()).getTweets();
+    }
+
+    /**
+     * List a page of the published tweets of one publisher ordered by published timestamp. Recently read publishers
+     * are answered from the publisher cache, the first read of a publisher fills it
+     * @param publisher publisher of the tweets
+     * @param cursor position of the last tweet of the previous page or null to start from the newest tweet
+     * @param limit maximum number of tweets in the page or null for as many as the publisher cache keeps, or the
+     *              configured maximum when the cache is disabled
+     * @return page of published tweets of the publisher
+     * @throws IllegalArgumentException if publisher is null or empty or limit is lower than 1
+     */
+    @Transactional(readOnly = true)
+    public TweetPage listPublishedTweetsByPublisher(final String publisher, final TweetCursor cursor, final Integer limit) {
+
+        if (isEmpty(publisher)) {
+            throw new IllegalArgumentException("Publisher must not be null or empty");
+        }
+
+        metricIncrement(METRIC_TIMES_QUERIED_PUBLISHER_TWEETS);
+
+        final long start = System.nanoTime();
+        try {
+            final int pageSize = publisherPageSize(limit);
+            final TweetPage cached = this.publisherCache.get(publisher, cursor, pageSize);
+            if (cached != null) {
+                return cached;
+            }
+
+            if (cursor != null || !this.publisherCache.isEnabled()) {
+                return toPage(this.store.listPublishedByPublisher(publisher, cursor, pageSize + 1), pageSize);
+            }
+
+            // read enough rows to fill the cache as well, one more than it holds tells whether it has them all. They
+            // are read from the primary: a replica behind it would miss tweets the version of the cache cannot tell
+            // about, and the cache would keep the publisher without them
+            final long version = this.publisherCache.version(publisher);
+            final List<Object[]> rows = this.primaryReads.execute(status -> this.store.listPublishedByPublisher(publisher,
+                    null, Math.max(pageSize, this.publisherCache.getCapacity()) + 1));
+            this.publisherCache.load(publisher, version,
+                    rows.stream().map(row -> new TweetCursor((Timestamp) row[4], (Long) row[0])).collect(Collectors.toList()),
+                    rows.stream().map(TweetService::toDTO).collect(Collectors.toList()));
+
+            return toPage(rows.subList(0, Math.min(rows.size(), pageSize + 1)), pageSize);
+        } finally {
+            recordLatency(LATENCY_LIST_PUBLISHER_TWEETS, start);
+        }
+    }
+
+    /**
+     * Get the first page of published tweets already encoded as JSON, as long as the timeline cache can answer it.
+     * No transaction is needed to read the cache
+     * @param limit maximum number of tweets in the page or null for the configured maximum
+     * @return the encoded page or null if it is not cached, then the page must be read with listPublishedTweets
+     * @throws IllegalArgumentException if limit is lower than 1
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public EncodedPage getEncodedPublishedTweets(final Integer limit) {
+
+        final long start = System.nanoTime();
+        final EncodedPage cached = this.timelineCache.getEncoded(pageSize(limit));
+
+        if (cached != null) {
+            metricIncrement(METRIC_TIMES_QUERIED_PUBLISHED_TWEETS);
+            recordLatency(LATENCY_LIST_PUBLISHED_TWEETS, start);
+        }
+
+        return cached;
+    }
+
+    /**
+     * Stream every published tweet ordered by published timestamp, without the maximum number of results.
+     * Rows are read from the store one by one, so memory use does not grow with the list
+     * @param consumer receives the published tweets one by one in list order
+     */
+    @Transactional(readOnly = true)
+    public void streamPublishedTweets(final Consumer<TweetDTO> consumer) {
+
+        metricIncrement(METRIC_TIMES_QUERIED_PUBLISHED_TWEETS);
+
+        this.store.streamPublished(row -> consumer.accept(toDTO(row)));
+    }
+
+    /**
+     * Visit every tweet of the store, published and discarded, archived or not, for an export. Like the stream of
+     * published tweets, memory use does not grow with the number of tweets
+     */
+    @Transactional(readOnly = true)
+    public void exportTweets(final Consumer<Tweet> consumer) {
+        if (this.tweetArchive == null) {
+            this.store.scanAll(consumer);
+        } else {
+            this.tweetArchive.scanAll(consumer);
+        }
     }
 
     /**
-     * List all discarded tweets ordered by discarded timestamp
+     * List all discarded tweets ordered by discarded timestamp.
+     * The result is capped to the configured maximum number of results
      * @return list of discarded tweets
      */
+    @Transactional(readOnly = true)
     public List<TweetDTO> listAllDiscardedTweets() {
+        return listDiscardedTweets(null, null).getTweets();
+    }
+
+    /**
+     * List a page of discarded tweets ordered by discarded timestamp, both the ones still in the tweet table and the
+     * archived ones. The log store has no archive
+     * @param cursor position of the last tweet of the previous page or null to start from the last discarded tweet
+     * @param limit maximum number of tweets in the page or null for the configured maximum
+     * @return page of discarded tweets
+     * @throws IllegalArgumentException if limit is lower than 1
+     */
+    @Transactional(readOnly = true)
+    public TweetPage listDiscardedTweets(final TweetCursor cursor, final Integer limit) {
 
         metricIncrement(METRIC_TIMES_QUERIED_DISCARDED_TWEETS);
 
-        return this.entityManager.createQuery(LIST_DISCARDED_TWEETS, Tweet.class)
-                .getResultList()
-                .stream()
-                .map(t -> TweetConverter.toDTO(t))
+        final long start = System.nanoTime();
+        try {
+            final int pageSize = pageSize(limit);
+            final List<Object[]> recent = this.store.listDiscarded(cursor, pageSize + 1);
+            if (this.tweetArchive == null) {
+                return toPage(recent, pageSize);
+            }
+
+            final List<Object[]> archived = this.tweetArchive.listDiscarded(cursor, pageSize + 1);
+            return toPage(merge(recent, archived, pageSize + 1), pageSize);
+        } finally {
+            recordLatency(LATENCY_LIST_DISCARDED_TWEETS, start);
+        }
+    }
+
+    /**
+     * Search published tweets by the words of their text or publisher, all of them must match. The search index
+     * answers without a transaction
+     * @param query words to look for, case and punctuation are ignored
+     * @param limit maximum number of tweets returned or null for the configured maximum
+     * @return matching tweets newest first
+     * @throws IllegalArgumentException if query has no words or limit is lower than 1
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public List<TweetDTO> searchTweets(final String query, final Integer limit) {
+
+        if (query == null || !TweetSearchIndex.hasTerms(query)) {
+            throw new IllegalArgumentException("Query must contain at least one word");
+        }
+
+        metricIncrement(METRIC_TIMES_SEARCHED_TWEETS);
+
+        final long start = System.nanoTime();
+        try {
+            return this.searchIndex.search(query, pageSize(limit));
+        } finally {
+            recordLatency(LATENCY_SEARCH_TWEETS, start);
+        }
+    }
+
+    /**
+     * Load the newest published tweets into the timeline cache once the application context is ready. The
+     * transaction is not read-only so that the cache is loaded from the primary, never from a lagging replica
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void warmUpTimelineCache() {
+        this.timelineCache.warmUp(() -> this.store.loadPublished(this.timelineCache.getCapacity() + 1));
+    }
+
+    /**
+     * Load the timeline cache again once discarded or archived tweets have left it unable to answer a page. It runs
+     * without a transaction, and without a read-only one the tweets are read from the primary like on warm-up
+     */
+    @Scheduled(fixedDelay = TIMELINE_CACHE_REFILL_DELAY_MILLIS)
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void refillTimelineCache() {
+        if (this.timelineCache.isRefillNeeded()) {
+            this.timelineCache.refill();
+        }
+    }
+
+    /**
+     * Merge two lists of rows sorted newest first into one of at most limit rows
+     */
+    private static List<Object[]> merge(final List<Object[]> first, final List<Object[]> second, final int limit) {
+        final List<Object[]> merged = new ArrayList<>(Math.min(limit, first.size() + second.size()));
+        int i = 0;
+        int j = 0;
+
+        while (merged.size() < limit && (i < first.size() || j < second.size())) {
+            if (j == second.size() || (i < first.size() && NEWEST_FIRST.compare(first.get(i), second.get(j)) <= 0)) {
+                merged.add(first.get(i++));
+            } else {
+                merged.add(second.get(j++));
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * @param rows up to pageSize + 1 rows, the extra one only tells that there is a next page
+     */
+    private static TweetPage toPage(final List<Object[]> rows, final int pageSize) {
+        TweetCursor nextCursor = null;
+        if (rows.size() > pageSize) {
+            final Object[] last = rows.get(pageSize - 1);
+            nextCursor = new TweetCursor((Timestamp) last[4], (Long) last[0]);
+        }
+
+        final long start = System.nanoTime();
+        final List<TweetDTO> tweets = rows.stream()
+                .limit(pageSize)
+                .map(TweetService::toDTO)
                 .collect(Collectors.toList());
+        RequestTrace.record(RequestTrace.Phase.CONVERT, System.nanoTime() - start);
+
+        return new TweetPage(tweets, nextCursor);
+    }
+
+    /**
+     * Build the DTO of a list row of the store, which skips the entity and, with JPA, its dirty-check snapshot and the
+     * persistence context
+     */
+    private static TweetDTO toDTO(final Object[] row) {
+        final TweetDTO tweetDTO = new TweetDTO();
+
+        tweetDTO.setId((Long) row[0]);
+        tweetDTO.setPublisher((String) row[1]);
+        tweetDTO.setTweet((String) row[2]);
+        tweetDTO.setPre2015MigrationStatus((Long) row[3]);
+
+        return tweetDTO;
+    }
+
+    private int pageSize(final Integer limit) {
+        final int maxResults = this.properties.getList().getMaxResults();
+
+        if (limit == null) {
+            return maxResults;
+        }
+
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be greater than zero");
+        }
+
+        return Math.min(limit, maxResults);
+    }
+
+    /**
+     * Pages of a publisher are as large as its ring by default, so that the first page of a cached publisher is
+     * answered without querying the repository
+     */
+    private int publisherPageSize(final Integer limit) {
+        if (limit == null && this.publisherCache.isEnabled()) {
+            return Math.min(this.publisherCache.getCapacity(), this.properties.getList().getMaxResults());
+        }
+
+        return pageSize(limit);
     }
 
     protected void metricIncrement(final String name){
-        this.metricWriter.increment(new Delta<Number>(name, 1));
+        metricIncrement(name, 1);
+    }
+
+    protected void metricIncrement(final String name, final long delta){
+        this.metrics.increment(name, delta);
+    }
+
+    private void recordLatency(final String operation, final long start) {
+        final long nanos = System.nanoTime() - start;
+        this.metrics.recordLatency(operation, nanos);
+        RequestTrace.record(RequestTrace.Phase.SERVICE, nanos);
     }
 
 }
@@ -0,0 +1,41 @@
+package com.scmspain.store;
+
+import com.scmspain.entities.Tweet;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+
+/**
+ * Sort indexes of the tweet table, created on every start of the JPA store when they are missing, whatever creates
+ * the tables. The lists are read in descending order, and Hibernate drops the DESC of @Index columns while H2 only
+ * avoids the sort when the index has the order of the query.
+ */
+public class JpaTweetSchema {
+    public static final String CREATE_PUBLISHED_INDEX = "CREATE INDEX IF NOT EXISTS " + Tweet.PUBLISHED_INDEX + " ON tweet (published_timestamp DESC, id DESC)";
+    public static final String CREATE_DISCARDED_INDEX = "CREATE INDEX IF NOT EXISTS " + Tweet.DISCARDED_INDEX + " ON tweet (discarded_timestamp DESC, id DESC)";
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+
+    public JpaTweetSchema(EntityManager entityManager, TransactionTemplate transactionTemplate) {
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * Runs before the listeners that load the caches and the search index from the tweet table
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void createIndexes() {
+        this.transactionTemplate.execute(status -> {
+            this.entityManager.createNativeQuery(CREATE_PUBLISHED_INDEX).executeUpdate();
+            this.entityManager.createNativeQuery(CREATE_DISCARDED_INDEX).executeUpdate();
+            return null;
+        });
+    }
+}
@@ -0,0 +1,257 @@
+package com.scmspain.store;
+
+import com.scmspain.configuration.TweetProperties;
+import com.scmspain.dtos.TweetCursor;
+import com.scmspain.entities.Tweet;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.jpa.QueryHints;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.TypedQuery;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Tweets stored in the tweet table through the EntityManager. It must be called inside a transaction
+ */
+public class JpaTweetStore implements TweetStore {
+    // list rows are projected to the DTO columns followed by the sort timestamp
+    public static final String LIST_PUBLISHED_TWEETS = "SELECT t.id, t.publisher, t.tweet, t.pre2015MigrationStatus, t.publishedTimestamp FROM Tweet AS t WHERE discarded = false AND pre2015MigrationStatus <> 99 ORDER BY publishedTimestamp DESC, id DESC";
+    public static final String LIST_PUBLISHED_TWEETS_AFTER = "SELECT t.id, t.publisher, t.tweet, t.pre2015MigrationStatus, t.publishedTimestamp FROM Tweet AS t WHERE discarded = false AND pre2015MigrationStatus <> 99 AND (publishedTimestamp < :timestamp OR (publishedTimestamp = :timestamp AND id < :id)) ORDER BY publishedTimestamp DESC, id DESC";
+    public static final String LIST_DISCARDED_TWEETS = "SELECT t.id, t.publisher, t.tweet, t.pre2015MigrationStatus, t.discardedTimestamp FROM Tweet AS t WHERE discarded = true AND pre2015MigrationStatus <> 99 ORDER BY discardedTimestamp DESC, id DESC";
+    public static final String LIST_DISCARDED_TWEETS_AFTER = "SELECT t.id, t.publisher, t.tweet, t.pre2015MigrationStatus, t.discardedTimestamp FROM Tweet AS t WHERE discarded = true AND pre2015MigrationStatus <> 99 AND (discardedTimestamp < :timestamp OR (discardedTimestamp = :timestamp AND id < :id)) ORDER BY discardedTimestamp DESC, id DESC";
+    public static final String LIST_PUBLISHER_TWEETS = "SELECT t.id, t.publisher, t.tweet, t.pre2015MigrationStatus, t.publishedTimestamp FROM Tweet AS t WHERE publisher = :publisher AND discarded = false AND pre2015MigrationStatus <> 99 ORDER BY publishedTimestamp DESC, id DESC";
+    public static final String LIST_PUBLISHER_TWEETS_AFTER = "SELECT t.id, t.publisher, t.tweet, t.pre2015MigrationStatus, t.publishedTimestamp FROM Tweet AS t WHERE publisher = :publisher AND discarded = false AND pre2015MigrationStatus <> 99 AND (publishedTimestamp < :timestamp OR (publishedTimestamp = :timestamp AND id < :id)) ORDER BY publishedTimestamp DESC, id DESC";
+    public static final String LOAD_PUBLISHED_TWEETS = "SELECT t FROM Tweet AS t WHERE discarded = false AND pre2015MigrationStatus <> 99 ORDER BY publishedTimestamp DESC, id DESC";
+    public static final String EXISTS_PUBLISHED_TWEET = "SELECT t.id FROM Tweet AS t WHERE publisher = :publisher AND discarded = false AND publishedTimestamp >= :since AND t.tweet = :tweet";
+    public static final String PUBLISHED_ID_RANGE = "SELECT MIN(t.id), MAX(t.id) FROM Tweet AS t WHERE discarded = false AND pre2015MigrationStatus <> 99";
+    public static final String SCAN_PUBLISHED_TWEETS = "SELECT t.id, t.publisher, t.tweet, t.pre2015MigrationStatus, t.publishedTimestamp FROM Tweet AS t WHERE discarded = false AND pre2015MigrationStatus <> 99 AND t.id BETWEEN :from AND :to ORDER BY t.id";
+    public static final String SCAN_ALL_TWEETS = "SELECT t.id, t.publisher, t.tweet, t.pre2015MigrationStatus, t.discarded, t.publishedTimestamp, t.discardedTimestamp FROM Tweet AS t ORDER BY t.id";
+    public static final String INSERT_RESTORED_TWEET = "INSERT INTO tweet (id, publisher, tweet, pre2015migration_status, discarded, published_timestamp, discarded_timestamp) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    public static final String UPDATE_TWEET_AS_DISCARDED = "UPDATE Tweet SET discarded = true, discardedTimestamp = CURRENT_TIMESTAMP() WHERE id = :id AND discarded = false";
+    public static final String LOCK_TWEETS_TO_DISCARD = "SELECT t.id FROM Tweet AS t WHERE t.id IN (:ids) AND t.discarded = false";
+    public static final String UPDATE_TWEETS_AS_DISCARDED = "UPDATE Tweet SET discarded = true, discardedTimestamp = CURRENT_TIMESTAMP() WHERE id IN (:ids) AND discarded = false";
+
+    private final EntityManager entityManager;
+    private final TweetProperties properties;
+
+    public JpaTweetStore(EntityManager entityManager, TweetProperties properties) {
+        this.entityManager = entityManager;
+        this.properties = properties;
+    }
+
+    /**
+     * Insert tweets in JDBC batches
+     */
+    @Override
+    public void save(final List<Tweet> tweets) {
+        final int batchSize = this.properties.getBulk().getBatchSize();
+
+        for (int i = 0; i < tweets.size(); i++) {
+            this.entityManager.persist(tweets.get(i));
+
+            // keep the persistence context as small as one JDBC batch
+            if ((i + 1) % batchSize == 0) {
+                this.entityManager.flush();
+                this.entityManager.clear();
+            }
+        }
+    }
+
+    /**
+     * Insert with a plain JDBC batch, as persisting the entity would replace the published timestamp. Ids still come
+     * from the generator of the entity, so they never collide with the ones it hands out later
+     */
+    @Override
+    public void restore(final List<Tweet> tweets) {
+        final SessionImplementor session = this.entityManager.unwrap(SessionImplementor.class);
+        final IdentifierGenerator generator = session.getFactory().getIdentifierGenerator(Tweet.class.getName());
+
+        for (Tweet tweet : tweets) {
+            tweet.setId((Long) generator.generate(session, tweet));
+        }
+
+        this.entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_RESTORED_TWEET)) {
+                for (Tweet tweet : tweets) {
+                    statement.setLong(1, tweet.getId());
+                    statement.setString(2, tweet.getPublisher());
+                    statement.setString(3, tweet.getTweet());
+                    statement.setObject(4, tweet.getPre2015MigrationStatus(), Types.BIGINT);
+                    statement.setBoolean(5, tweet.getDiscarded());
+                    statement.setTimestamp(6, tweet.getPublishedTimestamp());
+                    statement.setTimestamp(7, tweet.getDiscardedTimestamp());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        });
+    }
+
+    @Override
+    public boolean discard(final Long tweetId) {
+        return this.entityManager.createQuery(UPDATE_TWEET_AS_DISCARDED)
+                .setParameter("id", tweetId)
+                .executeUpdate() != 0;
+    }
+
+    /**
+     * Discard with one set-based update per chunk of ids
+     */
+    @Override
+    public List<Long> discard(final List<Long> tweetIds) {
+        final List<Long> discarded = new ArrayList<>();
+        final int chunkSize = this.properties.getBulk().getDiscardChunkSize();
+
+        for (int from = 0; from < tweetIds.size(); from += chunkSize) {
+            final List<Long> chunk = tweetIds.subList(from, Math.min(from + chunkSize, tweetIds.size()));
+
+            // lock the rows about to change so the ids read are exactly the ones the update transitions
+            final Set<Long> pending = new HashSet<>(this.entityManager.createQuery(LOCK_TWEETS_TO_DISCARD, Long.class)
+                    .setParameter("ids", chunk)
+                    .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                    .getResultList());
+
+            if (!pending.isEmpty()) {
+                this.entityManager.createQuery(UPDATE_TWEETS_AS_DISCARDED)
+                        .setParameter("ids", pending)
+                        .executeUpdate();
+                chunk.stream().filter(pending::contains).forEach(discarded::add);
+            }
+        }
+
+        return discarded;
+    }
+
+    @Override
+    public Tweet find(final Long tweetId) {
+        return this.entityManager.find(Tweet.class, tweetId);
+    }
+
+    /**
+     * The publisher index narrows the lookup to the recent tweets of the publisher
+     */
+    @Override
+    public boolean existsPublished(final String publisher, final String tweet, final Timestamp since) {
+        return !this.entityManager.createQuery(EXISTS_PUBLISHED_TWEET, Long.class)
+                .setParameter("publisher", publisher)
+                .setParameter("since", since)
+                .setParameter("tweet", tweet)
+                .setMaxResults(1)
+                .getResultList()
+                .isEmpty();
+    }
+
+    @Override
+    public List<Object[]> listPublished(final TweetCursor after, final int limit) {
+        return listRows(LIST_PUBLISHED_TWEETS, LIST_PUBLISHED_TWEETS_AFTER, after, limit, null);
+    }
+
+    @Override
+    public List<Object[]> listPublishedByPublisher(final String publisher, final TweetCursor after, final int limit) {
+        return listRows(LIST_PUBLISHER_TWEETS, LIST_PUBLISHER_TWEETS_AFTER, after, limit, publisher);
+    }
+
+    @Override
+    public List<Object[]> listDiscarded(final TweetCursor after, final int limit) {
+        return listRows(LIST_DISCARDED_TWEETS, LIST_DISCARDED_TWEETS_AFTER, after, limit, null);
+    }
+
+    /**
+     * Rows are scrolled as projections that never enter the persistence context, so memory use does not grow with
+     * the list
+     */
+    @Override
+    public void streamPublished(final Consumer<Object[]> consumer) {
+        final Session session = this.entityManager.unwrap(Session.class);
+        scroll(session.createQuery(LIST_PUBLISHED_TWEETS), consumer);
+    }
+
+    /**
+     * Tweets are built from scrolled projections, not loaded as entities, for the same reason as streamPublished
+     */
+    @Override
+    public void scanAll(final Consumer<Tweet> consumer) {
+        final Session session = this.entityManager.unwrap(Session.class);
+        scroll(session.createQuery(SCAN_ALL_TWEETS).setReadOnly(true), row -> {
+            final Tweet tweet = new Tweet();
+            tweet.setId((Long) row[0]);
+            tweet.setPublisher((String) row[1]);
+            tweet.setTweet((String) row[2]);
+            tweet.setPre2015MigrationStatus((Long) row[3]);
+            tweet.setDiscarded((Boolean) row[4]);
+            tweet.setPublishedTimestamp((Timestamp) row[5]);
+            tweet.setDiscardedTimestamp((Timestamp) row[6]);
+            consumer.accept(tweet);
+        });
+    }
+
+    @Override
+    public List<Tweet> loadPublished(final int limit) {
+        return this.entityManager.createQuery(LOAD_PUBLISHED_TWEETS, Tweet.class)
+                .setHint(QueryHints.HINT_READONLY, true)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public long[] publishedIdRange() {
+        final Object[] range = this.entityManager.createQuery(PUBLISHED_ID_RANGE, Object[].class).getSingleResult();
+        return range == null || range[0] == null ? null : new long[]{(Long) range[0], (Long) range[1]};
+    }
+
+    @Override
+    public void scanPublished(final long fromId, final long toId, final Consumer<Object[]> consumer) {
+        final Session session = this.entityManager.unwrap(Session.class);
+        scroll(session.createQuery(SCAN_PUBLISHED_TWEETS)
+                .setParameter("from", fromId)
+                .setParameter("to", toId)
+                .setReadOnly(true), consumer);
+    }
+
+    private void scroll(final Query query, final Consumer<Object[]> consumer) {
+        final ScrollableResults results = query
+                .setFetchSize(this.properties.getStream().getFetchSize())
+                .scroll(ScrollMode.FORWARD_ONLY);
+
+        try {
+            while (results.next()) {
+                consumer.accept(results.get());
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    private List<Object[]> listRows(final String firstPageQuery, final String nextPageQuery, final TweetCursor cursor,
+                                    final int limit, final String publisher) {
+
+        final TypedQuery<Object[]> query;
+
+        if (cursor == null) {
+            query = this.entityManager.createQuery(firstPageQuery, Object[].class);
+        } else {
+            query = this.entityManager.createQuery(nextPageQuery, Object[].class);
+            query.setParameter("timestamp", cursor.getTimestamp());
+            query.setParameter("id", cursor.getId());
+        }
+
+        if (publisher != null) {
+            query.setParameter("publisher", publisher);
+        }
+        query.setMaxResults(limit);
+        return query.getResultList();
+    }
+}
@@ -0,0 +1,73 @@
+package com.scmspain.store;
+
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.SmartTransactionObject;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Transactions of the log store, which writes as soon as it is called. They neither open a database connection nor
+ * undo anything on rollback, they only bound the work of the service so that its events are still delivered once it
+ * completes, like with the JPA store.
+ */
+public class LogStoreTransactionManager extends AbstractPlatformTransactionManager {
+
+    @Override
+    protected Object doGetTransaction() {
+        final Object current = TransactionSynchronizationManager.getResource(this);
+        return current != null ? current : new LogStoreTransaction();
+    }
+
+    @Override
+    protected boolean isExistingTransaction(final Object transaction) {
+        return TransactionSynchronizationManager.getResource(this) == transaction;
+    }
+
+    @Override
+    protected void doBegin(final Object transaction, final TransactionDefinition definition) {
+        TransactionSynchronizationManager.bindResource(this, transaction);
+    }
+
+    @Override
+    protected Object doSuspend(final Object transaction) {
+        return TransactionSynchronizationManager.unbindResource(this);
+    }
+
+    @Override
+    protected void doResume(final Object transaction, final Object suspendedResources) {
+        TransactionSynchronizationManager.bindResource(this, suspendedResources);
+    }
+
+    @Override
+    protected void doCommit(final DefaultTransactionStatus status) {
+    }
+
+    @Override
+    protected void doRollback(final DefaultTransactionStatus status) {
+    }
+
+    @Override
+    protected void doSetRollbackOnly(final DefaultTransactionStatus status) {
+        ((LogStoreTransaction) status.getTransaction()).rollbackOnly = true;
+    }
+
+    @Override
+    protected void doCleanupAfterCompletion(final Object transaction) {
+        TransactionSynchronizationManager.unbindResourceIfPossible(this);
+    }
+
+    private static class LogStoreTransaction implements SmartTransactionObject {
+        // set when a participating method fails, so that the outer one cannot commit as if nothing happened
+        private boolean rollbackOnly;
+
+        @Override
+        public boolean isRollbackOnly() {
+            return rollbackOnly;
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+}
@@ -0,0 +1,629 @@
+package com.scmspain.store;
+
+import com.scmspain.dtos.TweetCursor;
+import com.scmspain.entities.Tweet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Tweets stored in an append-only log of memory-mapped segment files, without database or ORM.
+ * <p>
+ * Every publication and every discard is appended as a record of [length][payload][CRC32 of payload] to the current
+ * segment, and a new segment is started when it is full. Memory holds the position of every tweet in the log,
+ * indexed by id, a bitmap of the discarded ids and the discard order. On start the log is replayed to rebuild them;
+ * a record cut short by a crash fails its checksum and ends the replay, and it is overwritten by the next append.
+ * <p>
+ * Ids and timestamps are assigned here, only restored tweets bring their own. Timestamps grow by at least one
+ * nanosecond per record, and restored tweets must come in published order, so id order is published order and cursors
+ * can be resolved by id. Appends reach the page cache at once, which survives a crash of
+ * the process; forcing every append to disk is optional. Ids are limited to int range.
+ */
+public class LogTweetStore implements TweetStore, Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogTweetStore.class);
+
+    private static final byte RECORD_TWEET = 1;
+    private static final byte RECORD_DISCARD = 2;
+    private static final int LENGTH_BYTES = Integer.BYTES;
+    private static final int CHECKSUM_BYTES = Integer.BYTES;
+    private static final long NO_STATUS = Long.MIN_VALUE;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean forceWrites;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Segment> segments = new ArrayList<>();
+    private final CRC32 checksum = new CRC32();
+
+    // position in the log of each tweet, index id - 1, as segment << 32 | offset
+    private long[] positions = new long[1024];
+    private long lastId;
+    private long lastPublishedNanos;
+    // clock of the log, the timestamp of its newest record
+    private long lastNanos;
+    private final BitSet discarded = new BitSet();
+    // discarded timestamp of each tweet, index id - 1
+    private long[] discardedAt = new long[1024];
+    // discards sorted by timestamp and id
+    private long[] discardedIds = new long[256];
+    private long[] discardedNanos = new long[256];
+    private int discardCount;
+
+    /**
+     * Open the log in a directory, replaying the segments found in it
+     * @param segmentSize size of each segment file, larger than the largest record
+     * @param forceWrites force every append to disk before returning
+     */
+    public LogTweetStore(Path directory, int segmentSize, boolean forceWrites) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.forceWrites = forceWrites;
+
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot open tweet log in " + directory, ex);
+        }
+    }
+
+    @Override
+    public void save(final List<Tweet> tweets) {
+        lock.writeLock().lock();
+        try {
+            for (Tweet tweet : tweets) {
+                final long nanos = nextNanos();
+                appendTweet(tweet, nanos);
+                tweet.setPublishedTimestamp(timestamp(nanos));
+            }
+            force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Tweets must come in published order, newer than the last tweet of the log, so that id order stays published
+     * order. Discards are placed in the discard order by their own timestamp
+     */
+    @Override
+    public void restore(final List<Tweet> tweets) {
+        lock.writeLock().lock();
+        try {
+            for (Tweet tweet : tweets) {
+                final long nanos = nanos(tweet.getPublishedTimestamp());
+                if (nanos < lastPublishedNanos) {
+                    throw new IllegalArgumentException("Tweets must be restored in published order, after the last tweet of the log");
+                }
+                appendTweet(tweet, nanos);
+
+                if (tweet.getDiscarded()) {
+                    final Timestamp discardedTimestamp = tweet.getDiscardedTimestamp();
+                    appendDiscard(tweet.getId(), discardedTimestamp == null ? nextNanos() : nanos(discardedTimestamp));
+                }
+            }
+            force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean discard(final Long tweetId) {
+        lock.writeLock().lock();
+        try {
+            final boolean result = appendDiscard(tweetId);
+            force();
+            return result;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Long> discard(final List<Long> tweetIds) {
+        lock.writeLock().lock();
+        try {
+            final List<Long> result = new ArrayList<>();
+            for (Long tweetId : tweetIds) {
+                if (appendDiscard(tweetId)) {
+                    result.add(tweetId);
+                }
+            }
+            force();
+            return result;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Tweet find(final Long tweetId) {
+        lock.readLock().lock();
+        try {
+            if (tweetId == null || tweetId < 1 || tweetId > lastId) {
+                return null;
+            }
+
+            final Object[] row = readRow(tweetId);
+            final Tweet tweet = new Tweet();
+            tweet.setId(tweetId);
+            tweet.setPublisher((String) row[1]);
+            tweet.setTweet((String) row[2]);
+            tweet.setPre2015MigrationStatus((Long) row[3]);
+            tweet.setPublishedTimestamp((Timestamp) row[4]);
+            tweet.setDiscarded(discarded.get(index(tweetId)));
+            if (tweet.getDiscarded()) {
+                tweet.setDiscardedTimestamp(timestamp(discardedAt[index(tweetId) - 1]));
+            }
+            return tweet;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Tweets are appended in publication order, so the log is walked back only as far as the given time
+     */
+    @Override
+    public boolean existsPublished(final String publisher, final String tweet, final Timestamp since) {
+        lock.readLock().lock();
+        try {
+            for (long id = lastId; id >= 1; id--) {
+                final Object[] row = readRow(id);
+                if (((Timestamp) row[4]).before(since)) {
+                    return false;
+                }
+                if (!discarded.get(index(id)) && publisher.equals(row[1]) && tweet.equals(row[2])) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Object[]> listPublished(final TweetCursor after, final int limit) {
+        return listPublished(null, after, limit);
+    }
+
+    /**
+     * There is no index by publisher, the log is walked back until the page is full. The publisher cache in front
+     * of the store answers the pages read most
+     */
+    @Override
+    public List<Object[]> listPublishedByPublisher(final String publisher, final TweetCursor after, final int limit) {
+        return listPublished(publisher, after, limit);
+    }
+
+    @Override
+    public List<Object[]> listDiscarded(final TweetCursor after, final int limit) {
+        lock.readLock().lock();
+        try {
+            final List<Object[]> rows = new ArrayList<>(Math.min(limit, discardCount));
+            for (int i = discardStart(after); i >= 0 && rows.size() < limit; i--) {
+                final Object[] row = readRow(discardedIds[i]);
+                if (!isHidden(row)) {
+                    row[4] = timestamp(discardedNanos[i]);
+                    rows.add(row);
+                }
+            }
+            return rows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The read lock is taken per tweet, so a slow consumer does not hold back writers
+     */
+    @Override
+    public void streamPublished(final Consumer<Object[]> consumer) {
+        long id = currentLastId();
+        while (id >= 1) {
+            final Object[] row;
+            lock.readLock().lock();
+            try {
+                id = discarded.previousClearBit(index(id));
+                if (id < 1) {
+                    return;
+                }
+                row = readRow(id);
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            if (!isHidden(row)) {
+                consumer.accept(row);
+            }
+            id--;
+        }
+    }
+
+    @Override
+    public void scanAll(final Consumer<Tweet> consumer) {
+        for (long id = 1; id <= currentLastId(); id++) {
+            final Tweet tweet = find(id);
+            if (tweet != null) {
+                consumer.accept(tweet);
+            }
+        }
+    }
+
+    @Override
+    public List<Tweet> loadPublished(final int limit) {
+        final List<Tweet> tweets = new ArrayList<>();
+        for (Object[] row : listPublished(null, null, limit)) {
+            final Tweet tweet = new Tweet();
+            tweet.setId((Long) row[0]);
+            tweet.setPublisher((String) row[1]);
+            tweet.setTweet((String) row[2]);
+            tweet.setPre2015MigrationStatus((Long) row[3]);
+            tweet.setPublishedTimestamp((Timestamp) row[4]);
+            tweets.add(tweet);
+        }
+        return tweets;
+    }
+
+    @Override
+    public long[] publishedIdRange() {
+        lock.readLock().lock();
+        try {
+            final long first = discarded.nextClearBit(1);
+            return first > lastId ? null : new long[]{first, discarded.previousClearBit(index(lastId))};
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void scanPublished(final long fromId, final long toId, final Consumer<Object[]> consumer) {
+        for (long id = Math.max(1, fromId); ; id++) {
+            final Object[] row;
+            lock.readLock().lock();
+            try {
+                if (id > Math.min(toId, lastId)) {
+                    return;
+                }
+                id = discarded.nextClearBit(index(id));
+                if (id > Math.min(toId, lastId)) {
+                    return;
+                }
+                row = readRow(id);
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            if (!isHidden(row)) {
+                consumer.accept(row);
+            }
+        }
+    }
+
+    /**
+     * Force the segments to disk and release their files. The store cannot be used afterwards
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+            segments.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private List<Object[]> listPublished(final String publisher, final TweetCursor after, final int limit) {
+        lock.readLock().lock();
+        try {
+            final List<Object[]> rows = new ArrayList<>(Math.min(limit, 1024));
+            // timestamps grow with ids, so the tweets after the cursor are the ones with a lower id
+            long id = after == null ? lastId : Math.min(lastId, after.getId() - 1);
+
+            while (id >= 1 && rows.size() < limit) {
+                id = discarded.previousClearBit(index(id));
+                if (id < 1) {
+                    break;
+                }
+
+                final Object[] row = readRow(id);
+                if (!isHidden(row) && (publisher == null || publisher.equals(row[1]))) {
+                    rows.add(row);
+                }
+                id--;
+            }
+            return rows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return index in the discard order of the first discard after the cursor, -1 if there is none
+     */
+    private int discardStart(final TweetCursor after) {
+        return after == null
+                ? discardCount - 1
+                : discardPosition(nanos(after.getTimestamp()), after.getId()) - 1;
+    }
+
+    /**
+     * @return index of the first discard at or after nanos and id in the discard order
+     */
+    private int discardPosition(final long nanos, final long id) {
+        int low = 0;
+        int high = discardCount;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (discardedNanos[middle] < nanos || (discardedNanos[middle] == nanos && discardedIds[middle] < id)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private boolean appendDiscard(final Long tweetId) {
+        if (tweetId == null || tweetId < 1 || tweetId > lastId || discarded.get(index(tweetId))) {
+            return false;
+        }
+
+        appendDiscard(tweetId, nextNanos());
+        return true;
+    }
+
+    private void appendDiscard(final long tweetId, final long nanos) {
+        append(ByteBuffer.allocate(1 + 2 * Long.BYTES).put(RECORD_DISCARD).putLong(tweetId).putLong(nanos).array());
+        indexDiscard(tweetId, nanos);
+        lastNanos = Math.max(lastNanos, nanos);
+    }
+
+    /**
+     * Append a tweet with the next id, which is set on it
+     */
+    private void appendTweet(final Tweet tweet, final long nanos) {
+        final long id = lastId + 1;
+        final Long status = tweet.getPre2015MigrationStatus();
+        final byte[] publisher = tweet.getPublisher().getBytes(StandardCharsets.UTF_8);
+        final byte[] text = tweet.getTweet().getBytes(StandardCharsets.UTF_8);
+
+        final ByteBuffer payload = ByteBuffer.allocate(1 + 3 * Long.BYTES + 2 * Integer.BYTES + publisher.length + text.length);
+        payload.put(RECORD_TWEET).putLong(id).putLong(nanos).putLong(status == null ? NO_STATUS : status)
+                .putInt(publisher.length).put(publisher)
+                .putInt(text.length).put(text);
+
+        indexTweet(id, append(payload.array()), nanos);
+        tweet.setId(id);
+    }
+
+    /**
+     * @return position of the record in the log
+     */
+    private long append(final byte[] payload) {
+        final int recordSize = LENGTH_BYTES + payload.length + CHECKSUM_BYTES;
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException("Record of " + recordSize + " bytes does not fit in a log segment");
+        }
+
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.end + recordSize > segmentSize) {
+            segment = openSegment(segments.size());
+            segments.add(segment);
+        }
+
+        checksum.reset();
+        checksum.update(payload, 0, payload.length);
+
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(segment.end);
+        buffer.putInt(payload.length).put(payload).putInt((int) checksum.getValue());
+
+        final long position = ((long) (segments.size() - 1) << 32) | segment.end;
+        segment.end += recordSize;
+        return position;
+    }
+
+    private void force() {
+        if (forceWrites && !segments.isEmpty()) {
+            segments.get(segments.size() - 1).buffer.force();
+        }
+    }
+
+    private void recover() throws IOException {
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < files.size(); i++) {
+            final Segment segment = openSegment(i);
+            segments.add(segment);
+            replay(segment, i);
+        }
+
+        if (!files.isEmpty()) {
+            LOGGER.info("Replayed {} tweets and {} discards from {} log segments in {} ms", lastId, discardCount,
+                    files.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private void replay(final Segment segment, final int segmentIndex) {
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        int offset = 0;
+
+        while (offset + LENGTH_BYTES + CHECKSUM_BYTES <= segmentSize) {
+            final int length = buffer.getInt(offset);
+            if (length <= 0 || offset + LENGTH_BYTES + length + CHECKSUM_BYTES > segmentSize) {
+                break;
+            }
+
+            final byte[] payload = new byte[length];
+            buffer.position(offset + LENGTH_BYTES);
+            buffer.get(payload);
+            checksum.reset();
+            checksum.update(payload, 0, length);
+            if ((int) checksum.getValue() != buffer.getInt()) {
+                LOGGER.warn("Tweet log {} ends with an incomplete record at offset {}, it is discarded", segment.path, offset);
+                break;
+            }
+
+            apply(ByteBuffer.wrap(payload), ((long) segmentIndex << 32) | offset);
+            offset += LENGTH_BYTES + length + CHECKSUM_BYTES;
+        }
+
+        segment.end = offset;
+    }
+
+    private void apply(final ByteBuffer payload, final long position) {
+        final byte type = payload.get();
+        final long id = payload.getLong();
+        final long nanos = payload.getLong();
+
+        if (type == RECORD_TWEET) {
+            indexTweet(id, position, nanos);
+        } else if (type == RECORD_DISCARD) {
+            indexDiscard(id, nanos);
+        }
+        lastNanos = Math.max(lastNanos, nanos);
+    }
+
+    private void indexTweet(final long id, final long position, final long nanos) {
+        if (index(id) > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(index(id) + 1, positions.length * 2));
+            discardedAt = Arrays.copyOf(discardedAt, positions.length);
+        }
+        positions[index(id) - 1] = position;
+        lastId = Math.max(lastId, id);
+        lastPublishedNanos = Math.max(lastPublishedNanos, nanos);
+        lastNanos = Math.max(lastNanos, nanos);
+    }
+
+    /**
+     * New discards go to the end of the discard order, restored ones are inserted by their timestamp
+     */
+    private void indexDiscard(final long id, final long nanos) {
+        if (discardCount == discardedIds.length) {
+            discardedIds = Arrays.copyOf(discardedIds, discardCount * 2);
+            discardedNanos = Arrays.copyOf(discardedNanos, discardCount * 2);
+        }
+
+        final int position = discardPosition(nanos, id);
+        System.arraycopy(discardedIds, position, discardedIds, position + 1, discardCount - position);
+        System.arraycopy(discardedNanos, position, discardedNanos, position + 1, discardCount - position);
+        discardedIds[position] = id;
+        discardedNanos[position] = nanos;
+        discardCount++;
+        discarded.set(index(id));
+        discardedAt[index(id) - 1] = nanos;
+    }
+
+    /**
+     * @return [id, publisher, tweet, pre2015MigrationStatus, publishedTimestamp]
+     */
+    private Object[] readRow(final long id) {
+        final long position = positions[index(id) - 1];
+        final ByteBuffer buffer = segments.get((int) (position >>> 32)).buffer.duplicate();
+        buffer.position((int) position + LENGTH_BYTES + 1 + Long.BYTES);
+
+        final long nanos = buffer.getLong();
+        final long status = buffer.getLong();
+        final String publisher = readString(buffer);
+        final String text = readString(buffer);
+
+        return new Object[]{id, publisher, text, status == NO_STATUS ? null : status, timestamp(nanos)};
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isHidden(final Object[] row) {
+        return Long.valueOf(99L).equals(row[3]);
+    }
+
+    private long currentLastId() {
+        lock.readLock().lock();
+        try {
+            return lastId;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long nextNanos() {
+        lastNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()), lastNanos + 1);
+        return lastNanos;
+    }
+
+    private Segment openSegment(final int segmentIndex) {
+        final Path path = directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, segmentIndex, SEGMENT_SUFFIX));
+        try {
+            final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot open tweet log segment " + path, ex);
+        }
+    }
+
+    private static int index(final long id) {
+        return Math.toIntExact(id);
+    }
+
+    private static Timestamp timestamp(final long nanos) {
+        final Timestamp timestamp = new Timestamp(TimeUnit.NANOSECONDS.toMillis(nanos));
+        timestamp.setNanos((int) (nanos % TimeUnit.SECONDS.toNanos(1)));
+        return timestamp;
+    }
+
+    private static long nanos(final Timestamp timestamp) {
+        return TimeUnit.SECONDS.toNanos(Math.floorDiv(timestamp.getTime(), 1000)) + timestamp.getNanos();
+    }
+
+    private static class Segment {
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        // offset where the next record is written
+        int end;
+
+        Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+}
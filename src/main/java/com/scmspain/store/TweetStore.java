@@ -0,0 +1,84 @@
+package com.scmspain.store;
+
+import com.scmspain.dtos.TweetCursor;
+import com.scmspain.entities.Tweet;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Storage of the tweets behind TweetService.
+ * <p>
+ * Lists are returned as rows of [id, publisher, tweet, pre2015MigrationStatus, sortTimestamp], newest first, where
+ * the sort timestamp is the published or discarded timestamp of the list. Methods are called inside the transaction
+ * of the service; stores that are not transactional write as soon as they are called.
+ */
+public interface TweetStore {
+    /**
+     * Store new tweets, setting their id and published timestamp
+     */
+    void save(List<Tweet> tweets);
+
+    /**
+     * Store tweets read from an export, keeping their timestamps, discarded state and migration status. New ids are
+     * assigned and set on the tweets
+     * @throws IllegalArgumentException if the store cannot keep the timestamps of the tweets
+     */
+    void restore(List<Tweet> tweets);
+
+    /**
+     * @return true if a published tweet was discarded
+     */
+    boolean discard(Long tweetId);
+
+    /**
+     * @param tweetIds distinct ids of the tweets to discard
+     * @return ids of the tweets that were discarded by this call, in request order
+     */
+    List<Long> discard(List<Long> tweetIds);
+
+    /**
+     * @return the tweet or null if there is no tweet with that id
+     */
+    Tweet find(Long tweetId);
+
+    /**
+     * @return true if the publisher published a tweet with this text since the given time that is not discarded
+     */
+    boolean existsPublished(String publisher, String tweet, Timestamp since);
+
+    /**
+     * @param after cursor of the last row already returned or null to start from the newest tweet
+     */
+    List<Object[]> listPublished(TweetCursor after, int limit);
+
+    List<Object[]> listPublishedByPublisher(String publisher, TweetCursor after, int limit);
+
+    List<Object[]> listDiscarded(TweetCursor after, int limit);
+
+    /**
+     * Visit every published tweet newest first, without holding them all in memory
+     */
+    void streamPublished(Consumer<Object[]> consumer);
+
+    /**
+     * Visit every tweet, published and discarded, in id order, without holding them all in memory
+     */
+    void scanAll(Consumer<Tweet> consumer);
+
+    /**
+     * @return the newest published tweets
+     */
+    List<Tweet> loadPublished(int limit);
+
+    /**
+     * @return lowest and highest id of the published tweets or null if there are none
+     */
+    long[] publishedIdRange();
+
+    /**
+     * Visit the published tweets with ids in a range, in ascending id order
+     */
+    void scanPublished(long fromId, long toId, Consumer<Object[]> consumer);
+}
@@ -0,0 +1,106 @@
+package com.scmspain.tracing;
+
+/**
+ * Timings of the request handled by the current thread, split by phase.
+ * <p>
+ * The tracing filter opens a trace per request and the layers add to it through the static methods, which do nothing
+ * outside a traced request, so the same code paths run unchanged from scheduled jobs. Phases nest: the service phase
+ * includes the store phase, which includes the JDBC statements of the query phase.
+ */
+public final class RequestTrace {
+    public enum Phase {
+        /** time in the service methods */
+        SERVICE,
+        /** time in the store, running the queries and reading their rows */
+        STORE,
+        /** time executing JDBC statements */
+        QUERY,
+        /** time building DTOs from the rows */
+        CONVERT,
+        /** time from the start of the response body to the end of the request */
+        SERIALIZE
+    }
+
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos;
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private long statements;
+    private long rows;
+    private long responseStartNanos;
+
+    private RequestTrace(long startNanos) {
+        this.startNanos = startNanos;
+    }
+
+    static RequestTrace begin() {
+        final RequestTrace trace = new RequestTrace(System.nanoTime());
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @param nanos elapsed time of one span of the phase
+     */
+    public static void record(final Phase phase, final long nanos) {
+        final RequestTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.phaseNanos[phase.ordinal()] += nanos;
+        }
+    }
+
+    public static void addStatement() {
+        final RequestTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.statements++;
+        }
+    }
+
+    public static void addRows(final long rows) {
+        final RequestTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.rows += rows;
+        }
+    }
+
+    /**
+     * Mark the start of the response body, the rest of the request is counted as serialization
+     */
+    public static void markResponse() {
+        final RequestTrace trace = CURRENT.get();
+        if (trace != null && trace.responseStartNanos == 0) {
+            trace.responseStartNanos = System.nanoTime();
+        }
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    long getPhaseNanos(final Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    long getStatements() {
+        return statements;
+    }
+
+    long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return 0 if no response body was marked
+     */
+    long getResponseStartNanos() {
+        return responseStartNanos;
+    }
+
+    void setPhaseNanos(final Phase phase, final long nanos) {
+        phaseNanos[phase.ordinal()] = nanos;
+    }
+}
@@ -0,0 +1,116 @@
+package com.scmspain.tracing;
+
+import com.scmspain.metrics.TweetMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trace every request: the latency of each phase, the SQL statements run and the rows read are added to the metrics,
+ * and a sample of the requests slower than the threshold is logged with their breakdown. Requests that go async, like
+ * the live feed, are left out
+ */
+public class RequestTracingFilter extends OncePerRequestFilter {
+    public static final String METRIC_PREFIX = "request.";
+    public static final String METRIC_REQUESTS = METRIC_PREFIX + "count";
+    public static final String METRIC_STATEMENTS = METRIC_PREFIX + "sql-statements";
+    public static final String METRIC_ROWS = METRIC_PREFIX + "rows";
+    public static final String METRIC_SLOW = METRIC_PREFIX + "slow";
+    public static final String LATENCY_TOTAL = METRIC_PREFIX + "total";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestTracingFilter.class);
+    private static final RequestTrace.Phase[] PHASES = RequestTrace.Phase.values();
+    private static final String[] LATENCY_PHASES = new String[PHASES.length];
+
+    static {
+        for (RequestTrace.Phase phase : PHASES) {
+            LATENCY_PHASES[phase.ordinal()] = METRIC_PREFIX + phase.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final boolean enabled;
+    private final long slowThresholdNanos;
+    private final double slowSampleRate;
+    private final TweetMetrics metrics;
+
+    /**
+     * @param slowSampleRate fraction of the slow requests that are logged
+     */
+    public RequestTracingFilter(boolean enabled, long slowThresholdMillis, double slowSampleRate, TweetMetrics metrics) {
+        this.enabled = enabled;
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+        this.slowSampleRate = slowSampleRate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!this.enabled) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final RequestTrace trace = RequestTrace.begin();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            RequestTrace.end();
+            if (!request.isAsyncStarted()) {
+                record(trace, System.nanoTime(), request, response);
+            }
+        }
+    }
+
+    void record(final RequestTrace trace, final long endNanos, final HttpServletRequest request,
+                final HttpServletResponse response) {
+        final long total = endNanos - trace.getStartNanos();
+        if (trace.getResponseStartNanos() != 0) {
+            trace.setPhaseNanos(RequestTrace.Phase.SERIALIZE, endNanos - trace.getResponseStartNanos());
+        }
+
+        this.metrics.increment(METRIC_REQUESTS);
+        this.metrics.increment(METRIC_STATEMENTS, trace.getStatements());
+        this.metrics.increment(METRIC_ROWS, trace.getRows());
+        this.metrics.recordLatency(LATENCY_TOTAL, total);
+        for (RequestTrace.Phase phase : PHASES) {
+            final long nanos = trace.getPhaseNanos(phase);
+            if (nanos > 0) {
+                this.metrics.recordLatency(LATENCY_PHASES[phase.ordinal()], nanos);
+            }
+        }
+
+        if (total >= this.slowThresholdNanos) {
+            this.metrics.increment(METRIC_SLOW);
+            if (ThreadLocalRandom.current().nextDouble() < this.slowSampleRate) {
+                LOGGER.warn("Slow request {} {} {} in {} ms: {}", request.getMethod(), requestUri(request),
+                        response.getStatus(), millis(total), breakdown(trace));
+            }
+        }
+    }
+
+    private static String requestUri(final HttpServletRequest request) {
+        return request.getQueryString() == null ? request.getRequestURI() : request.getRequestURI() + "?" + request.getQueryString();
+    }
+
+    private static String breakdown(final RequestTrace trace) {
+        final StringBuilder builder = new StringBuilder();
+        for (RequestTrace.Phase phase : PHASES) {
+            builder.append(phase.name().toLowerCase(Locale.ROOT)).append(' ').append(millis(trace.getPhaseNanos(phase))).append(" ms, ");
+        }
+        return builder.append(trace.getStatements()).append(" statements, ").append(trace.getRows()).append(" rows").toString();
+    }
+
+    private static String millis(final long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,32 @@
+package com.scmspain.tracing;
+
+import org.hibernate.BaseSessionEventListener;
+
+/**
+ * Time the JDBC statements Hibernate executes for the current request. Registered with hibernate.session.events.auto,
+ * Hibernate creates one per session, which is used by one thread at a time
+ */
+public class TracingSessionEventListener extends BaseSessionEventListener {
+    private long statementStart;
+    private long batchStart;
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        this.statementStart = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        RequestTrace.record(RequestTrace.Phase.QUERY, System.nanoTime() - this.statementStart);
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        this.batchStart = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        RequestTrace.record(RequestTrace.Phase.QUERY, System.nanoTime() - this.batchStart);
+    }
+}
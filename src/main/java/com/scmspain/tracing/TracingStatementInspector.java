@@ -0,0 +1,15 @@
+package com.scmspain.tracing;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Count the SQL statements Hibernate prepares for the current request. Registered with
+ * hibernate.session_factory.statement_inspector, the statements are left unchanged
+ */
+public class TracingStatementInspector implements StatementInspector {
+    @Override
+    public String inspect(String sql) {
+        RequestTrace.addStatement();
+        return sql;
+    }
+}
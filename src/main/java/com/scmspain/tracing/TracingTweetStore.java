@@ -0,0 +1,120 @@
+package com.scmspain.tracing;
+
+import com.scmspain.dtos.TweetCursor;
+import com.scmspain.entities.Tweet;
+import com.scmspain.store.TweetStore;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Store that adds the time spent in another store, and the rows it returns, to the trace of the current request
+ */
+public class TracingTweetStore implements TweetStore {
+    private final TweetStore delegate;
+
+    public TracingTweetStore(TweetStore delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void save(List<Tweet> tweets) {
+        trace(() -> delegate.save(tweets));
+    }
+
+    @Override
+    public void restore(List<Tweet> tweets) {
+        trace(() -> delegate.restore(tweets));
+    }
+
+    @Override
+    public boolean discard(Long tweetId) {
+        return trace(() -> delegate.discard(tweetId));
+    }
+
+    @Override
+    public List<Long> discard(List<Long> tweetIds) {
+        return trace(() -> delegate.discard(tweetIds));
+    }
+
+    @Override
+    public Tweet find(Long tweetId) {
+        return trace(() -> delegate.find(tweetId));
+    }
+
+    @Override
+    public boolean existsPublished(String publisher, String tweet, Timestamp since) {
+        return trace(() -> delegate.existsPublished(publisher, tweet, since));
+    }
+
+    @Override
+    public List<Object[]> listPublished(TweetCursor after, int limit) {
+        return traceRows(() -> delegate.listPublished(after, limit));
+    }
+
+    @Override
+    public List<Object[]> listPublishedByPublisher(String publisher, TweetCursor after, int limit) {
+        return traceRows(() -> delegate.listPublishedByPublisher(publisher, after, limit));
+    }
+
+    @Override
+    public List<Object[]> listDiscarded(TweetCursor after, int limit) {
+        return traceRows(() -> delegate.listDiscarded(after, limit));
+    }
+
+    @Override
+    public void streamPublished(Consumer<Object[]> consumer) {
+        // the consumer writes the response as rows arrive, so only the rows are counted
+        delegate.streamPublished(row -> {
+            RequestTrace.addRows(1);
+            consumer.accept(row);
+        });
+    }
+
+    @Override
+    public void scanAll(Consumer<Tweet> consumer) {
+        delegate.scanAll(tweet -> {
+            RequestTrace.addRows(1);
+            consumer.accept(tweet);
+        });
+    }
+
+    @Override
+    public List<Tweet> loadPublished(int limit) {
+        return traceRows(() -> delegate.loadPublished(limit));
+    }
+
+    @Override
+    public long[] publishedIdRange() {
+        return trace(delegate::publishedIdRange);
+    }
+
+    @Override
+    public void scanPublished(long fromId, long toId, Consumer<Object[]> consumer) {
+        delegate.scanPublished(fromId, toId, consumer);
+    }
+
+    private static <T> List<T> traceRows(final Supplier<List<T>> call) {
+        final List<T> rows = trace(call);
+        RequestTrace.addRows(rows.size());
+        return rows;
+    }
+
+    private static <T> T trace(final Supplier<T> call) {
+        final long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            RequestTrace.record(RequestTrace.Phase.STORE, System.nanoTime() - start);
+        }
+    }
+
+    private static void trace(final Runnable call) {
+        trace(() -> {
+            call.run();
+            return null;
+        });
+    }
+}
@@ -0,0 +1,128 @@
+package com.scmspain.validators;
+
+/**
+ * Single-pass computation of the length of a tweet without its links.
+ * <p>
+ * It gives the same result as {@code tweet.replaceAll("\\bhttps?://\\S+ ", "").length()} without compiling a pattern
+ * or allocating: a link starts with http:// or https:// at a word boundary, has at least one non-whitespace
+ * character and only counts as a link when the run of non-whitespace characters is followed by a space, which is
+ * also excluded from the length. Word boundaries follow java.util.regex rules, i.e. letters, digits and '_' (plus
+ * non-spacing marks attached to them) are word characters.
+ */
+public final class TweetLengthValidator {
+    private static final String HTTP = "http";
+    private static final String SCHEME_SEPARATOR = "://";
+
+    private TweetLengthValidator() {
+    }
+
+    /**
+     * @param tweet text of the tweet
+     * @param maxLength maximum length without links
+     * @return true if the length of the tweet without links is greater than maxLength
+     */
+    public static boolean exceedsMaxLength(final CharSequence tweet, final int maxLength) {
+        return effectiveLength(tweet, maxLength) > maxLength;
+    }
+
+    /**
+     * Length of the tweet without links. The scan stops as soon as the limit is exceeded
+     * @param tweet text of the tweet
+     * @param limit length after which counting can stop
+     * @return length without links, or limit + 1 if it is greater than limit
+     */
+    public static int effectiveLength(final CharSequence tweet, final int limit) {
+        final int length = tweet.length();
+        int count = 0;
+        int i = 0;
+
+        while (i < length) {
+            final int linkEnd = tweet.charAt(i) == 'h' ? linkEnd(tweet, i) : -1;
+
+            if (linkEnd > 0) {
+                i = linkEnd;
+            } else {
+                if (++count > limit) {
+                    return count;
+                }
+                i++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return index right after the trailing space of the link starting at start, or -1 if there is no link there
+     */
+    private static int linkEnd(final CharSequence tweet, final int start) {
+        if (!startsWith(tweet, start, HTTP) || !isBoundary(tweet, start)) {
+            return -1;
+        }
+
+        int i = start + HTTP.length();
+        if (i < tweet.length() && tweet.charAt(i) == 's' && startsWith(tweet, i + 1, SCHEME_SEPARATOR)) {
+            i++;
+        }
+        if (!startsWith(tweet, i, SCHEME_SEPARATOR)) {
+            return -1;
+        }
+
+        final int runStart = i + SCHEME_SEPARATOR.length();
+        i = runStart;
+        while (i < tweet.length() && !isWhitespace(tweet.charAt(i))) {
+            i++;
+        }
+
+        return i > runStart && i < tweet.length() && tweet.charAt(i) == ' ' ? i + 1 : -1;
+    }
+
+    private static boolean startsWith(final CharSequence tweet, final int offset, final String prefix) {
+        if (offset + prefix.length() > tweet.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (tweet.charAt(offset + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * \b before a word character: the previous code point must not be part of a word
+     */
+    private static boolean isBoundary(final CharSequence tweet, final int index) {
+        if (index == 0) {
+            return true;
+        }
+
+        final int previous = Character.codePointBefore(tweet, index);
+        return !(isWord(previous)
+                || (Character.getType(previous) == Character.NON_SPACING_MARK && hasBaseCharacter(tweet, index - 1)));
+    }
+
+    private static boolean hasBaseCharacter(final CharSequence tweet, final int index) {
+        for (int i = index; i >= 0; i--) {
+            final int codePoint = Character.codePointAt(tweet, i);
+            if (Character.isLetterOrDigit(codePoint)) {
+                return true;
+            }
+            if (Character.getType(codePoint) != Character.NON_SPACING_MARK) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWord(final int codePoint) {
+        return codePoint == '_' || Character.isLetterOrDigit(codePoint);
+    }
+
+    /**
+     * Same characters as the regex \s class: [ \t\n\x0B\f\r]
+     */
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
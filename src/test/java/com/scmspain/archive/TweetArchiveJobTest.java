@@ -0,0 +1,104 @@
+package com.scmspain.archive;
+
+import com.scmspain.configuration.TestConfiguration;
+import com.scmspain.dtos.TweetDTO;
+import com.scmspain.dtos.TweetPage;
+import com.scmspain.services.TweetService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestConfiguration.class, properties = {
+        "tweet.archive.enabled=true",
+        "tweet.archive.batch-size=2",
+        "tweet.archive.published-horizon-days=30",
+        "tweet.timeline-cache.capacity=0"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class TweetArchiveJobTest {
+    private static final String INSERT_TWEET = "INSERT INTO tweet (id, publisher, tweet, pre2015migration_status, discarded, published_timestamp, discarded_timestamp) VALUES (?, 'Yo', ?, 0, ?, ?, ?)";
+
+    @Autowired
+    private TweetArchiveJob tweetArchiveJob;
+    @Autowired
+    private TweetService tweetService;
+    @Autowired
+    private DataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void setUp() throws Exception {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        dropPartitions();
+        jdbcTemplate.update(INSERT_TWEET, 1L, "January", true, at(2017, 1, 1), at(2017, 1, 15));
+        jdbcTemplate.update(INSERT_TWEET, 2L, "February", true, at(2017, 1, 1), at(2017, 2, 10));
+        jdbcTemplate.update(INSERT_TWEET, 3L, "March", true, at(2017, 1, 1), at(2017, 3, 5));
+        jdbcTemplate.update(INSERT_TWEET, 4L, "Old", false, at(2017, 1, 2), null);
+        jdbcTemplate.update(INSERT_TWEET, 5L, "Recent", false, Timestamp.valueOf(LocalDateTime.now()), null);
+    }
+
+    /**
+     * The in-memory database outlives the context and archive tables are not dropped with the entity tables
+     */
+    @After
+    public void tearDown() throws Exception {
+        dropPartitions();
+    }
+
+    @Test
+    public void shouldMoveDiscardedAndOldTweetsToMonthlyPartitions() throws Exception {
+        tweetArchiveJob.run();
+
+        assertThat(jdbcTemplate.queryForList("SELECT id FROM tweet", Long.class)).containsExactly(5L);
+        assertThat(count(YearMonth.of(2017, 1))).isEqualTo(2L);
+        assertThat(count(YearMonth.of(2017, 2))).isEqualTo(1L);
+        assertThat(count(YearMonth.of(2017, 3))).isEqualTo(1L);
+        assertThat(tweetService.listAllPublishedTweets()).extracting(TweetDTO::getId).containsExactly(5L);
+    }
+
+    @Test
+    public void shouldListDiscardedTweetsAcrossPartitions() throws Exception {
+        tweetArchiveJob.run();
+        tweetService.discardTweet(5L);
+
+        assertThat(tweetService.listAllDiscardedTweets()).extracting(TweetDTO::getId).containsExactly(5L, 3L, 2L, 1L);
+
+        TweetPage page = tweetService.listDiscardedTweets(null, 2);
+        assertThat(page.getTweets()).extracting(TweetDTO::getId).containsExactly(5L, 3L);
+        page = tweetService.listDiscardedTweets(page.getNextCursor(), 2);
+        assertThat(page.getTweets()).extracting(TweetDTO::getId).containsExactly(2L, 1L);
+        assertThat(page.hasNext()).isFalse();
+    }
+
+    @Test
+    public void shouldListTheSameDiscardedTweetsBeforeArchiving() throws Exception {
+        assertThat(tweetService.listAllDiscardedTweets()).extracting(TweetDTO::getId).containsExactly(3L, 2L, 1L);
+    }
+
+    private void dropPartitions() {
+        jdbcTemplate.queryForList("SELECT table_name FROM information_schema.tables WHERE UPPER(table_name) LIKE 'TWEET_ARCHIVE_%'", String.class)
+                .forEach(table -> jdbcTemplate.execute("DROP TABLE " + table));
+    }
+
+    private Long count(final YearMonth month) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + TweetArchive.tableName(month), Long.class);
+    }
+
+    private static Timestamp at(final int year, final int month, final int day) {
+        return Timestamp.valueOf(LocalDateTime.of(year, month, day, 12, 0));
+    }
+}
@@ -0,0 +1,50 @@
+package com.scmspain.backup;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class TweetBackupEndpointTest {
+    @Test
+    public void shouldRunOneExportOrImportAtATime() throws Exception {
+        TweetBackup tweetBackup = mock(TweetBackup.class);
+        CountDownLatch exporting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            exporting.countDown();
+            release.await();
+            return 0L;
+        }).when(tweetBackup).export(any(Path.class));
+        TweetBackupEndpoint endpoint = new TweetBackupEndpoint(tweetBackup);
+
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> {
+            try {
+                endpoint.exportTweets(new MockHttpServletResponse());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        exporting.await();
+
+        assertThat(catchThrowable(() -> endpoint.exportTweets(new MockHttpServletResponse())))
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThat(catchThrowable(() -> endpoint.importTweets(new MockHttpServletRequest())))
+                .isInstanceOf(RejectedExecutionException.class);
+
+        release.countDown();
+        first.get(1, TimeUnit.SECONDS);
+        endpoint.exportTweets(new MockHttpServletResponse());
+    }
+}
@@ -0,0 +1,85 @@
+package com.scmspain.backup;
+
+import com.scmspain.entities.Tweet;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TweetBackupFormatTest {
+
+    @Test
+    public void shouldReadBackEveryFieldExactly() throws Exception {
+        Tweet tweet = tweet("Guybrush Threepwood", "I am Guybrush Threepwood, mighty pirate. \u2620");
+        tweet.setPre2015MigrationStatus(null);
+        tweet.setDiscarded(true);
+        tweet.setDiscardedTimestamp(timestamp(1490000500000L, 999999999));
+
+        ByteBuffer buffer = ByteBuffer.allocate(TweetBackupFormat.recordSize(tweet));
+        TweetBackupFormat.write(tweet, buffer);
+        assertThat(buffer.hasRemaining()).isFalse();
+        buffer.flip();
+
+        Tweet read = TweetBackupFormat.read(buffer);
+
+        assertThat(read).isEqualToComparingFieldByField(tweet);
+        assertThat(read.getPublishedTimestamp().getNanos()).isEqualTo(123456789);
+    }
+
+    @Test
+    public void shouldWaitForTheWholeRecord() throws Exception {
+        Tweet tweet = tweet("Yo", "Tweet");
+        ByteBuffer buffer = ByteBuffer.allocate(TweetBackupFormat.recordSize(tweet));
+        TweetBackupFormat.write(tweet, buffer);
+        buffer.flip();
+        buffer.limit(buffer.limit() - 1);
+
+        assertThat(TweetBackupFormat.read(buffer)).isNull();
+        assertThat(buffer.position()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldReadTheHeaderItWrites() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(TweetBackupFormat.HEADER_BYTES);
+        TweetBackupFormat.writeHeader(buffer);
+        buffer.flip();
+
+        TweetBackupFormat.readHeader(buffer);
+
+        assertThat(buffer.hasRemaining()).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectContentWithoutHeader() throws Exception {
+        TweetBackupFormat.readHeader(ByteBuffer.wrap("[{\"publisher\": \"Yo\"}]".getBytes()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAMalformedRecord() throws Exception {
+        Tweet tweet = tweet("Yo", "Tweet");
+        ByteBuffer buffer = ByteBuffer.allocate(TweetBackupFormat.recordSize(tweet));
+        TweetBackupFormat.write(tweet, buffer);
+        // text length beyond the end of the record
+        buffer.putInt(buffer.capacity() - "Tweet".length() - Integer.BYTES, 1000);
+        buffer.flip();
+
+        TweetBackupFormat.read(buffer);
+    }
+
+    private Tweet tweet(String publisher, String text) {
+        Tweet tweet = new Tweet();
+        tweet.setId(42L);
+        tweet.setPublisher(publisher);
+        tweet.setTweet(text);
+        tweet.setPublishedTimestamp(timestamp(1490000000000L, 123456789));
+        return tweet;
+    }
+
+    private Timestamp timestamp(long millis, int nanos) {
+        Timestamp timestamp = new Timestamp(millis);
+        timestamp.setNanos(nanos);
+        return timestamp;
+    }
+}
@@ -0,0 +1,203 @@
+package com.scmspain.cache;
+
+import com.scmspain.dtos.TweetCursor;
+import com.scmspain.dtos.TweetDTO;
+import com.scmspain.dtos.TweetPage;
+import com.scmspain.entities.Tweet;
+import com.scmspain.events.TweetDiscardedEvent;
+import com.scmspain.events.TweetPublishedEvent;
+import com.scmspain.events.TweetsImportedEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PublisherTimelineCacheTest {
+    private static final int CAPACITY = 3;
+
+    private PublisherTimelineCache publisherCache;
+
+    @Before
+    public void setUp() throws Exception {
+        this.publisherCache = new PublisherTimelineCache(32, CAPACITY);
+    }
+
+    @Test
+    public void shouldMissUntilThePublisherIsLoaded() throws Exception {
+        assertThat(publisherCache.get("Yo", null, 10)).isNull();
+
+        load("Yo", tweet(2L, 2000L, "Yo"), tweet(1L, 1000L, "Yo"));
+
+        assertThat(ids(publisherCache.get("Yo", null, 10))).containsExactly(2L, 1L);
+        assertThat(metric(PublisherTimelineCache.METRIC_MISSES)).isEqualTo(1L);
+        assertThat(metric(PublisherTimelineCache.METRIC_HITS)).isEqualTo(1L);
+    }
+
+    @Test
+    public void shouldKeepTheNewestTweetsOfEachPublisher() throws Exception {
+        load("Yo", tweet(2L, 2000L, "Yo"), tweet(1L, 1000L, "Yo"));
+        load("Tu");
+
+        publisherCache.onTweetPublished(new TweetPublishedEvent(tweet(3L, 3000L, "Yo")));
+        publisherCache.onTweetPublished(new TweetPublishedEvent(tweet(4L, 4000L, "Yo")));
+        publisherCache.onTweetPublished(new TweetPublishedEvent(tweet(5L, 5000L, "Tu")));
+
+        assertThat(ids(publisherCache.get("Yo", null, 3))).containsExactly(4L, 3L, 2L);
+        assertThat(ids(publisherCache.get("Tu", null, 3))).containsExactly(5L);
+        // the oldest tweet fell out of the ring, so the next page must come from the repository
+        assertThat(publisherCache.get("Yo", null, 4)).isNull();
+    }
+
+    @Test
+    public void shouldDropEveryPublisherOnImport() throws Exception {
+        load("Yo", tweet(2L, 2000L, "Yo"), tweet(1L, 1000L, "Yo"));
+        long version = publisherCache.version("Yo");
+
+        publisherCache.onTweetsImported(new TweetsImportedEvent());
+
+        assertThat(publisherCache.get("Yo", null, 10)).isNull();
+        assertThat(publisherCache.version("Yo")).isNotEqualTo(version);
+    }
+
+    @Test
+    public void shouldPlaceLateTweetsInOrder() throws Exception {
+        load("Yo", tweet(3L, 3000L, "Yo"), tweet(1L, 1000L, "Yo"));
+
+        publisherCache.onTweetPublished(new TweetPublishedEvent(tweet(2L, 2000L, "Yo")));
+
+        assertThat(ids(publisherCache.get("Yo", null, 3))).containsExactly(3L, 2L, 1L);
+    }
+
+    @Test
+    public void shouldPageFromCursor() throws Exception {
+        load("Yo", tweet(3L, 3000L, "Yo"), tweet(2L, 2000L, "Yo"), tweet(1L, 1000L, "Yo"));
+
+        TweetPage first = publisherCache.get("Yo", null, 2);
+        assertThat(ids(first)).containsExactly(3L, 2L);
+
+        TweetPage second = publisherCache.get("Yo", first.getNextCursor(), 2);
+        assertThat(ids(second)).containsExactly(1L);
+        assertThat(second.hasNext()).isFalse();
+    }
+
+    @Test
+    public void shouldRemoveDiscardedTweets() throws Exception {
+        load("Yo", tweet(2L, 2000L, "Yo"), tweet(1L, 1000L, "Yo"));
+
+        publisherCache.onTweetDiscarded(new TweetDiscardedEvent(2L));
+
+        assertThat(ids(publisherCache.get("Yo", null, 10))).containsExactly(1L);
+    }
+
+    @Test
+    public void shouldReplaceARingThatLostTweetsToDiscards() throws Exception {
+        load("Yo", tweet(4L, 4000L, "Yo"), tweet(3L, 3000L, "Yo"), tweet(2L, 2000L, "Yo"), tweet(1L, 1000L, "Yo"));
+        publisherCache.onTweetDiscarded(new TweetDiscardedEvent(4L));
+        assertThat(publisherCache.get("Yo", null, CAPACITY)).isNull();
+
+        load("Yo", tweet(3L, 3000L, "Yo"), tweet(2L, 2000L, "Yo"), tweet(1L, 1000L, "Yo"));
+
+        assertThat(ids(publisherCache.get("Yo", null, CAPACITY))).containsExactly(3L, 2L, 1L);
+    }
+
+    @Test
+    public void shouldNotLoadWhenTheTimelineChangedMeanwhile() throws Exception {
+        final long version = publisherCache.version("Yo");
+
+        publisherCache.onTweetPublished(new TweetPublishedEvent(tweet(1L, 1000L, "Yo")));
+        publisherCache.load("Yo", version, new ArrayList<>(), new ArrayList<>());
+
+        assertThat(publisherCache.get("Yo", null, 10)).isNull();
+    }
+
+    @Test
+    public void shouldNotLoadATweetDiscardedMeanwhile() throws Exception {
+        final long version = publisherCache.version("Yo");
+
+        publisherCache.onTweetDiscarded(new TweetDiscardedEvent(1L));
+        publisherCache.load("Yo", version, keys(tweet(1L, 1000L, "Yo")), dtos(tweet(1L, 1000L, "Yo")));
+
+        assertThat(publisherCache.get("Yo", null, 10)).isNull();
+    }
+
+    @Test
+    public void shouldLoadDespiteDiscardsOfOtherUncachedTweets() throws Exception {
+        final long version = publisherCache.version("Yo");
+
+        publisherCache.onTweetDiscarded(new TweetDiscardedEvent(99L));
+        publisherCache.load("Yo", version, keys(tweet(1L, 1000L, "Yo")), dtos(tweet(1L, 1000L, "Yo")));
+
+        assertThat(ids(publisherCache.get("Yo", null, 10))).containsExactly(1L);
+    }
+
+    @Test
+    public void shouldEvictTheLeastRecentlyReadPublishers() throws Exception {
+        final PublisherTimelineCache small = new PublisherTimelineCache(1, CAPACITY);
+        final List<String> publishers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            publishers.add("Publisher " + i);
+            small.load("Publisher " + i, small.version("Publisher " + i), new ArrayList<>(), new ArrayList<>());
+        }
+
+        final long cached = publishers.stream().filter(publisher -> small.get(publisher, null, 1) != null).count();
+        assertThat(cached).isLessThan(100L);
+        assertThat(small.get("Publisher 99", null, 1)).isNotNull();
+    }
+
+    @Test
+    public void shouldNeverAnswerWhenDisabled() throws Exception {
+        final PublisherTimelineCache disabled = new PublisherTimelineCache(0, CAPACITY);
+        disabled.load("Yo", disabled.version("Yo"), new ArrayList<>(), new ArrayList<>());
+
+        assertThat(disabled.get("Yo", null, 1)).isNull();
+    }
+
+    private void load(String publisher, Tweet... tweets) {
+        publisherCache.load(publisher, publisherCache.version(publisher), keys(tweets), dtos(tweets));
+    }
+
+    private List<TweetCursor> keys(Tweet... tweets) {
+        final List<TweetCursor> keys = new ArrayList<>();
+        for (Tweet tweet : tweets) {
+            keys.add(new TweetCursor(tweet.getPublishedTimestamp(), tweet.getId()));
+        }
+        return keys;
+    }
+
+    private List<TweetDTO> dtos(Tweet... tweets) {
+        final List<TweetDTO> dtos = new ArrayList<>();
+        for (Tweet tweet : tweets) {
+            final TweetDTO dto = new TweetDTO(tweet.getPublisher(), tweet.getTweet());
+            dto.setId(tweet.getId());
+            dtos.add(dto);
+        }
+        return dtos;
+    }
+
+    private Tweet tweet(Long id, long publishedAt, String publisher) {
+        Tweet tweet = new Tweet();
+        tweet.setId(id);
+        tweet.setPublisher(publisher);
+        tweet.setTweet("Tweet " + id);
+        tweet.setPublishedTimestamp(new Timestamp(publishedAt));
+        return tweet;
+    }
+
+    private List<Long> ids(TweetPage page) {
+        return page.getTweets().stream().map(TweetDTO::getId).collect(Collectors.toList());
+    }
+
+    private Object metric(String name) {
+        return publisherCache.metrics().stream()
+                .filter(metric -> metric.getName().equals(name))
+                .map(Metric::getValue)
+                .findFirst()
+                .orElse(null);
+    }
+}
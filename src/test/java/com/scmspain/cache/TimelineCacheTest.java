@@ -0,0 +1,257 @@
+package com.scmspain.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scmspain.dtos.TweetDTO;
+import com.scmspain.dtos.TweetPage;
+import com.scmspain.entities.Tweet;
+import com.scmspain.events.TweetArchivedEvent;
+import com.scmspain.events.TweetDiscardedEvent;
+import com.scmspain.events.TweetPublishedEvent;
+import com.scmspain.events.TweetsImportedEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.scmspain.GzipTestUtils.gunzip;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimelineCacheTest {
+    private static final int CAPACITY = 3;
+
+    private TimelineCache timelineCache;
+
+    @Before
+    public void setUp() throws Exception {
+        this.timelineCache = new TimelineCache(CAPACITY, new ObjectMapper());
+    }
+
+    @Test
+    public void shouldMissWhileCold() throws Exception {
+        assertThat(timelineCache.get(null, 10)).isNull();
+        assertThat(metric(TimelineCache.METRIC_MISSES)).isEqualTo(1L);
+    }
+
+    @Test
+    public void shouldReturnTweetsNewestFirst() throws Exception {
+        timelineCache.warmUp(Collections::emptyList);
+
+        timelineCache.onTweetPublished(new TweetPublishedEvent(tweet(1L, 1000L)));
+        timelineCache.onTweetPublished(new TweetPublishedEvent(tweet(2L, 2000L)));
+
+        TweetPage page = timelineCache.get(null, 10);
+        assertThat(ids(page)).containsExactly(2L, 1L);
+        assertThat(page.hasNext()).isFalse();
+        assertThat(metric(TimelineCache.METRIC_HITS)).isEqualTo(1L);
+    }
+
+    @Test
+    public void shouldEvictOldestTweetWhenFull() throws Exception {
+        timelineCache.warmUp(() -> Arrays.asList(tweet(3L, 3000L), tweet(2L, 2000L), tweet(1L, 1000L)));
+
+        timelineCache.onTweetPublished(new TweetPublishedEvent(tweet(4L, 4000L)));
+
+        assertThat(ids(timelineCache.get(null, 3))).containsExactly(4L, 3L, 2L);
+        assertThat(metric(TimelineCache.METRIC_EVICTIONS)).isEqualTo(1L);
+        // the evicted tweet is only in the repository now
+        assertThat(timelineCache.get(null, 4)).isNull();
+    }
+
+    @Test
+    public void shouldRemoveDiscardedTweets() throws Exception {
+        timelineCache.warmUp(() -> Arrays.asList(tweet(2L, 2000L), tweet(1L, 1000L)));
+
+        timelineCache.onTweetDiscarded(new TweetDiscardedEvent(2L));
+
+        assertThat(ids(timelineCache.get(null, 10))).containsExactly(1L);
+    }
+
+    @Test
+    public void shouldPageFromCursor() throws Exception {
+        timelineCache.warmUp(() -> Arrays.asList(tweet(3L, 3000L), tweet(2L, 2000L), tweet(1L, 1000L)));
+
+        TweetPage first = timelineCache.get(null, 2);
+        assertThat(ids(first)).containsExactly(3L, 2L);
+        assertThat(first.getNextCursor().getId()).isEqualTo(2L);
+
+        TweetPage second = timelineCache.get(first.getNextCursor(), 2);
+        assertThat(ids(second)).containsExactly(1L);
+        assertThat(second.hasNext()).isFalse();
+    }
+
+    @Test
+    public void shouldMissWhenPageGoesBeyondAnIncompleteCache() throws Exception {
+        timelineCache.warmUp(() -> Arrays.asList(tweet(4L, 4000L), tweet(3L, 3000L), tweet(2L, 2000L), tweet(1L, 1000L)));
+
+        TweetPage first = timelineCache.get(null, 3);
+        assertThat(ids(first)).containsExactly(4L, 3L, 2L);
+        assertThat(first.hasNext()).isTrue();
+
+        assertThat(timelineCache.get(first.getNextCursor(), 3)).isNull();
+    }
+
+    @Test
+    public void shouldRemoveArchivedTweets() throws Exception {
+        timelineCache.warmUp(() -> Arrays.asList(tweet(2L, 2000L), tweet(1L, 1000L)));
+
+        timelineCache.onTweetArchived(new TweetArchivedEvent(1L));
+
+        assertThat(ids(timelineCache.get(null, 10))).containsExactly(2L);
+    }
+
+    @Test
+    public void shouldNeverAnswerWhenDisabled() throws Exception {
+        TimelineCache disabled = new TimelineCache(0, new ObjectMapper());
+        disabled.warmUp(ArrayList::new);
+
+        assertThat(disabled.get(null, 1)).isNull();
+    }
+
+    @Test
+    public void shouldEncodeTheFirstPageOnceUntilTheTimelineChanges() throws Exception {
+        timelineCache.warmUp(() -> Arrays.asList(tweet(2L, 2000L), tweet(1L, 1000L)));
+
+        EncodedPage first = timelineCache.getEncoded(10);
+
+        assertThat(first.getJson()).isEqualTo(new ObjectMapper().writeValueAsBytes(timelineCache.get(null, 10).getTweets()));
+        assertThat(first.hasNext()).isFalse();
+        assertThat(timelineCache.getEncoded(10)).isSameAs(first);
+
+        timelineCache.onTweetPublished(new TweetPublishedEvent(tweet(3L, 3000L)));
+
+        EncodedPage second = timelineCache.getEncoded(10);
+        assertThat(second).isNotSameAs(first);
+        assertThat(new ObjectMapper().readValue(second.getJson(), TweetDTO[].class)).extracting(TweetDTO::getId)
+                .containsExactly(3L, 2L, 1L);
+    }
+
+    @Test
+    public void shouldEncodeTheFirstPageWithItsNextCursor() throws Exception {
+        timelineCache.warmUp(() -> Arrays.asList(tweet(3L, 3000L), tweet(2L, 2000L), tweet(1L, 1000L)));
+
+        EncodedPage page = timelineCache.getEncoded(2);
+
+        assertThat(page.getNextCursor()).isEqualTo(timelineCache.get(null, 2).getNextCursor());
+        assertThat(timelineCache.getEncoded(4).getNextCursor()).isNull();
+    }
+
+    @Test
+    public void shouldNotEncodeAPageLargerThanAnIncompleteCache() throws Exception {
+        timelineCache.warmUp(() -> Arrays.asList(tweet(4L, 4000L), tweet(3L, 3000L), tweet(2L, 2000L), tweet(1L, 1000L)));
+
+        assertThat(timelineCache.getEncoded(3)).isNotNull();
+        assertThat(timelineCache.getEncoded(4)).isNull();
+    }
+
+    @Test
+    public void shouldGzipTheEncodedPage() throws Exception {
+        timelineCache.warmUp(() -> Arrays.asList(tweet(2L, 2000L), tweet(1L, 1000L)));
+
+        EncodedPage page = timelineCache.getEncoded(10);
+
+        assertThat(gunzip(page.getGzip())).isEqualTo(page.getJson());
+        assertThat(page.getGzip()).isSameAs(page.getGzip());
+    }
+
+    @Test
+    public void shouldNotEncodeWhileCold() throws Exception {
+        assertThat(timelineCache.getEncoded(10)).isNull();
+    }
+
+    @Test
+    public void shouldRefillOnceDiscardsLeaveItShortOfAPage() throws Exception {
+        List<Tweet> published = new ArrayList<>(Arrays.asList(tweet(5L, 5000L), tweet(4L, 4000L), tweet(3L, 3000L),
+                tweet(2L, 2000L), tweet(1L, 1000L)));
+        timelineCache.warmUp(() -> published.subList(0, CAPACITY + 1));
+        published.remove(1);
+        timelineCache.onTweetDiscarded(new TweetDiscardedEvent(4L));
+
+        assertThat(timelineCache.get(null, 2)).isNotNull();
+        assertThat(timelineCache.isRefillNeeded()).isFalse();
+        assertThat(timelineCache.get(null, 3)).isNull();
+        assertThat(timelineCache.isRefillNeeded()).isTrue();
+
+        timelineCache.refill();
+
+        assertThat(timelineCache.isRefillNeeded()).isFalse();
+        assertThat(ids(timelineCache.get(null, 3))).containsExactly(5L, 3L, 2L);
+    }
+
+    @Test
+    public void shouldNotRefillAfterMissingBeyondAFullCache() throws Exception {
+        timelineCache.warmUp(() -> Arrays.asList(tweet(4L, 4000L), tweet(3L, 3000L), tweet(2L, 2000L), tweet(1L, 1000L)));
+
+        assertThat(timelineCache.get(null, 4)).isNull();
+        assertThat(timelineCache.isRefillNeeded()).isFalse();
+    }
+
+    @Test
+    public void shouldLoadTheHeadAgainOnImport() throws Exception {
+        List<Tweet> published = new ArrayList<>(Arrays.asList(tweet(3L, 3000L), tweet(1L, 1000L)));
+        timelineCache.warmUp(() -> published);
+        published.add(1, tweet(2L, 2000L));
+
+        timelineCache.onTweetsImported(new TweetsImportedEvent());
+
+        assertThat(ids(timelineCache.get(null, 10))).containsExactly(3L, 2L, 1L);
+    }
+
+    @Test
+    public void shouldKeepServingAndReplayChangesWhileLoading() throws Exception {
+        timelineCache.warmUp(() -> Arrays.asList(tweet(2L, 2000L), tweet(1L, 1000L)));
+
+        timelineCache.warmUp(() -> {
+            // another thread publishes and discards while this one loads, neither waits for the load
+            try {
+                CompletableFuture.runAsync(() -> {
+                    timelineCache.onTweetPublished(new TweetPublishedEvent(tweet(4L, 4000L)));
+                    timelineCache.onTweetDiscarded(new TweetDiscardedEvent(1L));
+                }).get(1, TimeUnit.SECONDS);
+                assertThat(ids(CompletableFuture.supplyAsync(() -> timelineCache.get(null, 10)).get(1, TimeUnit.SECONDS)))
+                        .containsExactly(4L, 2L);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            // the loader missed the publication but saw the discard
+            return Arrays.asList(tweet(3L, 3000L), tweet(2L, 2000L));
+        });
+
+        assertThat(ids(timelineCache.get(null, 10))).containsExactly(4L, 3L, 2L);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void shouldNotLetAPageChangeTheCache() throws Exception {
+        timelineCache.warmUp(() -> Arrays.asList(tweet(2L, 2000L), tweet(1L, 1000L)));
+
+        timelineCache.get(null, 10).getTweets().set(0, new TweetDTO());
+    }
+
+    private Tweet tweet(Long id, long publishedAt) {
+        Tweet tweet = new Tweet();
+        tweet.setId(id);
+        tweet.setPublisher("Yo");
+        tweet.setTweet("Tweet " + id);
+        tweet.setPublishedTimestamp(new Timestamp(publishedAt));
+        return tweet;
+    }
+
+    private List<Long> ids(TweetPage page) {
+        return page.getTweets().stream().map(TweetDTO::getId).collect(Collectors.toList());
+    }
+
+    private Object metric(String name) {
+        return timelineCache.metrics().stream()
+                .filter(metric -> metric.getName().equals(name))
+                .map(Metric::getValue)
+                .findFirst()
+                .orElse(null);
+    }
+}
@@ -0,0 +1,75 @@
+package com.scmspain.cache;
+
+import com.scmspain.entities.Tweet;
+import com.scmspain.events.TweetDiscardedEvent;
+import com.scmspain.events.TweetPublishedEvent;
+import com.scmspain.search.TweetSearchIndex;
+import com.scmspain.search.TweetSearchIndexLoader;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.core.annotation.Order;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimelineVersionTest {
+    private TimelineVersion timelineVersion;
+
+    @Before
+    public void setUp() throws Exception {
+        this.timelineVersion = new TimelineVersion();
+    }
+
+    @Test
+    public void shouldKeepTheVersionWhileNothingChanges() throws Exception {
+        assertThat(timelineVersion.getETag()).isEqualTo(timelineVersion.getETag());
+        assertThat(timelineVersion.getLastModified()).isPositive();
+    }
+
+    @Test
+    public void shouldBumpTheVersionWhenATweetIsPublished() throws Exception {
+        final String eTag = timelineVersion.getETag();
+        final long lastModified = timelineVersion.getLastModified();
+
+        timelineVersion.onTweetPublished(new TweetPublishedEvent(new Tweet()));
+
+        assertThat(timelineVersion.getETag()).isNotEqualTo(eTag);
+        assertThat(timelineVersion.getLastModified()).isGreaterThanOrEqualTo(lastModified);
+    }
+
+    @Test
+    public void shouldBumpTheVersionWhenATweetIsDiscarded() throws Exception {
+        final String eTag = timelineVersion.getETag();
+
+        timelineVersion.onTweetDiscarded(new TweetDiscardedEvent(1L));
+
+        assertThat(timelineVersion.getETag()).isNotEqualTo(eTag);
+    }
+
+    @Test
+    public void shouldBumpTheVersionAfterTheListSourcesApplyTheChange() throws Exception {
+        final int versionOrder = listenerOrders(TimelineVersion.class)[0];
+
+        for (Class<?> source : Arrays.asList(TimelineCache.class, PublisherTimelineCache.class, TweetSearchIndex.class,
+                TweetSearchIndexLoader.class)) {
+            assertThat(listenerOrders(source)).as(source.getSimpleName()).isNotEmpty().allMatch(order -> order < versionOrder);
+        }
+    }
+
+    @Test
+    public void shouldNotReuseTheTagOfAnotherStartUp() throws Exception {
+        Thread.sleep(2);
+
+        assertThat(new TimelineVersion().getETag()).isNotEqualTo(timelineVersion.getETag());
+    }
+
+    private Integer[] listenerOrders(final Class<?> type) {
+        return Arrays.stream(type.getMethods())
+                .filter(method -> method.isAnnotationPresent(TransactionalEventListener.class))
+                .map(method -> AnnotationUtils.findAnnotation(method, Order.class).value())
+                .toArray(Integer[]::new);
+    }
+}
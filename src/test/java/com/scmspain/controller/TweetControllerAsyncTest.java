@@ -0,0 +1,62 @@
+package com.scmspain.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scmspain.configuration.TestConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.web.context.WebApplicationContext;
+
+import static java.lang.String.format;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestConfiguration.class, properties = "tweet.async-publish.enabled=true")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class TweetControllerAsyncTest {
+    @Autowired
+    private WebApplicationContext context;
+    private MockMvc mockMvc;
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @Before
+    public void setUp() {
+        this.mockMvc = webAppContextSetup(this.context).build();
+    }
+
+    @Test
+    public void shouldReturn202AndWriteTheTweetLater() throws Exception {
+        mockMvc.perform(newTweet("Prospect", "Breaking the law")).andExpect(status().is(202));
+
+        int published = 0;
+        for (int attempt = 0; attempt < 50 && published == 0; attempt++) {
+            Thread.sleep(100);
+            MvcResult getResult = mockMvc.perform(get("/tweet")).andExpect(status().is(200)).andReturn();
+            published = mapper.readTree(getResult.getResponse().getContentAsString()).size();
+        }
+        assertThat(published).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldReturn400WithoutQueueingAnInvalidTweet() throws Exception {
+        mockMvc.perform(newTweet("", "Breaking the law")).andExpect(status().is(400));
+    }
+
+    private MockHttpServletRequestBuilder newTweet(String publisher, String tweet) {
+        return post("/tweet")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(format("{\"publisher\": \"%s\", \"tweet\": \"%s\"}", publisher, tweet));
+    }
+}
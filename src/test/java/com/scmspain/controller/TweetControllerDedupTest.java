@@ -0,0 +1,81 @@
+package com.scmspain.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scmspain.configuration.TestConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.web.context.WebApplicationContext;
+
+import static java.lang.String.format;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestConfiguration.class, properties = "tweet.dedup.enabled=true")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class TweetControllerDedupTest {
+    @Autowired
+    private WebApplicationContext context;
+    private MockMvc mockMvc;
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @Before
+    public void setUp() {
+        this.mockMvc = webAppContextSetup(this.context).build();
+    }
+
+    @Test
+    public void shouldReturn409WhenRepublishingATweet() throws Exception {
+        mockMvc.perform(newTweet("Prospect", "Breaking the law")).andExpect(status().is(201));
+        mockMvc.perform(newTweet("Yo", "Breaking the law")).andExpect(status().is(201));
+
+        mockMvc.perform(newTweet("Prospect", "Breaking the law"))
+                .andExpect(status().is(409))
+                .andExpect(jsonPath("$.exceptionClass").value("DuplicateTweetException"));
+
+        mockMvc.perform(get("/tweet"))
+                .andExpect(status().is(200))
+                .andExpect(jsonPath("$.length()").value(2));
+    }
+
+    @Test
+    public void shouldAcceptARepublishedTweetOnceDiscarded() throws Exception {
+        mockMvc.perform(newTweet("Prospect", "Breaking the law")).andExpect(status().is(201));
+        MvcResult published = mockMvc.perform(get("/tweet")).andExpect(status().is(200)).andReturn();
+        Long id = mapper.readTree(published.getResponse().getContentAsString()).get(0).get("id").asLong();
+
+        mockMvc.perform(post("/discarded")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(format("{\"tweet\": %d}", id)))
+                .andExpect(status().is(200));
+
+        mockMvc.perform(newTweet("Prospect", "Breaking the law")).andExpect(status().is(201));
+    }
+
+    @Test
+    public void shouldReturn409WhenReusingAnIdempotencyKey() throws Exception {
+        mockMvc.perform(newTweet("Prospect", "Breaking the law").header("Idempotency-Key", "a1")).andExpect(status().is(201));
+        mockMvc.perform(newTweet("Prospect", "Breaking the law").header("Idempotency-Key", "b2")).andExpect(status().is(201));
+
+        mockMvc.perform(newTweet("Prospect", "Living after midnight").header("Idempotency-Key", "a1"))
+                .andExpect(status().is(409));
+    }
+
+    private MockHttpServletRequestBuilder newTweet(String publisher, String tweet) {
+        return post("/tweet")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(format("{\"publisher\": \"%s\", \"tweet\": \"%s\"}", publisher, tweet));
+    }
+}
@@ -0,0 +1,95 @@
+package com.scmspain.controller;
+
+import com.scmspain.configuration.TestConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.web.context.WebApplicationContext;
+
+import static java.lang.String.format;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestConfiguration.class, properties = {
+        "tweet.rate-limit.enabled=true",
+        "tweet.rate-limit.client-address-header=X-Forwarded-For",
+        "tweet.rate-limit.publisher-permits-per-second=0.01",
+        "tweet.rate-limit.publisher-burst=2",
+        "tweet.rate-limit.client-permits-per-second=0.01",
+        "tweet.rate-limit.client-burst=4"
+})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class TweetControllerRateLimitTest {
+    @Autowired
+    private WebApplicationContext context;
+    private MockMvc mockMvc;
+
+    @Before
+    public void setUp() {
+        this.mockMvc = webAppContextSetup(this.context).build();
+    }
+
+    @Test
+    public void shouldReturn429WhenAPublisherGoesOverItsRate() throws Exception {
+        mockMvc.perform(newTweet("Prospect", "Breaking the law")).andExpect(status().is(201));
+        mockMvc.perform(newTweet("Prospect", "Breaking the law")).andExpect(status().is(201));
+
+        mockMvc.perform(newTweet("Prospect", "Breaking the law"))
+                .andExpect(status().is(429))
+                .andExpect(header().string("Retry-After", "100"))
+                .andExpect(jsonPath("$.exceptionClass").value("RateLimitExceededException"));
+
+        mockMvc.perform(newTweet("Yo", "How are you?")).andExpect(status().is(201));
+    }
+
+    @Test
+    public void shouldReturn429WhenAClientGoesOverItsRate() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            mockMvc.perform(newTweet("Publisher " + i, "Breaking the law")).andExpect(status().is(201));
+        }
+
+        mockMvc.perform(discardTweet(1L)).andExpect(status().is(429));
+        mockMvc.perform(discardTweet(1L).with(request -> {
+            request.setRemoteAddr("10.0.0.2");
+            return request;
+        })).andExpect(status().is(200));
+    }
+
+    @Test
+    public void shouldTellClientsApartByTheAddressTheProxyAdded() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            mockMvc.perform(newTweet("Publisher " + i, "Breaking the law")
+                    .header("X-Forwarded-For", "10.0.0.2")).andExpect(status().is(201));
+        }
+
+        mockMvc.perform(discardTweet(1L).header("X-Forwarded-For", "10.0.0.2")).andExpect(status().is(429));
+        // only the last address is trusted, the ones before it are sent by the client
+        mockMvc.perform(discardTweet(1L).header("X-Forwarded-For", "10.0.0.3, 10.0.0.2")).andExpect(status().is(429));
+        mockMvc.perform(discardTweet(1L).header("X-Forwarded-For", "10.0.0.2, 10.0.0.3")).andExpect(status().is(200));
+        // the remote address of the proxy is not the client
+        mockMvc.perform(discardTweet(1L)).andExpect(status().is(200));
+    }
+
+    private MockHttpServletRequestBuilder newTweet(String publisher, String tweet) {
+        return post("/tweet")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(format("{\"publisher\": \"%s\", \"tweet\": \"%s\"}", publisher, tweet));
+    }
+
+    private MockHttpServletRequestBuilder discardTweet(Long tweetId) {
+        return post("/discarded")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(format("{\"tweet\": %d}", tweetId));
+    }
+}
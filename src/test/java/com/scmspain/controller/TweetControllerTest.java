@@ -1,27 +1,37 @@
 package com.scmspain.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scmspain.archive.TweetArchive;
 import com.scmspain.configuration.TestConfiguration;
 import com.scmspain.dtos.TweetDTO;
+import com.scmspain.dtos.TweetResultDTO;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.context.WebApplicationContext;
 
+import javax.sql.DataSource;
+import java.time.YearMonth;
 import java.util.List;
 
+import static com.scmspain.GzipTestUtils.gunzip;
 import static java.lang.String.format;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
@@ -146,10 +156,12 @@ public class TweetControllerTest {
         List<TweetDTO> listOfTweets = resultToList(getResultPublished);
         assertThat(listOfTweets.size()).isEqualTo(3);
 
-        mockMvc.perform(discardTweet(listOfTweets.get(1).getId()))
+        // the database clock only has millisecond precision: discards of the same millisecond are ordered by id, so
+        // the tweets are discarded oldest first for the id to agree with the discard order
+        mockMvc.perform(discardTweet(listOfTweets.get(2).getId()))
                 .andExpect(status().is(200));
 
-        mockMvc.perform(discardTweet(listOfTweets.get(2).getId()))
+        mockMvc.perform(discardTweet(listOfTweets.get(1).getId()))
                 .andExpect(status().is(200));
 
         mockMvc.perform(discardTweet(listOfTweets.get(0).getId()))
@@ -162,8 +174,349 @@ public class TweetControllerTest {
         List<TweetDTO> listOfDiscardedTweets = resultToList(getResultDiscarded);
         assertThat(listOfDiscardedTweets.size()).isEqualTo(3);
         assertThat(listOfDiscardedTweets.get(0).getId()).isEqualTo(listOfTweets.get(0).getId());
-        assertThat(listOfDiscardedTweets.get(1).getId()).isEqualTo(listOfTweets.get(2).getId());
-        assertThat(listOfDiscardedTweets.get(2).getId()).isEqualTo(listOfTweets.get(1).getId());
+        assertThat(listOfDiscardedTweets.get(1).getId()).isEqualTo(listOfTweets.get(1).getId());
+        assertThat(listOfDiscardedTweets.get(2).getId()).isEqualTo(listOfTweets.get(2).getId());
+    }
+
+    @Test
+    public void shouldPaginatePublishedTweetsWithCursor() throws Exception {
+        mockMvc.perform(newTweet("Yo", "Tweet 1"))
+                .andExpect(status().is(201));
+
+        mockMvc.perform(newTweet("Yo", "Tweet 2"))
+                .andExpect(status().is(201));
+
+        mockMvc.perform(newTweet("Yo", "Tweet 3"))
+                .andExpect(status().is(201));
+
+        MvcResult firstPage = mockMvc.perform(get("/tweet").param("limit", "2"))
+                .andExpect(status().is(200))
+                .andReturn();
+
+        List<TweetDTO> firstTweets = resultToList(firstPage);
+        String cursor = firstPage.getResponse().getHeader(TweetController.NEXT_CURSOR_HEADER);
+        assertThat(firstTweets.size()).isEqualTo(2);
+        assertThat(firstTweets.get(0).getTweet()).isEqualTo("Tweet 3");
+        assertThat(cursor).isNotEmpty();
+
+        MvcResult secondPage = mockMvc.perform(get("/tweet").param("limit", "2").param("cursor", cursor))
+                .andExpect(status().is(200))
+                .andReturn();
+
+        List<TweetDTO> secondTweets = resultToList(secondPage);
+        assertThat(secondTweets.size()).isEqualTo(1);
+        assertThat(secondTweets.get(0).getTweet()).isEqualTo("Tweet 1");
+        assertThat(secondPage.getResponse().getHeader(TweetController.NEXT_CURSOR_HEADER)).isNull();
+    }
+
+    @Test
+    public void shouldStreamPublishedTweetsWithTheSameBodyAsTheList() throws Exception {
+        mockMvc.perform(newTweet("Yo", "Tweet 1"))
+                .andExpect(status().is(201));
+
+        mockMvc.perform(newTweet("Yo", "Tweet 2"))
+                .andExpect(status().is(201));
+
+        String listed = mockMvc.perform(get("/tweet"))
+                .andExpect(status().is(200))
+                .andReturn().getResponse().getContentAsString();
+
+        String streamed = mockMvc.perform(get("/tweet").param("stream", "true"))
+                .andExpect(status().is(200))
+                .andReturn().getResponse().getContentAsString();
+
+        assertThat(streamed).isEqualTo(listed);
+    }
+
+    @Test
+    public void shouldPublishTweetsInBulkReportingInvalidOnes() throws Exception {
+        MvcResult bulkResult = mockMvc.perform(post("/tweet/bulk")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content("[{\"publisher\": \"Yo\", \"tweet\": \"Tweet 1\"}, {\"publisher\": \"\", \"tweet\": \"Tweet 2\"}, {\"publisher\": \"Yo\", \"tweet\": \"Tweet 3\"}]"))
+                .andExpect(status().is(200))
+                .andReturn();
+
+        List<TweetResultDTO> results = mapper.readValue(bulkResult.getResponse().getContentAsString(),
+                mapper.getTypeFactory().constructCollectionType(List.class, TweetResultDTO.class));
+        assertThat(results.size()).isEqualTo(3);
+        assertThat(results.get(0).getId()).isNotNull();
+        assertThat(results.get(1).getError()).isNotEmpty();
+
+        MvcResult getResult = mockMvc.perform(get("/tweet"))
+                .andExpect(status().is(200))
+                .andReturn();
+
+        List<TweetDTO> tweets = resultToList(getResult);
+        assertThat(tweets.size()).isEqualTo(2);
+        assertThat(tweets.get(0).getId()).isEqualTo(results.get(2).getId());
+    }
+
+    @Test
+    public void shouldDiscardTweetsInBulk() throws Exception {
+        mockMvc.perform(newTweet("Yo", "Tweet 1"))
+                .andExpect(status().is(201));
+
+        mockMvc.perform(newTweet("Yo", "Tweet 2"))
+                .andExpect(status().is(201));
+
+        List<TweetDTO> tweets = resultToList(mockMvc.perform(get("/tweet")).andReturn());
+        String ids = format("[%d, %d, %d]", tweets.get(0).getId(), tweets.get(1).getId(), Long.MAX_VALUE);
+
+        MvcResult firstDiscard = mockMvc.perform(post("/discarded/bulk").contentType(MediaType.APPLICATION_JSON_UTF8).content(ids))
+                .andExpect(status().is(200))
+                .andReturn();
+        assertThat(mapper.readValue(firstDiscard.getResponse().getContentAsString(), Long[].class))
+                .containsExactly(tweets.get(0).getId(), tweets.get(1).getId());
+
+        MvcResult secondDiscard = mockMvc.perform(post("/discarded/bulk").contentType(MediaType.APPLICATION_JSON_UTF8).content(ids))
+                .andExpect(status().is(200))
+                .andReturn();
+        assertThat(mapper.readValue(secondDiscard.getResponse().getContentAsString(), Long[].class)).isEmpty();
+
+        assertThat(resultToList(mockMvc.perform(get("/tweet")).andReturn())).isEmpty();
+        assertThat(resultToList(mockMvc.perform(get("/discarded")).andReturn()).size()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldReturn400WhenCursorIsInvalid() throws Exception {
+        mockMvc.perform(get("/tweet").param("cursor", "not-a-cursor"))
+                .andExpect(status().is(400));
+    }
+
+    @Test
+    public void shouldReturn304WhenTweetsAreNotModified() throws Exception {
+        mockMvc.perform(newTweet("Yo", "How are you?"))
+                .andExpect(status().is(201));
+
+        MvcResult firstGet = mockMvc.perform(get("/tweet"))
+                .andExpect(status().is(200))
+                .andReturn();
+        final String eTag = firstGet.getResponse().getHeader("ETag");
+        assertThat(eTag).isNotEmpty();
+        assertThat(firstGet.getResponse().getHeader("Last-Modified")).isNotEmpty();
+
+        mockMvc.perform(get("/tweet").header("If-None-Match", eTag))
+                .andExpect(status().is(304));
+        mockMvc.perform(get("/discarded").header("If-None-Match", eTag))
+                .andExpect(status().is(304));
+        mockMvc.perform(get("/tweet").param("stream", "true").header("If-None-Match", eTag))
+                .andExpect(status().is(304));
+    }
+
+    @Test
+    public void shouldNotAnswer304ToIfModifiedSinceAlone() throws Exception {
+        MvcResult firstGet = mockMvc.perform(get("/tweet"))
+                .andExpect(status().is(200))
+                .andReturn();
+
+        MvcResult secondGet = mockMvc.perform(get("/tweet").header("If-Modified-Since", firstGet.getResponse().getHeader("Last-Modified")))
+                .andExpect(status().is(200))
+                .andReturn();
+        assertThat(secondGet.getResponse().getHeader("ETag")).isEqualTo(firstGet.getResponse().getHeader("ETag"));
+    }
+
+    @Test
+    public void shouldReturn200WhenTweetsAreModifiedAfterTheETag() throws Exception {
+        final String eTag = mockMvc.perform(get("/tweet"))
+                .andExpect(status().is(200))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(newTweet("Yo", "How are you?"))
+                .andExpect(status().is(201));
+
+        MvcResult publishedGet = mockMvc.perform(get("/tweet").header("If-None-Match", eTag))
+                .andExpect(status().is(200))
+                .andReturn();
+        assertThat(publishedGet.getResponse().getHeader("ETag")).isNotEqualTo(eTag);
+        final List<TweetDTO> tweets = resultToList(publishedGet);
+        assertThat(tweets.size()).isEqualTo(1);
+
+        mockMvc.perform(discardTweet(tweets.get(0).getId()))
+                .andExpect(status().is(200));
+
+        mockMvc.perform(get("/discarded").header("If-None-Match", publishedGet.getResponse().getHeader("ETag")))
+                .andExpect(status().is(200));
+    }
+
+    @Test
+    public void shouldReturnTheSameTweetsGzippedWhenAccepted() throws Exception {
+        mockMvc.perform(newTweet("Yo", "How are you?"))
+                .andExpect(status().is(201));
+        mockMvc.perform(newTweet("Yo", "Fine, thanks"))
+                .andExpect(status().is(201));
+
+        MvcResult plain = mockMvc.perform(get("/tweet").param("limit", "1"))
+                .andExpect(status().is(200))
+                .andReturn();
+        MvcResult gzipped = mockMvc.perform(get("/tweet").param("limit", "1").header("Accept-Encoding", "deflate, gzip"))
+                .andExpect(status().is(200))
+                .andReturn();
+
+        assertThat(plain.getResponse().getHeader("Content-Encoding")).isNull();
+        assertThat(gzipped.getResponse().getHeader("Content-Encoding")).isEqualTo("gzip");
+        assertThat(gzipped.getResponse().getHeader(TweetController.NEXT_CURSOR_HEADER))
+                .isEqualTo(plain.getResponse().getHeader(TweetController.NEXT_CURSOR_HEADER));
+        assertThat(gunzip(gzipped.getResponse().getContentAsByteArray())).isEqualTo(plain.getResponse().getContentAsByteArray());
+        assertThat(resultToList(plain).get(0).getTweet()).isEqualTo("Fine, thanks");
+    }
+
+    @Test
+    public void shouldNotGzipWhenRefused() throws Exception {
+        MvcResult result = mockMvc.perform(get("/tweet").header("Accept-Encoding", "gzip;q=0, identity"))
+                .andExpect(status().is(200))
+                .andReturn();
+
+        assertThat(result.getResponse().getHeader("Content-Encoding")).isNull();
+    }
+
+    @Test
+    public void shouldListPublishedTweetsOfOnePublisher() throws Exception {
+        mockMvc.perform(newTweet("Guybrush", "I am a mighty pirate"))
+                .andExpect(status().is(201));
+        mockMvc.perform(newTweet("LeChuck", "You will never escape"))
+                .andExpect(status().is(201));
+        mockMvc.perform(newTweet("Guybrush", "Look behind you, a three-headed monkey!"))
+                .andExpect(status().is(201));
+
+        MvcResult firstPage = mockMvc.perform(get("/tweet").param("publisher", "Guybrush").param("limit", "1"))
+                .andExpect(status().is(200))
+                .andReturn();
+        assertThat(resultToList(firstPage)).extracting(TweetDTO::getTweet).containsExactly("Look behind you, a three-headed monkey!");
+
+        MvcResult secondPage = mockMvc.perform(get("/tweet").param("publisher", "Guybrush")
+                .param("cursor", firstPage.getResponse().getHeader(TweetController.NEXT_CURSOR_HEADER)))
+                .andExpect(status().is(200))
+                .andReturn();
+        List<TweetDTO> older = resultToList(secondPage);
+        assertThat(older).extracting(TweetDTO::getTweet).containsExactly("I am a mighty pirate");
+
+        mockMvc.perform(discardTweet(older.get(0).getId()))
+                .andExpect(status().is(200));
+
+        assertThat(resultToList(mockMvc.perform(get("/tweet").param("publisher", "Guybrush")).andReturn()))
+                .extracting(TweetDTO::getPublisher).containsExactly("Guybrush");
+    }
+
+    @Test
+    public void shouldPushPublishedTweetsToFeedSubscribers() throws Exception {
+        MvcResult feed = mockMvc.perform(get("/tweet/feed"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(newTweet("Yo", "Live from the feed"))
+                .andExpect(status().is(201));
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!feed.getResponse().getContentAsString().contains("Live from the feed") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(feed.getResponse().getContentAsString()).contains("event:published", "Live from the feed");
+    }
+
+    @Test
+    public void shouldSearchPublishedTweetsNewestFirst() throws Exception {
+        mockMvc.perform(newTweet("Guybrush", "I am a mighty pirate"))
+                .andExpect(status().is(201));
+        mockMvc.perform(newTweet("LeChuck", "Ghost pirate, not so mighty"))
+                .andExpect(status().is(201));
+        mockMvc.perform(newTweet("Elaine", "Governor of Melee Island"))
+                .andExpect(status().is(201));
+
+        List<TweetDTO> found = resultToList(mockMvc.perform(get("/tweet/search").param("q", "Mighty PIRATE!"))
+                .andExpect(status().is(200))
+                .andReturn());
+        assertThat(found).extracting(TweetDTO::getPublisher).containsExactly("LeChuck", "Guybrush");
+
+        mockMvc.perform(discardTweet(found.get(0).getId()))
+                .andExpect(status().is(200));
+
+        assertThat(resultToList(mockMvc.perform(get("/tweet/search").param("q", "pirate")).andReturn()))
+                .extracting(TweetDTO::getPublisher).containsExactly("Guybrush");
+        assertThat(resultToList(mockMvc.perform(get("/tweet/search").param("q", "elaine")).andReturn()))
+                .extracting(TweetDTO::getTweet).containsExactly("Governor of Melee Island");
+    }
+
+    @Test
+    public void shouldReturn400WhenSearchHasNoWords() throws Exception {
+        mockMvc.perform(get("/tweet/search").param("q", "..."))
+                .andExpect(status().is(400));
+    }
+
+    @Test
+    public void shouldImportAnExportWithDiscardedTweets() throws Exception {
+        mockMvc.perform(newTweet("Yo", "Tweet 1"))
+                .andExpect(status().is(201));
+        mockMvc.perform(newTweet("Yo", "Tweet 2"))
+                .andExpect(status().is(201));
+        Long discarded = resultToList(mockMvc.perform(get("/tweet")).andReturn()).get(0).getId();
+        mockMvc.perform(discardTweet(discarded))
+                .andExpect(status().is(200));
+
+        byte[] export = mockMvc.perform(get("/backup/export").with(actuator()))
+                .andExpect(status().is(200))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        String imported = mockMvc.perform(post("/backup/import").with(actuator())
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .content(export))
+                .andExpect(status().is(200))
+                .andReturn().getResponse().getContentAsString();
+
+        assertThat(imported).isEqualTo("2");
+        assertThat(resultToList(mockMvc.perform(get("/tweet")).andReturn())).extracting(TweetDTO::getTweet)
+                .containsExactly("Tweet 1", "Tweet 1");
+        assertThat(resultToList(mockMvc.perform(get("/discarded")).andReturn())).extracting(TweetDTO::getTweet)
+                .containsExactly("Tweet 2", "Tweet 2");
+    }
+
+    @Test
+    public void shouldExportArchivedTweets() throws Exception {
+        mockMvc.perform(newTweet("Yo", "Archived"))
+                .andExpect(status().is(201));
+        mockMvc.perform(newTweet("Yo", "Recent"))
+                .andExpect(status().is(201));
+        Long archived = resultToList(mockMvc.perform(get("/tweet")).andReturn()).get(1).getId();
+        TweetArchive tweetArchive = context.getBean(TweetArchive.class);
+        new TransactionTemplate(context.getBean(PlatformTransactionManager.class)).execute(status -> {
+            tweetArchive.createPartition(YearMonth.of(2016, 1));
+            return null;
+        });
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(context.getBean(DataSource.class));
+        jdbcTemplate.update("INSERT INTO tweet_archive_201601 SELECT id, publisher, tweet, pre2015migration_status, discarded, published_timestamp, discarded_timestamp FROM tweet WHERE id = ?", archived);
+        jdbcTemplate.update("DELETE FROM tweet WHERE id = ?", archived);
+
+        byte[] export = mockMvc.perform(get("/backup/export").with(actuator()))
+                .andExpect(status().is(200))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        String imported = mockMvc.perform(post("/backup/import").with(actuator())
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .content(export))
+                .andExpect(status().is(200))
+                .andReturn().getResponse().getContentAsString();
+
+        assertThat(imported).isEqualTo("2");
+        assertThat(resultToList(mockMvc.perform(get("/tweet")).andReturn())).extracting(TweetDTO::getTweet)
+                .containsExactly("Recent", "Recent", "Archived");
+    }
+
+    @Test
+    public void shouldReturn400WhenImportIsNotAnExport() throws Exception {
+        mockMvc.perform(post("/backup/import").with(actuator())
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .content("[{\"publisher\": \"Yo\"}]".getBytes()))
+                .andExpect(status().is(400));
+    }
+
+    @Test
+    public void shouldReturn401WhenExportingWithoutTheActuatorRole() throws Exception {
+        mockMvc.perform(get("/backup/export"))
+                .andExpect(status().is(401));
+        mockMvc.perform(post("/backup/import")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .content(new byte[0]))
+                .andExpect(status().is(401));
     }
 
     private MockHttpServletRequestBuilder newTweet(String publisher, String tweet) {
@@ -184,4 +537,10 @@ public class TweetControllerTest {
 
     }
 
+    private static RequestPostProcessor actuator() {
+        return request -> {
+            request.addUserRole("ACTUATOR");
+            return request;
+        };
+    }
 }
@@ -0,0 +1,47 @@
+package com.scmspain.datasource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.transaction.support.TransactionSynchronizationManager.setCurrentTransactionReadOnly;
+
+public class ReadWriteRoutingDataSourceTest {
+    private Connection primaryConnection;
+    private Connection replicaConnection;
+    private ReadWriteRoutingDataSource routingDataSource;
+
+    @Before
+    public void setUp() throws Exception {
+        final DataSource primary = mock(DataSource.class);
+        final DataSource replica = mock(DataSource.class);
+        this.primaryConnection = mock(Connection.class);
+        this.replicaConnection = mock(Connection.class);
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        when(replica.getConnection()).thenReturn(replicaConnection);
+        this.routingDataSource = new ReadWriteRoutingDataSource(primary, replica);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        setCurrentTransactionReadOnly(false);
+    }
+
+    @Test
+    public void shouldUsePrimaryOutsideReadOnlyTransactions() throws Exception {
+        assertThat(routingDataSource.getConnection()).isSameAs(primaryConnection);
+    }
+
+    @Test
+    public void shouldUseReplicaInReadOnlyTransactions() throws Exception {
+        setCurrentTransactionReadOnly(true);
+
+        assertThat(routingDataSource.getConnection()).isSameAs(replicaConnection);
+    }
+}
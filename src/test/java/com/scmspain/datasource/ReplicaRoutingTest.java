@@ -0,0 +1,80 @@
+package com.scmspain.datasource;
+
+import com.scmspain.configuration.TestConfiguration;
+import com.scmspain.dtos.TweetDTO;
+import com.scmspain.services.TweetService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the service with a second in-memory H2 standing in for the replica. The replica gets the schema of the
+ * primary but no replication, so where a tweet is read from tells where the query went.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestConfiguration.class, properties = {
+        "tweet.replica.url=jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1",
+        "tweet.replica.username=sa",
+        "tweet.timeline-cache.capacity=0"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ReplicaRoutingTest {
+    private static final String INSERT_TWEET = "INSERT INTO tweet (id, publisher, tweet, pre2015migration_status, discarded, published_timestamp) VALUES (?, 'Yo', ?, 0, false, CURRENT_TIMESTAMP())";
+
+    @Autowired
+    private TweetService tweetService;
+    @Autowired
+    @Qualifier("getPrimaryDataSource")
+    private DataSource primary;
+    @Autowired
+    @Qualifier("getReplicaDataSource")
+    private DataSource replica;
+
+    @Before
+    public void setUp() throws Exception {
+        final JdbcTemplate replicaTemplate = new JdbcTemplate(replica);
+        replicaTemplate.execute("DROP ALL OBJECTS");
+        new JdbcTemplate(primary).queryForList("SCRIPT NODATA", String.class).stream()
+                .filter(statement -> !statement.startsWith("--"))
+                .forEach(replicaTemplate::execute);
+    }
+
+    @Test
+    public void shouldWriteToPrimaryAndListFromReplica() throws Exception {
+        tweetService.publishTweet(new TweetDTO("Yo", "Written to the primary"));
+        new JdbcTemplate(replica).update(INSERT_TWEET, 1L, "Only in the replica");
+
+        final List<TweetDTO> tweets = tweetService.listAllPublishedTweets();
+
+        assertThat(tweets).extracting(TweetDTO::getTweet).containsExactly("Only in the replica");
+        assertThat(new JdbcTemplate(primary).queryForObject("SELECT COUNT(*) FROM tweet", Long.class)).isEqualTo(1L);
+    }
+
+    @Test
+    public void shouldFillThePublisherCacheFromThePrimary() throws Exception {
+        tweetService.publishTweet(new TweetDTO("Yo", "Not in the replica yet"));
+
+        final List<TweetDTO> tweets = tweetService.listPublishedTweetsByPublisher("Yo");
+
+        assertThat(tweets).extracting(TweetDTO::getTweet).containsExactly("Not in the replica yet");
+    }
+
+    @Test
+    public void shouldDiscardOnPrimary() throws Exception {
+        new JdbcTemplate(primary).update(INSERT_TWEET, 1L, "Written to the primary");
+
+        assertThat(tweetService.discardTweets(Collections.singletonList(1L))).containsExactly(1L);
+        assertThat(tweetService.listAllDiscardedTweets()).isEmpty();
+    }
+}
@@ -0,0 +1,130 @@
+package com.scmspain.dedup;
+
+import com.scmspain.metrics.TweetMetrics;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.writer.MetricWriter;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.mock;
+
+public class TweetDeduplicatorTest {
+    private static final long WINDOW = 60000;
+
+    private TweetMetrics metrics;
+    private TweetDeduplicator deduplicator;
+    private List<Timestamp> lookups;
+
+    @Before
+    public void setUp() throws Exception {
+        this.metrics = new TweetMetrics(mock(MetricWriter.class));
+        this.deduplicator = new TweetDeduplicator(true, WINDOW, 1000, 0.01, 10, metrics, 0);
+        this.lookups = new ArrayList<>();
+    }
+
+    @Test
+    public void shouldNotReadTheStoreForNewTweets() throws Exception {
+        deduplicator.check("Guybrush", "I'm selling these fine leather jackets", null, stored(true), 0);
+        deduplicator.check("LeChuck", "I'm selling these fine leather jackets", null, stored(true), 0);
+        deduplicator.check("Guybrush", "Look behind you, a three-headed monkey!", null, stored(true), 0);
+
+        assertThat(lookups).isEmpty();
+    }
+
+    @Test
+    public void shouldRefuseARepeatedTweetConfirmedByTheStore() throws Exception {
+        deduplicator.check("Guybrush", "Hello", null, stored(false), 0);
+
+        Throwable thrown = catchThrowable(() -> deduplicator.check("Guybrush", "Hello", null, stored(true), 1000));
+
+        assertThat(thrown).isInstanceOf(DuplicateTweetException.class);
+        assertThat(lookups).containsExactly(new Timestamp(1000 - WINDOW));
+        assertThat(metrics.metrics()).extracting("name", "value").contains(
+                tuple(TweetDeduplicator.METRIC_FILTER_HITS, 1L), tuple(TweetDeduplicator.METRIC_DUPLICATES, 1L));
+    }
+
+    @Test
+    public void shouldAcceptARepeatedTweetTheStoreDoesNotHave() throws Exception {
+        deduplicator.check("Guybrush", "Hello", null, stored(false), 0);
+        deduplicator.check("Guybrush", "Hello", null, stored(false), 1000);
+
+        assertThat(lookups).hasSize(1);
+        assertThat(metrics.metrics()).extracting("name", "value").contains(tuple(TweetDeduplicator.METRIC_FALSE_POSITIVES, 1L));
+    }
+
+    @Test
+    public void shouldForgetTweetsAfterTwoWindows() throws Exception {
+        deduplicator.check("Guybrush", "Hello", null, stored(true), 0);
+        deduplicator.check("LeChuck", "Hello", null, stored(true), WINDOW);
+
+        deduplicator.check("Guybrush", "Hello", null, stored(true), 2 * WINDOW);
+
+        assertThat(lookups).isEmpty();
+    }
+
+    @Test
+    public void shouldRecogniseRetriesByIdempotencyKey() throws Exception {
+        deduplicator.check("Guybrush", "Hello", "key-1", stored(true), 0);
+        deduplicator.check("Guybrush", "Hello", "key-2", stored(true), 0);
+        deduplicator.check("LeChuck", "Hello", "key-1", stored(true), 0);
+
+        assertThat(catchThrowable(() -> deduplicator.check("Guybrush", "Bye", "key-1", stored(false), 1000)))
+                .isInstanceOf(DuplicateTweetException.class);
+        assertThat(lookups).isEmpty();
+
+        deduplicator.check("Guybrush", "Hello", "key-1", stored(true), WINDOW);
+    }
+
+    @Test
+    public void shouldAcceptTheRetryOfAFailedPublication() throws Exception {
+        deduplicator.check("Guybrush", "Hello", "key-1", stored(false), 0);
+        deduplicator.release("Guybrush", "key-1");
+
+        deduplicator.check("Guybrush", "Hello", "key-1", stored(false), 1000);
+    }
+
+    @Test
+    public void shouldNotCheckKeysOverTheMaximumUntilTheOldOnesExpire() throws Exception {
+        deduplicator = new TweetDeduplicator(true, WINDOW, 1000, 0.01, 2, metrics, 0);
+        deduplicator.check("Guybrush", "Hello", "key-1", stored(false), 0);
+        deduplicator.check("Guybrush", "Hello", "key-2", stored(false), 0);
+        deduplicator.check("Guybrush", "Hello", "key-3", stored(false), 0);
+        deduplicator.check("Guybrush", "Hello", "key-3", stored(false), 0);
+
+        deduplicator.check("Guybrush", "Hello", "key-3", stored(false), WINDOW);
+        assertThat(catchThrowable(() -> deduplicator.check("Guybrush", "Hello", "key-3", stored(false), WINDOW)))
+                .isInstanceOf(DuplicateTweetException.class);
+        assertThat(metrics.metrics()).extracting("name", "value").contains(tuple(TweetDeduplicator.METRIC_IDEMPOTENCY_KEYS, 1L));
+    }
+
+    @Test
+    public void shouldKeepTheFalsePositiveRateBelowTheConfiguredOne() throws Exception {
+        WindowedBloomFilter filter = new WindowedBloomFilter(WINDOW, 10000, 0.01, 0);
+
+        // every value is new, so each positive answer while filling the filter is a false one
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            String text = "tweet " + i;
+            if (filter.mightContainOrAdd(TweetDeduplicator.hash("Yo", text, 1), TweetDeduplicator.hash("Yo", text, 2) | 1, 0)) {
+                falsePositives++;
+            }
+        }
+
+        assertThat(filter.getHashes()).isEqualTo(7);
+        assertThat(falsePositives).isLessThan(100);
+    }
+
+    private Predicate<Timestamp> stored(boolean result) {
+        return since -> {
+            lookups.add(since);
+            return result;
+        };
+    }
+}
@@ -0,0 +1,126 @@
+package com.scmspain.entities;
+
+import com.scmspain.configuration.TestConfiguration;
+import com.scmspain.dtos.TweetCursor;
+import com.scmspain.store.JpaTweetSchema;
+import com.scmspain.store.TweetStore;
+import org.hibernate.Session;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that H2 answers the timeline queries through their indexes instead of a full table scan, and that the
+ * lists are read in the order of their index instead of being sorted. The plans are those of the SQL Hibernate
+ * generates for the store calls, captured by a statement inspector.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestConfiguration.class,
+        properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=com.scmspain.entities.TweetIndexTest$CapturingStatementInspector")
+@DirtiesContext
+@Transactional
+public class TweetIndexTest {
+    private static final String INDEX_SORTED = "/* INDEX SORTED */";
+    private static final TweetCursor CURSOR = new TweetCursor(new Timestamp(System.currentTimeMillis()), 100L);
+
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private JpaTweetSchema schema;
+    @Autowired
+    private TweetStore store;
+
+    @Test
+    public void shouldReadPublishedTweetsInIndexOrder() throws Exception {
+        assertSortedByIndex(explain(() -> store.listPublished(null, 10)));
+    }
+
+    @Test
+    public void shouldReadPublishedTweetsAfterCursorInIndexOrder() throws Exception {
+        assertSortedByIndex(explain(() -> store.listPublished(CURSOR, 10)));
+    }
+
+    @Test
+    public void shouldReadDiscardedTweetsInIndexOrder() throws Exception {
+        assertSortedByIndex(explain(() -> store.listDiscarded(null, 10)));
+    }
+
+    @Test
+    public void shouldReadDiscardedTweetsAfterCursorInIndexOrder() throws Exception {
+        assertSortedByIndex(explain(() -> store.listDiscarded(CURSOR, 10)));
+    }
+
+    @Test
+    public void shouldUsePublisherIndexToListTweetsOfAPublisher() throws Exception {
+        assertUsesPublisherIndex(explain(() -> store.listPublishedByPublisher("Yo", null, 10)));
+        assertUsesPublisherIndex(explain(() -> store.listPublishedByPublisher("Yo", CURSOR, 10)));
+    }
+
+    @Test
+    public void shouldKeepTheIndexesWhenStartedAgainOnAnExistingSchema() throws Exception {
+        schema.createIndexes();
+
+        assertSortedByIndex(explain(() -> store.listPublished(null, 10)));
+        assertSortedByIndex(explain(() -> store.listDiscarded(null, 10)));
+    }
+
+    private void assertSortedByIndex(final String plan) {
+        assertThat(plan).contains(INDEX_SORTED);
+        assertThat(plan).doesNotContain("TABLESCAN");
+    }
+
+    private void assertUsesPublisherIndex(final String plan) {
+        assertThat(plan).contains(Tweet.PUBLISHER_INDEX.toUpperCase());
+        assertThat(plan).doesNotContain("TABLESCAN");
+    }
+
+    /**
+     * Run a store call and explain the last statement Hibernate prepared for it. Parameters are bound to null, H2
+     * plans them before their values are known anyway
+     */
+    private String explain(final Runnable call) {
+        CapturingStatementInspector.STATEMENTS.clear();
+        call.run();
+        assertThat(CapturingStatementInspector.STATEMENTS).isNotEmpty();
+        final String sql = CapturingStatementInspector.STATEMENTS.get(CapturingStatementInspector.STATEMENTS.size() - 1);
+
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+                for (int i = 1; i <= statement.getParameterMetaData().getParameterCount(); i++) {
+                    statement.setObject(i, null);
+                }
+                try (ResultSet plan = statement.executeQuery()) {
+                    plan.next();
+                    return plan.getString(1).toUpperCase();
+                }
+            }
+        });
+    }
+
+    /**
+     * Keeps the SQL of every statement Hibernate prepares, leaving it unchanged
+     */
+    public static class CapturingStatementInspector implements StatementInspector {
+        static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.add(sql);
+            return sql;
+        }
+    }
+}
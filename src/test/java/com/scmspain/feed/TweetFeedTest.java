@@ -0,0 +1,299 @@
+package com.scmspain.feed;
+
+import com.scmspain.dtos.TweetDTO;
+import com.scmspain.entities.Tweet;
+import com.scmspain.events.TweetDiscardedEvent;
+import com.scmspain.events.TweetPublishedEvent;
+import com.scmspain.metrics.TweetMetrics;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.writer.MetricWriter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.mock;
+
+public class TweetFeedTest {
+    private static final int BUFFER_SIZE = 2;
+    private static final long WRITE_TIMEOUT_MILLIS = 50;
+
+    private ManualExecutor dispatcher;
+    private TweetMetrics metrics;
+    private TweetFeed tweetFeed;
+
+    @Before
+    public void setUp() throws Exception {
+        this.dispatcher = new ManualExecutor();
+        this.metrics = new TweetMetrics(mock(MetricWriter.class));
+        this.tweetFeed = new TweetFeed(2, BUFFER_SIZE, 3, WRITE_TIMEOUT_MILLIS, 2, dispatcher, metrics);
+    }
+
+    @Test
+    public void shouldSendPublishedAndDiscardedTweets() throws Exception {
+        RecordingEmitter emitter = subscribe(null);
+
+        tweetFeed.onTweetPublished(new TweetPublishedEvent(tweet(1L, "Hello")));
+        tweetFeed.onTweetDiscarded(new TweetDiscardedEvent(1L));
+        dispatcher.runAll();
+
+        assertThat(emitter.events).hasSize(2);
+        assertThat(emitter.events.get(0)).contains("event:published", "Hello");
+        assertThat(emitter.events.get(1)).contains("event:discarded", "data:1");
+    }
+
+    @Test
+    public void shouldDisconnectSubscribersThatFallBehind() throws Exception {
+        RecordingEmitter slow = subscribe(null);
+
+        for (long id = 1; id <= BUFFER_SIZE + 1; id++) {
+            tweetFeed.onTweetPublished(new TweetPublishedEvent(tweet(id, "Tweet " + id)));
+        }
+        dispatcher.runAll();
+
+        assertThat(slow.completed).isTrue();
+        assertThat(slow.events).isEmpty();
+        assertThat(tweetFeed.getSubscriberCount()).isZero();
+        assertThat(metrics.metrics()).extracting("name", "value").contains(tuple(TweetFeed.METRIC_EVICTED, 1L));
+    }
+
+    @Test
+    public void shouldDisconnectSubscribersWhoseWritesBlock() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingEmitter stuck = new BlockingEmitter(release);
+        tweetFeed.subscribe(stuck, null);
+        tweetFeed.onTweetPublished(new TweetPublishedEvent(tweet(1L, "Blocked")));
+        tweetFeed.onTweetPublished(new TweetPublishedEvent(tweet(2L, "Never sent")));
+        Thread dispatcherThread = new Thread(dispatcher::runAll);
+        dispatcherThread.start();
+        stuck.writing.await();
+
+        Thread.sleep(WRITE_TIMEOUT_MILLIS * 2);
+        tweetFeed.heartbeat();
+
+        assertThat(stuck.completed).isTrue();
+        assertThat(tweetFeed.getSubscriberCount()).isZero();
+        assertThat(metrics.metrics()).extracting("name", "value").contains(tuple(TweetFeed.METRIC_EVICTED, 1L));
+
+        release.countDown();
+        dispatcherThread.join();
+        assertThat(stuck.events).hasSize(1);
+    }
+
+    @Test
+    public void shouldKeepWritingToOtherSubscribersWhileWritesBlock() throws Exception {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        TweetFeed feed = new TweetFeed(3, BUFFER_SIZE, 3, WRITE_TIMEOUT_MILLIS, 2, pool, metrics);
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingEmitter first = new BlockingEmitter(release);
+        BlockingEmitter second = new BlockingEmitter(release);
+        CountDownLatch received = new CountDownLatch(1);
+        RecordingEmitter third = new RecordingEmitter() {
+            @Override
+            public void send(SseEventBuilder builder) throws IOException {
+                super.send(builder);
+                received.countDown();
+            }
+        };
+
+        try {
+            feed.subscribe(first, null);
+            feed.subscribe(second, null);
+            feed.onTweetPublished(new TweetPublishedEvent(tweet(1L, "Blocked")));
+            // both dispatcher threads are stuck writing
+            first.writing.await();
+            second.writing.await();
+            feed.subscribe(third, null);
+
+            Thread.sleep(WRITE_TIMEOUT_MILLIS * 2);
+            feed.onTweetPublished(new TweetPublishedEvent(tweet(2L, "Delivered")));
+
+            assertThat(received.await(1, TimeUnit.SECONDS)).isTrue();
+            assertThat(third.events).hasSize(1);
+            assertThat(third.events.get(0)).contains("Delivered");
+            assertThat(first.completed).isTrue();
+            assertThat(second.completed).isTrue();
+            assertThat(pool.getCorePoolSize()).isEqualTo(4);
+        } finally {
+            release.countDown();
+        }
+
+        // the extra threads are given back once the blocked writes return
+        for (int attempt = 0; attempt < 100 && pool.getCorePoolSize() > 2; attempt++) {
+            Thread.sleep(10);
+        }
+        assertThat(pool.getCorePoolSize()).isEqualTo(2);
+        feed.shutdown();
+    }
+
+    @Test
+    public void shouldOnlyDisconnectBlockedSubscribersOnceTheExtraThreadsRunOut() throws Exception {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        TweetFeed feed = new TweetFeed(3, BUFFER_SIZE, 3, WRITE_TIMEOUT_MILLIS, 1, pool, metrics);
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingEmitter first = new BlockingEmitter(release);
+        BlockingEmitter second = new BlockingEmitter(release);
+        CountDownLatch received = new CountDownLatch(1);
+        RecordingEmitter third = new RecordingEmitter() {
+            @Override
+            public void send(SseEventBuilder builder) throws IOException {
+                super.send(builder);
+                received.countDown();
+            }
+        };
+
+        try {
+            feed.subscribe(first, null);
+            feed.subscribe(second, null);
+            feed.onTweetPublished(new TweetPublishedEvent(tweet(1L, "Blocked")));
+            first.writing.await();
+            second.writing.await();
+            feed.subscribe(third, null);
+
+            Thread.sleep(WRITE_TIMEOUT_MILLIS * 2);
+            feed.onTweetPublished(new TweetPublishedEvent(tweet(2L, "Delivered")));
+
+            // only one of the blocked writes got a thread, but both subscribers are disconnected
+            assertThat(received.await(1, TimeUnit.SECONDS)).isTrue();
+            assertThat(third.events.get(0)).contains("Delivered");
+            assertThat(first.completed).isTrue();
+            assertThat(second.completed).isTrue();
+            assertThat(pool.getCorePoolSize()).isEqualTo(3);
+            assertThat(feed.getExtraThreads()).isEqualTo(1);
+        } finally {
+            release.countDown();
+        }
+
+        for (int attempt = 0; attempt < 100 && pool.getCorePoolSize() > 2; attempt++) {
+            Thread.sleep(10);
+        }
+        assertThat(pool.getCorePoolSize()).isEqualTo(2);
+        assertThat(feed.getExtraThreads()).isEqualTo(0);
+        feed.shutdown();
+    }
+
+    @Test
+    public void shouldResumeFromTheLastEventReceived() throws Exception {
+        RecordingEmitter first = subscribe(null);
+        tweetFeed.onTweetPublished(new TweetPublishedEvent(tweet(1L, "One")));
+        dispatcher.runAll();
+        tweetFeed.onTweetPublished(new TweetPublishedEvent(tweet(2L, "Two")));
+        tweetFeed.onTweetPublished(new TweetPublishedEvent(tweet(3L, "Three")));
+
+        RecordingEmitter resumed = subscribe(eventId(first.events.get(0)));
+        dispatcher.runAll();
+
+        assertThat(resumed.events).hasSize(2);
+        assertThat(resumed.events.get(0)).contains("Two");
+        assertThat(resumed.events.get(1)).contains("Three");
+    }
+
+    @Test
+    public void shouldResetSubscribersThatCannotBeResumed() throws Exception {
+        RecordingEmitter resumed = subscribe("izx3kq1c-7");
+        dispatcher.runAll();
+
+        assertThat(resumed.events).hasSize(1);
+        assertThat(resumed.events.get(0)).contains("event:" + TweetFeed.EVENT_RESET);
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void shouldRejectSubscribersBeyondTheMaximum() throws Exception {
+        subscribe(null);
+        subscribe(null);
+        subscribe(null);
+    }
+
+    private RecordingEmitter subscribe(String lastEventId) {
+        RecordingEmitter emitter = new RecordingEmitter();
+        tweetFeed.subscribe(emitter, lastEventId);
+        return emitter;
+    }
+
+    private String eventId(String event) {
+        return event.substring("id:".length(), event.indexOf('\n'));
+    }
+
+    private Tweet tweet(Long id, String text) {
+        Tweet tweet = new Tweet();
+        tweet.setId(id);
+        tweet.setPublisher("Yo");
+        tweet.setTweet(text);
+        tweet.setPublishedTimestamp(new Timestamp(id * 1000));
+        return tweet;
+    }
+
+    private static class RecordingEmitter extends SseEmitter {
+        final List<String> events = new ArrayList<>();
+        boolean completed;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            events.add(builder.build().stream()
+                    .map(part -> part.getData() instanceof TweetDTO ? ((TweetDTO) part.getData()).getTweet() : String.valueOf(part.getData()))
+                    .collect(Collectors.joining()));
+        }
+
+        @Override
+        public synchronized void complete() {
+            completed = true;
+            super.complete();
+        }
+    }
+
+    /**
+     * Blocks every write until released, like a client that stopped reading
+     */
+    private static class BlockingEmitter extends RecordingEmitter {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release;
+
+        BlockingEmitter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            super.send(builder);
+        }
+    }
+
+    /**
+     * Runs dispatch tasks only when told, to control when subscribers are written to
+     */
+    private static class ManualExecutor extends ThreadPoolExecutor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        ManualExecutor() {
+            super(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    }
+}
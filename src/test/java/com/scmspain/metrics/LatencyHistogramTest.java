@@ -0,0 +1,51 @@
+package com.scmspain.metrics;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldKeepSmallValuesExact() throws Exception {
+        for (long value = 0; value < 32; value++) {
+            assertThat(LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(value))).isEqualTo(value);
+        }
+    }
+
+    @Test
+    public void shouldBoundTheRelativeError() throws Exception {
+        for (long value = 32; value < Long.MAX_VALUE / 3; value = value * 3 + 7) {
+            long bucketValue = LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(value));
+            assertThat(bucketValue).isGreaterThanOrEqualTo(value);
+            assertThat((double) (bucketValue - value) / value).isLessThan(1.0 / 32);
+        }
+    }
+
+    @Test
+    public void shouldComputePercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.drain();
+
+        assertThat(snapshot.getCount()).isEqualTo(1000);
+        assertThat((double) snapshot.getValueAtQuantile(0.5)).isCloseTo(500_000, within(500_000 / 32.0));
+        assertThat((double) snapshot.getValueAtQuantile(0.99)).isCloseTo(990_000, within(990_000 / 32.0));
+        assertThat((double) snapshot.getMax()).isCloseTo(1_000_000, within(1_000_000 / 32.0));
+    }
+
+    @Test
+    public void shouldResetOnDrain() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+
+        histogram.drain();
+
+        assertThat(histogram.drain().getCount()).isZero();
+        assertThat(LatencyHistogram.Snapshot.EMPTY.getValueAtQuantile(0.99)).isZero();
+    }
+}
@@ -0,0 +1,60 @@
+package com.scmspain.metrics;
+
+import com.zaxxer.hikari.metrics.MetricsTracker;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.writer.MetricWriter;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.mock;
+
+public class PoolMetricsTrackerFactoryTest {
+    private TweetMetrics tweetMetrics;
+    private MetricsTracker tracker;
+
+    @Before
+    public void setUp() throws Exception {
+        this.tweetMetrics = new TweetMetrics(mock(MetricWriter.class));
+        this.tracker = new PoolMetricsTrackerFactory(tweetMetrics).create("primary", new PoolStats(0) {
+            @Override
+            protected void update() {
+                this.activeConnections = 3;
+                this.idleConnections = 1;
+                this.totalConnections = 4;
+                this.pendingThreads = 7;
+            }
+        });
+    }
+
+    @Test
+    public void shouldExposePoolStatsAsGauges() throws Exception {
+        assertThat(tweetMetrics.metrics()).extracting("name", "value").contains(
+                tuple("pool.primary.active", 3L),
+                tuple("pool.primary.idle", 1L),
+                tuple("pool.primary.total", 4L),
+                tuple("pool.primary.pending", 7L));
+    }
+
+    @Test
+    public void shouldCountTimeouts() throws Exception {
+        tracker.recordConnectionTimeout();
+        tracker.recordConnectionTimeout();
+
+        assertThat(tweetMetrics.metrics()).extracting("name", "value").contains(tuple("pool.primary.timeouts", 2L));
+    }
+
+    @Test
+    public void shouldRecordAcquireAndUsageLatencies() throws Exception {
+        tracker.recordConnectionAcquiredNanos(TimeUnit.MILLISECONDS.toNanos(2));
+        tracker.recordConnectionUsageMillis(15);
+
+        tweetMetrics.flush();
+
+        assertThat(tweetMetrics.metrics()).extracting("name")
+                .contains("latency.pool.primary.acquire.p99", "latency.pool.primary.usage.p99");
+    }
+}
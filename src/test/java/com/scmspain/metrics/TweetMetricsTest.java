@@ -0,0 +1,90 @@
+package com.scmspain.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.actuate.metrics.writer.Delta;
+import org.springframework.boot.actuate.metrics.writer.MetricWriter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class TweetMetricsTest {
+    private MetricWriter metricWriter;
+    private TweetMetrics tweetMetrics;
+
+    @Before
+    public void setUp() throws Exception {
+        this.metricWriter = mock(MetricWriter.class);
+        this.tweetMetrics = new TweetMetrics(metricWriter);
+    }
+
+    @Test
+    public void shouldExportCounterDeltasOnFlush() throws Exception {
+        tweetMetrics.increment("published-tweets");
+        tweetMetrics.increment("published-tweets", 2);
+
+        tweetMetrics.flush();
+
+        ArgumentCaptor<Delta> delta = ArgumentCaptor.forClass(Delta.class);
+        verify(metricWriter).increment(delta.capture());
+        assertThat(delta.getValue().getName()).isEqualTo("published-tweets");
+        assertThat(delta.getValue().getValue()).isEqualTo(3L);
+    }
+
+    @Test
+    public void shouldNotExportUnchangedCounters() throws Exception {
+        tweetMetrics.increment("published-tweets");
+        tweetMetrics.flush();
+
+        tweetMetrics.flush();
+
+        verify(metricWriter).increment(any(Delta.class));
+    }
+
+    @Test
+    public void shouldExposeLatencyPercentilesOfTheLastInterval() throws Exception {
+        tweetMetrics.recordLatency("publish-tweet", 2000);
+
+        assertThat(tweetMetrics.metrics()).extracting("name").doesNotContain("latency.publish-tweet.p99");
+
+        tweetMetrics.flush();
+
+        assertThat(tweetMetrics.metrics()).extracting("name")
+                .contains("latency.publish-tweet.p50", "latency.publish-tweet.p99", "latency.publish-tweet.p999");
+        verify(metricWriter, atLeastOnce()).set(any(Metric.class));
+    }
+
+    @Test
+    public void shouldExposeCounterTotals() throws Exception {
+        tweetMetrics.increment("discarded-tweets", 4);
+        tweetMetrics.flush();
+        tweetMetrics.increment("discarded-tweets");
+
+        assertThat(tweetMetrics.metrics()).extracting("name", "value").contains(tuple("discarded-tweets", 5L));
+        verify(metricWriter, never()).set(any(Metric.class));
+    }
+
+    @Test
+    public void shouldSampleRegisteredGaugesWhenRead() throws Exception {
+        AtomicLong active = new AtomicLong(2);
+        tweetMetrics.gauge("pool.primary.active", active::get);
+        active.set(5);
+
+        assertThat(tweetMetrics.metrics()).extracting("name", "value").contains(tuple("pool.primary.active", 5L));
+
+        tweetMetrics.flush();
+
+        ArgumentCaptor<Metric> metric = ArgumentCaptor.forClass(Metric.class);
+        verify(metricWriter).set(metric.capture());
+        assertThat(metric.getValue().getValue()).isEqualTo(5L);
+    }
+}
@@ -0,0 +1,157 @@
+package com.scmspain.migration;
+
+import com.scmspain.cache.TimelineVersion;
+import com.scmspain.configuration.TestConfiguration;
+import com.scmspain.dtos.TweetDTO;
+import com.scmspain.events.TweetPublishedEvent;
+import com.scmspain.services.TweetService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestConfiguration.class, properties = {
+        "tweet.migration.enabled=true",
+        "tweet.migration.interval-millis=3600000",
+        "tweet.migration.range-size=2",
+        "tweet.migration.chunk-size=1",
+        "tweet.migration.max-chunks-per-second=0",
+        "tweet.timeline-cache.capacity=0"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class Pre2015MigrationJobTest {
+    private static final String INSERT_TWEET = "INSERT INTO tweet (id, publisher, tweet, pre2015migration_status, discarded, published_timestamp) VALUES (?, 'Yo', ?, ?, false, ?)";
+    private static final String TOO_LONG = new String(new char[200]).replace('\0', 'a');
+
+    @Autowired
+    private Pre2015MigrationJob migrationJob;
+    @Autowired
+    private TweetService tweetService;
+    @Autowired
+    private TimelineVersion timelineVersion;
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void setUp() throws Exception {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        dropCheckpoints();
+        jdbcTemplate.update(INSERT_TWEET, 1L, "Legacy 1", null, at(2014, 1));
+        jdbcTemplate.update(INSERT_TWEET, 2L, "Legacy 2", null, at(2014, 2));
+        jdbcTemplate.update(INSERT_TWEET, 3L, TOO_LONG, null, at(2014, 3));
+        jdbcTemplate.update(INSERT_TWEET, 4L, "Legacy 4", null, at(2014, 4));
+        jdbcTemplate.update(INSERT_TWEET, 5L, "Legacy 5", null, at(2014, 5));
+        jdbcTemplate.update(INSERT_TWEET, 6L, "New", 0L, at(2017, 1));
+    }
+
+    /**
+     * The in-memory database outlives the context and the checkpoint table is not dropped with the entity tables
+     */
+    @After
+    public void tearDown() throws Exception {
+        dropCheckpoints();
+    }
+
+    @Test
+    public void shouldListValidLegacyTweetsAndHideTheOthers() throws Exception {
+        assertThat(tweetService.listAllPublishedTweets()).extracting(TweetDTO::getId).containsExactly(6L);
+
+        migrationJob.run();
+
+        assertThat(tweetService.listAllPublishedTweets()).extracting(TweetDTO::getId).containsExactly(6L, 5L, 4L, 2L, 1L);
+        assertThat(status(3L)).isEqualTo(Pre2015Migration.STATUS_HIDDEN);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM tweet WHERE pre2015migration_status IS NULL", Long.class))
+                .isEqualTo(0L);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + Pre2015Migration.CHECKPOINT_TABLE + " WHERE next_id <= range_end", Long.class))
+                .isEqualTo(0L);
+    }
+
+    @Test
+    public void shouldNotPublishLegacyTweetsAlreadyDiscarded() throws Exception {
+        jdbcTemplate.update("DELETE FROM tweet WHERE id < 6");
+        jdbcTemplate.update("INSERT INTO tweet (id, publisher, tweet, discarded, published_timestamp, discarded_timestamp) VALUES (1, 'Yo', 'Legacy 1', true, ?, ?)",
+                at(2014, 1), at(2014, 2));
+        final String etag = timelineVersion.getETag();
+
+        migrationJob.run();
+
+        assertThat(status(1L)).isEqualTo(Pre2015Migration.STATUS_MIGRATED);
+        assertThat(tweetService.listAllPublishedTweets()).extracting(TweetDTO::getId).containsExactly(6L);
+        assertThat(tweetService.listAllDiscardedTweets()).extracting(TweetDTO::getId).containsExactly(1L);
+        assertThat(timelineVersion.getETag()).isNotEqualTo(etag);
+    }
+
+    @Test
+    public void shouldLoadTheListsAgainInsteadOfAnnouncingLegacyTweets() throws Exception {
+        final List<Object> announced = new CopyOnWriteArrayList<>();
+        context.addApplicationListener((ApplicationListener<ApplicationEvent>) event -> {
+            if (event instanceof PayloadApplicationEvent && ((PayloadApplicationEvent<?>) event).getPayload() instanceof TweetPublishedEvent) {
+                announced.add(((PayloadApplicationEvent<?>) event).getPayload());
+            }
+        });
+        assertThat(tweetService.listPublishedTweetsByPublisher("Yo")).extracting(TweetDTO::getId).containsExactly(6L);
+        final String etag = timelineVersion.getETag();
+
+        migrationJob.run();
+
+        assertThat(announced).isEmpty();
+        assertThat(timelineVersion.getETag()).isNotEqualTo(etag);
+        // the publisher cache dropped the list it had and reads it again
+        assertThat(tweetService.listPublishedTweetsByPublisher("Yo")).extracting(TweetDTO::getId).containsExactly(6L, 5L, 4L, 2L, 1L);
+    }
+
+    @Test
+    public void shouldResumeFromTheCheckpoints() throws Exception {
+        jdbcTemplate.execute("CREATE TABLE " + Pre2015Migration.CHECKPOINT_TABLE + " (range_start BIGINT NOT NULL PRIMARY KEY, range_end BIGINT NOT NULL, next_id BIGINT NOT NULL, updated_timestamp TIMESTAMP NOT NULL)");
+        jdbcTemplate.update("INSERT INTO " + Pre2015Migration.CHECKPOINT_TABLE + " VALUES (1, 5, 4, CURRENT_TIMESTAMP())");
+
+        migrationJob.run();
+
+        assertThat(status(2L)).isNull();
+        assertThat(status(4L)).isEqualTo(Pre2015Migration.STATUS_MIGRATED);
+        assertThat(status(5L)).isEqualTo(Pre2015Migration.STATUS_MIGRATED);
+    }
+
+    @Test
+    public void shouldPlanAgainOnceTheLastPlanIsDone() throws Exception {
+        migrationJob.run();
+        jdbcTemplate.update(INSERT_TWEET, 7L, "Legacy 7", null, at(2014, 6));
+
+        migrationJob.run();
+
+        assertThat(status(7L)).isEqualTo(Pre2015Migration.STATUS_MIGRATED);
+    }
+
+    private Long status(Long id) {
+        return jdbcTemplate.queryForObject("SELECT pre2015migration_status FROM tweet WHERE id = ?", Long.class, id);
+    }
+
+    private void dropCheckpoints() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + Pre2015Migration.CHECKPOINT_TABLE);
+    }
+
+    private Timestamp at(int year, int month) {
+        return Timestamp.valueOf(LocalDateTime.of(year, month, 1, 0, 0));
+    }
+}
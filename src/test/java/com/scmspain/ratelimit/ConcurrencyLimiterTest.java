@@ -0,0 +1,69 @@
+package com.scmspain.ratelimit;
+
+import com.scmspain.metrics.TweetMetrics;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.writer.MetricWriter;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.mock;
+
+public class ConcurrencyLimiterTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private TweetMetrics metrics;
+    private ConcurrencyLimiter limiter;
+
+    @Before
+    public void setUp() throws Exception {
+        this.metrics = new TweetMetrics(mock(MetricWriter.class));
+        this.limiter = new ConcurrencyLimiter(4, 2, 8, 100, 0.5, metrics);
+    }
+
+    @Test
+    public void shouldRefuseCallsOverTheLimit() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            assertThat(limiter.tryAcquire()).isTrue();
+        }
+
+        assertThat(limiter.tryAcquire()).isFalse();
+        assertThat(metrics.metrics()).extracting("name", "value").contains(
+                tuple(ConcurrencyLimiter.METRIC_IN_FLIGHT, 4L), tuple(ConcurrencyLimiter.METRIC_REJECTED, 1L));
+
+        limiter.release(0, FAST);
+        assertThat(limiter.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void shouldCutTheLimitOncePerRoundOfSlowCalls() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            limiter.tryAcquire();
+        }
+
+        // the four calls started together, only the first one to end slowly cuts the limit
+        for (int i = 0; i < 4; i++) {
+            limiter.release(0, SLOW);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(2);
+
+        limiter.tryAcquire();
+        limiter.release(SLOW + 1, 2 * SLOW + 1);
+        assertThat(limiter.getLimit()).isEqualTo(2);
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    public void shouldGrowTheLimitWhileCallsAreFast() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire();
+            limiter.release(0, FAST);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(8);
+        assertThat(metrics.metrics()).extracting("name", "value").contains(tuple(ConcurrencyLimiter.METRIC_LIMIT, 8L));
+    }
+}
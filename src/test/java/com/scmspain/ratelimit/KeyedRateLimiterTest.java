@@ -0,0 +1,105 @@
+package com.scmspain.ratelimit;
+
+import com.scmspain.metrics.TweetMetrics;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.writer.MetricWriter;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.mock;
+
+public class KeyedRateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private TweetMetrics metrics;
+    private KeyedRateLimiter limiter;
+
+    @Before
+    public void setUp() throws Exception {
+        this.metrics = new TweetMetrics(mock(MetricWriter.class));
+        this.limiter = new KeyedRateLimiter("client", 10, 5, 2, metrics, 0);
+    }
+
+    @Test
+    public void shouldAllowTheBurstAndThenTheRate() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            assertThat(limiter.tryAcquire("a", 0)).isZero();
+        }
+
+        assertThat(limiter.tryAcquire("a", 0)).isEqualTo(SECOND / 10);
+        assertThat(limiter.tryAcquire("a", SECOND / 10)).isZero();
+        assertThat(limiter.tryAcquire("a", SECOND / 10)).isPositive();
+        assertThat(metrics.metrics()).extracting("name", "value").contains(tuple("rate-limit.client.rejected", 2L));
+    }
+
+    @Test
+    public void shouldKeepKeysApart() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire("a", 0);
+        }
+
+        assertThat(limiter.tryAcquire("a", 0)).isPositive();
+        assertThat(limiter.tryAcquire("b", 0)).isZero();
+    }
+
+    @Test
+    public void shouldRefuseNewKeysWhileEveryBucketIsInUse() throws Exception {
+        limiter.tryAcquire("a", 0);
+        limiter.tryAcquire("b", 0);
+
+        assertThat(limiter.tryAcquire("c", 0)).isPositive();
+        assertThat(limiter.size()).isEqualTo(2);
+
+        // both buckets are full again a permit later, and make room for the new key
+        assertThat(limiter.tryAcquire("c", SECOND)).isZero();
+        assertThat(limiter.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldEvictOnlyFullBuckets() throws Exception {
+        limiter.tryAcquire("a", 0);
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire("b", 0);
+        }
+
+        limiter.evictIdle(SECOND / 10);
+
+        assertThat(limiter.size()).isEqualTo(1);
+        assertThat(metrics.metrics()).extracting("name", "value").contains(tuple("rate-limit.client.buckets", 1L));
+    }
+
+    @Test
+    public void shouldNotGrantMoreThanTheBurstToConcurrentCallers() throws Exception {
+        final KeyedRateLimiter slowLimiter = new KeyedRateLimiter("publisher", 0.001, 100, 10, metrics);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger granted = new AtomicInteger();
+
+        for (int thread = 0; thread < 8; thread++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int i = 0; i < 100; i++) {
+                    if (slowLimiter.tryAcquire("Prospect") == 0) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertThat(granted.get()).isEqualTo(100);
+    }
+}
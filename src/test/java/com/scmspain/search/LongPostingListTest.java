@@ -0,0 +1,57 @@
+package com.scmspain.search;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LongPostingListTest {
+    @Test
+    public void shouldKeepIdsSortedWhateverTheInsertionOrder() throws Exception {
+        LongPostingList ids = new LongPostingList();
+        for (long id : new long[]{5, 1, 9, 3, 7, 3, 11}) {
+            ids.add(id);
+        }
+
+        assertThat(contents(ids)).containsExactly(1L, 3L, 5L, 7L, 9L, 11L);
+        assertThat(ids.contains(7)).isTrue();
+        assertThat(ids.contains(8)).isFalse();
+    }
+
+    @Test
+    public void shouldRemoveIds() throws Exception {
+        LongPostingList ids = new LongPostingList();
+        ids.add(1);
+        ids.add(2);
+        ids.add(3);
+
+        assertThat(ids.remove(2)).isTrue();
+        assertThat(ids.remove(2)).isFalse();
+        assertThat(contents(ids)).containsExactly(1L, 3L);
+    }
+
+    @Test
+    public void shouldAppendListsOfLaterAndOverlappingIds() throws Exception {
+        LongPostingList ids = new LongPostingList();
+        ids.add(1);
+        ids.add(4);
+        LongPostingList later = new LongPostingList();
+        later.add(5);
+        later.add(8);
+        LongPostingList overlapping = new LongPostingList();
+        overlapping.add(2);
+        overlapping.add(9);
+
+        ids.append(later);
+        ids.append(overlapping);
+
+        assertThat(contents(ids)).containsExactly(1L, 2L, 4L, 5L, 8L, 9L);
+    }
+
+    private Long[] contents(LongPostingList ids) {
+        Long[] contents = new Long[ids.size()];
+        for (int i = 0; i < ids.size(); i++) {
+            contents[i] = ids.get(i);
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,45 @@
+package com.scmspain.search;
+
+import com.scmspain.configuration.TestConfiguration;
+import com.scmspain.dtos.TweetDTO;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.sql.DataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestConfiguration.class, properties = "tweet.search.rebuild-threads=3")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class TweetSearchIndexLoaderTest {
+    private static final String INSERT_TWEET = "INSERT INTO tweet (id, publisher, tweet, pre2015migration_status, discarded, published_timestamp) VALUES (?, 'Yo', ?, ?, ?, DATEADD('SECOND', ?, CURRENT_TIMESTAMP()))";
+
+    @Autowired
+    private TweetSearchIndexLoader loader;
+    @Autowired
+    private TweetSearchIndex searchIndex;
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    public void shouldRebuildFromThePublishedTweetsOfEveryRange() throws Exception {
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        for (long id = 1; id <= 10; id++) {
+            jdbcTemplate.update(INSERT_TWEET, id, "grog " + id, 0L, false, id);
+        }
+        jdbcTemplate.update(INSERT_TWEET, 11L, "discarded grog", 0L, true, 11L);
+        jdbcTemplate.update(INSERT_TWEET, 12L, "hidden grog", 99L, false, 12L);
+
+        loader.load();
+
+        assertThat(searchIndex.search("grog", 100)).extracting(TweetDTO::getId)
+                .containsExactly(10L, 9L, 8L, 7L, 6L, 5L, 4L, 3L, 2L, 1L);
+        assertThat(searchIndex.search("7", 100)).extracting(TweetDTO::getTweet).containsExactly("grog 7");
+    }
+}
@@ -0,0 +1,140 @@
+package com.scmspain.search;
+
+import com.scmspain.dtos.TweetDTO;
+import com.scmspain.entities.Tweet;
+import com.scmspain.events.TweetArchivedEvent;
+import com.scmspain.events.TweetDiscardedEvent;
+import com.scmspain.events.TweetPublishedEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TweetSearchIndexTest {
+    private TweetSearchIndex searchIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        this.searchIndex = new TweetSearchIndex();
+    }
+
+    @Test
+    public void shouldFindTweetsContainingEveryTermNewestFirst() throws Exception {
+        searchIndex.onTweetPublished(new TweetPublishedEvent(tweet(1L, 1000L, "Guybrush", "I am a mighty pirate")));
+        searchIndex.onTweetPublished(new TweetPublishedEvent(tweet(2L, 3000L, "LeChuck", "Mighty ghost pirate")));
+        searchIndex.onTweetPublished(new TweetPublishedEvent(tweet(3L, 2000L, "Elaine", "Pirates are not mighty")));
+
+        assertThat(ids(searchIndex.search("pirate MIGHTY", 10))).containsExactly(2L, 1L);
+        assertThat(ids(searchIndex.search("mighty", 10))).containsExactly(2L, 3L, 1L);
+        assertThat(searchIndex.search("mighty governor", 10)).isEmpty();
+    }
+
+    @Test
+    public void shouldMatchThePublisher() throws Exception {
+        searchIndex.onTweetPublished(new TweetPublishedEvent(tweet(1L, 1000L, "Guybrush Threepwood", "Look behind you")));
+
+        assertThat(ids(searchIndex.search("threepwood", 10))).containsExactly(1L);
+    }
+
+    @Test
+    public void shouldKeepOnlyTheNewestMatchesUpToTheLimit() throws Exception {
+        searchIndex.onTweetPublished(new TweetPublishedEvent(tweet(1L, 1000L, "Yo", "grog")));
+        searchIndex.onTweetPublished(new TweetPublishedEvent(tweet(2L, 4000L, "Yo", "grog")));
+        searchIndex.onTweetPublished(new TweetPublishedEvent(tweet(3L, 3000L, "Yo", "grog")));
+        searchIndex.onTweetPublished(new TweetPublishedEvent(tweet(4L, 2000L, "Yo", "grog")));
+
+        assertThat(ids(searchIndex.search("grog", 2))).containsExactly(2L, 3L);
+    }
+
+    @Test
+    public void shouldForgetDiscardedAndArchivedTweets() throws Exception {
+        searchIndex.onTweetPublished(new TweetPublishedEvent(tweet(1L, 1000L, "Yo", "grog machine")));
+        searchIndex.onTweetPublished(new TweetPublishedEvent(tweet(2L, 2000L, "Yo", "grog")));
+
+        searchIndex.onTweetDiscarded(new TweetDiscardedEvent(1L));
+        searchIndex.onTweetArchived(new TweetArchivedEvent(2L));
+
+        assertThat(searchIndex.search("grog", 10)).isEmpty();
+        assertThat(metric(TweetSearchIndex.METRIC_TERMS)).isEqualTo(0);
+        assertThat(metric(TweetSearchIndex.METRIC_DOCUMENTS)).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldRebuildFromSegments() throws Exception {
+        searchIndex.onTweetPublished(new TweetPublishedEvent(tweet(9L, 9000L, "Yo", "stale grog")));
+
+        final TweetSearchIndex.Segment first = new TweetSearchIndex.Segment();
+        first.add(1L, "Yo", "grog", 0L, new Timestamp(1000L));
+        first.add(2L, "Yo", "root beer", 0L, new Timestamp(2000L));
+        final TweetSearchIndex.Segment second = new TweetSearchIndex.Segment();
+        second.add(3L, "Yo", "more grog", 0L, new Timestamp(3000L));
+
+        searchIndex.rebuild(() -> Arrays.asList(first, second));
+
+        assertThat(ids(searchIndex.search("grog", 10))).containsExactly(3L, 1L);
+        assertThat(searchIndex.search("stale", 10)).isEmpty();
+        assertThat(metric(TweetSearchIndex.METRIC_DOCUMENTS)).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldKeepServingAndReplayChangesWhileRebuilding() throws Exception {
+        searchIndex.onTweetPublished(new TweetPublishedEvent(tweet(1L, 1000L, "Yo", "old grog")));
+        final List<Long> foundWhileLoading = new ArrayList<>();
+
+        searchIndex.rebuild(() -> {
+            final TweetSearchIndex.Segment segment = new TweetSearchIndex.Segment();
+            segment.add(1L, "Yo", "old grog", 0L, new Timestamp(1000L));
+            // committed while loading: one the loader missed and a discard of a loaded tweet
+            searchIndex.onTweetPublished(new TweetPublishedEvent(tweet(2L, 2000L, "Yo", "new grog")));
+            searchIndex.onTweetDiscarded(new TweetDiscardedEvent(1L));
+            try {
+                foundWhileLoading.addAll(ids(CompletableFuture.supplyAsync(() -> searchIndex.search("grog", 10))
+                        .get(1, TimeUnit.SECONDS)));
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+            return Collections.singletonList(segment);
+        });
+
+        assertThat(foundWhileLoading).containsExactly(2L);
+        assertThat(ids(searchIndex.search("grog", 10))).containsExactly(2L);
+        assertThat(metric(TweetSearchIndex.METRIC_DOCUMENTS)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldIgnoreQueriesWithoutTerms() throws Exception {
+        assertThat(TweetSearchIndex.hasTerms("!? ...")).isFalse();
+        assertThat(searchIndex.search("!? ...", 10)).isEmpty();
+    }
+
+    private Tweet tweet(Long id, long publishedAt, String publisher, String text) {
+        Tweet tweet = new Tweet();
+        tweet.setId(id);
+        tweet.setPublisher(publisher);
+        tweet.setTweet(text);
+        tweet.setPublishedTimestamp(new Timestamp(publishedAt));
+        return tweet;
+    }
+
+    private List<Long> ids(List<TweetDTO> tweets) {
+        return tweets.stream().map(TweetDTO::getId).collect(Collectors.toList());
+    }
+
+    private Object metric(String name) {
+        return searchIndex.metrics().stream()
+                .filter(metric -> metric.getName().equals(name))
+                .map(Metric::getValue)
+                .findFirst()
+                .orElse(null);
+    }
+}
@@ -0,0 +1,164 @@
+package com.scmspain.services;
+
+import com.scmspain.entities.Tweet;
+import com.scmspain.metrics.TweetMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class AsyncTweetPublisherTest {
+    private TweetMetrics metrics;
+    private TransactionTemplate transactionTemplate;
+    private List<Tweet> written;
+    private AsyncTweetPublisher asyncTweetPublisher;
+
+    @Before
+    public void setUp() throws Exception {
+        this.metrics = mock(TweetMetrics.class);
+        this.transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+        this.written = new CopyOnWriteArrayList<>();
+        this.asyncTweetPublisher = new AsyncTweetPublisher(true, 2, 10, 5000, transactionTemplate, metrics);
+        this.asyncTweetPublisher.setWriter(written::addAll);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        asyncTweetPublisher.stop();
+    }
+
+    @Test
+    public void shouldWriteQueuedTweetsBeforeStopping() throws Exception {
+        asyncTweetPublisher.start();
+
+        asyncTweetPublisher.enqueue(new Tweet());
+        asyncTweetPublisher.enqueue(new Tweet());
+        asyncTweetPublisher.stop();
+
+        assertThat(written).hasSize(2);
+        verify(metrics, atLeastOnce()).recordLatency(eq(AsyncTweetPublisher.LATENCY_FLUSH), anyLong());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void shouldRejectTweetsWhenNotRunning() throws Exception {
+        asyncTweetPublisher.enqueue(new Tweet());
+    }
+
+    @Test
+    public void shouldRejectTweetsWhenTheQueueIsFull() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        asyncTweetPublisher.setWriter(tweets -> {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        asyncTweetPublisher.start();
+
+        // the first tweet keeps the writer busy, the next two fill the queue
+        asyncTweetPublisher.enqueue(new Tweet());
+        writing.await();
+        asyncTweetPublisher.enqueue(new Tweet());
+        asyncTweetPublisher.enqueue(new Tweet());
+
+        try {
+            asyncTweetPublisher.enqueue(new Tweet());
+            throw new AssertionError("Expected the queue to be full");
+        } catch (RejectedExecutionException ex) {
+            assertThat(ex.getMessage()).contains("full");
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void shouldStopTakingTweetsOnceTheShutdownTimeoutExpires() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch writtenAfterTimeout = new CountDownLatch(1);
+        final AsyncTweetPublisher slow = new AsyncTweetPublisher(true, 2, 1, 50, transactionTemplate, metrics);
+        slow.setWriter(tweets -> {
+            if (writing.getCount() == 0) {
+                writtenAfterTimeout.countDown();
+            }
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        slow.start();
+
+        slow.enqueue(new Tweet());
+        writing.await();
+        slow.enqueue(new Tweet());
+        slow.enqueue(new Tweet());
+        slow.stop();
+        release.countDown();
+
+        assertThat(writtenAfterTimeout.await(500, TimeUnit.MILLISECONDS)).isFalse();
+    }
+
+    @Test
+    public void shouldWriteEveryTweetAcceptedWhileStopping() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final List<Tweet> persisted = new CopyOnWriteArrayList<>();
+            final AsyncTweetPublisher publisher = new AsyncTweetPublisher(true, 1000, 10, 5000, transactionTemplate, metrics);
+            publisher.setWriter(persisted::addAll);
+            publisher.start();
+
+            final AtomicInteger accepted = new AtomicInteger();
+            final CountDownLatch enqueuing = new CountDownLatch(1);
+            final CompletableFuture<?>[] enqueuers = new CompletableFuture<?>[4];
+            for (int i = 0; i < enqueuers.length; i++) {
+                enqueuers[i] = CompletableFuture.runAsync(() -> {
+                    enqueuing.countDown();
+                    while (true) {
+                        try {
+                            publisher.enqueue(new Tweet());
+                            accepted.incrementAndGet();
+                        } catch (RejectedExecutionException ex) {
+                            if (!publisher.isRunning()) {
+                                return;
+                            }
+                        }
+                    }
+                });
+            }
+            // stop while tweets are being enqueued, every accepted one must still be written
+            enqueuing.await();
+            publisher.stop();
+            CompletableFuture.allOf(enqueuers).get(1, TimeUnit.SECONDS);
+
+            assertThat(persisted).hasSize(accepted.get());
+        }
+    }
+
+    @Test
+    public void shouldDoNothingWhenDisabled() throws Exception {
+        AsyncTweetPublisher disabled = new AsyncTweetPublisher(false, 2, 10, 5000, transactionTemplate, metrics);
+        disabled.start();
+
+        assertThat(disabled.isRunning()).isFalse();
+    }
+}
@@ -1,23 +1,70 @@
 package com.scmspain.services;
 
+import com.scmspain.archive.TweetArchive;
+import com.scmspain.cache.EncodedPage;
+import com.scmspain.cache.PublisherTimelineCache;
+import com.scmspain.cache.TimelineCache;
+import com.scmspain.configuration.TweetProperties;
+import com.scmspain.dedup.TweetDeduplicator;
+import com.scmspain.dtos.TweetCursor;
 import com.scmspain.dtos.TweetDTO;
+import com.scmspain.dtos.TweetPage;
+import com.scmspain.dtos.TweetResultDTO;
 import com.scmspain.entities.Tweet;
+import com.scmspain.events.TweetDiscardedEvent;
+import com.scmspain.events.TweetPublishedEvent;
+import com.scmspain.events.TweetsImportedEvent;
+import com.scmspain.metrics.TweetMetrics;
+import com.scmspain.search.TweetSearchIndex;
+import com.scmspain.store.JpaTweetStore;
+import com.scmspain.store.TweetStore;
 import org.assertj.core.util.Lists;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
 import org.junit.Before;
 import org.junit.Test;
-import org.springframework.boot.actuate.metrics.writer.MetricWriter;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionAttribute;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import java.lang.reflect.Method;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
 public class TweetServiceTest {
     public static final long TWEET_ID = 892037429898L;
     private EntityManager entityManager;
-    private MetricWriter metricWriter;
+    private TweetMetrics metrics;
+    private ApplicationEventPublisher eventPublisher;
+    private TimelineCache timelineCache;
+    private AsyncTweetPublisher asyncTweetPublisher;
+    private TweetArchive tweetArchive;
+    private TweetSearchIndex searchIndex;
+    private PublisherTimelineCache publisherCache;
+    private TweetDeduplicator deduplicator;
+    private PlatformTransactionManager transactionManager;
+    private TransactionTemplate primaryReads;
     private TweetService tweetService;
     private Query mockedQuery;
     private TypedQuery mockedTypedQuery;
@@ -25,10 +72,19 @@ public class TweetServiceTest {
     @Before
     public void setUp() throws Exception {
         this.entityManager = mock(EntityManager.class);
-        this.metricWriter = mock(MetricWriter.class);
+        this.metrics = mock(TweetMetrics.class);
         this.mockedQuery = mock(Query.class);
         this.mockedTypedQuery = mock(TypedQuery.class);
-        this.tweetService = spy(new TweetService(entityManager, metricWriter));
+        this.eventPublisher = mock(ApplicationEventPublisher.class);
+        this.timelineCache = mock(TimelineCache.class);
+        this.asyncTweetPublisher = mock(AsyncTweetPublisher.class);
+        this.tweetArchive = mock(TweetArchive.class);
+        this.searchIndex = mock(TweetSearchIndex.class);
+        this.publisherCache = mock(PublisherTimelineCache.class);
+        this.deduplicator = mock(TweetDeduplicator.class);
+        this.transactionManager = mock(PlatformTransactionManager.class);
+        this.primaryReads = new TransactionTemplate(transactionManager);
+        this.tweetService = spy(new TweetService(new JpaTweetStore(entityManager, new TweetProperties()), metrics, new TweetProperties(), eventPublisher, timelineCache, asyncTweetPublisher, tweetArchive, searchIndex, publisherCache, deduplicator, primaryReads));
     }
 
     @Test
@@ -37,6 +93,70 @@ public class TweetServiceTest {
 
         verify(entityManager).persist(any(Tweet.class));
         verify(tweetService).metricIncrement(TweetService.METRIC_PUBLISHED_TWEETS);
+        verify(eventPublisher).publishEvent(any(TweetPublishedEvent.class));
+    }
+
+    @Test
+    public void shouldQueueANewTweetWhenPublishingAsynchronously() throws Exception {
+        when(asyncTweetPublisher.isEnabled()).thenReturn(true);
+
+        tweetService.publishTweet(new TweetDTO("Guybrush Threepwood", "I am Guybrush Threepwood, mighty pirate."));
+
+        verify(asyncTweetPublisher).enqueue(any(Tweet.class));
+        verify(entityManager, never()).persist(any(Tweet.class));
+        verify(tweetService).metricIncrement(TweetService.METRIC_PUBLISHED_TWEETS);
+    }
+
+    @Test
+    public void shouldInsertValidTweetsAndReportInvalidOnesInBulk() throws Exception {
+        List<TweetResultDTO> results = tweetService.publishTweets(Arrays.asList(
+                new TweetDTO("Guybrush Threepwood", "I am Guybrush Threepwood, mighty pirate."),
+                new TweetDTO("", "I am Guybrush Threepwood, mighty pirate."),
+                new TweetDTO("LeChuck", "Arrr!")));
+
+        verify(entityManager, times(2)).persist(any(Tweet.class));
+        verify(eventPublisher, times(2)).publishEvent(any(TweetPublishedEvent.class));
+        verify(tweetService).metricIncrement(TweetService.METRIC_PUBLISHED_TWEETS, 2);
+        assertThat(results).hasSize(3);
+        assertThat(results.get(0).getError()).isNull();
+        assertThat(results.get(1).getError()).isNotEmpty();
+        assertThat(results.get(1).getIndex()).isEqualTo(1);
+        assertThat(results.get(2).getError()).isNull();
+    }
+
+    @Test
+    public void shouldReportPublishersTooLongForTheColumnInBulk() throws Exception {
+        char[] publisher = new char[TweetService.PUBLISHER_MAX_LENGTH + 1];
+        Arrays.fill(publisher, 'a');
+
+        List<TweetResultDTO> results = tweetService.publishTweets(Arrays.asList(
+                new TweetDTO(new String(publisher), "Too long a name"),
+                new TweetDTO("LeChuck", "Arrr!")));
+
+        verify(entityManager, times(1)).persist(any(Tweet.class));
+        assertThat(results.get(0).getError()).contains(String.valueOf(TweetService.PUBLISHER_MAX_LENGTH));
+        assertThat(results.get(1).getError()).isNull();
+    }
+
+    @Test
+    public void shouldFlushBulkInsertsEveryBatch() throws Exception {
+        TweetProperties properties = new TweetProperties();
+        properties.getBulk().setBatchSize(2);
+        tweetService = new TweetService(new JpaTweetStore(entityManager, properties), metrics, properties, eventPublisher, timelineCache, asyncTweetPublisher, tweetArchive, searchIndex, publisherCache, deduplicator, primaryReads);
+
+        tweetService.publishTweets(Arrays.asList(
+                new TweetDTO("Yo", "Tweet 1"),
+                new TweetDTO("Yo", "Tweet 2"),
+                new TweetDTO("Yo", "Tweet 3")));
+
+        verify(entityManager, times(3)).persist(any(Tweet.class));
+        verify(entityManager, times(1)).flush();
+        verify(entityManager, times(1)).clear();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowAnExceptionWhenBulkIsEmpty() throws Exception {
+        tweetService.publishTweets(new ArrayList<>());
     }
 
     @Test
@@ -48,35 +168,277 @@ public class TweetServiceTest {
 
     @Test
     public void shouldDiscardATweet() throws Exception {
-        when(entityManager.createQuery(TweetService.UPDATE_TWEET_AS_DISCARDED)).thenReturn(mockedQuery);
+        when(entityManager.createQuery(JpaTweetStore.UPDATE_TWEET_AS_DISCARDED)).thenReturn(mockedQuery);
         when(mockedQuery.setParameter("id", TWEET_ID)).thenReturn(mockedQuery);
 
         tweetService.discardTweet(TWEET_ID);
 
         verify(tweetService).metricIncrement(TweetService.METRIC_DISCARDED_TWEETS);
-        verify(entityManager).createQuery(TweetService.UPDATE_TWEET_AS_DISCARDED);
+        verify(entityManager).createQuery(JpaTweetStore.UPDATE_TWEET_AS_DISCARDED);
         verify(mockedQuery).setParameter("id", TWEET_ID);
         verify(mockedQuery).executeUpdate();
     }
 
+    @Test
+    public void shouldDiscardTweetsInBulkReturningTheTransitionedOnes() throws Exception {
+        final long otherTweetId = TWEET_ID + 1;
+        when(entityManager.createQuery(JpaTweetStore.LOCK_TWEETS_TO_DISCARD, Long.class)).thenReturn(mockedTypedQuery);
+        when(mockedTypedQuery.setParameter(eq("ids"), any())).thenReturn(mockedTypedQuery);
+        when(mockedTypedQuery.setLockMode(LockModeType.PESSIMISTIC_WRITE)).thenReturn(mockedTypedQuery);
+        when(mockedTypedQuery.getResultList()).thenReturn(Lists.newArrayList(otherTweetId));
+        when(entityManager.createQuery(JpaTweetStore.UPDATE_TWEETS_AS_DISCARDED)).thenReturn(mockedQuery);
+        when(mockedQuery.setParameter(eq("ids"), any())).thenReturn(mockedQuery);
+
+        List<Long> discarded = tweetService.discardTweets(Arrays.asList(TWEET_ID, otherTweetId, otherTweetId));
+
+        assertThat(discarded).containsExactly(otherTweetId);
+        verify(mockedQuery).executeUpdate();
+        verify(tweetService).metricIncrement(TweetService.METRIC_DISCARDED_TWEETS, 1);
+        verify(eventPublisher).publishEvent(any(TweetDiscardedEvent.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowAnExceptionWhenBulkDiscardHasANullId() throws Exception {
+        tweetService.discardTweets(Arrays.asList(TWEET_ID, null));
+    }
+
+    @Test
+    public void shouldPublishAnEventWhenATweetIsDiscarded() throws Exception {
+        when(entityManager.createQuery(JpaTweetStore.UPDATE_TWEET_AS_DISCARDED)).thenReturn(mockedQuery);
+        when(mockedQuery.setParameter("id", TWEET_ID)).thenReturn(mockedQuery);
+        when(mockedQuery.executeUpdate()).thenReturn(1);
+
+        tweetService.discardTweet(TWEET_ID);
+
+        verify(eventPublisher).publishEvent(any(TweetDiscardedEvent.class));
+    }
+
+    @Test
+    public void shouldReturnListPublishedTweetsFromTimelineCache() throws Exception {
+        final int maxResults = new TweetProperties().getList().getMaxResults();
+        when(timelineCache.get(null, maxResults)).thenReturn(new TweetPage(Lists.emptyList(), null));
+
+        tweetService.listAllPublishedTweets();
+
+        verify(timelineCache).get(null, maxResults);
+        verify(entityManager, never()).createQuery(anyString(), eq(Object[].class));
+    }
+
+    @Test
+    public void shouldRefillTheTimelineCacheOnlyWhenItAskedForIt() throws Exception {
+        tweetService.refillTimelineCache();
+        verify(timelineCache, never()).refill();
+
+        when(timelineCache.isRefillNeeded()).thenReturn(true);
+        tweetService.refillTimelineCache();
+        verify(timelineCache).refill();
+    }
+
+    @Test
+    public void shouldReturnEncodedPublishedTweetsFromTimelineCache() throws Exception {
+        final int maxResults = new TweetProperties().getList().getMaxResults();
+        final EncodedPage encoded = mock(EncodedPage.class);
+        when(timelineCache.getEncoded(maxResults)).thenReturn(encoded);
+
+        assertThat(tweetService.getEncodedPublishedTweets(null)).isSameAs(encoded);
+        verify(tweetService).metricIncrement(TweetService.METRIC_TIMES_QUERIED_PUBLISHED_TWEETS);
+        verify(entityManager, never()).createQuery(anyString(), eq(Object[].class));
+    }
+
+    @Test
+    public void shouldNotCountEncodedPublishedTweetsWhenNotCached() throws Exception {
+        assertThat(tweetService.getEncodedPublishedTweets(10)).isNull();
+        verify(tweetService, never()).metricIncrement(TweetService.METRIC_TIMES_QUERIED_PUBLISHED_TWEETS);
+    }
+
     @Test
     public void shouldReturnListAllPublishedTweets() throws Exception {
-        when(entityManager.createQuery(TweetService.LIST_PUBLISHED_TWEETS, Tweet.class)).thenReturn(mockedTypedQuery);
+        when(entityManager.createQuery(JpaTweetStore.LIST_PUBLISHED_TWEETS, Object[].class)).thenReturn(mockedTypedQuery);
         when(mockedQuery.getResultList()).thenReturn(Lists.emptyList());
 
         tweetService.listAllPublishedTweets();
         verify(tweetService).metricIncrement(TweetService.METRIC_TIMES_QUERIED_PUBLISHED_TWEETS);
-        verify(entityManager).createQuery(TweetService.LIST_PUBLISHED_TWEETS, Tweet.class);
+        verify(entityManager).createQuery(JpaTweetStore.LIST_PUBLISHED_TWEETS, Object[].class);
     }
 
     @Test
     public void shouldReturnListAllDiscardedTweets() throws Exception {
-        when(entityManager.createQuery(TweetService.LIST_DISCARDED_TWEETS, Tweet.class)).thenReturn(mockedTypedQuery);
+        when(entityManager.createQuery(JpaTweetStore.LIST_DISCARDED_TWEETS, Object[].class)).thenReturn(mockedTypedQuery);
         when(mockedQuery.getResultList()).thenReturn(Lists.emptyList());
 
         tweetService.listAllDiscardedTweets();
         verify(tweetService).metricIncrement(TweetService.METRIC_TIMES_QUERIED_DISCARDED_TWEETS);
-        verify(entityManager).createQuery(TweetService.LIST_DISCARDED_TWEETS, Tweet.class);
+        verify(entityManager).createQuery(JpaTweetStore.LIST_DISCARDED_TWEETS, Object[].class);
+    }
+
+    @Test
+    public void shouldMergeRecentAndArchivedDiscardedTweets() throws Exception {
+        when(entityManager.createQuery(JpaTweetStore.LIST_DISCARDED_TWEETS, Object[].class)).thenReturn(mockedTypedQuery);
+        when(mockedTypedQuery.getResultList()).thenReturn(Arrays.asList(
+                new Object[]{4L, "Yo", "Recent", 0L, new Timestamp(4000L)},
+                new Object[]{2L, "Yo", "Late commit", 0L, new Timestamp(2000L)}));
+        when(tweetArchive.listDiscarded(null, 3)).thenReturn(Arrays.asList(
+                new Object[]{3L, "Yo", "Archived", 0L, new Timestamp(3000L)},
+                new Object[]{1L, "Yo", "Archived", 0L, new Timestamp(1000L)}));
+
+        final TweetPage page = tweetService.listDiscardedTweets(null, 2);
+
+        assertThat(page.getTweets()).extracting(TweetDTO::getId).containsExactly(4L, 3L);
+        assertThat(page.getNextCursor().getId()).isEqualTo(3L);
+        assertThat(page.getNextCursor().getTimestamp()).isEqualTo(new Timestamp(3000L));
+    }
+
+    @Test
+    public void shouldReturnPublisherTweetsFromPublisherCache() throws Exception {
+        final TweetPage cached = new TweetPage(Lists.emptyList(), null);
+        when(publisherCache.get("Yo", null, 10)).thenReturn(cached);
+
+        assertThat(tweetService.listPublishedTweetsByPublisher("Yo", null, 10)).isSameAs(cached);
+        verify(tweetService).metricIncrement(TweetService.METRIC_TIMES_QUERIED_PUBLISHER_TWEETS);
+        verify(entityManager, never()).createQuery(anyString(), eq(Object[].class));
+    }
+
+    @Test
+    public void shouldFillPublisherCacheWhenReadingTheFirstPage() throws Exception {
+        when(publisherCache.isEnabled()).thenReturn(true);
+        when(publisherCache.getCapacity()).thenReturn(2);
+        when(publisherCache.version("Yo")).thenReturn(7L);
+        when(entityManager.createQuery(JpaTweetStore.LIST_PUBLISHER_TWEETS, Object[].class)).thenReturn(mockedTypedQuery);
+        when(mockedTypedQuery.getResultList()).thenReturn(Arrays.asList(
+                new Object[]{3L, "Yo", "Third", 0L, new Timestamp(3000L)},
+                new Object[]{2L, "Yo", "Second", 0L, new Timestamp(2000L)},
+                new Object[]{1L, "Yo", "First", 0L, new Timestamp(1000L)}));
+
+        final TweetPage page = tweetService.listPublishedTweetsByPublisher("Yo", null, 1);
+
+        assertThat(page.getTweets()).extracting(TweetDTO::getId).containsExactly(3L);
+        assertThat(page.getNextCursor().getId()).isEqualTo(3L);
+        verify(mockedTypedQuery).setParameter("publisher", "Yo");
+        verify(mockedTypedQuery).setMaxResults(3);
+        final ArgumentCaptor<List> loaded = ArgumentCaptor.forClass(List.class);
+        verify(publisherCache).load(eq("Yo"), eq(7L), anyListOf(TweetCursor.class), loaded.capture());
+        assertThat(loaded.getValue()).hasSize(3);
+        // the rows the cache is filled with are read from the primary
+        verify(transactionManager).getTransaction(primaryReads);
+    }
+
+    @Test
+    public void shouldReadAsManyPublisherTweetsAsThePublisherCacheKeepsByDefault() throws Exception {
+        when(publisherCache.isEnabled()).thenReturn(true);
+        when(publisherCache.getCapacity()).thenReturn(2);
+        when(entityManager.createQuery(JpaTweetStore.LIST_PUBLISHER_TWEETS, Object[].class)).thenReturn(mockedTypedQuery);
+        when(mockedTypedQuery.getResultList()).thenReturn(Arrays.asList(
+                new Object[]{3L, "Yo", "Third", 0L, new Timestamp(3000L)},
+                new Object[]{2L, "Yo", "Second", 0L, new Timestamp(2000L)},
+                new Object[]{1L, "Yo", "First", 0L, new Timestamp(1000L)}));
+
+        final TweetPage page = tweetService.listPublishedTweetsByPublisher("Yo", null, null);
+
+        assertThat(page.getTweets()).extracting(TweetDTO::getId).containsExactly(3L, 2L);
+        verify(publisherCache).get("Yo", null, 2);
+        verify(mockedTypedQuery).setMaxResults(3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowAnExceptionWhenPublisherIsEmpty() throws Exception {
+        tweetService.listPublishedTweetsByPublisher("");
+    }
+
+    @Test
+    public void shouldReturnListPublishedTweetsAfterCursor() throws Exception {
+        final Timestamp timestamp = new Timestamp(System.currentTimeMillis());
+        when(entityManager.createQuery(JpaTweetStore.LIST_PUBLISHED_TWEETS_AFTER, Object[].class)).thenReturn(mockedTypedQuery);
+
+        tweetService.listPublishedTweets(new TweetCursor(timestamp, TWEET_ID), 10);
+
+        verify(mockedTypedQuery).setParameter("timestamp", timestamp);
+        verify(mockedTypedQuery).setParameter("id", TWEET_ID);
+        verify(mockedTypedQuery).setMaxResults(11);
+    }
+
+    @Test
+    public void shouldBuildTheNextCursorFromTheProjectedRows() throws Exception {
+        final Timestamp timestamp = new Timestamp(System.currentTimeMillis());
+        when(entityManager.createQuery(JpaTweetStore.LIST_PUBLISHED_TWEETS, Object[].class)).thenReturn(mockedTypedQuery);
+        when(mockedTypedQuery.getResultList()).thenReturn(Arrays.asList(
+                new Object[]{2L, "Yo", "Second", 0L, timestamp},
+                new Object[]{1L, "Yo", "First", 0L, timestamp}));
+
+        final TweetPage page = tweetService.listPublishedTweets(null, 1);
+
+        assertThat(page.getTweets()).hasSize(1);
+        assertThat(page.getTweets().get(0).getTweet()).isEqualTo("Second");
+        assertThat(page.getNextCursor().getTimestamp()).isEqualTo(timestamp);
+        assertThat(page.getNextCursor().getId()).isEqualTo(2L);
+    }
+
+    @Test
+    public void shouldCapListAllPublishedTweetsToMaxResults() throws Exception {
+        when(entityManager.createQuery(JpaTweetStore.LIST_PUBLISHED_TWEETS, Object[].class)).thenReturn(mockedTypedQuery);
+
+        tweetService.listAllPublishedTweets();
+
+        verify(mockedTypedQuery).setMaxResults(new TweetProperties().getList().getMaxResults() + 1);
+    }
+
+    @Test
+    public void shouldStreamPublishedTweetsAsProjections() throws Exception {
+        final Session session = mock(Session.class);
+        final org.hibernate.Query hibernateQuery = mock(org.hibernate.Query.class);
+        final ScrollableResults results = mock(ScrollableResults.class);
+        when(entityManager.unwrap(Session.class)).thenReturn(session);
+        when(session.createQuery(JpaTweetStore.LIST_PUBLISHED_TWEETS)).thenReturn(hibernateQuery);
+        when(hibernateQuery.setFetchSize(anyInt())).thenReturn(hibernateQuery);
+        when(hibernateQuery.scroll(ScrollMode.FORWARD_ONLY)).thenReturn(results);
+        when(results.next()).thenReturn(true, false);
+        when(results.get()).thenReturn(new Object[]{TWEET_ID, "Yo", "How are you?", 0L, new Timestamp(0)});
+
+        final List<TweetDTO> streamed = new ArrayList<>();
+        tweetService.streamPublishedTweets(streamed::add);
+
+        assertThat(streamed).hasSize(1);
+        assertThat(streamed.get(0).getId()).isEqualTo(TWEET_ID);
+        assertThat(streamed.get(0).getPublisher()).isEqualTo("Yo");
+        verify(session, never()).evict(any());
+        verify(results).close();
+    }
+
+    @Test
+    public void shouldExportTheArchiveAlongWithTheTweetTable() throws Exception {
+        final Consumer<Tweet> consumer = tweet -> { };
+
+        tweetService.exportTweets(consumer);
+
+        verify(tweetArchive).scanAll(consumer);
+        verify(entityManager, never()).unwrap(Session.class);
+    }
+
+    @Test
+    public void shouldAnnounceAnImportOnceInsteadOfEveryTweet() throws Exception {
+        final TweetStore store = mock(TweetStore.class);
+        tweetService = new TweetService(store, metrics, new TweetProperties(), eventPublisher, timelineCache, asyncTweetPublisher, tweetArchive, searchIndex, publisherCache, deduplicator, primaryReads);
+        final List<Tweet> tweets = Collections.singletonList(new Tweet());
+
+        tweetService.importTweets(tweets);
+        verify(store).restore(tweets);
+        verify(eventPublisher, never()).publishEvent(any());
+
+        tweetService.finishImport();
+        verify(eventPublisher).publishEvent(any(TweetsImportedEvent.class));
+    }
+
+    @Test
+    public void shouldListInReadOnlyTransactions() throws Exception {
+        assertThat(transactionAttribute("listPublishedTweets", TweetCursor.class, Integer.class).isReadOnly()).isTrue();
+        assertThat(transactionAttribute("listDiscardedTweets", TweetCursor.class, Integer.class).isReadOnly()).isTrue();
+        assertThat(transactionAttribute("streamPublishedTweets", Consumer.class).isReadOnly()).isTrue();
+        assertThat(transactionAttribute("publishTweet", TweetDTO.class).isReadOnly()).isFalse();
+        assertThat(transactionAttribute("discardTweet", Long.class).isReadOnly()).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowAnExceptionWhenListLimitIsLowerThanOne() throws Exception {
+        tweetService.listPublishedTweets(null, 0);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -84,6 +446,24 @@ public class TweetServiceTest {
         tweetService.discardTweet(null);
     }
 
+    @Test
+    public void shouldNotCountInvalidDiscards() throws Exception {
+        try {
+            tweetService.discardTweet(null);
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        verify(tweetService, never()).metricIncrement(TweetService.METRIC_DISCARDED_TWEETS);
+    }
+
+    @Test
+    public void shouldRecordPublishLatency() throws Exception {
+        tweetService.publishTweet(new TweetDTO("Guybrush Threepwood", "I am Guybrush Threepwood, mighty pirate."));
+
+        verify(metrics).recordLatency(eq(TweetService.LATENCY_PUBLISH_TWEET), anyLong());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void shouldThrowAnExceptionWhenTweetLengthIsInvalid() throws Exception {
         tweetService.publishTweet(new TweetDTO("Pirate", "LeChuck? He's the guy that went to the Governor's for dinner and never wanted to leave. He fell for her in a big way, but she told him to drop dead. So he did. Then things really got ugly."));
@@ -103,4 +483,24 @@ public class TweetServiceTest {
         validLink.append(" ");
         tweetService.publishTweet(new TweetDTO("Guybrush Threepwood", validLink.toString()));
     }
+
+    @Test
+    public void shouldSearchTheIndexUpToTheMaximumResults() throws Exception {
+        final int maxResults = new TweetProperties().getList().getMaxResults();
+        final List<TweetDTO> found = Collections.singletonList(new TweetDTO("Guybrush Threepwood", "mighty pirate"));
+        when(searchIndex.search("Pirate", maxResults)).thenReturn(found);
+
+        assertThat(tweetService.searchTweets("Pirate", maxResults + 1)).isSameAs(found);
+        verify(metrics).recordLatency(eq(TweetService.LATENCY_SEARCH_TWEETS), anyLong());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowAnExceptionWhenQueryHasNoWords() throws Exception {
+        tweetService.searchTweets(" ?! ", null);
+    }
+
+    private TransactionAttribute transactionAttribute(String methodName, Class<?>... parameterTypes) throws Exception {
+        final Method method = TweetService.class.getMethod(methodName, parameterTypes);
+        return new AnnotationTransactionAttributeSource().getTransactionAttribute(method, TweetService.class);
+    }
 }
@@ -0,0 +1,53 @@
+package com.scmspain.store;
+
+import com.scmspain.archive.TweetArchive;
+import com.scmspain.configuration.TestConfiguration;
+import com.scmspain.dtos.TweetDTO;
+import com.scmspain.migration.Pre2015MigrationJob;
+import com.scmspain.services.TweetService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the service on the log store, which must work without the database beans
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestConfiguration.class, properties = {
+        "tweet.store.type=log",
+        "tweet.store.directory=${java.io.tmpdir}/tweet-log-store-${random.uuid}"})
+@DirtiesContext
+public class LogStoreTransactionManagerTest {
+    @Autowired
+    private TweetService tweetService;
+    @Autowired
+    private ApplicationContext context;
+
+    @Test
+    public void shouldReplaceTheJpaTransactionsAndLeaveOutTheDatabaseJobs() throws Exception {
+        assertThat(context.getBean(PlatformTransactionManager.class)).isInstanceOf(LogStoreTransactionManager.class);
+        assertThat(context.getBeansOfType(TweetArchive.class)).isEmpty();
+        assertThat(context.getBeansOfType(Pre2015MigrationJob.class)).isEmpty();
+    }
+
+    @Test
+    public void shouldPublishAndDiscardWithoutTheArchive() throws Exception {
+        tweetService.publishTweet(new TweetDTO("Yo", "Kept in the log"));
+        tweetService.publishTweet(new TweetDTO("Yo", "Discarded from the log"));
+        final Long discardedId = tweetService.listAllPublishedTweets().get(0).getId();
+
+        assertThat(tweetService.discardTweets(Collections.singletonList(discardedId))).containsExactly(discardedId);
+
+        assertThat(tweetService.listAllPublishedTweets()).extracting(TweetDTO::getTweet).containsExactly("Kept in the log");
+        assertThat(tweetService.listAllDiscardedTweets()).extracting(TweetDTO::getId).containsExactly(discardedId);
+    }
+}
@@ -0,0 +1,228 @@
+package com.scmspain.store;
+
+import com.scmspain.dtos.TweetCursor;
+import com.scmspain.entities.Tweet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LogTweetStoreTest {
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private LogTweetStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.getRoot().toPath();
+        store = new LogTweetStore(directory, SEGMENT_SIZE, false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    @Test
+    public void shouldAssignIdsAndListNewestFirst() throws Exception {
+        List<Tweet> tweets = tweets("Guybrush", "LeChuck", "Guybrush");
+
+        store.save(tweets);
+
+        assertThat(tweets).extracting(Tweet::getId).containsExactly(1L, 2L, 3L);
+        assertThat(tweets.get(2).getPublishedTimestamp()).isAfter(tweets.get(1).getPublishedTimestamp());
+        assertThat(ids(store.listPublished(null, 10))).containsExactly(3L, 2L, 1L);
+        assertThat(ids(store.listPublishedByPublisher("Guybrush", null, 10))).containsExactly(3L, 1L);
+    }
+
+    @Test
+    public void shouldPageFromCursor() throws Exception {
+        store.save(tweets("Yo", "Yo", "Yo"));
+
+        List<Object[]> first = store.listPublished(null, 2);
+        Object[] last = first.get(1);
+
+        assertThat(ids(first)).containsExactly(3L, 2L);
+        assertThat(ids(store.listPublished(new TweetCursor((Timestamp) last[4], (Long) last[0]), 2))).containsExactly(1L);
+    }
+
+    @Test
+    public void shouldDiscardOnlyPublishedTweets() throws Exception {
+        store.save(tweets("Yo", "Yo", "Yo"));
+
+        assertThat(store.discard(2L)).isTrue();
+        assertThat(store.discard(2L)).isFalse();
+        assertThat(store.discard(7L)).isFalse();
+        assertThat(store.discard(Arrays.asList(1L, 2L))).containsExactly(1L);
+
+        assertThat(ids(store.listPublished(null, 10))).containsExactly(3L);
+        assertThat(ids(store.listDiscarded(null, 10))).containsExactly(1L, 2L);
+        assertThat(store.find(2L).getDiscarded()).isTrue();
+        assertThat(store.find(2L).getDiscardedTimestamp()).isNotNull();
+        assertThat(store.publishedIdRange()).containsExactly(3L, 3L);
+    }
+
+    @Test
+    public void shouldFindRecentPublishedTweetsByPublisherAndText() throws Exception {
+        store.save(tweets("Guybrush", "LeChuck"));
+        Timestamp first = store.find(1L).getPublishedTimestamp();
+        Timestamp second = store.find(2L).getPublishedTimestamp();
+
+        assertThat(store.existsPublished("Guybrush", "Tweet of Guybrush", first)).isTrue();
+        assertThat(store.existsPublished("Guybrush", "Tweet of LeChuck", first)).isFalse();
+        assertThat(store.existsPublished("Guybrush", "Tweet of Guybrush", second)).isFalse();
+
+        store.discard(1L);
+
+        assertThat(store.existsPublished("Guybrush", "Tweet of Guybrush", first)).isFalse();
+    }
+
+    @Test
+    public void shouldPageDiscardedTweetsFromCursor() throws Exception {
+        store.save(tweets("Yo", "Yo", "Yo"));
+        store.discard(Arrays.asList(3L, 1L, 2L));
+
+        List<Object[]> first = store.listDiscarded(null, 2);
+        Object[] last = first.get(1);
+
+        assertThat(ids(first)).containsExactly(2L, 1L);
+        assertThat(ids(store.listDiscarded(new TweetCursor((Timestamp) last[4], (Long) last[0]), 2))).containsExactly(3L);
+    }
+
+    @Test
+    public void shouldRecoverTweetsAndDiscardsOnReopen() throws Exception {
+        store.save(tweets("Yo", "Yo", "Yo"));
+        store.discard(2L);
+        store.close();
+
+        store = new LogTweetStore(directory, SEGMENT_SIZE, false);
+
+        assertThat(ids(store.listPublished(null, 10))).containsExactly(3L, 1L);
+        assertThat(ids(store.listDiscarded(null, 10))).containsExactly(2L);
+
+        List<Tweet> next = tweets("Yo");
+        store.save(next);
+        assertThat(next.get(0).getId()).isEqualTo(4L);
+    }
+
+    @Test
+    public void shouldDropATornRecordOnReopen() throws Exception {
+        store.save(tweets("Yo", "Yo"));
+        store.close();
+
+        Path segment = Files.list(directory).sorted().findFirst().get();
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            // a length written without its record, as left by a crash in the middle of an append
+            file.seek(lastRecordEnd(segment));
+            file.writeInt(300);
+            file.writeLong(42L);
+        }
+
+        store = new LogTweetStore(directory, SEGMENT_SIZE, false);
+        List<Tweet> next = tweets("Yo");
+        store.save(next);
+        store.close();
+        store = new LogTweetStore(directory, SEGMENT_SIZE, false);
+
+        assertThat(next.get(0).getId()).isEqualTo(3L);
+        assertThat(ids(store.listPublished(null, 10))).containsExactly(3L, 2L, 1L);
+    }
+
+    @Test
+    public void shouldRollToANewSegmentWhenFull() throws Exception {
+        List<String> publishers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            publishers.add("Publisher " + i);
+        }
+
+        store.save(tweets(publishers.toArray(new String[0])));
+        store.close();
+        store = new LogTweetStore(directory, SEGMENT_SIZE, false);
+
+        assertThat(Files.list(directory).count()).isGreaterThan(1);
+        assertThat(store.listPublished(null, 1000)).hasSize(100);
+        assertThat(store.find(1L).getPublisher()).isEqualTo("Publisher 0");
+    }
+
+    @Test
+    public void shouldScanRangesInIdOrder() throws Exception {
+        store.save(tweets("Yo", "Yo", "Yo", "Yo"));
+        store.discard(3L);
+
+        List<Long> scanned = new ArrayList<>();
+        store.scanPublished(2L, 4L, row -> scanned.add((Long) row[0]));
+
+        assertThat(scanned).containsExactly(2L, 4L);
+    }
+
+    @Test
+    public void shouldRestoreTimestampsAndDiscardsInOrder() throws Exception {
+        List<Tweet> tweets = tweets("Yo", "Yo", "Yo");
+        tweets.get(0).setPublishedTimestamp(new Timestamp(1000L));
+        tweets.get(1).setPublishedTimestamp(new Timestamp(2000L));
+        tweets.get(2).setPublishedTimestamp(new Timestamp(3000L));
+        tweets.get(0).setDiscarded(true);
+        tweets.get(0).setDiscardedTimestamp(new Timestamp(5000L));
+        tweets.get(1).setDiscarded(true);
+        tweets.get(1).setDiscardedTimestamp(new Timestamp(4000L));
+
+        store.restore(tweets);
+
+        assertThat(ids(store.listPublished(null, 10))).containsExactly(3L);
+        assertThat(ids(store.listDiscarded(null, 10))).containsExactly(1L, 2L);
+        assertThat(store.find(1L).getPublishedTimestamp()).isEqualTo(new Timestamp(1000L));
+        assertThat(store.find(1L).getDiscardedTimestamp()).isEqualTo(new Timestamp(5000L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotRestoreTweetsOlderThanTheLog() throws Exception {
+        store.save(tweets("Yo"));
+
+        List<Tweet> old = tweets("Yo");
+        old.get(0).setPublishedTimestamp(new Timestamp(1000L));
+        store.restore(old);
+    }
+
+    private long lastRecordEnd(Path segment) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "r")) {
+            long offset = 0;
+            int length;
+            while ((length = file.readInt()) > 0) {
+                offset += Integer.BYTES + length + Integer.BYTES;
+                file.seek(offset);
+            }
+            return offset;
+        }
+    }
+
+    private List<Tweet> tweets(String... publishers) {
+        List<Tweet> tweets = new ArrayList<>();
+        for (String publisher : publishers) {
+            Tweet tweet = new Tweet();
+            tweet.setPublisher(publisher);
+            tweet.setTweet("Tweet of " + publisher);
+            tweets.add(tweet);
+        }
+        return tweets;
+    }
+
+    private List<Long> ids(List<Object[]> rows) {
+        return rows.stream().map(row -> (Long) row[0]).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,102 @@
+package com.scmspain.tracing;
+
+import com.scmspain.configuration.TestConfiguration;
+import com.scmspain.metrics.TweetMetrics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.actuate.metrics.writer.MetricWriter;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = TestConfiguration.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class RequestTracingFilterTest {
+    @Autowired
+    private WebApplicationContext context;
+    @Autowired
+    private RequestTracingFilter filter;
+    @Autowired
+    private TweetMetrics tweetMetrics;
+    private MockMvc mockMvc;
+
+    @Before
+    public void setUp() {
+        this.mockMvc = webAppContextSetup(this.context).addFilters(this.filter).build();
+    }
+
+    @Test
+    public void shouldCountTheStatementsAndRowsOfEachRequest() throws Exception {
+        mockMvc.perform(post("/tweet")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content("{\"publisher\": \"Prospect\", \"tweet\": \"Breaking the law\"}"))
+                .andExpect(status().is(201));
+        mockMvc.perform(get("/tweet").param("publisher", "Prospect"))
+                .andExpect(status().is(200));
+
+        tweetMetrics.flush();
+
+        assertThat(tweetMetrics.metrics()).extracting("name", "value").contains(tuple(RequestTracingFilter.METRIC_REQUESTS, 2L));
+        assertThat(value(RequestTracingFilter.METRIC_STATEMENTS)).isGreaterThanOrEqualTo(2);
+        assertThat(value(RequestTracingFilter.METRIC_ROWS)).isEqualTo(1);
+        assertThat(tweetMetrics.metrics()).extracting("name").contains(
+                "latency.request.total.p99", "latency.request.service.p99", "latency.request.store.p99",
+                "latency.request.query.p99", "latency.request.convert.p99", "latency.request.serialize.p99");
+    }
+
+    @Test
+    public void shouldCountSlowRequestsAndAttributeTheTimeAfterTheResponseStartToSerialization() throws Exception {
+        final TweetMetrics metrics = new TweetMetrics(mock(MetricWriter.class));
+        final RequestTracingFilter slowFilter = new RequestTracingFilter(true, 0, 1, metrics);
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/tweet");
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        slowFilter.doFilter(request, response, (servletRequest, servletResponse) -> {
+            RequestTrace.record(RequestTrace.Phase.STORE, TimeUnit.MILLISECONDS.toNanos(3));
+            RequestTrace.addStatement();
+            RequestTrace.addRows(3);
+            RequestTrace.markResponse();
+        });
+        metrics.flush();
+
+        assertThat(metrics.metrics()).extracting("name", "value").contains(
+                tuple(RequestTracingFilter.METRIC_SLOW, 1L),
+                tuple(RequestTracingFilter.METRIC_STATEMENTS, 1L),
+                tuple(RequestTracingFilter.METRIC_ROWS, 3L),
+                tuple("latency.request.store.count", 1L),
+                tuple("latency.request.serialize.count", 1L));
+        assertThat(metrics.metrics()).extracting("name").doesNotContain("latency.request.query.count");
+
+        // outside of a request the trace is gone
+        RequestTrace.addRows(5);
+        assertThat(metrics.metrics()).extracting("name", "value").contains(tuple(RequestTracingFilter.METRIC_ROWS, 3L));
+    }
+
+    private long value(final String name) {
+        return tweetMetrics.metrics().stream()
+                .filter(metric -> metric.getName().equals(name))
+                .map(Metric::getValue)
+                .findFirst()
+                .orElseThrow(AssertionError::new)
+                .longValue();
+    }
+}
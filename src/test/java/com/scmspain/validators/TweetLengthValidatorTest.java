@@ -0,0 +1,67 @@
+package com.scmspain.validators;
+
+import com.scmspain.services.TweetService;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TweetLengthValidatorTest {
+    private static final int SAMPLES = 20000;
+    // fragments biased towards link edge cases: schemes, word boundaries, every kind of whitespace and non-ASCII text
+    private static final String[] FRAGMENTS = {
+            "http://", "https://", "http:/", "https:", "httpx://", "h", "s", ":", "/", "x", "_", "9", ".",
+            " ", " ", "\t", "\n", "\r", "\u000B", "\f", "\u00A0", "\u00F1", "\u0301", "(", ")", "www.schibsted.es",
+            "\uD835\uDC9C"
+    };
+
+    @Test
+    public void shouldIgnoreLinksFollowedByASpace() throws Exception {
+        assertThat(TweetLengthValidator.effectiveLength("Hey http://foogle.co ", Integer.MAX_VALUE)).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldCountLinksNotFollowedByASpace() throws Exception {
+        assertThat(TweetLengthValidator.effectiveLength("Hey http://foogle.co", Integer.MAX_VALUE)).isEqualTo(20);
+    }
+
+    @Test
+    public void shouldCountLinksNotStartingAtAWordBoundary() throws Exception {
+        assertThat(TweetLengthValidator.effectiveLength("pagehttp://foogle.co ", Integer.MAX_VALUE)).isEqualTo(21);
+    }
+
+    @Test
+    public void shouldStopCountingOnceTheLimitIsExceeded() throws Exception {
+        assertThat(TweetLengthValidator.effectiveLength("0123456789", 3)).isEqualTo(4);
+        assertThat(TweetLengthValidator.exceedsMaxLength("0123456789", 10)).isFalse();
+        assertThat(TweetLengthValidator.exceedsMaxLength("0123456789", 9)).isTrue();
+    }
+
+    @Test
+    public void shouldMatchTheLinkPatternOnRandomTweets() throws Exception {
+        final Random random = new Random(140L);
+
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            final String tweet = randomTweet(random);
+            final int expected = tweet.replaceAll(TweetService.LINK_PATTERN, "").length();
+
+            assertThat(TweetLengthValidator.effectiveLength(tweet, Integer.MAX_VALUE))
+                    .as("effective length of '%s'", tweet)
+                    .isEqualTo(expected);
+            assertThat(TweetLengthValidator.exceedsMaxLength(tweet, TweetService.TWEET_MAX_LENGTH))
+                    .as("max length of '%s'", tweet)
+                    .isEqualTo(expected > TweetService.TWEET_MAX_LENGTH);
+        }
+    }
+
+    private String randomTweet(final Random random) {
+        final StringBuilder tweet = new StringBuilder();
+        final int fragments = random.nextInt(60);
+
+        for (int i = 0; i < fragments; i++) {
+            tweet.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return tweet.toString();
+    }
+}